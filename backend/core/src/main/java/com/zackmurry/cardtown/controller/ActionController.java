@@ -1,6 +1,6 @@
 package com.zackmurry.cardtown.controller;
 
-import com.zackmurry.cardtown.exception.BadRequestException;
+import com.zackmurry.cardtown.model.action.ActionCursor;
 import com.zackmurry.cardtown.model.action.ResponseAction;
 import com.zackmurry.cardtown.service.ActionService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -19,17 +19,9 @@ public class ActionController {
     private ActionService actionService;
 
     @GetMapping("/recent")
-    public List<ResponseAction> getRecentActions(@RequestParam(required = false) String page) {
-        // page is 0-based
-        int pageNum = 0;
-        if (page != null) {
-            try {
-                pageNum = Integer.parseInt(page);
-            } catch (NumberFormatException e) {
-                throw new BadRequestException("Page parameter is invalid");
-            }
-        }
-        return actionService.getRecentActions(pageNum);
+    public List<ResponseAction> getRecentActions(@RequestParam(required = false) String cursor) {
+        // cursor is the cursor of the last action of the previous page. Leave it out for the first page
+        return actionService.getRecentActions(cursor != null ? ActionCursor.decode(cursor) : null);
     }
 
 }
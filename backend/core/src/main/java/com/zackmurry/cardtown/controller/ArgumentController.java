@@ -2,33 +2,46 @@ package com.zackmurry.cardtown.controller;
 
 import com.zackmurry.cardtown.exception.BadRequestException;
 import com.zackmurry.cardtown.model.CountResponse;
+import com.zackmurry.cardtown.model.EntityVersion;
 import com.zackmurry.cardtown.model.analytic.AnalyticCreateRequest;
 import com.zackmurry.cardtown.model.analytic.AnalyticUpdateRequest;
 import com.zackmurry.cardtown.model.analytic.ResponseAnalytic;
 import com.zackmurry.cardtown.model.arg.ArgumentCreateRequest;
-import com.zackmurry.cardtown.model.arg.ArgumentPreview;
+import com.zackmurry.cardtown.model.arg.ArgumentItemOrderRequest;
 import com.zackmurry.cardtown.model.arg.ArgumentRenameRequest;
 import com.zackmurry.cardtown.model.arg.ResponseArgument;
 import com.zackmurry.cardtown.model.arg.card.IdHolder;
 import com.zackmurry.cardtown.model.arg.card.ReorderCardsInArgumentRequest;
 import com.zackmurry.cardtown.model.arg.card.ResponseArgumentCard;
 import com.zackmurry.cardtown.service.ArgumentService;
+import com.zackmurry.cardtown.util.StreamingJsonWriter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.lang.NonNull;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
-import java.util.List;
 
 @RequestMapping("/api/v1/arguments")
 @RestController
 public class ArgumentController {
 
+    // Clients may keep responses, but have to check that they're still current (with ETag or Last-Modified) before using them
+    private static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
+
     @Autowired
     private ArgumentService argumentService;
 
+    @Autowired
+    private StreamingJsonWriter streamingJsonWriter;
+
     /**
      * @return a string containing the id of the new card (compressed in base64)
      */
@@ -38,12 +51,17 @@ public class ArgumentController {
     }
 
     @GetMapping("/id/**")
-    public ResponseArgument getArgumentById(HttpServletRequest request) {
-        final String cardId = request.getRequestURI().split("/api/v1/arguments/id/")[1];
-        if (cardId == null) {
+    public ResponseEntity<ResponseArgument> getArgumentById(HttpServletRequest request, WebRequest webRequest) {
+        final String argumentId = request.getRequestURI().split("/api/v1/arguments/id/")[1];
+        if (argumentId == null) {
             throw new BadRequestException();
         }
-        return argumentService.getResponseArgumentById(cardId);
+        // Read before the content, so that a change in between makes the client's copy look stale instead of current
+        final EntityVersion version = argumentService.getArgumentVersionById(argumentId);
+        if (webRequest.checkNotModified(version.getETag(), version.getLastModified())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).cacheControl(REVALIDATE).build();
+        }
+        return ResponseEntity.ok().cacheControl(REVALIDATE).body(argumentService.getResponseArgumentById(argumentId));
     }
 
     @PostMapping("/id/{id}/cards")
@@ -56,8 +74,8 @@ public class ArgumentController {
     }
 
     @GetMapping("")
-    public List<ArgumentPreview> getArgumentsByUser(@RequestParam(required = false) boolean showDeleted) {
-        return argumentService.listArgumentsByUser(showDeleted);
+    public void getArgumentsByUser(@RequestParam(required = false) boolean showDeleted, HttpServletResponse response) throws IOException {
+        streamingJsonWriter.writeArray(response, consumer -> argumentService.forEachArgumentPreviewByUser(showDeleted, consumer));
     }
 
     @GetMapping("/count")
@@ -95,6 +113,16 @@ public class ArgumentController {
         argumentService.updateItemPosition(id, reorderRequest.getNewIndex(), reorderRequest.getOldIndex());
     }
 
+    /**
+     * Replaces the order of every item in an argument at once
+     *
+     * @return The new version of the argument's items
+     */
+    @PutMapping("/id/{id}/items")
+    public int updateArgumentItemOrder(@PathVariable String id, @NonNull @RequestBody ArgumentItemOrderRequest orderRequest) {
+        return argumentService.updateItemOrder(id, orderRequest);
+    }
+
     @PostMapping("/id/{id}/restore")
     public void restoreArgumentById(@PathVariable String id) {
         argumentService.restoreArgumentById(id);
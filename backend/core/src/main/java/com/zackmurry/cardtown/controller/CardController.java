@@ -2,32 +2,54 @@ package com.zackmurry.cardtown.controller;
 
 import com.zackmurry.cardtown.exception.BadRequestException;
 import com.zackmurry.cardtown.model.CountResponse;
+import com.zackmurry.cardtown.model.EntityVersion;
 import com.zackmurry.cardtown.model.arg.card.ArgumentWithCardModel;
 import com.zackmurry.cardtown.model.auth.UserModel;
 import com.zackmurry.cardtown.model.card.CardCreateRequest;
-import com.zackmurry.cardtown.model.card.CardPreview;
+import com.zackmurry.cardtown.model.card.CardImportResponse;
+import com.zackmurry.cardtown.model.card.CardSyncResponse;
 import com.zackmurry.cardtown.model.card.ResponseCard;
 import com.zackmurry.cardtown.service.ArgumentService;
+import com.zackmurry.cardtown.service.CardImportService;
 import com.zackmurry.cardtown.service.CardService;
+import com.zackmurry.cardtown.util.StreamingJsonWriter;
 import org.apache.tomcat.util.codec.binary.Base64;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.lang.NonNull;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.util.List;
 
 @RequestMapping("/api/v1/cards")
 @RestController
 public class CardController {
 
+    // Responses may be kept by the client, but only used after revalidating them
+    private static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
+
+    private static final String NDJSON_VALUE = "application/x-ndjson";
+
     @Autowired
     private CardService cardService;
 
     @Autowired
     private ArgumentService argumentService;
 
+    @Autowired
+    private CardImportService cardImportService;
+
+    @Autowired
+    private StreamingJsonWriter streamingJsonWriter;
+
     // todo switch a lot of controller methods to @Valid for validation
     @GetMapping("/auth-test")
     public String authTest() {
@@ -35,18 +57,23 @@ public class CardController {
     }
 
     @GetMapping("/previews")
-    public List<CardPreview> getCardPreviewsByUser() {
-        return cardService.getCardPreviewsByUser();
+    public void getCardPreviewsByUser(HttpServletResponse response) throws IOException {
+        streamingJsonWriter.writeArray(response, cardService::forEachCardPreviewByUser);
     }
 
     // todo use path variables for this now that ids are url compatible
     @GetMapping("/id/**")
-    public ResponseCard getCardById(HttpServletRequest request) {
+    public ResponseEntity<ResponseCard> getCardById(HttpServletRequest request, WebRequest webRequest) {
         final String cardId = request.getRequestURI().split("/api/v1/cards/id/")[1];
         if (cardId == null) {
             throw new BadRequestException();
         }
-        return cardService.getResponseCardById(cardId);
+        // Checked before the card is read and decrypted, which is what makes a 304 cheap
+        final EntityVersion version = cardService.getCardVersionById(cardId);
+        if (webRequest.checkNotModified(version.getETag(), version.getLastModified())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).cacheControl(REVALIDATE).build();
+        }
+        return ResponseEntity.ok().cacheControl(REVALIDATE).body(cardService.getResponseCardById(cardId));
     }
 
     /**
@@ -58,9 +85,38 @@ public class CardController {
         return cardService.createCard(request);
     }
 
+    /**
+     * Imports many cards at once. The body is a JSON array of cards or newline-delimited JSON (one card per line).
+     * Cards are owned by the principal
+     *
+     * @return The ids of the imported cards and the errors of the cards that weren't imported
+     */
+    @PostMapping(value = "/import", consumes = { MediaType.APPLICATION_JSON_VALUE, NDJSON_VALUE })
+    public CardImportResponse importCards(HttpServletRequest request) throws IOException {
+        return cardImportService.importCards(request.getInputStream());
+    }
+
     @GetMapping("")
-    public List<ResponseCard> getAllCardsByUser(@RequestParam(required = false) boolean showDeleted) {
-        return cardService.getAllCardsVisibleToUser(showDeleted);
+    public void getAllCardsByUser(@RequestParam(required = false) boolean showDeleted, HttpServletResponse response) throws IOException {
+        streamingJsonWriter.writeArray(response, consumer -> cardService.forEachCardVisibleToUser(showDeleted, consumer));
+    }
+
+    /**
+     * @param since Watermark returned by the last sync, or 0 to get every card
+     */
+    @GetMapping("/sync")
+    public CardSyncResponse syncCards(@RequestParam(required = false, defaultValue = "0") long since) {
+        return cardService.syncCards(since);
+    }
+
+    /**
+     * @param q     Words to search for in the tags, cites, and body text of cards
+     * @param limit Maximum number of results (at most 200)
+     * @return Ids of the matching cards, best match first
+     */
+    @GetMapping("/search")
+    public List<String> searchCards(@RequestParam String q, @RequestParam(required = false, defaultValue = "50") int limit) {
+        return cardService.searchCards(q, limit);
     }
 
     @GetMapping("/count")
@@ -0,0 +1,34 @@
+package com.zackmurry.cardtown.controller;
+
+import com.zackmurry.cardtown.service.ExportService;
+import com.zackmurry.cardtown.util.StreamingJsonWriter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+@RequestMapping("/api/v1/export")
+@RestController
+public class ExportController {
+
+    @Autowired
+    private ExportService exportService;
+
+    @Autowired
+    private StreamingJsonWriter streamingJsonWriter;
+
+    /**
+     * Downloads the principal's library as gzipped, newline-delimited JSON: every card, then every argument
+     *
+     * @param after Cursor of the last record of an export that was cut off, to resume it
+     */
+    @GetMapping
+    public void exportLibrary(@RequestParam(required = false) String after, HttpServletResponse response) throws IOException {
+        streamingJsonWriter.writeCompressedLines(response, "cardtown-export.ndjson.gz", consumer -> exportService.exportLibrary(after, consumer));
+    }
+
+}
@@ -0,0 +1,30 @@
+package com.zackmurry.cardtown.controller;
+
+import com.zackmurry.cardtown.model.search.SearchResult;
+import com.zackmurry.cardtown.service.SearchService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RequestMapping("/api/v1/search")
+@RestController
+public class SearchController {
+
+    @Autowired
+    private SearchService searchService;
+
+    /**
+     * @param q     Words, prefixes (<code>word*</code>), and quoted phrases to search for in cards, arguments, and analytics
+     * @param limit Maximum number of results (at most 200)
+     * @return The matching cards, arguments, and analytics, best match first
+     */
+    @GetMapping
+    public List<SearchResult> search(@RequestParam String q, @RequestParam(required = false, defaultValue = "50") int limit) {
+        return searchService.search(q, limit);
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.zackmurry.cardtown.dao;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Reads the results of a query with a server-side cursor, so that only <code>CursorQueries#FETCH_SIZE</code> rows are
+ * in memory at a time, no matter how many rows there are.
+ * <p>
+ * The cursor keeps its connection (and a transaction) for as long as the rows are being handled, which is usually as
+ * long as a client takes to download them. Row handlers shouldn't use another connection, since a pool that's full of
+ * cursors would never give them one. A client that stops reading for <code>CursorQueries#MAX_IDLE_MILLIS</code> has
+ * its transaction ended by the database, so it can't hold a connection forever
+ */
+public final class CursorQueries {
+
+    public static final int FETCH_SIZE = 100;
+
+    // Longest time between two fetches of a cursor
+    public static final int MAX_IDLE_MILLIS = 60000;
+
+    private CursorQueries() {}
+
+    /**
+     * Executes a query and passes each row to a handler as it is read
+     *
+     * @param connection        Connection that the statement belongs to
+     * @param preparedStatement Query, with its parameters set
+     * @param rowHandler        Called once for every row. It shouldn't advance the <code>ResultSet</code>
+     * @throws SQLException If the query fails
+     * @throws IOException  If <code>rowHandler</code> throws one
+     */
+    public static void forEachRow(Connection connection, PreparedStatement preparedStatement, RowHandler rowHandler) throws SQLException, IOException {
+        // The Postgres driver only uses a cursor (i.e. respects the fetch size) outside of autocommit mode
+        final boolean autoCommit = connection.getAutoCommit();
+        if (autoCommit) {
+            connection.setAutoCommit(false);
+        }
+        try {
+            if (autoCommit) {
+                // Only for the transaction that's opened here; a caller's own transaction is left as it is
+                try (final Statement statement = connection.createStatement()) {
+                    statement.execute("SET LOCAL idle_in_transaction_session_timeout = " + MAX_IDLE_MILLIS);
+                }
+            }
+            preparedStatement.setFetchSize(FETCH_SIZE);
+            try (final ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    rowHandler.handle(resultSet);
+                }
+            }
+        } finally {
+            if (autoCommit) {
+                // Ends the transaction that the cursor was read in
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface RowHandler {
+
+        void handle(ResultSet resultSet) throws SQLException, IOException;
+
+    }
+
+}
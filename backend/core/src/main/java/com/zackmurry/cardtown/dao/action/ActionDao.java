@@ -1,5 +1,6 @@
 package com.zackmurry.cardtown.dao.action;
 
+import com.zackmurry.cardtown.model.action.ActionCursor;
 import com.zackmurry.cardtown.model.action.ActionEntity;
 import com.zackmurry.cardtown.exception.InternalServerException;
 
@@ -17,45 +18,43 @@ public interface ActionDao {
     void createAction(ActionEntity actionEntity);
 
     /**
-     * Gets all the actions that have a subject that belongs to a team, ordered by time occurred (DESC)
+     * Creates actions with a single batch of inserts
      *
-     * @param teamId Team to find actions of
-     * @return The associated action entities
+     * @param actionEntities Actions to store
      * @throws InternalServerException If a <code>SQLException</code> occurs
      */
-    List<ActionEntity> getAllActionsByTeam(UUID teamId);
+    void createActions(List<ActionEntity> actionEntities);
 
     /**
-     * Gets the <code>count</code> most recent actions by a team, ordered by time occurred (DESC)
+     * Gets all the actions that have a subject that belongs to a team, ordered by time occurred (DESC)
      *
-     * @param teamId Id of team to find actions of
-     * @param count Number of actions to find
+     * @param teamId Team to find actions of
      * @return The associated action entities
      * @throws InternalServerException If a <code>SQLException</code> occurs
      */
-    List<ActionEntity> getRecentActionsByTeam(UUID teamId, int count);
+    List<ActionEntity> getAllActionsByTeam(UUID teamId);
 
     /**
-     * Gets the <code>count</code> most recent actions by a team, ordered by time occurred (DESC), skipping the first <code>offset</code> actions
+     * Gets the <code>count</code> most recent actions by a team that come after a cursor, ordered by time occurred (DESC)
      *
      * @param teamId Id of team to find actions of
      * @param count Number of actions to find
-     * @param offset Number of actions to skip (for pagination and infinite scroll)
+     * @param after Position of the last action of the previous page, or <code>null</code> for the first page
      * @return The associated actions
      * @throws InternalServerException If a <code>SQLException</code> occurs
      */
-    List<ActionEntity> getRecentActionsByTeam(UUID teamId, int count, int offset);
+    List<ActionEntity> getRecentActionsByTeam(UUID teamId, int count, ActionCursor after);
 
     /**
-     * Gets the <code>count</code> most recent actions by a user, ordered by time occurred (DESC), skipping the first <code>offset</code> actions
+     * Gets the <code>count</code> most recent actions by a user that come after a cursor, ordered by time occurred (DESC)
      *
      * @param userId Id of user to find actions of
      * @param count Number of actions to find
-     * @param offset Number of actions to skip (for pagination and infinite scroll)
+     * @param after Position of the last action of the previous page, or <code>null</code> for the first page
      * @return The associated actions
      * @throws InternalServerException If a <code>SQLException</code> occurs
      */
-    List<ActionEntity> getRecentActionsByUser(UUID userId, int count, int offset);
+    List<ActionEntity> getRecentActionsByUser(UUID userId, int count, ActionCursor after);
 
     /**
      * Gets all actions by a user, ordered by time occurred (DESC)
@@ -1,13 +1,15 @@
 package com.zackmurry.cardtown.dao.action;
 
 import com.zackmurry.cardtown.exception.InternalServerException;
+import com.zackmurry.cardtown.model.action.ActionCursor;
 import com.zackmurry.cardtown.model.action.ActionEntity;
 import com.zackmurry.cardtown.model.action.ActionType;
-import org.flywaydb.core.internal.jdbc.JdbcTemplate;
+import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
 import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Repository;
 
 import javax.sql.DataSource;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -18,17 +20,37 @@ import java.util.UUID;
 @Repository
 public class ActionDataAccessService implements ActionDao {
 
-    private final JdbcTemplate jdbcTemplate;
+    // Queries are package-private so that ActionQueryPlanTest can check that they use indexes
 
-    public ActionDataAccessService(DataSource dataSource) throws SQLException {
-        this.jdbcTemplate = new JdbcTemplate(dataSource.getConnection());
+    static final String ACTIONS_BY_TEAM_SQL = "SELECT actions.* FROM actions INNER JOIN team_members ON team_members.user_id = actions.subject_id WHERE team_members.team_id = ? ORDER BY actions.time DESC, actions.id DESC";
+
+    static final String ACTIONS_BY_USER_SQL = "SELECT * FROM actions WHERE subject_id = ? ORDER BY time DESC";
+
+    // Each member's most recent actions are read from actions_subject_time_idx separately and then merged,
+    // so a page costs at most (count * number of members) index rows, regardless of how far back it is
+    static final String RECENT_ACTIONS_BY_TEAM_SQL = "SELECT actions.* FROM team_members CROSS JOIN LATERAL (" +
+            "SELECT * FROM actions WHERE subject_id = team_members.user_id ORDER BY time DESC, id DESC LIMIT ?) actions " +
+            "WHERE team_members.team_id = ? ORDER BY actions.time DESC, actions.id DESC LIMIT ?";
+
+    static final String RECENT_ACTIONS_BY_TEAM_AFTER_SQL = "SELECT actions.* FROM team_members CROSS JOIN LATERAL (" +
+            "SELECT * FROM actions WHERE subject_id = team_members.user_id AND (time, id) < (?, ?) ORDER BY time DESC, id DESC LIMIT ?) actions " +
+            "WHERE team_members.team_id = ? ORDER BY actions.time DESC, actions.id DESC LIMIT ?";
+
+    static final String RECENT_ACTIONS_BY_USER_SQL = "SELECT * FROM actions WHERE subject_id = ? ORDER BY time DESC, id DESC LIMIT ?";
+
+    static final String RECENT_ACTIONS_BY_USER_AFTER_SQL = "SELECT * FROM actions WHERE subject_id = ? AND (time, id) < (?, ?) ORDER BY time DESC, id DESC LIMIT ?";
+
+    private final DataSource dataSource;
+
+    public ActionDataAccessService(DataSource dataSource) {
+        this.dataSource = new TransactionAwareDataSourceProxy(dataSource);
     }
 
     @Override
     public void createAction(@NonNull ActionEntity actionEntity) {
         final String sql = "INSERT INTO actions (subject_id, action_type, time, user_id, card_id, argument_id) VALUES (?, ?, ?, ?, ?, ?)";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setObject(1, actionEntity.getSubjectId());
             preparedStatement.setString(2, actionEntity.getActionType().toString());
             preparedStatement.setLong(3, actionEntity.getTime());
@@ -42,6 +64,30 @@ public class ActionDataAccessService implements ActionDao {
         }
     }
 
+    @Override
+    public void createActions(@NonNull List<ActionEntity> actionEntities) {
+        if (actionEntities.isEmpty()) {
+            return;
+        }
+        final String sql = "INSERT INTO actions (subject_id, action_type, time, user_id, card_id, argument_id) VALUES (?, ?, ?, ?, ?, ?)";
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            for (ActionEntity actionEntity : actionEntities) {
+                preparedStatement.setObject(1, actionEntity.getSubjectId());
+                preparedStatement.setString(2, actionEntity.getActionType().toString());
+                preparedStatement.setLong(3, actionEntity.getTime());
+                preparedStatement.setObject(4, actionEntity.getUserId());
+                preparedStatement.setObject(5, actionEntity.getCardId());
+                preparedStatement.setObject(6, actionEntity.getArgumentId());
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
     private static ActionEntity convertResultSetRowToActionEntity(ResultSet resultSet) throws SQLException {
         final String userIdStr = resultSet.getString("user_id");
         UUID userId = null;
@@ -71,24 +117,13 @@ public class ActionDataAccessService implements ActionDao {
 
     @Override
     public List<ActionEntity> getAllActionsByTeam(@NonNull UUID teamId) {
-        final String sql = "SELECT id, subject_id, action_type, time, user_id, card_id, argument_id FROM actions INNER JOIN team_members ON team_members.user_id = subject_id WHERE team_members.team_id = ? ORDER BY time DESC";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(ACTIONS_BY_TEAM_SQL)) {
             preparedStatement.setObject(1, teamId);
             final ResultSet resultSet = preparedStatement.executeQuery();
             final List<ActionEntity> actionEntities = new ArrayList<>();
             while (resultSet.next()) {
-                actionEntities.add(
-                        new ActionEntity(
-                                UUID.fromString(resultSet.getString("id")),
-                                UUID.fromString(resultSet.getString("subject_id")),
-                                ActionType.valueOf(resultSet.getString("action_type")),
-                                resultSet.getLong("time"),
-                                UUID.fromString(resultSet.getString("user_id")),
-                                UUID.fromString(resultSet.getString("card_id")),
-                                UUID.fromString(resultSet.getString("argument_id"))
-                        )
-                );
+                actionEntities.add(convertResultSetRowToActionEntity(resultSet));
             }
             return actionEntities;
         } catch (SQLException e) {
@@ -98,18 +133,18 @@ public class ActionDataAccessService implements ActionDao {
     }
 
     @Override
-    public List<ActionEntity> getRecentActionsByTeam(UUID teamId, int count) {
-        return getRecentActionsByTeam(teamId, count, 0);
-    }
-
-    @Override
-    public List<ActionEntity> getRecentActionsByTeam(@NonNull UUID teamId, int count, int offset) {
-        final String sql = "SELECT * FROM actions INNER JOIN team_members ON team_members.user_id = subject_id WHERE team_members.team_id = ? ORDER BY time DESC LIMIT ? OFFSET ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
-            preparedStatement.setObject(1, teamId);
-            preparedStatement.setInt(2, count);
-            preparedStatement.setInt(3, offset);
+    public List<ActionEntity> getRecentActionsByTeam(@NonNull UUID teamId, int count, ActionCursor after) {
+        final String sql = after != null ? RECENT_ACTIONS_BY_TEAM_AFTER_SQL : RECENT_ACTIONS_BY_TEAM_SQL;
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            int i = 1;
+            if (after != null) {
+                preparedStatement.setLong(i++, after.getTime());
+                preparedStatement.setObject(i++, after.getId());
+            }
+            preparedStatement.setInt(i++, count);
+            preparedStatement.setObject(i++, teamId);
+            preparedStatement.setInt(i, count);
             final ResultSet resultSet = preparedStatement.executeQuery();
             final List<ActionEntity> actionEntities = new ArrayList<>();
             while (resultSet.next()) {
@@ -123,13 +158,17 @@ public class ActionDataAccessService implements ActionDao {
     }
 
     @Override
-    public List<ActionEntity> getRecentActionsByUser(@NonNull UUID userId, int count, int offset) {
-        final String sql = "SELECT * FROM actions WHERE subject_id = ? ORDER BY time DESC LIMIT ? OFFSET ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
-            preparedStatement.setObject(1, userId);
-            preparedStatement.setInt(2, count);
-            preparedStatement.setInt(3, offset);
+    public List<ActionEntity> getRecentActionsByUser(@NonNull UUID userId, int count, ActionCursor after) {
+        final String sql = after != null ? RECENT_ACTIONS_BY_USER_AFTER_SQL : RECENT_ACTIONS_BY_USER_SQL;
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            int i = 1;
+            preparedStatement.setObject(i++, userId);
+            if (after != null) {
+                preparedStatement.setLong(i++, after.getTime());
+                preparedStatement.setObject(i++, after.getId());
+            }
+            preparedStatement.setInt(i, count);
             final ResultSet resultSet = preparedStatement.executeQuery();
             final List<ActionEntity> actionEntities = new ArrayList<>();
             while (resultSet.next()) {
@@ -144,9 +183,8 @@ public class ActionDataAccessService implements ActionDao {
 
     @Override
     public List<ActionEntity> getAllActionsByUser(@NonNull UUID userId) {
-        final String sql = "SELECT * FROM actions WHERE subject_id = ? ORDER BY time DESC";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(ACTIONS_BY_USER_SQL)) {
             preparedStatement.setObject(1, userId);
             final ResultSet resultSet = preparedStatement.executeQuery();
             final List<ActionEntity> actionEntities = new ArrayList<>();
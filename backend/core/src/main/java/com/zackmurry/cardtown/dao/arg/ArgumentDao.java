@@ -1,13 +1,20 @@
 package com.zackmurry.cardtown.dao.arg;
 
 import com.zackmurry.cardtown.exception.InternalServerException;
+import com.zackmurry.cardtown.model.EntityVersion;
 import com.zackmurry.cardtown.model.arg.ArgumentCreateRequest;
 import com.zackmurry.cardtown.model.arg.ArgumentEntity;
+import com.zackmurry.cardtown.model.arg.ArgumentEntityWithCardHeaders;
+import com.zackmurry.cardtown.model.arg.ArgumentEntityWithItems;
+import com.zackmurry.cardtown.model.arg.ArgumentItemEntity;
 import com.zackmurry.cardtown.model.arg.card.ArgumentCardEntity;
 import com.zackmurry.cardtown.model.arg.card.ArgumentCardJoinEntity;
-import org.springframework.lang.NonNull;
+import com.zackmurry.cardtown.util.ItemConsumer;
 
+import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -33,7 +40,16 @@ public interface ArgumentDao {
     Optional<ArgumentEntity> getArgumentEntityById(UUID id);
 
     /**
-     * Gets cards from an argument with the given id, ordered by their index in the argument
+     * Gets several argument entities with one query, including deleted ones
+     *
+     * @param ids Ids of the arguments
+     * @return The arguments that were found, in no particular order
+     * @throws InternalServerException if there is a <code>SQLException</code>
+     */
+    List<ArgumentEntity> getArgumentEntitiesByIds(Collection<UUID> ids);
+
+    /**
+     * Gets cards from an argument with the given id, ordered by their sort key
      *
      * @param argumentId Id of the argument
      * @return A list of cards found in the argument
@@ -42,36 +58,103 @@ public interface ArgumentDao {
     List<ArgumentCardEntity> getCardsByArgumentId(UUID argumentId);
 
     /**
-     * Increments card positions in an argument at or past a specified index
+     * Gets every item (card or analytic) of an argument in order. The index of an item in the list is its index in the argument
      *
-     * @param argumentId Id of argument to update
-     * @param index      Index to update at or past at
-     * @throws InternalServerException If a <code>SQLException</code> occurs
+     * @param argumentId Id of the argument
+     * @return The items of the argument, ordered by their sort key
+     * @throws InternalServerException if there is a <code>SQLException</code>
      */
-    void incrementCardPositionsInArgumentAtOrPastIndex(@NonNull UUID argumentId, short index);
-
-    void decrementCardPositionsInArgumentAtOrPastIndex(UUID argumentId, short index);
+    List<ArgumentItemEntity> getItemsInArgument(UUID argumentId);
 
     /**
-     * Inserts a card into an argument and the specified index (0-based).
-     * Does not push cards/analytics if there is already one in its place
+     * Inserts a card into an argument with a sort key. Does not change any other items in the argument
      *
-     * @param argumentId      Argument to add to. Must already be in the database
-     * @param cardId          Card to add to argument. Must already be in the database
-     * @param indexInArgument The desired zero-based index to set the card at
+     * @param argumentId Argument to add to. Must already be in the database
+     * @param cardId     Card to add to argument. Must already be in the database
+     * @param sortKey    Sort key of the card, which decides where it appears among the other items of the argument
      * @throws InternalServerException  If there is a <code>SQLException</code>
      */
-    void addCardToArgument(UUID argumentId, UUID cardId, short indexInArgument);
+    void addCardToArgument(UUID argumentId, UUID cardId, long sortKey);
+
+    /**
+     * Changes the sort key of a card in an argument (i.e. moves it)
+     *
+     * @param argumentId Id of the argument that the card belongs to
+     * @param cardId     Id of the card to move
+     * @param oldSortKey Current sort key of the card (so that one instance of a card can be moved when >1 appear in an argument)
+     * @param newSortKey New sort key of the card
+     * @throws InternalServerException If no card was moved or if there is a <code>SQLException</code>
+     */
+    void updateCardSortKey(UUID argumentId, UUID cardId, long oldSortKey, long newSortKey);
+
+    /**
+     * Spreads out the sort keys of all items (cards and analytics) in an argument so that there are <code>gap</code> keys
+     * between neighbours again, keeping their order. Runs as a single statement, so other requests never see a half-renumbered argument
+     *
+     * @param argumentId Id of argument to renumber
+     * @param gap        Difference between the sort keys of neighbouring items afterwards. The first item gets <code>gap</code>
+     * @throws InternalServerException If there is a <code>SQLException</code>
+     */
+    void renumberItemsInArgument(UUID argumentId, long gap);
+
+    /**
+     * Gives the items of an argument new sort keys so that they're in the given order, <code>gap</code> apart.
+     * Runs one <code>UPDATE</code> per table, so it should be called in a transaction
+     *
+     * @param argumentId Id of argument to reorder
+     * @param items      Every item in the argument, in the new order. Cards are matched by their id and current sort key; analytics by their id
+     * @param gap        Difference between the sort keys of neighbouring items afterwards. The first item gets <code>gap</code>
+     * @return The number of items that were updated. Less than <code>items.size()</code> if some items have changed since they were read
+     * @throws InternalServerException If there is a <code>SQLException</code>
+     */
+    int reorderItemsInArgument(UUID argumentId, List<ArgumentItemEntity> items, long gap);
+
+    /**
+     * Gets the version of the items in an argument, which is incremented whenever they change
+     *
+     * @param argumentId Id of argument
+     * @return The current version
+     * @throws com.zackmurry.cardtown.exception.ArgumentNotFoundException If the argument could not be found
+     * @throws InternalServerException                                    If there is a <code>SQLException</code>
+     */
+    int getItemsVersion(UUID argumentId);
+
+    /**
+     * Increments the version of the items in an argument. Should be called whenever an item is added, removed, or moved
+     *
+     * @param argumentId Id of argument
+     * @throws InternalServerException If there is a <code>SQLException</code>
+     */
+    void incrementItemsVersion(UUID argumentId);
 
     /**
-     * Gets the first unused position in an argument.
-     * Does not check if the argument exists; returns zero if no cards are found (assumes the argument has no cards)
+     * Increments the version of the items in an argument if it's still the expected version. In a transaction, this also
+     * locks the argument's row until the transaction ends, so that concurrent compare-and-increments wait for it
      *
-     * @param id Id of argument to search
-     * @return A zero-based short representing the index
+     * @param argumentId      Id of argument
+     * @param expectedVersion Version that the caller last saw
+     * @return Whether the version was incremented (i.e. whether it was <code>expectedVersion</code>)
      * @throws InternalServerException If there is a <code>SQLException</code>
      */
-    short getFirstOpenIndexInArgument(UUID id);
+    boolean compareAndIncrementItemsVersion(UUID argumentId, int expectedVersion);
+
+    /**
+     * Sets the last modified time of an argument to the current time. Only needed for changes that don't go through
+     * another method of <code>ArgumentDao</code>, since the rest update it themselves
+     *
+     * @param argumentId Id of argument
+     * @throws InternalServerException If a <code>SQLException</code> occurs
+     */
+    void updateLastModified(UUID argumentId);
+
+    /**
+     * Gets what is needed to tell whether a client's copy of an argument is still current, without reading its contents
+     *
+     * @param argumentId Id of argument
+     * @return If found: the version of the argument (including the cards in it); else: <code>Optional.empty()</code>
+     * @throws InternalServerException If a <code>SQLException</code> occurs
+     */
+    Optional<EntityVersion> getArgumentVersionById(UUID argumentId);
 
     /**
      * Gets all arguments that are owned by a user. Does not include deleted cards.
@@ -111,16 +194,23 @@ public interface ArgumentDao {
     short getNumberOfCardsInArgument(UUID argumentId);
 
     /**
-     * Removes a card from an argument and left-shifts other cards' indices
-     * todo might not need cardId now that index is a param
+     * Gets the number of cards in each of several arguments with one query
+     *
+     * @param argumentIds Ids of arguments to count the cards of
+     * @return A map of argument id to number of cards. Arguments without any cards are left out
+     * @throws InternalServerException If there is a <code>SQLException</code>
+     */
+    Map<UUID, Integer> getNumberOfCardsInArguments(Collection<UUID> argumentIds);
+
+    /**
+     * Removes a card from an argument. Other items keep their sort keys
      *
      * @param argumentId Id of the argument that the card belongs to
      * @param cardId     Id of the card to remove
-     * @param index      Index of the card to remove (in so that you can remove one instance of a card from an argument when >1 appear in it)
-     * @throws com.zackmurry.cardtown.exception.CardNotFoundException If the card could not be found in the argument
-     * @throws InternalServerException                                If there is a <code>SQLException</code>
+     * @param sortKey    Sort key of the card to remove (so that you can remove one instance of a card from an argument when >1 appear in it)
+     * @throws InternalServerException If the card could not be found in the argument or if there is a <code>SQLException</code>
      */
-    void removeCardFromArgument(UUID argumentId, UUID cardId, short index);
+    void removeCardFromArgument(UUID argumentId, UUID cardId, long sortKey);
 
     /**
      * Marks an argument as deleted
@@ -143,23 +233,22 @@ public interface ArgumentDao {
     void renameArgument(UUID argumentId, String newName);
 
     /**
-     * Updates a card's index in an argument without checking if the new index is valid
+     * Gets <code>ArgumentCardEntity</code>s that have a card with the specified id
      *
-     * @param argumentId Id of argument to modify
-     * @param newIndex   New index of card in argument
-     * @param oldIndex   Old index of card in argument
+     * @param cardId Id of card to find <code>ArgumentCardEntity</code>s for
+     * @return All found <code>ArgumentCardEntity</code>s
      * @throws InternalServerException If a <code>SQLException</code> occurs
      */
-    void setCardIndexInArgumentUnchecked(UUID argumentId, short newIndex, short oldIndex);
+    List<ArgumentCardEntity> getArgumentCardEntitiesByCardId(UUID cardId);
 
     /**
-     * Gets <code>ArgumentCardEntity</code>s that have a card with the specified id
+     * Gets the number of times that each of several cards appears in arguments that haven't been deleted with one query
      *
-     * @param cardId Id of card to find <code>ArgumentCardEntity</code>s for
-     * @return All found <code>ArgumentCardEntity</code>s
+     * @param cardIds Ids of cards to count the appearances of
+     * @return A map of card id to number of appearances (a card that's in an argument twice counts twice). Cards that aren't in any arguments are left out
      * @throws InternalServerException If a <code>SQLException</code> occurs
      */
-    List<ArgumentCardEntity> getArgumentCardEntitiesByCardId(UUID cardId);
+    Map<UUID, Integer> getNumberOfArgumentCardEntitiesByCardIds(Collection<UUID> cardIds);
 
     /**
      * Gets a list of <code>ArgumentCardJoinEntity</code>s that have a cardId matching the cardId inputted
@@ -176,6 +265,78 @@ public interface ArgumentDao {
 
     List<ArgumentEntity> getArgumentsByTeam(UUID teamId, boolean includeDeleted);
 
+    /**
+     * Gets the arguments owned by a user along with the headers (tag, cite, owner) of the cards in them, in a single query.
+     * Cards are sorted by their sort key
+     *
+     * @param userId         Id of user to find arguments for
+     * @param includeDeleted Whether to include deleted arguments
+     * @return The user's arguments with their card headers
+     * @throws InternalServerException If a <code>SQLException</code> occurs
+     */
+    List<ArgumentEntityWithCardHeaders> getArgumentPreviewsByUser(UUID userId, boolean includeDeleted);
+
+    /**
+     * Gets the arguments owned by members of a team along with the headers (tag, cite, owner) of the cards in them, in a single query.
+     * Cards are sorted by their sort key
+     *
+     * @param teamId         Id of team to find arguments for
+     * @param includeDeleted Whether to include deleted arguments
+     * @return The team's arguments with their card headers
+     * @throws InternalServerException If a <code>SQLException</code> occurs
+     */
+    List<ArgumentEntityWithCardHeaders> getArgumentPreviewsByTeam(UUID teamId, boolean includeDeleted);
+
+    /**
+     * Reads the same rows as <code>ArgumentDao#getArgumentPreviewsByUser</code> with a cursor, passing each argument to
+     * a consumer once all of its cards have been read
+     *
+     * @param userId         Id of user to find arguments for
+     * @param includeDeleted Whether to include deleted arguments
+     * @param consumer       Called with each argument
+     * @throws IOException             If <code>consumer</code> throws one
+     * @throws InternalServerException If a <code>SQLException</code> occurs
+     * @see com.zackmurry.cardtown.dao.CursorQueries
+     */
+    void forEachArgumentPreviewByUser(UUID userId, boolean includeDeleted, ItemConsumer<ArgumentEntityWithCardHeaders> consumer) throws IOException;
+
+    /**
+     * Reads the same rows as <code>ArgumentDao#getArgumentPreviewsByTeam</code> with a cursor, passing each argument to
+     * a consumer once all of its cards have been read
+     *
+     * @param teamId         Id of team to find arguments for
+     * @param includeDeleted Whether to include deleted arguments
+     * @param consumer       Called with each argument
+     * @throws IOException             If <code>consumer</code> throws one
+     * @throws InternalServerException If a <code>SQLException</code> occurs
+     * @see com.zackmurry.cardtown.dao.CursorQueries
+     */
+    void forEachArgumentPreviewByTeam(UUID teamId, boolean includeDeleted, ItemConsumer<ArgumentEntityWithCardHeaders> consumer) throws IOException;
+
+    /**
+     * Gets a page of the arguments that a user owns in order of id, including deleted arguments, with all of their
+     * items. Items are sorted by their sort key
+     *
+     * @param userId Id of user to find arguments for
+     * @param after  Only arguments with a greater id are returned
+     * @param limit  Maximum number of arguments
+     * @return The arguments
+     * @throws InternalServerException If a <code>SQLException</code> occurs
+     */
+    List<ArgumentEntityWithItems> getArgumentsWithItemsByUserAfter(UUID userId, UUID after, int limit);
+
+    /**
+     * Gets a page of the arguments owned by members of a team in order of id, including deleted arguments, with all of
+     * their items. Items are sorted by their sort key
+     *
+     * @param teamId Id of team to find arguments for
+     * @param after  Only arguments with a greater id are returned
+     * @param limit  Maximum number of arguments
+     * @return The arguments
+     * @throws InternalServerException If a <code>SQLException</code> occurs
+     */
+    List<ArgumentEntityWithItems> getArgumentsWithItemsByTeamAfter(UUID teamId, UUID after, int limit);
+
     void restoreArgumentById(UUID id);
 
     /**
@@ -186,10 +347,4 @@ public interface ArgumentDao {
      */
     void deleteArgumentById(UUID id);
 
-    Optional<UUID> getCardIdInArgumentAtPosition(UUID argId, short indexInArgument);
-
-    void incrementPositionsOfCardsInArgument(UUID argumentId, short startInclusive, short endInclusive);
-
-    void decrementPositionsOfCardsInArgument(UUID argumentId, short startInclusive, short endInclusive);
-
 }
@@ -1,29 +1,37 @@
 package com.zackmurry.cardtown.dao.arg;
 
+import com.zackmurry.cardtown.dao.CursorQueries;
 import com.zackmurry.cardtown.exception.ArgumentNotFoundException;
 import com.zackmurry.cardtown.exception.CardNotFoundException;
 import com.zackmurry.cardtown.exception.InternalServerException;
+import com.zackmurry.cardtown.model.EntityVersion;
+import com.zackmurry.cardtown.model.analytic.AnalyticEntity;
 import com.zackmurry.cardtown.model.arg.ArgumentCreateRequest;
 import com.zackmurry.cardtown.model.arg.ArgumentEntity;
+import com.zackmurry.cardtown.model.arg.ArgumentEntityWithCardHeaders;
+import com.zackmurry.cardtown.model.arg.ArgumentEntityWithItems;
+import com.zackmurry.cardtown.model.arg.ArgumentItemEntity;
 import com.zackmurry.cardtown.model.arg.card.ArgumentCardEntity;
 import com.zackmurry.cardtown.model.arg.card.ArgumentCardJoinEntity;
+import com.zackmurry.cardtown.model.card.CardHeaderEntity;
+import com.zackmurry.cardtown.util.CipherText;
+import com.zackmurry.cardtown.util.ItemConsumer;
 import com.zackmurry.cardtown.util.UUIDCompressor;
-import org.flywaydb.core.internal.jdbc.JdbcTemplate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
 import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Repository;
 import org.springframework.web.server.ResponseStatusException;
 
 import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
-import java.util.UUID;
+import java.util.*;
 
 /**
  * arguments are in a many-to-many relationship with cards.
@@ -35,20 +43,123 @@ public class ArgumentDataAccessService implements ArgumentDao {
 
     private static final Logger logger = LoggerFactory.getLogger(ArgumentDataAccessService.class);
 
-    private final JdbcTemplate jdbcTemplate;
+    // Queries are package-private so that ArgumentQueryPlanTest can check that they use indexes
 
-    public ArgumentDataAccessService(DataSource dataSource) throws SQLException {
-        this.jdbcTemplate = new JdbcTemplate(dataSource.getConnection());
+    static final String CARDS_IN_ARGUMENT_SQL = "SELECT card_id, sort_key FROM argument_cards WHERE argument_id = ? ORDER BY sort_key";
+
+    // Ties can only come from data written before sort keys existed. Breaking them the same way as
+    // renumberItemsInArgument keeps indices stable
+    static final String ITEMS_IN_ARGUMENT_SQL = "SELECT card_id, NULL AS analytic_id, sort_key FROM argument_cards WHERE argument_id = ? " +
+            "UNION ALL SELECT NULL, id, sort_key FROM argument_analytics WHERE argument_id = ? " +
+            "ORDER BY sort_key, analytic_id NULLS FIRST, card_id";
+
+    static final String ARGUMENTS_BY_USER_SQL = "SELECT id, name FROM arguments WHERE owner_id = ? AND deleted = false";
+
+    static final String ARGUMENTS_BY_USER_INCLUDING_DELETED_SQL = "SELECT id, name, deleted FROM arguments WHERE owner_id = ?";
+
+    static final String NUMBER_OF_ARGUMENTS_BY_USER_SQL = "SELECT COUNT(id) FROM arguments WHERE owner_id = ? AND deleted = FALSE";
+
+    static final String UPDATE_CARD_SORT_KEY_SQL = "UPDATE argument_cards SET sort_key = ? WHERE argument_id = ? AND card_id = ? AND sort_key = ?";
+
+    // argument_cards has no primary key, so its rows are matched by ctid. That's only safe within a single statement
+    static final String RENUMBER_ITEMS_IN_ARGUMENT_SQL = "WITH items AS (" +
+            "SELECT ctid AS card_row, card_id, NULL::UUID AS analytic_id, sort_key FROM argument_cards WHERE argument_id = ? " +
+            "UNION ALL SELECT NULL::TID, NULL::UUID, id, sort_key FROM argument_analytics WHERE argument_id = ?" +
+            "), renumbered AS (" +
+            "SELECT card_row, analytic_id, ROW_NUMBER() OVER (ORDER BY sort_key, analytic_id NULLS FIRST, card_id) * ? AS sort_key FROM items" +
+            "), renumbered_cards AS (" +
+            "UPDATE argument_cards SET sort_key = renumbered.sort_key FROM renumbered WHERE argument_cards.argument_id = ? AND argument_cards.ctid = renumbered.card_row" +
+            ") UPDATE argument_analytics SET sort_key = renumbered.sort_key FROM renumbered WHERE argument_analytics.id = renumbered.analytic_id";
+
+    static final String NUMBER_OF_CARDS_IN_ARGUMENT_SQL = "SELECT COUNT(*) FROM argument_cards WHERE argument_id = ?";
+
+    static final String NUMBER_OF_CARDS_IN_ARGUMENTS_SQL = "SELECT argument_id, COUNT(*) FROM argument_cards WHERE argument_id = ANY(?) GROUP BY argument_id";
+
+    // Deleted arguments are left out, like in getArgumentCardEntitiesByCardId
+    static final String NUMBER_OF_ARGUMENT_CARD_ENTITIES_BY_CARD_IDS_SQL = "SELECT ac.card_id, COUNT(*) FROM argument_cards AS ac INNER JOIN arguments AS a ON a.id = ac.argument_id " +
+            "WHERE ac.card_id = ANY(?) AND a.deleted = FALSE GROUP BY ac.card_id";
+
+    static final String REORDER_CARDS_IN_ARGUMENT_SQL = "UPDATE argument_cards AS ac SET sort_key = v.new_sort_key " +
+            "FROM unnest(?, ?, ?) AS v(card_id, old_sort_key, new_sort_key) " +
+            "WHERE ac.argument_id = ? AND ac.card_id = v.card_id AND ac.sort_key = v.old_sort_key";
+
+    static final String REORDER_ANALYTICS_IN_ARGUMENT_SQL = "UPDATE argument_analytics AS aa SET sort_key = v.sort_key " +
+            "FROM unnest(?, ?) AS v(id, sort_key) " +
+            "WHERE aa.argument_id = ? AND aa.id = v.id";
+
+    // Cards are shown in full inside an argument, so editing one changes the argument too
+    static final String ARGUMENT_VERSION_BY_ID_SQL = "SELECT a.owner_id, a.items_version, a.last_modified, " +
+            "(SELECT MAX(c.last_modified) FROM argument_cards ac INNER JOIN cards c ON c.id = ac.card_id WHERE ac.argument_id = a.id) AS cards_last_modified " +
+            "FROM arguments a WHERE a.id = ?";
+
+    static final String ARGUMENT_CARD_ENTITIES_BY_CARD_ID_SQL = "SELECT argument_id, sort_key FROM argument_cards AS ac INNER JOIN arguments as a ON a.id = ac.argument_id WHERE ac.card_id = ? AND a.deleted = FALSE";
+
+    // The index of a card is the number of items before it in its argument
+    static final String ARGUMENT_CARD_JOIN_ENTITIES_BY_CARD_ID_SQL = "SELECT argument_id, owner_id, name, " +
+            "(SELECT COUNT(*) FROM argument_cards AS o WHERE o.argument_id = ac.argument_id AND o.sort_key < ac.sort_key) + " +
+            "(SELECT COUNT(*) FROM argument_analytics AS o WHERE o.argument_id = ac.argument_id AND o.sort_key < ac.sort_key) AS index_in_argument " +
+            "FROM argument_cards AS ac INNER JOIN arguments ON arguments.id = ac.argument_id WHERE ac.card_id = ? AND arguments.deleted = FALSE";
+
+    static final String NUMBER_OF_ARGUMENTS_BY_TEAM_SQL = "SELECT COUNT(arguments.id) FROM arguments INNER JOIN team_members ON team_members.user_id = arguments.owner_id WHERE team_members.team_id = ? AND arguments.deleted = FALSE";
+
+    static final String ARGUMENTS_BY_TEAM_SQL = "SELECT id, owner_id, name, deleted FROM arguments INNER JOIN team_members ON team_members.user_id = arguments.owner_id WHERE team_members.team_id = ? AND deleted = FALSE";
+
+    static final String ARGUMENTS_BY_TEAM_INCLUDING_DELETED_SQL = "SELECT id, owner_id, name, deleted FROM arguments INNER JOIN team_members ON team_members.user_id = arguments.owner_id WHERE team_members.team_id = ?";
+
+    static final String ARGUMENT_PREVIEWS_BY_USER_SQL = "SELECT a.id, a.owner_id, a.name, a.deleted, c.id AS card_id, c.owner_id AS card_owner_id, c.tag, c.cite, c.time_created_at, c.last_modified " +
+            "FROM arguments a " +
+            "LEFT JOIN argument_cards ac ON ac.argument_id = a.id " +
+            "LEFT JOIN cards c ON c.id = ac.card_id " +
+            "WHERE a.owner_id = ? AND a.deleted = FALSE ORDER BY a.id, ac.sort_key";
+
+    static final String ARGUMENT_PREVIEWS_BY_USER_INCLUDING_DELETED_SQL = "SELECT a.id, a.owner_id, a.name, a.deleted, c.id AS card_id, c.owner_id AS card_owner_id, c.tag, c.cite, c.time_created_at, c.last_modified " +
+            "FROM arguments a " +
+            "LEFT JOIN argument_cards ac ON ac.argument_id = a.id " +
+            "LEFT JOIN cards c ON c.id = ac.card_id " +
+            "WHERE a.owner_id = ? ORDER BY a.id, ac.sort_key";
+
+    static final String ARGUMENT_PREVIEWS_BY_TEAM_SQL = "SELECT a.id, a.owner_id, a.name, a.deleted, c.id AS card_id, c.owner_id AS card_owner_id, c.tag, c.cite, c.time_created_at, c.last_modified " +
+            "FROM arguments a " +
+            "INNER JOIN team_members tm ON tm.user_id = a.owner_id " +
+            "LEFT JOIN argument_cards ac ON ac.argument_id = a.id " +
+            "LEFT JOIN cards c ON c.id = ac.card_id " +
+            "WHERE tm.team_id = ? AND a.deleted = FALSE ORDER BY a.id, ac.sort_key";
+
+    static final String ARGUMENT_PREVIEWS_BY_TEAM_INCLUDING_DELETED_SQL = "SELECT a.id, a.owner_id, a.name, a.deleted, c.id AS card_id, c.owner_id AS card_owner_id, c.tag, c.cite, c.time_created_at, c.last_modified " +
+            "FROM arguments a " +
+            "INNER JOIN team_members tm ON tm.user_id = a.owner_id " +
+            "LEFT JOIN argument_cards ac ON ac.argument_id = a.id " +
+            "LEFT JOIN cards c ON c.id = ac.card_id " +
+            "WHERE tm.team_id = ? ORDER BY a.id, ac.sort_key";
+
+    // The limit applies to arguments, not to rows. Ties between sort keys are broken the same way as in getItemsInArgument
+    static final String ARGUMENTS_WITH_ITEMS_BY_USER_AFTER_SQL = "SELECT a.id, a.owner_id, a.name, a.deleted, i.card_id, i.analytic_id, i.body, i.sort_key " +
+            "FROM (SELECT id, owner_id, name, deleted FROM arguments WHERE owner_id = ? AND id > ? ORDER BY id LIMIT ?) a " +
+            "LEFT JOIN (SELECT argument_id, card_id, NULL AS analytic_id, NULL AS body, sort_key FROM argument_cards " +
+            "UNION ALL SELECT argument_id, NULL, id, body, sort_key FROM argument_analytics) i ON i.argument_id = a.id " +
+            "ORDER BY a.id, i.sort_key, i.analytic_id NULLS FIRST, i.card_id";
+
+    static final String ARGUMENTS_WITH_ITEMS_BY_TEAM_AFTER_SQL = "SELECT a.id, a.owner_id, a.name, a.deleted, i.card_id, i.analytic_id, i.body, i.sort_key " +
+            "FROM (SELECT id, owner_id, name, deleted FROM arguments WHERE owner_id IN (SELECT user_id FROM team_members WHERE team_id = ?) AND id > ? ORDER BY id LIMIT ?) a " +
+            "LEFT JOIN (SELECT argument_id, card_id, NULL AS analytic_id, NULL AS body, sort_key FROM argument_cards " +
+            "UNION ALL SELECT argument_id, NULL, id, body, sort_key FROM argument_analytics) i ON i.argument_id = a.id " +
+            "ORDER BY a.id, i.sort_key, i.analytic_id NULLS FIRST, i.card_id";
+
+    private final DataSource dataSource;
+
+    public ArgumentDataAccessService(DataSource dataSource) {
+        this.dataSource = new TransactionAwareDataSourceProxy(dataSource);
     }
 
     @Override
     public UUID createArgument(@NonNull ArgumentCreateRequest request) {
-        final String sql = "INSERT INTO arguments (owner_id, name) VALUES (?, ?)";
-        try {
-            final String[] returnId = {"id"};
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql, returnId);
+        final String sql = "INSERT INTO arguments (owner_id, name, last_modified) VALUES (?, ?, ?)";
+        final String[] returnId = {"id"};
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql, returnId)) {
             preparedStatement.setObject(1, request.getOwnerId());
             preparedStatement.setString(2, request.getName());
+            preparedStatement.setLong(3, System.currentTimeMillis());
             int affectedRows = preparedStatement.executeUpdate();
             if (affectedRows == 0) {
                 logger.warn("Argument creation by {} didn't generate an id", request.getOwnerId());
@@ -71,8 +182,8 @@ public class ArgumentDataAccessService implements ArgumentDao {
     @Override
     public Optional<ArgumentEntity> getArgumentEntityById(@NonNull UUID id) {
         final String sql = "SELECT id, owner_id, name, deleted FROM arguments WHERE id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setObject(1, id);
             final ResultSet resultSet = preparedStatement.executeQuery();
             if (resultSet.next()) {
@@ -92,16 +203,43 @@ public class ArgumentDataAccessService implements ArgumentDao {
         }
     }
 
+    @Override
+    public List<ArgumentEntity> getArgumentEntitiesByIds(@NonNull Collection<UUID> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final String sql = "SELECT id, owner_id, name, deleted FROM arguments WHERE id = ANY(?)";
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setArray(1, connection.createArrayOf("uuid", ids.toArray()));
+            final ResultSet resultSet = preparedStatement.executeQuery();
+            final List<ArgumentEntity> argumentEntities = new ArrayList<>();
+            while (resultSet.next()) {
+                argumentEntities.add(
+                        new ArgumentEntity(
+                                UUID.fromString(resultSet.getString("id")),
+                                UUID.fromString(resultSet.getString("owner_id")),
+                                resultSet.getString("name"),
+                                resultSet.getBoolean("deleted")
+                        )
+                );
+            }
+            return argumentEntities;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
     @Override
     public List<ArgumentCardEntity> getCardsByArgumentId(@NonNull UUID argumentId) {
-        final String sql = "SELECT card_id, index_in_argument FROM argument_cards WHERE argument_id = ? ORDER BY index_in_argument";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(CARDS_IN_ARGUMENT_SQL)) {
             preparedStatement.setObject(1, argumentId);
             final ResultSet resultSet = preparedStatement.executeQuery();
             final List<ArgumentCardEntity> list = new ArrayList<>();
             while (resultSet.next()) {
-                list.add(new ArgumentCardEntity(argumentId, UUID.fromString(resultSet.getString("card_id")), resultSet.getShort("index_in_argument")));
+                list.add(new ArgumentCardEntity(argumentId, UUID.fromString(resultSet.getString("card_id")), resultSet.getLong("sort_key")));
             }
             return list;
         } catch (SQLException e) {
@@ -111,27 +249,35 @@ public class ArgumentDataAccessService implements ArgumentDao {
     }
 
     @Override
-    public short getFirstOpenIndexInArgument(@NonNull UUID argumentId) {
-        final String sql = "SELECT index_in_argument FROM argument_cards WHERE argument_id = ? ORDER BY index_in_argument DESC LIMIT 1";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+    public List<ArgumentItemEntity> getItemsInArgument(@NonNull UUID argumentId) {
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(ITEMS_IN_ARGUMENT_SQL)) {
             preparedStatement.setObject(1, argumentId);
+            preparedStatement.setObject(2, argumentId);
             final ResultSet resultSet = preparedStatement.executeQuery();
-            if (resultSet.next()) {
-                return (short) (resultSet.getShort("index_in_argument") + 1);
+            final List<ArgumentItemEntity> items = new ArrayList<>();
+            while (resultSet.next()) {
+                final String cardId = resultSet.getString("card_id");
+                final String analyticId = resultSet.getString("analytic_id");
+                items.add(
+                        new ArgumentItemEntity(
+                                cardId == null ? null : UUID.fromString(cardId),
+                                analyticId == null ? null : UUID.fromString(analyticId),
+                                resultSet.getLong("sort_key")
+                        )
+                );
             }
-            return 0;
+            return items;
         } catch (SQLException e) {
             e.printStackTrace();
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
+            throw new InternalServerException();
         }
     }
 
     @Override
     public List<ArgumentEntity> getArgumentsByUser(@NonNull UUID id) {
-        final String sql = "SELECT id, name FROM arguments WHERE owner_id = ? AND deleted = false";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(ARGUMENTS_BY_USER_SQL)) {
             preparedStatement.setObject(1, id);
             final ResultSet resultSet = preparedStatement.executeQuery();
             final List<ArgumentEntity> args = new ArrayList<>();
@@ -157,9 +303,8 @@ public class ArgumentDataAccessService implements ArgumentDao {
         if (!includeDeleted) {
             return getArgumentsByUser(id);
         }
-        final String sql = "SELECT id, name, deleted FROM arguments WHERE owner_id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(ARGUMENTS_BY_USER_INCLUDING_DELETED_SQL)) {
             preparedStatement.setObject(1, id);
             final ResultSet resultSet = preparedStatement.executeQuery();
             final List<ArgumentEntity> args = new ArrayList<>();
@@ -182,9 +327,8 @@ public class ArgumentDataAccessService implements ArgumentDao {
 
     @Override
     public int getNumberOfArgumentsByUser(@NonNull UUID id) {
-        final String sql = "SELECT COUNT(id) FROM arguments WHERE owner_id = ? AND deleted = FALSE";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(NUMBER_OF_ARGUMENTS_BY_USER_SQL)) {
             preparedStatement.setObject(1, id);
             final ResultSet resultSet = preparedStatement.executeQuery();
             if (resultSet.next()) {
@@ -197,13 +341,32 @@ public class ArgumentDataAccessService implements ArgumentDao {
     }
 
     @Override
-    public void incrementCardPositionsInArgumentAtOrPastIndex(@NonNull UUID argumentId, short index) {
-        final String sql = "UPDATE argument_cards SET index_in_argument = index_in_argument + 1 WHERE argument_id = ? AND index_in_argument >= ?";
-        try {
-            final PreparedStatement incrementStatement = jdbcTemplate.getConnection().prepareStatement(sql);
-            incrementStatement.setObject(1, argumentId);
-            incrementStatement.setShort(2, index);
-            incrementStatement.executeUpdate();
+    public void addCardToArgument(@NonNull UUID argumentId, @NonNull UUID cardId, long sortKey) {
+        final String sql = "INSERT INTO argument_cards (argument_id, card_id, sort_key) VALUES (?, ?, ?)";
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement insertStatement = connection.prepareStatement(sql)) {
+            insertStatement.setObject(1, argumentId);
+            insertStatement.setObject(2, cardId);
+            insertStatement.setLong(3, sortKey);
+            insertStatement.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @Override
+    public void updateCardSortKey(@NonNull UUID argumentId, @NonNull UUID cardId, long oldSortKey, long newSortKey) {
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(UPDATE_CARD_SORT_KEY_SQL)) {
+            preparedStatement.setLong(1, newSortKey);
+            preparedStatement.setObject(2, argumentId);
+            preparedStatement.setObject(3, cardId);
+            preparedStatement.setLong(4, oldSortKey);
+            if (preparedStatement.executeUpdate() == 0) {
+                logger.warn("ArgumentDataAccessService#updateCardSortKey moved 0 cards; params: ({}, {}, {})", UUIDCompressor.compress(argumentId), UUIDCompressor.compress(cardId), oldSortKey);
+                throw new InternalServerException();
+            }
         } catch (SQLException e) {
             e.printStackTrace();
             throw new InternalServerException();
@@ -211,25 +374,24 @@ public class ArgumentDataAccessService implements ArgumentDao {
     }
 
     @Override
-    public void addCardToArgument(@NonNull UUID argumentId, @NonNull UUID cardId, short indexInArgument) {
-        final String sql = "INSERT INTO argument_cards (argument_id, card_id, index_in_argument) VALUES (?, ?, ?)";
-        try {
-            final PreparedStatement insertStatement = jdbcTemplate.getConnection().prepareStatement(sql);
-            insertStatement.setObject(1, argumentId);
-            insertStatement.setObject(2, cardId);
-            insertStatement.setShort(3, indexInArgument);
-            insertStatement.executeUpdate();
+    public void renumberItemsInArgument(@NonNull UUID argumentId, long gap) {
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(RENUMBER_ITEMS_IN_ARGUMENT_SQL)) {
+            preparedStatement.setObject(1, argumentId);
+            preparedStatement.setObject(2, argumentId);
+            preparedStatement.setLong(3, gap);
+            preparedStatement.setObject(4, argumentId);
+            preparedStatement.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR);
+            throw new InternalServerException();
         }
     }
 
     @Override
     public short getNumberOfCardsInArgument(@NonNull UUID argumentId) {
-        final String sql = "SELECT COUNT(*) FROM argument_cards WHERE argument_id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(NUMBER_OF_CARDS_IN_ARGUMENT_SQL)) {
             preparedStatement.setObject(1, argumentId);
             final ResultSet resultSet = preparedStatement.executeQuery();
             if (resultSet.next()) {
@@ -243,13 +405,71 @@ public class ArgumentDataAccessService implements ArgumentDao {
     }
 
     @Override
-    public void decrementCardPositionsInArgumentAtOrPastIndex(@NonNull UUID argumentId, @NonNull short index) {
-        final String sql = "UPDATE argument_cards SET index_in_argument = index_in_argument - 1 WHERE argument_id = ? AND index_in_argument >= ?";
-        try {
-            final PreparedStatement decrementStatement = jdbcTemplate.getConnection().prepareStatement(sql);
-            decrementStatement.setObject(1, argumentId);
-            decrementStatement.setShort(2, index);
-            decrementStatement.executeUpdate();
+    public Map<UUID, Integer> getNumberOfCardsInArguments(@NonNull Collection<UUID> argumentIds) {
+        return countGroupedBy(NUMBER_OF_CARDS_IN_ARGUMENTS_SQL, "argument_id", argumentIds);
+    }
+
+    @Override
+    public Map<UUID, Integer> getNumberOfArgumentCardEntitiesByCardIds(@NonNull Collection<UUID> cardIds) {
+        return countGroupedBy(NUMBER_OF_ARGUMENT_CARD_ENTITIES_BY_CARD_IDS_SQL, "card_id", cardIds);
+    }
+
+    /**
+     * Runs a query that counts rows for each of several ids
+     *
+     * @param sql    Query with one array parameter for the ids, returning each id (in <code>column</code>) with its count
+     * @param column Column of the result that holds the id
+     * @param ids    Ids to count rows for
+     * @return A map of id to number of rows. Ids without any rows are left out
+     */
+    private Map<UUID, Integer> countGroupedBy(String sql, String column, Collection<UUID> ids) {
+        final Map<UUID, Integer> counts = new HashMap<>();
+        if (ids.isEmpty()) {
+            return counts;
+        }
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setArray(1, connection.createArrayOf("uuid", ids.toArray()));
+            final ResultSet resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                counts.put(UUID.fromString(resultSet.getString(column)), resultSet.getInt("count"));
+            }
+            return counts;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
+    @Override
+    public int reorderItemsInArgument(@NonNull UUID argumentId, @NonNull List<ArgumentItemEntity> items, long gap) {
+        final List<UUID> cardIds = new ArrayList<>();
+        final List<Long> oldCardSortKeys = new ArrayList<>();
+        final List<Long> newCardSortKeys = new ArrayList<>();
+        final List<UUID> analyticIds = new ArrayList<>();
+        final List<Long> newAnalyticSortKeys = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            final ArgumentItemEntity item = items.get(i);
+            if (item.isCard()) {
+                cardIds.add(item.getCardId());
+                oldCardSortKeys.add(item.getSortKey());
+                newCardSortKeys.add((i + 1) * gap);
+            } else {
+                analyticIds.add(item.getAnalyticId());
+                newAnalyticSortKeys.add((i + 1) * gap);
+            }
+        }
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement cardStatement = connection.prepareStatement(REORDER_CARDS_IN_ARGUMENT_SQL);
+             final PreparedStatement analyticStatement = connection.prepareStatement(REORDER_ANALYTICS_IN_ARGUMENT_SQL)) {
+            cardStatement.setArray(1, connection.createArrayOf("uuid", cardIds.toArray()));
+            cardStatement.setArray(2, connection.createArrayOf("int8", oldCardSortKeys.toArray()));
+            cardStatement.setArray(3, connection.createArrayOf("int8", newCardSortKeys.toArray()));
+            cardStatement.setObject(4, argumentId);
+            analyticStatement.setArray(1, connection.createArrayOf("uuid", analyticIds.toArray()));
+            analyticStatement.setArray(2, connection.createArrayOf("int8", newAnalyticSortKeys.toArray()));
+            analyticStatement.setObject(3, argumentId);
+            return cardStatement.executeUpdate() + analyticStatement.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
             throw new InternalServerException();
@@ -257,15 +477,100 @@ public class ArgumentDataAccessService implements ArgumentDao {
     }
 
     @Override
-    public void removeCardFromArgument(@NonNull UUID argumentId, @NonNull UUID cardId, short index) {
-        final String sql = "DELETE FROM argument_cards WHERE argument_id = ? AND card_id = ? AND index_in_argument = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+    public int getItemsVersion(@NonNull UUID argumentId) {
+        final String sql = "SELECT items_version FROM arguments WHERE id = ?";
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setObject(1, argumentId);
+            final ResultSet resultSet = preparedStatement.executeQuery();
+            if (resultSet.next()) {
+                return resultSet.getInt("items_version");
+            }
+            throw new ArgumentNotFoundException();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
+    @Override
+    public void incrementItemsVersion(@NonNull UUID argumentId) {
+        final String sql = "UPDATE arguments SET items_version = items_version + 1, last_modified = " + EntityVersion.NEXT_LAST_MODIFIED + " WHERE id = ?";
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setLong(1, System.currentTimeMillis());
+            preparedStatement.setObject(2, argumentId);
+            preparedStatement.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
+    @Override
+    public boolean compareAndIncrementItemsVersion(@NonNull UUID argumentId, int expectedVersion) {
+        final String sql = "UPDATE arguments SET items_version = items_version + 1, last_modified = " + EntityVersion.NEXT_LAST_MODIFIED + " WHERE id = ? AND items_version = ?";
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setLong(1, System.currentTimeMillis());
+            preparedStatement.setObject(2, argumentId);
+            preparedStatement.setInt(3, expectedVersion);
+            return preparedStatement.executeUpdate() > 0;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
+    @Override
+    public void updateLastModified(@NonNull UUID argumentId) {
+        final String sql = "UPDATE arguments SET last_modified = " + EntityVersion.NEXT_LAST_MODIFIED + " WHERE id = ?";
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setLong(1, System.currentTimeMillis());
+            preparedStatement.setObject(2, argumentId);
+            preparedStatement.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
+    @Override
+    public Optional<EntityVersion> getArgumentVersionById(@NonNull UUID argumentId) {
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(ARGUMENT_VERSION_BY_ID_SQL)) {
+            preparedStatement.setObject(1, argumentId);
+            final ResultSet resultSet = preparedStatement.executeQuery();
+            if (!resultSet.next()) {
+                return Optional.empty();
+            }
+            final int itemsVersion = resultSet.getInt("items_version");
+            final long lastModified = resultSet.getLong("last_modified");
+            final long cardsLastModified = resultSet.getLong("cards_last_modified");
+            return Optional.of(
+                    new EntityVersion(
+                            UUID.fromString(resultSet.getString("owner_id")),
+                            itemsVersion + "-" + lastModified + "-" + cardsLastModified,
+                            Math.max(lastModified, cardsLastModified)
+                    )
+            );
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
+    @Override
+    public void removeCardFromArgument(@NonNull UUID argumentId, @NonNull UUID cardId, long sortKey) {
+        final String sql = "DELETE FROM argument_cards WHERE argument_id = ? AND card_id = ? AND sort_key = ?";
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setObject(1, argumentId);
             preparedStatement.setObject(2, cardId);
-            preparedStatement.setShort(3, index);
+            preparedStatement.setLong(3, sortKey);
             if (preparedStatement.executeUpdate() == 0) {
-                logger.warn("ArgumentDataAccessService#removeCardFromArgument removed 0 cards; params: ({}, {}, {})", UUIDCompressor.compress(argumentId), UUIDCompressor.compress(cardId), index);
+                logger.warn("ArgumentDataAccessService#removeCardFromArgument removed 0 cards; params: ({}, {}, {})", UUIDCompressor.compress(argumentId), UUIDCompressor.compress(cardId), sortKey);
                 // Since this should never happen at the DAO layer, throw an exception
                 throw new InternalServerException();
             }
@@ -277,10 +582,11 @@ public class ArgumentDataAccessService implements ArgumentDao {
 
     @Override
     public void markArgumentAsDeleted(@NonNull UUID argumentId) {
-        final String sql = "UPDATE arguments SET deleted = TRUE WHERE id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
-            preparedStatement.setObject(1, argumentId);
+        final String sql = "UPDATE arguments SET deleted = TRUE, last_modified = " + EntityVersion.NEXT_LAST_MODIFIED + " WHERE id = ?";
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setLong(1, System.currentTimeMillis());
+            preparedStatement.setObject(2, argumentId);
             int rowsRemoved = preparedStatement.executeUpdate();
             if (rowsRemoved == 0) {
                 throw new ArgumentNotFoundException();
@@ -293,11 +599,12 @@ public class ArgumentDataAccessService implements ArgumentDao {
 
     @Override
     public void renameArgument(@NonNull UUID argumentId, @NonNull String newName) {
-        final String sql = "UPDATE arguments SET name = ? WHERE id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        final String sql = "UPDATE arguments SET name = ?, last_modified = " + EntityVersion.NEXT_LAST_MODIFIED + " WHERE id = ?";
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setString(1, newName);
-            preparedStatement.setObject(2, argumentId);
+            preparedStatement.setLong(2, System.currentTimeMillis());
+            preparedStatement.setObject(3, argumentId);
             int rowsChanged = preparedStatement.executeUpdate();
             if (rowsChanged == 0) {
                 throw new ArgumentNotFoundException();
@@ -308,26 +615,10 @@ public class ArgumentDataAccessService implements ArgumentDao {
         }
     }
 
-    @Override
-    public void setCardIndexInArgumentUnchecked(UUID argumentId, short newIndex, short oldIndex) {
-        final String sql = "UPDATE argument_cards SET index_in_argument = ? WHERE argument_id = ? AND index_in_argument = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
-            preparedStatement.setShort(1, newIndex);
-            preparedStatement.setObject(2, argumentId);
-            preparedStatement.setShort(3, oldIndex);
-            preparedStatement.executeUpdate();
-        } catch (SQLException e) {
-            e.printStackTrace();
-            throw new InternalServerException();
-        }
-    }
-
     @Override
     public List<ArgumentCardEntity> getArgumentCardEntitiesByCardId(@NonNull UUID cardId) {
-        final String sql = "SELECT argument_id, index_in_argument FROM argument_cards AS ac INNER JOIN arguments as a ON a.id = ac.argument_id WHERE ac.card_id = ? AND a.deleted = FALSE";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(ARGUMENT_CARD_ENTITIES_BY_CARD_ID_SQL)) {
             preparedStatement.setObject(1, cardId);
             final ResultSet resultSet = preparedStatement.executeQuery();
             final List<ArgumentCardEntity> argumentCards = new ArrayList<>();
@@ -336,7 +627,7 @@ public class ArgumentDataAccessService implements ArgumentDao {
                         new ArgumentCardEntity(
                                 UUID.fromString(resultSet.getString("argument_id")),
                                 cardId,
-                                resultSet.getShort("index_in_argument")
+                                resultSet.getLong("sort_key")
                         )
                 );
             }
@@ -349,9 +640,8 @@ public class ArgumentDataAccessService implements ArgumentDao {
 
     @Override
     public List<ArgumentCardJoinEntity> getArgumentCardJoinEntitiesByCardId(@NonNull UUID cardId) {
-        final String sql = "SELECT argument_id, index_in_argument, owner_id, name FROM argument_cards AS ac INNER JOIN arguments ON arguments.id = ac.argument_id WHERE ac.card_id = ? AND arguments.deleted = FALSE";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(ARGUMENT_CARD_JOIN_ENTITIES_BY_CARD_ID_SQL)) {
             preparedStatement.setObject(1, cardId);
             final ResultSet resultSet = preparedStatement.executeQuery();
             final List<ArgumentCardJoinEntity> argumentCardJoinEntities = new ArrayList<>();
@@ -375,9 +665,8 @@ public class ArgumentDataAccessService implements ArgumentDao {
 
     @Override
     public int getNumberOfArgumentsByTeam(@NonNull UUID teamId) {
-        final String sql = "SELECT COUNT(arguments.id) FROM arguments INNER JOIN team_members ON team_members.user_id = arguments.owner_id WHERE team_members.team_id = ? AND arguments.deleted = FALSE";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(NUMBER_OF_ARGUMENTS_BY_TEAM_SQL)) {
             preparedStatement.setObject(1, teamId);
             final ResultSet resultSet = preparedStatement.executeQuery();
             if (resultSet.next()) {
@@ -391,9 +680,8 @@ public class ArgumentDataAccessService implements ArgumentDao {
 
     @Override
     public List<ArgumentEntity> getArgumentsByTeam(@NonNull UUID teamId) {
-        final String sql = "SELECT id, owner_id, name, deleted FROM arguments INNER JOIN team_members ON team_members.user_id = arguments.owner_id WHERE team_members.team_id = ? AND deleted = FALSE";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(ARGUMENTS_BY_TEAM_SQL)) {
             preparedStatement.setObject(1, teamId);
             final ResultSet resultSet = preparedStatement.executeQuery();
             final List<ArgumentEntity> args = new ArrayList<>();
@@ -419,9 +707,8 @@ public class ArgumentDataAccessService implements ArgumentDao {
         if (!includeDeleted) {
             return getArgumentsByTeam(teamId);
         }
-        final String sql = "SELECT id, owner_id, name, deleted FROM arguments INNER JOIN team_members ON team_members.user_id = arguments.owner_id WHERE team_members.team_id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(ARGUMENTS_BY_TEAM_INCLUDING_DELETED_SQL)) {
             preparedStatement.setObject(1, teamId);
             final ResultSet resultSet = preparedStatement.executeQuery();
             final List<ArgumentEntity> args = new ArrayList<>();
@@ -443,83 +730,275 @@ public class ArgumentDataAccessService implements ArgumentDao {
     }
 
     @Override
-    public void restoreArgumentById(@NonNull UUID id) {
-        final String sql = "UPDATE arguments SET deleted = FALSE WHERE id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
-            preparedStatement.setObject(1, id);
-            final int rowsChanged = preparedStatement.executeUpdate();
-            if (rowsChanged == 0) {
-                throw new ArgumentNotFoundException();
-            } else if (rowsChanged > 1) {
-                logger.warn("There were more than one rows changed in a statement to restore a argument.");
-            }
+    public List<ArgumentEntityWithCardHeaders> getArgumentPreviewsByUser(@NonNull UUID userId, boolean includeDeleted) {
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(includeDeleted ? ARGUMENT_PREVIEWS_BY_USER_INCLUDING_DELETED_SQL : ARGUMENT_PREVIEWS_BY_USER_SQL)) {
+            preparedStatement.setObject(1, userId);
+            return groupArgumentPreviewRows(preparedStatement.executeQuery());
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
+    @Override
+    public List<ArgumentEntityWithCardHeaders> getArgumentPreviewsByTeam(@NonNull UUID teamId, boolean includeDeleted) {
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(includeDeleted ? ARGUMENT_PREVIEWS_BY_TEAM_INCLUDING_DELETED_SQL : ARGUMENT_PREVIEWS_BY_TEAM_SQL)) {
+            preparedStatement.setObject(1, teamId);
+            return groupArgumentPreviewRows(preparedStatement.executeQuery());
         } catch (SQLException e) {
             e.printStackTrace();
-            logger.warn("SQL exception occurred when restoring argument {}", id);
             throw new InternalServerException();
         }
+    }
 
+    @Override
+    public void forEachArgumentPreviewByUser(@NonNull UUID userId, boolean includeDeleted, @NonNull ItemConsumer<ArgumentEntityWithCardHeaders> consumer) throws IOException {
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(includeDeleted ? ARGUMENT_PREVIEWS_BY_USER_INCLUDING_DELETED_SQL : ARGUMENT_PREVIEWS_BY_USER_SQL)) {
+            preparedStatement.setObject(1, userId);
+            final ArgumentPreviewGrouper grouper = new ArgumentPreviewGrouper(consumer);
+            CursorQueries.forEachRow(connection, preparedStatement, grouper);
+            grouper.finish();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
     }
 
     @Override
-    public void deleteArgumentById(@NonNull UUID id) {
-        final String sql = "DELETE FROM arguments WHERE id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
-            preparedStatement.setObject(1, id);
-            preparedStatement.executeUpdate();
+    public void forEachArgumentPreviewByTeam(@NonNull UUID teamId, boolean includeDeleted, @NonNull ItemConsumer<ArgumentEntityWithCardHeaders> consumer) throws IOException {
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(includeDeleted ? ARGUMENT_PREVIEWS_BY_TEAM_INCLUDING_DELETED_SQL : ARGUMENT_PREVIEWS_BY_TEAM_SQL)) {
+            preparedStatement.setObject(1, teamId);
+            final ArgumentPreviewGrouper grouper = new ArgumentPreviewGrouper(consumer);
+            CursorQueries.forEachRow(connection, preparedStatement, grouper);
+            grouper.finish();
         } catch (SQLException e) {
             e.printStackTrace();
             throw new InternalServerException();
         }
     }
 
+    /**
+     * Groups the rows of an argument preview query (one row per card in an argument, or a single row with null card columns
+     * if the argument is empty) into <code>ArgumentEntityWithCardHeaders</code>. Expects rows to be sorted by argument id
+     *
+     * @param resultSet Rows to group
+     * @return The arguments with their card headers, in the order they appear in the result set
+     * @throws SQLException If an error occurs while reading the result set
+     */
+    private List<ArgumentEntityWithCardHeaders> groupArgumentPreviewRows(@NonNull ResultSet resultSet) throws SQLException {
+        final List<ArgumentEntityWithCardHeaders> args = new ArrayList<>();
+        ArgumentEntityWithCardHeaders current = null;
+        while (resultSet.next()) {
+            final ArgumentEntityWithCardHeaders arg = readArgumentPreviewRow(resultSet, current);
+            if (arg != current) {
+                args.add(arg);
+                current = arg;
+            }
+        }
+        return args;
+    }
+
+    /**
+     * Reads a row of an argument preview query
+     *
+     * @param resultSet Result set, positioned at the row to read
+     * @param current   The argument that the previous row belonged to, or <code>null</code> if this is the first row
+     * @return <code>current</code> with the row's card added if the row belongs to it. Otherwise, a new argument with the row's card
+     * @throws SQLException If an error occurs while reading the result set
+     */
+    private static ArgumentEntityWithCardHeaders readArgumentPreviewRow(@NonNull ResultSet resultSet, ArgumentEntityWithCardHeaders current) throws SQLException {
+        final UUID argumentId = UUID.fromString(resultSet.getString("id"));
+        final ArgumentEntityWithCardHeaders arg;
+        if (current != null && current.getId().equals(argumentId)) {
+            arg = current;
+        } else {
+            arg = new ArgumentEntityWithCardHeaders(
+                    argumentId,
+                    UUID.fromString(resultSet.getString("owner_id")),
+                    resultSet.getString("name"),
+                    resultSet.getBoolean("deleted"),
+                    new ArrayList<>()
+            );
+        }
+        final String cardId = resultSet.getString("card_id");
+        if (cardId != null) {
+            arg.getCards().add(
+                    new CardHeaderEntity(
+                            UUID.fromString(cardId),
+                            UUID.fromString(resultSet.getString("card_owner_id")),
+                            CipherText.toText(resultSet.getBytes("tag")),
+                            CipherText.toText(resultSet.getBytes("cite")),
+                            resultSet.getLong("time_created_at"),
+                            resultSet.getLong("last_modified")
+                    )
+            );
+        }
+        return arg;
+    }
+
+    /**
+     * Groups the rows of an argument preview query as they're read from a cursor, passing each argument on once all
+     * of its rows have been read
+     */
+    private static final class ArgumentPreviewGrouper implements CursorQueries.RowHandler {
+
+        private final ItemConsumer<ArgumentEntityWithCardHeaders> consumer;
+
+        private ArgumentEntityWithCardHeaders current;
+
+        private ArgumentPreviewGrouper(ItemConsumer<ArgumentEntityWithCardHeaders> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void handle(ResultSet resultSet) throws SQLException, IOException {
+            final ArgumentEntityWithCardHeaders arg = readArgumentPreviewRow(resultSet, current);
+            if (arg != current) {
+                if (current != null) {
+                    consumer.accept(current);
+                }
+                current = arg;
+            }
+        }
+
+        /**
+         * Passes on the last argument. Call after every row has been read
+         */
+        private void finish() throws IOException {
+            if (current != null) {
+                consumer.accept(current);
+                current = null;
+            }
+        }
+
+    }
+
     @Override
-    public Optional<UUID> getCardIdInArgumentAtPosition(@NonNull UUID argId, short indexInArgument) {
-        final String sql = "SELECT card_id FROM argument_cards WHERE argument_id = ? AND index_in_argument = ? LIMIT 1";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
-            preparedStatement.setObject(1, argId);
-            preparedStatement.setShort(2, indexInArgument);
+    public List<ArgumentEntityWithItems> getArgumentsWithItemsByUserAfter(@NonNull UUID userId, @NonNull UUID after, int limit) {
+        return getArgumentsWithItems(ARGUMENTS_WITH_ITEMS_BY_USER_AFTER_SQL, userId, after, limit);
+    }
+
+    @Override
+    public List<ArgumentEntityWithItems> getArgumentsWithItemsByTeamAfter(@NonNull UUID teamId, @NonNull UUID after, int limit) {
+        return getArgumentsWithItems(ARGUMENTS_WITH_ITEMS_BY_TEAM_AFTER_SQL, teamId, after, limit);
+    }
+
+    private List<ArgumentEntityWithItems> getArgumentsWithItems(String sql, UUID ownerId, UUID after, int limit) {
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setObject(1, ownerId);
+            preparedStatement.setObject(2, after);
+            preparedStatement.setInt(3, limit);
+            final List<ArgumentEntityWithItems> arguments = new ArrayList<>();
+            final ArgumentWithItemsGrouper grouper = new ArgumentWithItemsGrouper(arguments::add);
             final ResultSet resultSet = preparedStatement.executeQuery();
-            if (resultSet.next()) {
-                return Optional.of(UUID.fromString(resultSet.getString("card_id")));
+            while (resultSet.next()) {
+                grouper.handle(resultSet);
             }
-            return Optional.empty();
-        } catch (SQLException e) {
+            grouper.finish();
+            return arguments;
+        } catch (SQLException | IOException e) {
+            // Adding to a list never throws an IOException
             e.printStackTrace();
             throw new InternalServerException();
         }
     }
 
+    /**
+     * Groups the rows of an argument with items query as they're read, passing each argument on once all of its rows
+     * have been read
+     */
+    private static final class ArgumentWithItemsGrouper implements CursorQueries.RowHandler {
+
+        private final ItemConsumer<ArgumentEntityWithItems> consumer;
+
+        private ArgumentEntityWithItems current;
+
+        private ArgumentWithItemsGrouper(ItemConsumer<ArgumentEntityWithItems> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void handle(ResultSet resultSet) throws SQLException, IOException {
+            final UUID argumentId = UUID.fromString(resultSet.getString("id"));
+            if (current == null || !current.getId().equals(argumentId)) {
+                finish();
+                current = new ArgumentEntityWithItems(
+                        argumentId,
+                        UUID.fromString(resultSet.getString("owner_id")),
+                        resultSet.getString("name"),
+                        resultSet.getBoolean("deleted"),
+                        new ArrayList<>(),
+                        new ArrayList<>()
+                );
+            }
+            final String cardId = resultSet.getString("card_id");
+            final String analyticId = resultSet.getString("analytic_id");
+            if (cardId == null && analyticId == null) {
+                // The argument doesn't have any items
+                return;
+            }
+            final long sortKey = resultSet.getLong("sort_key");
+            current.getItems().add(
+                    new ArgumentItemEntity(
+                            cardId == null ? null : UUID.fromString(cardId),
+                            analyticId == null ? null : UUID.fromString(analyticId),
+                            sortKey
+                    )
+            );
+            if (analyticId != null) {
+                current.getAnalytics().add(new AnalyticEntity(UUID.fromString(analyticId), argumentId, resultSet.getString("body"), sortKey));
+            }
+        }
+
+        /**
+         * Passes on the last argument. Call after every row has been read
+         */
+        private void finish() throws IOException {
+            if (current != null) {
+                consumer.accept(current);
+                current = null;
+            }
+        }
+
+    }
+
     @Override
-    public void incrementPositionsOfCardsInArgument(UUID argumentId, short startInclusive, short endInclusive) {
-        final String sql = "UPDATE argument_cards SET index_in_argument = index_in_argument + 1 WHERE argument_id = ? AND index_in_argument >= ? AND index_in_argument <= ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
-            preparedStatement.setObject(1, argumentId);
-            preparedStatement.setShort(2, startInclusive);
-            preparedStatement.setShort(3, endInclusive);
-            preparedStatement.executeUpdate();
+    public void restoreArgumentById(@NonNull UUID id) {
+        final String sql = "UPDATE arguments SET deleted = FALSE, last_modified = " + EntityVersion.NEXT_LAST_MODIFIED + " WHERE id = ?";
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setLong(1, System.currentTimeMillis());
+            preparedStatement.setObject(2, id);
+            final int rowsChanged = preparedStatement.executeUpdate();
+            if (rowsChanged == 0) {
+                throw new ArgumentNotFoundException();
+            } else if (rowsChanged > 1) {
+                logger.warn("There were more than one rows changed in a statement to restore a argument.");
+            }
         } catch (SQLException e) {
             e.printStackTrace();
+            logger.warn("SQL exception occurred when restoring argument {}", id);
             throw new InternalServerException();
         }
+
     }
 
     @Override
-    public void decrementPositionsOfCardsInArgument(UUID argumentId, short startInclusive, short endInclusive) {
-        final String sql = "UPDATE argument_cards SET index_in_argument = index_in_argument - 1 WHERE argument_id = ? AND index_in_argument >= ? AND index_in_argument <= ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
-            preparedStatement.setObject(1, argumentId);
-            preparedStatement.setShort(2, startInclusive);
-            preparedStatement.setShort(3, endInclusive);
+    public void deleteArgumentById(@NonNull UUID id) {
+        final String sql = "DELETE FROM arguments WHERE id = ?";
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setObject(1, id);
             preparedStatement.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
             throw new InternalServerException();
         }
     }
+
 }
@@ -11,18 +11,14 @@ import java.util.UUID;
 public interface ArgumentAnalyticDao {
 
     /**
-     * Creates an analytic in an argument at a position. Does not alter any other items in argument
+     * Creates an analytic in an argument with a sort key. Does not alter any other items in argument
      *
      * @param argumentId Id of argument to create analytic in
      * @param body Body of analytic (encrypted)
-     * @param indexInArgument Index in argument to insert in
+     * @param sortKey Sort key of the analytic, which decides where it appears among the other items of the argument
      * @return Id of new analytic
      */
-    UUID createAnalytic(UUID argumentId, String body, short indexInArgument);
-
-    void incrementPositionsOfAnalyticsInArgumentAtOrPastIndex(UUID argumentId, short index);
-
-    void decrementPositionsOfAnalyticsInArgumentAtOrPastIndex(UUID argumentId, short index);
+    UUID createAnalytic(UUID argumentId, String body, long sortKey);
 
     /**
      *
@@ -31,18 +27,35 @@ public interface ArgumentAnalyticDao {
      */
     void updateAnalyticById(UUID id, EncryptedAnalytic analytic);
 
+    /**
+     * @param id Id of argument
+     * @return The analytics of the argument, ordered by their sort key
+     */
     List<AnalyticEntity> getAnalyticsByArgumentId(UUID id);
 
-    short getFirstOpenIndexInArgument(UUID argId);
-
-    Optional<UUID> getAnalyticIdInArgumentAtPosition(UUID argId, short indexInArgument);
-
-    void incrementPositionsOfAnalyticsInArgument(UUID argumentId, short startInclusive, short endInclusive);
+    /**
+     * Gets the analytics in every argument that a user owns, including deleted arguments
+     *
+     * @param ownerId Id of user
+     * @return The analytics of the user's arguments, in no particular order
+     */
+    List<AnalyticEntity> getAnalyticsByUser(UUID ownerId);
 
-    void decrementPositionsOfAnalyticsInArgument(UUID argumentId, short startInclusive, short endInclusive);
+    /**
+     * Gets the analytics in every argument owned by a member of a team, including deleted arguments
+     *
+     * @param teamId Id of team
+     * @return The analytics of the team's arguments, in no particular order
+     */
+    List<AnalyticEntity> getAnalyticsByTeam(UUID teamId);
 
-    // todo rename indexInArgument to position
-    void updatePositionOfAnalyticById(UUID id, short indexInArgument);
+    /**
+     * Changes the sort key of an analytic (i.e. moves it). Does not alter any other items in its argument
+     *
+     * @param id Id of analytic to move
+     * @param sortKey New sort key of the analytic
+     */
+    void updateSortKeyOfAnalyticById(UUID id, long sortKey);
 
     short getNumberOfAnalyticsInArgument(UUID argumentId);
 
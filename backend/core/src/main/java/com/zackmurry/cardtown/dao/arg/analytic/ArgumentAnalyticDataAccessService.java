@@ -3,13 +3,14 @@ package com.zackmurry.cardtown.dao.arg.analytic;
 import com.zackmurry.cardtown.exception.InternalServerException;
 import com.zackmurry.cardtown.model.analytic.AnalyticEntity;
 import com.zackmurry.cardtown.model.analytic.EncryptedAnalytic;
-import org.flywaydb.core.internal.jdbc.JdbcTemplate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
 import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Repository;
 
 import javax.sql.DataSource;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -23,21 +24,34 @@ public class ArgumentAnalyticDataAccessService implements ArgumentAnalyticDao {
 
     private static final Logger logger = LoggerFactory.getLogger(ArgumentAnalyticDataAccessService.class);
 
-    private final JdbcTemplate jdbcTemplate;
+    // Queries are package-private so that ArgumentAnalyticQueryPlanTest can check that they use indexes
 
-    public ArgumentAnalyticDataAccessService(DataSource dataSource) throws SQLException {
-        this.jdbcTemplate = new JdbcTemplate(dataSource.getConnection());
+    static final String ANALYTICS_IN_ARGUMENT_SQL = "SELECT id, body, sort_key FROM argument_analytics WHERE argument_id = ? ORDER BY sort_key";
+
+    static final String NUMBER_OF_ANALYTICS_IN_ARGUMENT_SQL = "SELECT COUNT(*) FROM argument_analytics WHERE argument_id = ?";
+
+    static final String ANALYTICS_BY_USER_SQL = "SELECT argument_analytics.id, argument_id, body, sort_key FROM argument_analytics " +
+            "INNER JOIN arguments ON arguments.id = argument_analytics.argument_id WHERE arguments.owner_id = ?";
+
+    static final String ANALYTICS_BY_TEAM_SQL = "SELECT argument_analytics.id, argument_id, body, sort_key FROM argument_analytics " +
+            "INNER JOIN arguments ON arguments.id = argument_analytics.argument_id " +
+            "INNER JOIN team_members ON team_members.user_id = arguments.owner_id WHERE team_members.team_id = ?";
+
+    private final DataSource dataSource;
+
+    public ArgumentAnalyticDataAccessService(DataSource dataSource) {
+        this.dataSource = new TransactionAwareDataSourceProxy(dataSource);
     }
 
     @Override
-    public UUID createAnalytic(@NonNull UUID argumentId, @NonNull String body, short indexInArgument) {
-        final String sql = "INSERT INTO argument_analytics (argument_id, body, index_in_argument) VALUES (?, ?, ?)";
-        try {
-            final String[] returnId = {"id"};
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql, returnId);
+    public UUID createAnalytic(@NonNull UUID argumentId, @NonNull String body, long sortKey) {
+        final String sql = "INSERT INTO argument_analytics (argument_id, body, sort_key) VALUES (?, ?, ?)";
+        final String[] returnId = {"id"};
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql, returnId)) {
             preparedStatement.setObject(1, argumentId);
             preparedStatement.setString(2, body);
-            preparedStatement.setShort(3, indexInArgument);
+            preparedStatement.setLong(3, sortKey);
             preparedStatement.executeUpdate();
 
             final ResultSet resultSet = preparedStatement.getGeneratedKeys();
@@ -53,39 +67,11 @@ public class ArgumentAnalyticDataAccessService implements ArgumentAnalyticDao {
 
     }
 
-    @Override
-    public void incrementPositionsOfAnalyticsInArgumentAtOrPastIndex(@NonNull UUID argumentId, short index) {
-        final String sql = "UPDATE argument_analytics SET index_in_argument = index_in_argument + 1 WHERE argument_id = ? AND index_in_argument >= ?";
-        try {
-            final PreparedStatement incrementStatement = jdbcTemplate.getConnection().prepareStatement(sql);
-            incrementStatement.setObject(1, argumentId);
-            incrementStatement.setShort(2, index);
-            incrementStatement.executeUpdate();
-        } catch (SQLException e) {
-            e.printStackTrace();
-            throw new InternalServerException();
-        }
-    }
-
-    @Override
-    public void decrementPositionsOfAnalyticsInArgumentAtOrPastIndex(@NonNull UUID argumentId, short index) {
-        final String sql = "UPDATE argument_analytics SET index_in_argument = index_in_argument - 1 WHERE argument_id = ? AND index_in_argument >= ?";
-        try {
-            final PreparedStatement decrementStatement = jdbcTemplate.getConnection().prepareStatement(sql);
-            decrementStatement.setObject(1, argumentId);
-            decrementStatement.setShort(2, index);
-            decrementStatement.executeUpdate();
-        } catch (SQLException e) {
-            e.printStackTrace();
-            throw new InternalServerException();
-        }
-    }
-
     @Override
     public void updateAnalyticById(@NonNull UUID id, @NonNull EncryptedAnalytic analytic) {
         final String sql = "UPDATE argument_analytics SET body = ? WHERE id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setString(1, analytic.getBody());
             preparedStatement.setObject(2, id);
             preparedStatement.executeUpdate();
@@ -97,9 +83,8 @@ public class ArgumentAnalyticDataAccessService implements ArgumentAnalyticDao {
 
     @Override
     public List<AnalyticEntity> getAnalyticsByArgumentId(@NonNull UUID id) {
-        final String sql = "SELECT id, body, index_in_argument FROM argument_analytics WHERE argument_id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(ANALYTICS_IN_ARGUMENT_SQL)) {
             preparedStatement.setObject(1, id);
             final ResultSet resultSet = preparedStatement.executeQuery();
             final List<AnalyticEntity> analyticEntities = new ArrayList<>();
@@ -109,7 +94,7 @@ public class ArgumentAnalyticDataAccessService implements ArgumentAnalyticDao {
                                 UUID.fromString(resultSet.getString("id")),
                                 id,
                                 resultSet.getString("body"),
-                                resultSet.getShort("index_in_argument")
+                                resultSet.getLong("sort_key")
                         )
                 );
             }
@@ -121,64 +106,32 @@ public class ArgumentAnalyticDataAccessService implements ArgumentAnalyticDao {
     }
 
     @Override
-    public short getFirstOpenIndexInArgument(@NonNull UUID argId) {
-        final String sql = "SELECT index_in_argument FROM argument_analytics WHERE argument_id = ? ORDER BY index_in_argument DESC LIMIT 1";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
-            preparedStatement.setObject(1, argId);
-            final ResultSet resultSet = preparedStatement.executeQuery();
-            if (resultSet.next()) {
-                return (short) (resultSet.getShort("index_in_argument") + 1);
-            }
-            return 0;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            throw new InternalServerException();
-        }
-    }
-
-    @Override
-    public Optional<UUID> getAnalyticIdInArgumentAtPosition(UUID argId, short indexInArgument) {
-        final String sql = "SELECT id FROM argument_analytics WHERE argument_id = ? AND index_in_argument = ? LIMIT 1";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
-            preparedStatement.setObject(1, argId);
-            preparedStatement.setShort(2, indexInArgument);
-            final ResultSet resultSet = preparedStatement.executeQuery();
-            if (resultSet.next()) {
-                return Optional.of(UUID.fromString(resultSet.getString("id")));
-            }
-            return Optional.empty();
-        } catch (SQLException e) {
-            e.printStackTrace();
-            throw new InternalServerException();
-        }
+    public List<AnalyticEntity> getAnalyticsByUser(@NonNull UUID ownerId) {
+        return getAnalytics(ANALYTICS_BY_USER_SQL, ownerId);
     }
 
     @Override
-    public void incrementPositionsOfAnalyticsInArgument(@NonNull UUID argumentId, short startInclusive, short endInclusive) {
-        final String sql = "UPDATE argument_analytics SET index_in_argument = index_in_argument + 1 WHERE argument_id = ? AND index_in_argument >= ? AND index_in_argument <= ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
-            preparedStatement.setObject(1, argumentId);
-            preparedStatement.setShort(2, startInclusive);
-            preparedStatement.setShort(3, endInclusive);
-            preparedStatement.executeUpdate();
-        } catch (SQLException e) {
-            e.printStackTrace();
-            throw new InternalServerException();
-        }
+    public List<AnalyticEntity> getAnalyticsByTeam(@NonNull UUID teamId) {
+        return getAnalytics(ANALYTICS_BY_TEAM_SQL, teamId);
     }
 
-    @Override
-    public void decrementPositionsOfAnalyticsInArgument(@NonNull UUID argumentId, short startInclusive, short endInclusive) {
-        final String sql = "UPDATE argument_analytics SET index_in_argument = index_in_argument - 1 WHERE argument_id = ? AND index_in_argument >= ? AND index_in_argument <= ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
-            preparedStatement.setObject(1, argumentId);
-            preparedStatement.setShort(2, startInclusive);
-            preparedStatement.setShort(3, endInclusive);
-            preparedStatement.executeUpdate();
+    private List<AnalyticEntity> getAnalytics(String sql, UUID id) {
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setObject(1, id);
+            final ResultSet resultSet = preparedStatement.executeQuery();
+            final List<AnalyticEntity> analyticEntities = new ArrayList<>();
+            while (resultSet.next()) {
+                analyticEntities.add(
+                        new AnalyticEntity(
+                                UUID.fromString(resultSet.getString("id")),
+                                UUID.fromString(resultSet.getString("argument_id")),
+                                resultSet.getString("body"),
+                                resultSet.getLong("sort_key")
+                        )
+                );
+            }
+            return analyticEntities;
         } catch (SQLException e) {
             e.printStackTrace();
             throw new InternalServerException();
@@ -186,11 +139,11 @@ public class ArgumentAnalyticDataAccessService implements ArgumentAnalyticDao {
     }
 
     @Override
-    public void updatePositionOfAnalyticById(@NonNull UUID id, short indexInArgument) {
-        final String sql = "UPDATE argument_analytics SET index_in_argument = ? WHERE id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
-            preparedStatement.setShort(1, indexInArgument);
+    public void updateSortKeyOfAnalyticById(@NonNull UUID id, long sortKey) {
+        final String sql = "UPDATE argument_analytics SET sort_key = ? WHERE id = ?";
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setLong(1, sortKey);
             preparedStatement.setObject(2, id);
             preparedStatement.executeUpdate();
         } catch (SQLException e) {
@@ -201,9 +154,8 @@ public class ArgumentAnalyticDataAccessService implements ArgumentAnalyticDao {
 
     @Override
     public short getNumberOfAnalyticsInArgument(UUID argumentId) {
-        final String sql = "SELECT COUNT(*) FROM argument_analytics WHERE argument_id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(NUMBER_OF_ANALYTICS_IN_ARGUMENT_SQL)) {
             preparedStatement.setObject(1, argumentId);
             final ResultSet resultSet = preparedStatement.executeQuery();
             if (resultSet.next()) {
@@ -220,8 +172,8 @@ public class ArgumentAnalyticDataAccessService implements ArgumentAnalyticDao {
     @Override
     public Optional<UUID> getArgumentIdByAnalyticId(@NonNull UUID analyticId) {
         final String sql = "SELECT argument_id FROM argument_analytics WHERE id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setObject(1, analyticId);
             final ResultSet resultSet = preparedStatement.executeQuery();
             if (resultSet.next()) {
@@ -236,9 +188,9 @@ public class ArgumentAnalyticDataAccessService implements ArgumentAnalyticDao {
 
     @Override
     public Optional<AnalyticEntity> getAnalyticById(@NonNull UUID id) {
-        final String sql = "SELECT body, argument_id, index_in_argument FROM argument_analytics WHERE id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        final String sql = "SELECT body, argument_id, sort_key FROM argument_analytics WHERE id = ?";
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setObject(1, id);
             final ResultSet resultSet = preparedStatement.executeQuery();
             if (resultSet.next()) {
@@ -246,7 +198,7 @@ public class ArgumentAnalyticDataAccessService implements ArgumentAnalyticDao {
                         id,
                         UUID.fromString(resultSet.getString("argument_id")),
                         resultSet.getString("body"),
-                        resultSet.getShort("index_in_argument")
+                        resultSet.getLong("sort_key")
                 ));
             }
             return Optional.empty();
@@ -259,8 +211,8 @@ public class ArgumentAnalyticDataAccessService implements ArgumentAnalyticDao {
     @Override
     public void deleteAnalyticById(@NonNull UUID id) {
         final String sql = "DELETE FROM argument_analytics WHERE id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setObject(1, id);
             preparedStatement.executeUpdate();
         } catch (SQLException e) {
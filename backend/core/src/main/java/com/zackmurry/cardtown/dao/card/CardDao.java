@@ -1,17 +1,25 @@
 package com.zackmurry.cardtown.dao.card;
 
 import com.zackmurry.cardtown.exception.InternalServerException;
+import com.zackmurry.cardtown.model.EntityVersion;
+import com.zackmurry.cardtown.model.card.CardCipherEntity;
 import com.zackmurry.cardtown.model.card.CardEntity;
+import com.zackmurry.cardtown.model.card.CardPreviewEntity;
 import com.zackmurry.cardtown.model.card.EncryptedCard;
+import com.zackmurry.cardtown.util.ItemConsumer;
 
+import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
 public interface CardDao {
 
     /**
-     * Creates a card in the database with the details of the <code>CardEntity</code>
+     * Creates a card in the database with the details of the <code>CardEntity</code>.
+     * The entity's id, creation time, and last modified time are set to those of the new card
      *
      * @param card Details of the new card
      * @return The id of the new card
@@ -19,6 +27,17 @@ public interface CardDao {
      */
     UUID createCard(CardEntity card);
 
+    /**
+     * Creates several cards, along with their search tokens, with batched statements. Should be called in a transaction,
+     * since the cards are written in more than one statement. Each entity's id, creation time, and last modified time are
+     * set to those of its new card
+     *
+     * @param cards  Details of the new cards (encrypted)
+     * @param tokens Search tokens of each card (see <code>BlindIndex#cardTokens</code>), in the same order as <code>cards</code>
+     * @throws InternalServerException if there is a <code>SQLException</code>
+     */
+    void createCards(List<CardEntity> cards, List<Map<Long, Integer>> tokens);
+
     /**
      * Gets a card from the database with the specified id.
      *
@@ -28,6 +47,17 @@ public interface CardDao {
      */
     Optional<CardEntity> getCardById(UUID id);
 
+    /**
+     * Gets the cards with the specified ids in a single query.
+     * The returned list is in the same order as <code>ids</code> and contains one entry per requested id (including duplicates).
+     * Ids that don't match a card are left out of the result.
+     *
+     * @param ids Ids of cards to get
+     * @return The cards that were found, in the order they were requested
+     * @throws InternalServerException If there is a <code>SQLException</code>
+     */
+    List<CardEntity> getCardsByIds(List<UUID> ids);
+
     /**
      * Gets all of the cards that are by the user with the specified id. Does not include deleted cards.
      *
@@ -47,6 +77,166 @@ public interface CardDao {
      */
     List<CardEntity> getCardsByUser(UUID id, boolean includeDeleted);
 
+    /**
+     * Gets the preview columns (tag, cite, and body text) of the cards that a user owns. Does not include deleted cards.
+     * Prefer this over <code>CardDao#getCardsByUser</code> when the bodies aren't needed
+     *
+     * @param id Id of user
+     * @return Previews of the cards that the user owns
+     * @throws InternalServerException If there is a <code>SQLException</code>
+     */
+    List<CardPreviewEntity> getCardPreviewsByUser(UUID id);
+
+    /**
+     * Gets what is needed to tell whether a client's copy of a card is still current, without reading its contents
+     *
+     * @param id Id of card
+     * @return If found: the version of the card; else: <code>Optional.empty()</code>
+     * @throws InternalServerException If a <code>SQLException</code> occurs
+     */
+    Optional<EntityVersion> getCardVersionById(UUID id);
+
+    /**
+     * Gets the cards of a user that were modified (including being deleted or restored) after a time
+     *
+     * @param ownerId Id of user
+     * @param since   Time in milliseconds. Only cards with a later <code>last_modified</code> are included
+     * @return The modified cards, including deleted ones
+     * @throws InternalServerException If a <code>SQLException</code> occurs
+     */
+    List<CardEntity> getCardsModifiedSince(UUID ownerId, long since);
+
+    /**
+     * Gets the cards with an owner in a team that were modified (including being deleted or restored) after a time
+     *
+     * @param teamId Id of team
+     * @param since  Time in milliseconds. Only cards with a later <code>last_modified</code> are included
+     * @return The modified cards, including deleted ones
+     * @throws InternalServerException If a <code>SQLException</code> occurs
+     */
+    List<CardEntity> getCardsModifiedSinceByTeamId(UUID teamId, long since);
+
+    /**
+     * Gets the ids of a user's cards that were permanently deleted after a time
+     *
+     * @param ownerId Id of user
+     * @param since   Time in milliseconds
+     * @return Ids of the deleted cards
+     * @throws InternalServerException If a <code>SQLException</code> occurs
+     */
+    List<UUID> getCardIdsDeletedSince(UUID ownerId, long since);
+
+    /**
+     * Gets the ids of cards with an owner in a team that were permanently deleted after a time
+     *
+     * @param teamId Id of team
+     * @param since  Time in milliseconds
+     * @return Ids of the deleted cards
+     * @throws InternalServerException If a <code>SQLException</code> occurs
+     */
+    List<UUID> getCardIdsDeletedSinceByTeamId(UUID teamId, long since);
+
+    /**
+     * Reads the cards that a user owns with a cursor, passing each one to a consumer as it's read
+     *
+     * @param id             Id of user
+     * @param includeDeleted Whether to include deleted cards
+     * @param consumer       Called with each card
+     * @throws IOException             If <code>consumer</code> throws one
+     * @throws InternalServerException If there is a <code>SQLException</code>
+     * @see com.zackmurry.cardtown.dao.CursorQueries
+     */
+    void forEachCardByUser(UUID id, boolean includeDeleted, ItemConsumer<CardEntity> consumer) throws IOException;
+
+    /**
+     * Reads the cards owned by any of a set of users (e.g. the members of a team) with a cursor, passing each one to a
+     * consumer as it's read
+     *
+     * @param ownerIds       Ids of the owners
+     * @param includeDeleted Whether to include deleted cards
+     * @param consumer       Called with each card
+     * @throws IOException             If <code>consumer</code> throws one
+     * @throws InternalServerException If there is a <code>SQLException</code>
+     * @see com.zackmurry.cardtown.dao.CursorQueries
+     */
+    void forEachCardByOwners(Collection<UUID> ownerIds, boolean includeDeleted, ItemConsumer<CardEntity> consumer) throws IOException;
+
+    /**
+     * Gets a page of the cards that a user owns in order of id, including deleted cards
+     *
+     * @param id    Id of user
+     * @param after Only cards with a greater id are returned
+     * @param limit Maximum number of cards
+     * @return The cards
+     * @throws InternalServerException If there is a <code>SQLException</code>
+     */
+    List<CardEntity> getCardsByUserAfter(UUID id, UUID after, int limit);
+
+    /**
+     * Gets a page of the cards owned by members of a team in order of id, including deleted cards
+     *
+     * @param teamId Id of team
+     * @param after  Only cards with a greater id are returned
+     * @param limit  Maximum number of cards
+     * @return The cards
+     * @throws InternalServerException If there is a <code>SQLException</code>
+     */
+    List<CardEntity> getCardsByTeamIdAfter(UUID teamId, UUID after, int limit);
+
+    /**
+     * Reads the previews of the cards that a user owns with a cursor, passing each one to a consumer as it's read.
+     * Does not include deleted cards
+     *
+     * @param id       Id of user
+     * @param consumer Called with each preview
+     * @throws IOException             If <code>consumer</code> throws one
+     * @throws InternalServerException If there is a <code>SQLException</code>
+     * @see com.zackmurry.cardtown.dao.CursorQueries
+     */
+    void forEachCardPreviewByUser(UUID id, ItemConsumer<CardPreviewEntity> consumer) throws IOException;
+
+    /**
+     * Reads the previews of the cards that a user owns with a cursor, passing each one to a consumer as it's read
+     *
+     * @param id             Id of user
+     * @param includeDeleted Whether to include deleted cards
+     * @param consumer       Called with each preview
+     * @throws IOException             If <code>consumer</code> throws one
+     * @throws InternalServerException If there is a <code>SQLException</code>
+     * @see com.zackmurry.cardtown.dao.CursorQueries
+     */
+    void forEachCardPreviewByUser(UUID id, boolean includeDeleted, ItemConsumer<CardPreviewEntity> consumer) throws IOException;
+
+    /**
+     * Reads the previews of the cards owned by members of a team with a cursor, passing each one to a consumer as it's read
+     *
+     * @param teamId         Id of team
+     * @param includeDeleted Whether to include deleted cards
+     * @param consumer       Called with each preview
+     * @throws IOException             If <code>consumer</code> throws one
+     * @throws InternalServerException If there is a <code>SQLException</code>
+     * @see com.zackmurry.cardtown.dao.CursorQueries
+     */
+    void forEachCardPreviewByTeamId(UUID teamId, boolean includeDeleted, ItemConsumer<CardPreviewEntity> consumer) throws IOException;
+
+    /**
+     * Gets the preview columns (tag, cite, and body text) of a card, even if it has been deleted
+     *
+     * @param id Id of card
+     * @return If found: an optional containing the preview; if not: <code>Optional.empty()</code>
+     * @throws InternalServerException If there is a <code>SQLException</code>
+     */
+    Optional<CardPreviewEntity> getCardPreviewById(UUID id);
+
+    /**
+     * Gets the preview columns (tag, cite, and body text) of several cards with one query, even if they have been deleted
+     *
+     * @param ids Ids of cards
+     * @return Previews of the cards that were found, in no particular order
+     * @throws InternalServerException If there is a <code>SQLException</code>
+     */
+    List<CardPreviewEntity> getCardPreviewsByIds(Collection<UUID> ids);
+
     /**
      * Gets the number of cards that the user owns
      *
@@ -66,7 +256,7 @@ public interface CardDao {
     Optional<UUID> getOwnerIdByCardId(UUID cardId);
 
     /**
-     * Marks a card as deleted
+     * Marks a card as deleted. Also updates last_modified to the current time
      * todo add option to permanently delete card and a way to restore it
      *
      * @param cardId Id of card to delete
@@ -76,13 +266,16 @@ public interface CardDao {
     void markCardAsDeleted(UUID cardId);
 
     /**
-     * Updates a card with the given id and details. Also updates last_modified to the current time
+     * Updates a card with the given id and details. Also updates last_modified to the current time and marks the card's
+     * search tokens as out of date
      *
      * @param id      Id of card to update
      * @param request New information for the card to contain
-     * @throws InternalServerException If there is an <code>SQLException</code>
+     * @return The new last_modified of the card
+     * @throws InternalServerException                                If there is an <code>SQLException</code>
+     * @throws com.zackmurry.cardtown.exception.CardNotFoundException If the card is not found
      */
-    void updateCardById(UUID id, EncryptedCard request);
+    long updateCardById(UUID id, EncryptedCard request);
 
     /**
      * Gets cards with an owner in a team. Does not include deleted cards.
@@ -104,7 +297,7 @@ public interface CardDao {
     List<CardEntity> getCardsByTeamId(UUID teamId, boolean includeDeleted);
 
     /**
-     * Marks a card as undeleted
+     * Marks a card as undeleted. Also updates last_modified to the current time
      *
      * @param id Id of card to restore
      * @throws InternalServerException If a <code>SQLException</code> occurs
@@ -112,11 +305,104 @@ public interface CardDao {
     void restoreCardById(UUID id);
 
     /**
-     * Permanently deletes a card
+     * Permanently deletes a card, leaving a tombstone for syncing clients
      *
      * @param id Id of card to permanently delete
      * @throws InternalServerException If a <code>SQLException</code> occurs
      */
     void deleteCardById(UUID id);
 
+    /**
+     * Gets cards of a user that are still encrypted in the v1 format, in order of id
+     *
+     * @param userId  Id of the owner of the cards
+     * @param afterId Only cards with an id greater than this are returned
+     * @param limit   Maximum number of cards to return
+     * @return The ciphers of the cards
+     * @throws InternalServerException If a <code>SQLException</code> occurs
+     */
+    List<CardCipherEntity> getLegacyCardCiphersByUser(UUID userId, UUID afterId, int limit);
+
+    /**
+     * Gets cards with an owner in a team that are still encrypted in the v1 format, in order of id
+     *
+     * @param teamId  Id of the team
+     * @param afterId Only cards with an id greater than this are returned
+     * @param limit   Maximum number of cards to return
+     * @return The ciphers of the cards
+     * @throws InternalServerException If a <code>SQLException</code> occurs
+     */
+    List<CardCipherEntity> getLegacyCardCiphersByTeam(UUID teamId, UUID afterId, int limit);
+
+    /**
+     * Replaces the ciphers of cards in a single batch. Does not change last_modified.
+     * A card is skipped if it has been modified since its ciphers were read (i.e. if its last_modified has changed)
+     *
+     * @param ciphers New ciphers of the cards
+     * @return The number of cards that were updated
+     * @throws InternalServerException If a <code>SQLException</code> occurs
+     */
+    int updateCardCiphers(List<CardCipherEntity> ciphers);
+
+    /**
+     * Replaces the search tokens of a card (see <code>BlindIndex</code>) and marks it as indexed.
+     * Nothing is changed if the card has been modified since the tokens were made (i.e. if its last_modified has changed)
+     *
+     * @param cardId       Id of card
+     * @param lastModified last_modified of the card that the tokens were made from
+     * @param tokens       Map of token to weight
+     * @return Whether the tokens were written
+     * @throws InternalServerException If a <code>SQLException</code> occurs
+     */
+    boolean setCardTokens(UUID cardId, long lastModified, Map<Long, Integer> tokens);
+
+    /**
+     * Gets previews of a user's cards (including deleted ones) whose search tokens are missing or out of date, in order of id
+     *
+     * @param userId      Id of the owner of the cards
+     * @param afterId     Only cards with an id greater than this are returned
+     * @param excludedIds Ids of cards that shouldn't be returned
+     * @param limit       Maximum number of cards to return
+     * @return Encrypted previews of the cards
+     * @throws InternalServerException If a <code>SQLException</code> occurs
+     */
+    List<CardPreviewEntity> getUnindexedCardPreviewsByUser(UUID userId, UUID afterId, Collection<UUID> excludedIds, int limit);
+
+    /**
+     * Gets previews of cards with an owner in a team (including deleted ones) whose search tokens are missing or out of date,
+     * in order of id
+     *
+     * @param teamId      Id of the team
+     * @param afterId     Only cards with an id greater than this are returned
+     * @param excludedIds Ids of cards that shouldn't be returned
+     * @param limit       Maximum number of cards to return
+     * @return Encrypted previews of the cards
+     * @throws InternalServerException If a <code>SQLException</code> occurs
+     */
+    List<CardPreviewEntity> getUnindexedCardPreviewsByTeam(UUID teamId, UUID afterId, Collection<UUID> excludedIds, int limit);
+
+    /**
+     * Finds a user's cards (excluding deleted ones) that contain any of a set of search tokens. Cards are ranked by the
+     * number of tokens they contain, then by the total weight of those tokens
+     *
+     * @param userId Id of the owner of the cards
+     * @param tokens Tokens to search for
+     * @param limit  Maximum number of cards to return
+     * @return Ids of the matching cards, best match first
+     * @throws InternalServerException If a <code>SQLException</code> occurs
+     */
+    List<UUID> searchCardsByUser(UUID userId, long[] tokens, int limit);
+
+    /**
+     * Finds cards with an owner in a team (excluding deleted ones) that contain any of a set of search tokens. Ranked like
+     * <code>CardDao#searchCardsByUser</code>
+     *
+     * @param teamId Id of the team
+     * @param tokens Tokens to search for
+     * @param limit  Maximum number of cards to return
+     * @return Ids of the matching cards, best match first
+     * @throws InternalServerException If a <code>SQLException</code> occurs
+     */
+    List<UUID> searchCardsByTeam(UUID teamId, long[] tokens, int limit);
+
 }
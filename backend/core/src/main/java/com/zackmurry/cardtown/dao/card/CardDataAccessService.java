@@ -1,18 +1,26 @@
 package com.zackmurry.cardtown.dao.card;
 
+import com.zackmurry.cardtown.dao.CursorQueries;
 import com.zackmurry.cardtown.exception.CardNotFoundException;
 import com.zackmurry.cardtown.exception.InternalServerException;
+import com.zackmurry.cardtown.model.EntityVersion;
+import com.zackmurry.cardtown.model.card.CardCipherEntity;
 import com.zackmurry.cardtown.model.card.CardEntity;
+import com.zackmurry.cardtown.model.card.CardPreviewEntity;
 import com.zackmurry.cardtown.model.card.EncryptedCard;
-import org.flywaydb.core.internal.jdbc.JdbcTemplate;
+import com.zackmurry.cardtown.util.CipherText;
+import com.zackmurry.cardtown.util.ItemConsumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
 import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Repository;
 import org.springframework.web.server.ResponseStatusException;
 
 import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -28,10 +36,96 @@ public class CardDataAccessService implements CardDao {
 
     private static final Logger logger = LoggerFactory.getLogger(CardDataAccessService.class);
 
-    private final JdbcTemplate jdbcTemplate;
+    // Queries are package-private so that CardQueryPlanTest can check that they use indexes
 
-    public CardDataAccessService(DataSource dataSource) throws SQLException {
-        this.jdbcTemplate = new JdbcTemplate(dataSource.getConnection());
+    // Joining against the unnested array keeps the requested order and yields a separate row for each duplicate id
+    static final String CARDS_BY_IDS_SQL = "SELECT c.id, c.owner_id, c.tag, c.cite, c.cite_information, c.body_html, c.body_draft, c.body_text, c.time_created_at, c.last_modified, c.deleted " +
+            "FROM unnest(?) WITH ORDINALITY AS requested(id, position) " +
+            "INNER JOIN cards c ON c.id = requested.id " +
+            "ORDER BY requested.position";
+
+    static final String CARDS_BY_USER_SQL = "SELECT id, tag, cite, cite_information, body_html, body_draft, body_text, time_created_at, last_modified FROM cards WHERE owner_id = ? AND deleted = FALSE";
+
+    static final String CARDS_BY_USER_INCLUDING_DELETED_SQL = "SELECT id, tag, cite, cite_information, body_html, body_draft, body_text, time_created_at, last_modified, deleted FROM cards WHERE owner_id = ?";
+
+    static final String CARD_PREVIEWS_BY_USER_SQL = "SELECT id, owner_id, tag, cite, body_text, time_created_at, last_modified, deleted FROM cards WHERE owner_id = ? AND deleted = FALSE";
+
+    static final String CARD_PREVIEWS_BY_IDS_SQL = "SELECT id, owner_id, tag, cite, body_text, time_created_at, last_modified, deleted FROM cards WHERE id = ANY(?)";
+
+    static final String CARDS_BY_USER_STREAM_SQL = "SELECT id, owner_id, tag, cite, cite_information, body_html, body_draft, body_text, time_created_at, last_modified, deleted FROM cards WHERE owner_id = ? AND deleted = FALSE";
+
+    static final String CARDS_BY_USER_STREAM_INCLUDING_DELETED_SQL = "SELECT id, owner_id, tag, cite, cite_information, body_html, body_draft, body_text, time_created_at, last_modified, deleted FROM cards WHERE owner_id = ?";
+
+    static final String CARDS_BY_OWNERS_STREAM_SQL = "SELECT id, owner_id, tag, cite, cite_information, body_html, body_draft, body_text, time_created_at, last_modified, deleted FROM cards WHERE owner_id = ANY(?) AND deleted = FALSE";
+
+    static final String CARDS_BY_OWNERS_STREAM_INCLUDING_DELETED_SQL = "SELECT id, owner_id, tag, cite, cite_information, body_html, body_draft, body_text, time_created_at, last_modified, deleted FROM cards WHERE owner_id = ANY(?)";
+
+    static final String CARDS_BY_USER_AFTER_SQL = "SELECT id, owner_id, tag, cite, cite_information, body_html, body_draft, body_text, time_created_at, last_modified, deleted FROM cards " +
+            "WHERE owner_id = ? AND id > ? ORDER BY id LIMIT ?";
+
+    static final String CARDS_BY_TEAM_AFTER_SQL = "SELECT id, owner_id, tag, cite, cite_information, body_html, body_draft, body_text, time_created_at, last_modified, deleted FROM cards " +
+            "WHERE owner_id IN (SELECT user_id FROM team_members WHERE team_id = ?) AND id > ? ORDER BY id LIMIT ?";
+
+    static final String CARD_PREVIEWS_BY_USER_STREAM_SQL = "SELECT id, owner_id, tag, cite, body_text, time_created_at, last_modified, deleted FROM cards WHERE owner_id = ? AND deleted = FALSE";
+
+    static final String CARD_PREVIEWS_BY_USER_STREAM_INCLUDING_DELETED_SQL = "SELECT id, owner_id, tag, cite, body_text, time_created_at, last_modified, deleted FROM cards WHERE owner_id = ?";
+
+    static final String CARD_PREVIEWS_BY_TEAM_STREAM_SQL = "SELECT id, owner_id, tag, cite, body_text, time_created_at, last_modified, deleted " +
+            "FROM cards INNER JOIN team_members ON cards.owner_id = team_members.user_id WHERE team_members.team_id = ? AND deleted = FALSE";
+
+    static final String CARD_PREVIEWS_BY_TEAM_STREAM_INCLUDING_DELETED_SQL = "SELECT id, owner_id, tag, cite, body_text, time_created_at, last_modified, deleted " +
+            "FROM cards INNER JOIN team_members ON cards.owner_id = team_members.user_id WHERE team_members.team_id = ?";
+
+    static final String CARDS_MODIFIED_SINCE_BY_USER_SQL = "SELECT id, owner_id, tag, cite, cite_information, body_html, body_draft, body_text, time_created_at, last_modified, deleted " +
+            "FROM cards WHERE owner_id = ? AND last_modified > ?";
+
+    static final String CARDS_MODIFIED_SINCE_BY_TEAM_SQL = "SELECT id, owner_id, tag, cite, cite_information, body_html, body_draft, body_text, time_created_at, last_modified, deleted " +
+            "FROM cards INNER JOIN team_members ON cards.owner_id = team_members.user_id WHERE team_members.team_id = ? AND last_modified > ?";
+
+    static final String CARD_IDS_DELETED_SINCE_BY_USER_SQL = "SELECT card_id FROM card_tombstones WHERE owner_id = ? AND deleted_at > ?";
+
+    static final String CARD_IDS_DELETED_SINCE_BY_TEAM_SQL = "SELECT card_id FROM card_tombstones INNER JOIN team_members ON card_tombstones.owner_id = team_members.user_id " +
+            "WHERE team_members.team_id = ? AND deleted_at > ?";
+
+    static final String NUMBER_OF_CARDS_BY_USER_SQL = "SELECT COUNT(id) FROM cards WHERE owner_id = ? AND deleted = FALSE";
+
+    static final String CARDS_BY_TEAM_SQL = "SELECT id, owner_id, tag, cite, cite_information, body_html, body_draft, body_text, time_created_at, last_modified FROM cards INNER JOIN team_members ON cards.owner_id = team_members.user_id WHERE team_members.team_id = ? AND deleted = FALSE";
+
+    static final String CARDS_BY_TEAM_INCLUDING_DELETED_SQL = "SELECT id, owner_id, tag, cite, cite_information, body_html, body_draft, body_text, time_created_at, last_modified, deleted FROM cards INNER JOIN team_members ON cards.owner_id = team_members.user_id WHERE team_members.team_id = ?";
+
+    // All of a card's columns are written together, so body_html's version is the version of the whole card
+    static final String LEGACY_CARD_CIPHERS_BY_USER_SQL = "SELECT id, last_modified, tag, cite, cite_information, body_html, body_draft, body_text FROM cards " +
+            "WHERE owner_id = ? AND substring(body_html FROM 1 FOR 1) = ? AND id > ? ORDER BY id LIMIT ?";
+
+    static final String LEGACY_CARD_CIPHERS_BY_TEAM_SQL = "SELECT id, last_modified, tag, cite, cite_information, body_html, body_draft, body_text FROM cards " +
+            "WHERE owner_id IN (SELECT user_id FROM team_members WHERE team_id = ?) AND substring(body_html FROM 1 FOR 1) = ? AND id > ? ORDER BY id LIMIT ?";
+
+    // One statement, so that checking the version, removing old tokens, and adding new ones happen together.
+    // Stale tokens are exactly the ones that aren't being written, so the delete and the insert never touch the same row
+    static final String SET_CARD_TOKENS_SQL = "WITH card AS (UPDATE cards SET tokens_indexed = TRUE WHERE id = ? AND last_modified = ? RETURNING id), " +
+            "stale AS (DELETE FROM card_tokens WHERE card_id IN (SELECT id FROM card) AND NOT (token = ANY(?))), " +
+            "added AS (INSERT INTO card_tokens (card_id, token, weight) SELECT card.id, t.token, t.weight FROM card CROSS JOIN unnest(?, ?) AS t(token, weight) " +
+            "ON CONFLICT (card_id, token) DO UPDATE SET weight = EXCLUDED.weight) " +
+            "SELECT COUNT(*) FROM card";
+
+    static final String UNINDEXED_CARD_PREVIEWS_BY_USER_SQL = "SELECT id, owner_id, tag, cite, body_text, time_created_at, last_modified, deleted FROM cards " +
+            "WHERE owner_id = ? AND tokens_indexed = FALSE AND id > ? AND NOT (id = ANY(?)) ORDER BY id LIMIT ?";
+
+    static final String UNINDEXED_CARD_PREVIEWS_BY_TEAM_SQL = "SELECT id, owner_id, tag, cite, body_text, time_created_at, last_modified, deleted FROM cards " +
+            "WHERE owner_id IN (SELECT user_id FROM team_members WHERE team_id = ?) AND tokens_indexed = FALSE AND id > ? AND NOT (id = ANY(?)) ORDER BY id LIMIT ?";
+
+    static final String SEARCH_CARDS_BY_USER_SQL = "SELECT card_tokens.card_id FROM card_tokens INNER JOIN cards ON cards.id = card_tokens.card_id " +
+            "WHERE card_tokens.token = ANY(?) AND cards.owner_id = ? AND cards.deleted = FALSE " +
+            "GROUP BY card_tokens.card_id ORDER BY COUNT(*) DESC, SUM(card_tokens.weight) DESC, card_tokens.card_id LIMIT ?";
+
+    static final String SEARCH_CARDS_BY_TEAM_SQL = "SELECT card_tokens.card_id FROM card_tokens INNER JOIN cards ON cards.id = card_tokens.card_id " +
+            "WHERE card_tokens.token = ANY(?) AND cards.owner_id IN (SELECT user_id FROM team_members WHERE team_id = ?) AND cards.deleted = FALSE " +
+            "GROUP BY card_tokens.card_id ORDER BY COUNT(*) DESC, SUM(card_tokens.weight) DESC, card_tokens.card_id LIMIT ?";
+
+    private final DataSource dataSource;
+
+    public CardDataAccessService(DataSource dataSource) {
+        this.dataSource = new TransactionAwareDataSourceProxy(dataSource);
     }
 
     /**
@@ -42,16 +136,16 @@ public class CardDataAccessService implements CardDao {
     public UUID createCard(@NonNull CardEntity card) {
         final String sql = "INSERT INTO cards (owner_id, tag, cite, cite_information, body_html, body_draft, body_text, time_created_at, last_modified) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
         final long currentTime = System.currentTimeMillis();
-        try {
-            final String[] returnId = {"id"};
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql, returnId);
+        final String[] returnId = {"id"};
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql, returnId)) {
             preparedStatement.setObject(1, card.getOwnerId());
-            preparedStatement.setString(2, card.getTag());
-            preparedStatement.setString(3, card.getCite());
-            preparedStatement.setString(4, card.getCiteInformation());
-            preparedStatement.setString(5, card.getBodyHtml());
-            preparedStatement.setString(6, card.getBodyDraft());
-            preparedStatement.setString(7, card.getBodyText());
+            preparedStatement.setBytes(2, CipherText.toBytes(card.getTag()));
+            preparedStatement.setBytes(3, CipherText.toBytes(card.getCite()));
+            preparedStatement.setBytes(4, CipherText.toBytes(card.getCiteInformation()));
+            preparedStatement.setBytes(5, CipherText.toBytes(card.getBodyHtml()));
+            preparedStatement.setBytes(6, CipherText.toBytes(card.getBodyDraft()));
+            preparedStatement.setBytes(7, CipherText.toBytes(card.getBodyText()));
             preparedStatement.setLong(8, currentTime);
             preparedStatement.setLong(9, currentTime);
             final int affectedRows = preparedStatement.executeUpdate();
@@ -62,7 +156,11 @@ public class CardDataAccessService implements CardDao {
 
             final ResultSet resultSet = preparedStatement.getGeneratedKeys();
             if (resultSet.next()) {
-                return UUID.fromString(resultSet.getString("id"));
+                final UUID id = UUID.fromString(resultSet.getString("id"));
+                card.setId(id);
+                card.setTimeCreatedAt(currentTime);
+                card.setLastModified(currentTime);
+                return id;
             }
         } catch (SQLException e) {
             e.printStackTrace();
@@ -70,11 +168,68 @@ public class CardDataAccessService implements CardDao {
         throw new InternalServerException();
     }
 
+    @Override
+    public void createCards(@NonNull List<CardEntity> cards, @NonNull List<Map<Long, Integer>> tokens) {
+        if (cards.size() != tokens.size()) {
+            throw new IllegalArgumentException("Every card needs its tokens");
+        }
+        // Ids are generated here (the same way as the column's default) so that the tokens can be written without
+        // reading back generated keys. The tokens are written in the same transaction, so the cards start out indexed
+        final String cardSql = "INSERT INTO cards (id, owner_id, tag, cite, cite_information, body_html, body_draft, body_text, time_created_at, last_modified, tokens_indexed) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, TRUE)";
+        final String tokenSql = "INSERT INTO card_tokens (card_id, token, weight) SELECT ?, t.token, t.weight FROM unnest(?, ?) AS t(token, weight)";
+        final long currentTime = System.currentTimeMillis();
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement cardStatement = connection.prepareStatement(cardSql);
+             final PreparedStatement tokenStatement = connection.prepareStatement(tokenSql)) {
+            for (int i = 0; i < cards.size(); i++) {
+                final CardEntity card = cards.get(i);
+                final UUID id = UUID.randomUUID();
+                cardStatement.setObject(1, id);
+                cardStatement.setObject(2, card.getOwnerId());
+                cardStatement.setBytes(3, CipherText.toBytes(card.getTag()));
+                cardStatement.setBytes(4, CipherText.toBytes(card.getCite()));
+                cardStatement.setBytes(5, CipherText.toBytes(card.getCiteInformation()));
+                cardStatement.setBytes(6, CipherText.toBytes(card.getBodyHtml()));
+                cardStatement.setBytes(7, CipherText.toBytes(card.getBodyDraft()));
+                cardStatement.setBytes(8, CipherText.toBytes(card.getBodyText()));
+                cardStatement.setLong(9, currentTime);
+                cardStatement.setLong(10, currentTime);
+                cardStatement.addBatch();
+
+                final Map<Long, Integer> cardTokens = tokens.get(i);
+                if (!cardTokens.isEmpty()) {
+                    final Long[] tokenValues = new Long[cardTokens.size()];
+                    final Integer[] weights = new Integer[cardTokens.size()];
+                    int j = 0;
+                    for (Map.Entry<Long, Integer> token : cardTokens.entrySet()) {
+                        tokenValues[j] = token.getKey();
+                        weights[j] = token.getValue();
+                        j++;
+                    }
+                    tokenStatement.setObject(1, id);
+                    tokenStatement.setArray(2, connection.createArrayOf("int8", tokenValues));
+                    tokenStatement.setArray(3, connection.createArrayOf("int4", weights));
+                    tokenStatement.addBatch();
+                }
+
+                card.setId(id);
+                card.setTimeCreatedAt(currentTime);
+                card.setLastModified(currentTime);
+            }
+            cardStatement.executeBatch();
+            tokenStatement.executeBatch();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
     @Override
     public Optional<CardEntity> getCardById(@NonNull UUID id) {
         final String sql = "SELECT owner_id, tag, cite, cite_information, body_html, body_draft, body_text, time_created_at, last_modified, deleted FROM cards WHERE id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setObject(1, id);
             final ResultSet resultSet = preparedStatement.executeQuery();
 
@@ -86,12 +241,12 @@ public class CardDataAccessService implements CardDao {
                     new CardEntity(
                             id,
                             UUID.fromString(resultSet.getString("owner_id")),
-                            resultSet.getString("tag"),
-                            resultSet.getString("cite"),
-                            resultSet.getString("cite_information"),
-                            resultSet.getString("body_html"),
-                            resultSet.getString("body_draft"),
-                            resultSet.getString("body_text"),
+                            CipherText.toText(resultSet.getBytes("tag")),
+                            CipherText.toText(resultSet.getBytes("cite")),
+                            CipherText.toText(resultSet.getBytes("cite_information")),
+                            CipherText.toText(resultSet.getBytes("body_html")),
+                            CipherText.toText(resultSet.getBytes("body_draft")),
+                            CipherText.toText(resultSet.getBytes("body_text")),
                             resultSet.getLong("time_created_at"),
                             resultSet.getLong("last_modified"),
                             resultSet.getBoolean("deleted")
@@ -104,11 +259,45 @@ public class CardDataAccessService implements CardDao {
 
     }
 
+    @Override
+    public List<CardEntity> getCardsByIds(@NonNull List<UUID> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(CARDS_BY_IDS_SQL)) {
+            preparedStatement.setArray(1, connection.createArrayOf("uuid", ids.toArray()));
+            final ResultSet resultSet = preparedStatement.executeQuery();
+
+            final List<CardEntity> cards = new ArrayList<>();
+            while (resultSet.next()) {
+                cards.add(
+                        new CardEntity(
+                                UUID.fromString(resultSet.getString("id")),
+                                UUID.fromString(resultSet.getString("owner_id")),
+                                CipherText.toText(resultSet.getBytes("tag")),
+                                CipherText.toText(resultSet.getBytes("cite")),
+                                CipherText.toText(resultSet.getBytes("cite_information")),
+                                CipherText.toText(resultSet.getBytes("body_html")),
+                                CipherText.toText(resultSet.getBytes("body_draft")),
+                                CipherText.toText(resultSet.getBytes("body_text")),
+                                resultSet.getLong("time_created_at"),
+                                resultSet.getLong("last_modified"),
+                                resultSet.getBoolean("deleted")
+                        )
+                );
+            }
+            return cards;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
     @Override
     public List<CardEntity> getCardsByUser(@NonNull UUID id) {
-        final String sql = "SELECT id, tag, cite, cite_information, body_html, body_draft, body_text, time_created_at, last_modified FROM cards WHERE owner_id = ? AND deleted = FALSE";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(CARDS_BY_USER_SQL)) {
             preparedStatement.setObject(1, id);
             final ResultSet resultSet = preparedStatement.executeQuery();
 
@@ -118,12 +307,12 @@ public class CardDataAccessService implements CardDao {
                         new CardEntity(
                                 UUID.fromString(resultSet.getString("id")),
                                 id,
-                                resultSet.getString("tag"),
-                                resultSet.getString("cite"),
-                                resultSet.getString("cite_information"),
-                                resultSet.getString("body_html"),
-                                resultSet.getString("body_draft"),
-                                resultSet.getString("body_text"),
+                                CipherText.toText(resultSet.getBytes("tag")),
+                                CipherText.toText(resultSet.getBytes("cite")),
+                                CipherText.toText(resultSet.getBytes("cite_information")),
+                                CipherText.toText(resultSet.getBytes("body_html")),
+                                CipherText.toText(resultSet.getBytes("body_draft")),
+                                CipherText.toText(resultSet.getBytes("body_text")),
                                 resultSet.getLong("time_created_at"),
                                 resultSet.getLong("last_modified"),
                                 false
@@ -142,9 +331,8 @@ public class CardDataAccessService implements CardDao {
         if (!includeDeleted) {
             return getCardsByUser(id);
         }
-        final String sql = "SELECT id, tag, cite, cite_information, body_html, body_draft, body_text, time_created_at, last_modified, deleted FROM cards WHERE owner_id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(CARDS_BY_USER_INCLUDING_DELETED_SQL)) {
             preparedStatement.setObject(1, id);
             final ResultSet resultSet = preparedStatement.executeQuery();
 
@@ -154,12 +342,12 @@ public class CardDataAccessService implements CardDao {
                         new CardEntity(
                                 UUID.fromString(resultSet.getString("id")),
                                 id,
-                                resultSet.getString("tag"),
-                                resultSet.getString("cite"),
-                                resultSet.getString("cite_information"),
-                                resultSet.getString("body_html"),
-                                resultSet.getString("body_draft"),
-                                resultSet.getString("body_text"),
+                                CipherText.toText(resultSet.getBytes("tag")),
+                                CipherText.toText(resultSet.getBytes("cite")),
+                                CipherText.toText(resultSet.getBytes("cite_information")),
+                                CipherText.toText(resultSet.getBytes("body_html")),
+                                CipherText.toText(resultSet.getBytes("body_draft")),
+                                CipherText.toText(resultSet.getBytes("body_text")),
                                 resultSet.getLong("time_created_at"),
                                 resultSet.getLong("last_modified"),
                                 resultSet.getBoolean("deleted")
@@ -173,11 +361,252 @@ public class CardDataAccessService implements CardDao {
         }
     }
 
+    @Override
+    public List<CardPreviewEntity> getCardPreviewsByUser(@NonNull UUID id) {
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(CARD_PREVIEWS_BY_USER_SQL)) {
+            preparedStatement.setObject(1, id);
+            final ResultSet resultSet = preparedStatement.executeQuery();
+
+            final List<CardPreviewEntity> previews = new ArrayList<>();
+            while (resultSet.next()) {
+                previews.add(getCardPreviewEntityFromResultSet(resultSet));
+            }
+            return previews;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
+    @Override
+    public Optional<CardPreviewEntity> getCardPreviewById(@NonNull UUID id) {
+        final String sql = "SELECT id, owner_id, tag, cite, body_text, time_created_at, last_modified, deleted FROM cards WHERE id = ?";
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setObject(1, id);
+            final ResultSet resultSet = preparedStatement.executeQuery();
+            if (!resultSet.next()) {
+                return Optional.empty();
+            }
+            return Optional.of(getCardPreviewEntityFromResultSet(resultSet));
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
+    @Override
+    public List<CardPreviewEntity> getCardPreviewsByIds(@NonNull Collection<UUID> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(CARD_PREVIEWS_BY_IDS_SQL)) {
+            preparedStatement.setArray(1, connection.createArrayOf("uuid", ids.toArray()));
+            final ResultSet resultSet = preparedStatement.executeQuery();
+            final List<CardPreviewEntity> previews = new ArrayList<>();
+            while (resultSet.next()) {
+                previews.add(getCardPreviewEntityFromResultSet(resultSet));
+            }
+            return previews;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
+    @Override
+    public void forEachCardByUser(@NonNull UUID id, boolean includeDeleted, @NonNull ItemConsumer<CardEntity> consumer) throws IOException {
+        final String sql = includeDeleted ? CARDS_BY_USER_STREAM_INCLUDING_DELETED_SQL : CARDS_BY_USER_STREAM_SQL;
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setObject(1, id);
+            CursorQueries.forEachRow(connection, preparedStatement, resultSet -> consumer.accept(getCardEntityFromResultSet(resultSet)));
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
+    @Override
+    public void forEachCardByOwners(@NonNull Collection<UUID> ownerIds, boolean includeDeleted, @NonNull ItemConsumer<CardEntity> consumer) throws IOException {
+        final String sql = includeDeleted ? CARDS_BY_OWNERS_STREAM_INCLUDING_DELETED_SQL : CARDS_BY_OWNERS_STREAM_SQL;
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setArray(1, connection.createArrayOf("uuid", ownerIds.toArray()));
+            CursorQueries.forEachRow(connection, preparedStatement, resultSet -> consumer.accept(getCardEntityFromResultSet(resultSet)));
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
+    @Override
+    public List<CardEntity> getCardsByUserAfter(@NonNull UUID id, @NonNull UUID after, int limit) {
+        return getCardsAfter(CARDS_BY_USER_AFTER_SQL, id, after, limit);
+    }
+
+    @Override
+    public List<CardEntity> getCardsByTeamIdAfter(@NonNull UUID teamId, @NonNull UUID after, int limit) {
+        return getCardsAfter(CARDS_BY_TEAM_AFTER_SQL, teamId, after, limit);
+    }
+
+    private List<CardEntity> getCardsAfter(String sql, UUID ownerId, UUID after, int limit) {
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setObject(1, ownerId);
+            preparedStatement.setObject(2, after);
+            preparedStatement.setInt(3, limit);
+            final ResultSet resultSet = preparedStatement.executeQuery();
+            final List<CardEntity> cards = new ArrayList<>();
+            while (resultSet.next()) {
+                cards.add(getCardEntityFromResultSet(resultSet));
+            }
+            return cards;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
+    @Override
+    public void forEachCardPreviewByUser(@NonNull UUID id, @NonNull ItemConsumer<CardPreviewEntity> consumer) throws IOException {
+        forEachCardPreviewByUser(id, false, consumer);
+    }
+
+    @Override
+    public void forEachCardPreviewByUser(@NonNull UUID id, boolean includeDeleted, @NonNull ItemConsumer<CardPreviewEntity> consumer) throws IOException {
+        final String sql = includeDeleted ? CARD_PREVIEWS_BY_USER_STREAM_INCLUDING_DELETED_SQL : CARD_PREVIEWS_BY_USER_STREAM_SQL;
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setObject(1, id);
+            CursorQueries.forEachRow(connection, preparedStatement, resultSet -> consumer.accept(getCardPreviewEntityFromResultSet(resultSet)));
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
+    @Override
+    public void forEachCardPreviewByTeamId(@NonNull UUID teamId, boolean includeDeleted, @NonNull ItemConsumer<CardPreviewEntity> consumer) throws IOException {
+        final String sql = includeDeleted ? CARD_PREVIEWS_BY_TEAM_STREAM_INCLUDING_DELETED_SQL : CARD_PREVIEWS_BY_TEAM_STREAM_SQL;
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setObject(1, teamId);
+            CursorQueries.forEachRow(connection, preparedStatement, resultSet -> consumer.accept(getCardPreviewEntityFromResultSet(resultSet)));
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
+    @Override
+    public Optional<EntityVersion> getCardVersionById(@NonNull UUID id) {
+        final String sql = "SELECT owner_id, last_modified FROM cards WHERE id = ?";
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setObject(1, id);
+            final ResultSet resultSet = preparedStatement.executeQuery();
+            if (!resultSet.next()) {
+                return Optional.empty();
+            }
+            // Every change to a card (including deleting and restoring it) updates last_modified
+            final long lastModified = resultSet.getLong("last_modified");
+            return Optional.of(new EntityVersion(UUID.fromString(resultSet.getString("owner_id")), String.valueOf(lastModified), lastModified));
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
+    @Override
+    public List<CardEntity> getCardsModifiedSince(@NonNull UUID ownerId, long since) {
+        return getCardsModifiedSince(CARDS_MODIFIED_SINCE_BY_USER_SQL, ownerId, since);
+    }
+
+    @Override
+    public List<CardEntity> getCardsModifiedSinceByTeamId(@NonNull UUID teamId, long since) {
+        return getCardsModifiedSince(CARDS_MODIFIED_SINCE_BY_TEAM_SQL, teamId, since);
+    }
+
+    private List<CardEntity> getCardsModifiedSince(String sql, UUID id, long since) {
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setObject(1, id);
+            preparedStatement.setLong(2, since);
+            final ResultSet resultSet = preparedStatement.executeQuery();
+            final List<CardEntity> cards = new ArrayList<>();
+            while (resultSet.next()) {
+                cards.add(getCardEntityFromResultSet(resultSet));
+            }
+            return cards;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
+    @Override
+    public List<UUID> getCardIdsDeletedSince(@NonNull UUID ownerId, long since) {
+        return getCardIdsDeletedSince(CARD_IDS_DELETED_SINCE_BY_USER_SQL, ownerId, since);
+    }
+
+    @Override
+    public List<UUID> getCardIdsDeletedSinceByTeamId(@NonNull UUID teamId, long since) {
+        return getCardIdsDeletedSince(CARD_IDS_DELETED_SINCE_BY_TEAM_SQL, teamId, since);
+    }
+
+    private List<UUID> getCardIdsDeletedSince(String sql, UUID id, long since) {
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setObject(1, id);
+            preparedStatement.setLong(2, since);
+            final ResultSet resultSet = preparedStatement.executeQuery();
+            final List<UUID> cardIds = new ArrayList<>();
+            while (resultSet.next()) {
+                cardIds.add(UUID.fromString(resultSet.getString("card_id")));
+            }
+            return cardIds;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
+    private static CardEntity getCardEntityFromResultSet(ResultSet resultSet) throws SQLException {
+        return new CardEntity(
+                UUID.fromString(resultSet.getString("id")),
+                UUID.fromString(resultSet.getString("owner_id")),
+                CipherText.toText(resultSet.getBytes("tag")),
+                CipherText.toText(resultSet.getBytes("cite")),
+                CipherText.toText(resultSet.getBytes("cite_information")),
+                CipherText.toText(resultSet.getBytes("body_html")),
+                CipherText.toText(resultSet.getBytes("body_draft")),
+                CipherText.toText(resultSet.getBytes("body_text")),
+                resultSet.getLong("time_created_at"),
+                resultSet.getLong("last_modified"),
+                resultSet.getBoolean("deleted")
+        );
+    }
+
+    private static CardPreviewEntity getCardPreviewEntityFromResultSet(ResultSet resultSet) throws SQLException {
+        return new CardPreviewEntity(
+                UUID.fromString(resultSet.getString("id")),
+                UUID.fromString(resultSet.getString("owner_id")),
+                CipherText.toText(resultSet.getBytes("tag")),
+                CipherText.toText(resultSet.getBytes("cite")),
+                CipherText.toText(resultSet.getBytes("body_text")),
+                resultSet.getLong("time_created_at"),
+                resultSet.getLong("last_modified"),
+                resultSet.getBoolean("deleted")
+        );
+    }
+
     @Override
     public int getNumberOfCardsByUser(@NonNull UUID id) {
-        final String sql = "SELECT COUNT(id) FROM cards WHERE owner_id = ? AND deleted = FALSE";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(NUMBER_OF_CARDS_BY_USER_SQL)) {
             preparedStatement.setObject(1, id);
             final ResultSet resultSet = preparedStatement.executeQuery();
             if (resultSet.next()) {
@@ -192,8 +621,8 @@ public class CardDataAccessService implements CardDao {
     @Override
     public Optional<UUID> getOwnerIdByCardId(@NonNull UUID cardId) {
         final String sql = "SELECT owner_id FROM cards WHERE id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setObject(1, cardId);
             final ResultSet resultSet = preparedStatement.executeQuery();
             if (resultSet.next()) {
@@ -210,10 +639,12 @@ public class CardDataAccessService implements CardDao {
 
     @Override
     public void markCardAsDeleted(@NonNull UUID id) {
-        final String sql = "UPDATE cards SET deleted = TRUE WHERE id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
-            preparedStatement.setObject(1, id);
+        // Deleting counts as a modification so that syncing clients pick it up
+        final String sql = "UPDATE cards SET deleted = TRUE, last_modified = " + EntityVersion.NEXT_LAST_MODIFIED + " WHERE id = ?";
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setLong(1, System.currentTimeMillis());
+            preparedStatement.setObject(2, id);
             final int rowsChanged = preparedStatement.executeUpdate();
             if (rowsChanged == 0) {
                 throw new CardNotFoundException();
@@ -228,20 +659,25 @@ public class CardDataAccessService implements CardDao {
     }
 
     @Override
-    public void updateCardById(@NonNull UUID id, @NonNull EncryptedCard request) {
-        final String sql = "UPDATE cards SET tag = ?, cite = ?, cite_information = ?, body_html = ?, body_draft = ?, body_text = ?, last_modified = ? WHERE id = ?";
+    public long updateCardById(@NonNull UUID id, @NonNull EncryptedCard request) {
+        final String sql = "UPDATE cards SET tag = ?, cite = ?, cite_information = ?, body_html = ?, body_draft = ?, body_text = ?, " +
+                "last_modified = " + EntityVersion.NEXT_LAST_MODIFIED + ", tokens_indexed = FALSE WHERE id = ? RETURNING last_modified";
         final long currentTime = System.currentTimeMillis();
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
-            preparedStatement.setString(1, request.getTag());
-            preparedStatement.setString(2, request.getCite());
-            preparedStatement.setString(3, request.getCiteInformation());
-            preparedStatement.setString(4, request.getBodyHtml());
-            preparedStatement.setString(5, request.getBodyDraft());
-            preparedStatement.setString(6, request.getBodyText());
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setBytes(1, CipherText.toBytes(request.getTag()));
+            preparedStatement.setBytes(2, CipherText.toBytes(request.getCite()));
+            preparedStatement.setBytes(3, CipherText.toBytes(request.getCiteInformation()));
+            preparedStatement.setBytes(4, CipherText.toBytes(request.getBodyHtml()));
+            preparedStatement.setBytes(5, CipherText.toBytes(request.getBodyDraft()));
+            preparedStatement.setBytes(6, CipherText.toBytes(request.getBodyText()));
             preparedStatement.setLong(7, currentTime);
             preparedStatement.setObject(8, id);
-            preparedStatement.execute();
+            final ResultSet resultSet = preparedStatement.executeQuery();
+            if (!resultSet.next()) {
+                throw new CardNotFoundException();
+            }
+            return resultSet.getLong("last_modified");
         } catch (SQLException e) {
             e.printStackTrace();
             logger.warn("SQL exception occurred when editing card {}", id);
@@ -251,9 +687,8 @@ public class CardDataAccessService implements CardDao {
 
     @Override
     public List<CardEntity> getCardsByTeamId(@NonNull UUID teamId) {
-        final String sql = "SELECT id, owner_id, tag, cite, cite_information, body_html, body_draft, body_text, time_created_at, last_modified FROM cards INNER JOIN team_members ON cards.owner_id = team_members.user_id WHERE team_members.team_id = ? AND deleted = FALSE";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(CARDS_BY_TEAM_SQL)) {
             preparedStatement.setObject(1, teamId);
             final ResultSet resultSet = preparedStatement.executeQuery();
 
@@ -263,12 +698,12 @@ public class CardDataAccessService implements CardDao {
                         new CardEntity(
                                 UUID.fromString(resultSet.getString("id")),
                                 UUID.fromString(resultSet.getString("owner_id")),
-                                resultSet.getString("tag"),
-                                resultSet.getString("cite"),
-                                resultSet.getString("cite_information"),
-                                resultSet.getString("body_html"),
-                                resultSet.getString("body_draft"),
-                                resultSet.getString("body_text"),
+                                CipherText.toText(resultSet.getBytes("tag")),
+                                CipherText.toText(resultSet.getBytes("cite")),
+                                CipherText.toText(resultSet.getBytes("cite_information")),
+                                CipherText.toText(resultSet.getBytes("body_html")),
+                                CipherText.toText(resultSet.getBytes("body_draft")),
+                                CipherText.toText(resultSet.getBytes("body_text")),
                                 resultSet.getLong("time_created_at"),
                                 resultSet.getLong("last_modified"),
                                 false
@@ -287,9 +722,8 @@ public class CardDataAccessService implements CardDao {
         if (!includeDeleted) {
             return getCardsByTeamId(teamId);
         }
-        final String sql = "SELECT id, owner_id, tag, cite, cite_information, body_html, body_draft, body_text, time_created_at, last_modified, deleted FROM cards INNER JOIN team_members ON cards.owner_id = team_members.user_id WHERE team_members.team_id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(CARDS_BY_TEAM_INCLUDING_DELETED_SQL)) {
             preparedStatement.setObject(1, teamId);
             final ResultSet resultSet = preparedStatement.executeQuery();
 
@@ -299,12 +733,12 @@ public class CardDataAccessService implements CardDao {
                         new CardEntity(
                                 UUID.fromString(resultSet.getString("id")),
                                 UUID.fromString(resultSet.getString("owner_id")),
-                                resultSet.getString("tag"),
-                                resultSet.getString("cite"),
-                                resultSet.getString("cite_information"),
-                                resultSet.getString("body_html"),
-                                resultSet.getString("body_draft"),
-                                resultSet.getString("body_text"),
+                                CipherText.toText(resultSet.getBytes("tag")),
+                                CipherText.toText(resultSet.getBytes("cite")),
+                                CipherText.toText(resultSet.getBytes("cite_information")),
+                                CipherText.toText(resultSet.getBytes("body_html")),
+                                CipherText.toText(resultSet.getBytes("body_draft")),
+                                CipherText.toText(resultSet.getBytes("body_text")),
                                 resultSet.getLong("time_created_at"),
                                 resultSet.getLong("last_modified"),
                                 resultSet.getBoolean("deleted")
@@ -320,10 +754,11 @@ public class CardDataAccessService implements CardDao {
 
     @Override
     public void restoreCardById(@NonNull UUID id) {
-        final String sql = "UPDATE cards SET deleted = FALSE WHERE id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
-            preparedStatement.setObject(1, id);
+        final String sql = "UPDATE cards SET deleted = FALSE, last_modified = " + EntityVersion.NEXT_LAST_MODIFIED + " WHERE id = ?";
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setLong(1, System.currentTimeMillis());
+            preparedStatement.setObject(2, id);
             final int rowsChanged = preparedStatement.executeUpdate();
             if (rowsChanged == 0) {
                 throw new CardNotFoundException();
@@ -339,10 +774,13 @@ public class CardDataAccessService implements CardDao {
 
     @Override
     public void deleteCardById(@NonNull UUID id) {
-        final String sql = "DELETE FROM cards WHERE id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        // The tombstone is written in the same statement so that a sync can never miss the deletion
+        final String sql = "WITH deleted AS (DELETE FROM cards WHERE id = ? RETURNING id, owner_id) " +
+                "INSERT INTO card_tombstones (card_id, owner_id, deleted_at) SELECT id, owner_id, ? FROM deleted";
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setObject(1, id);
+            preparedStatement.setLong(2, System.currentTimeMillis());
             preparedStatement.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
@@ -350,4 +788,162 @@ public class CardDataAccessService implements CardDao {
         }
     }
 
+    @Override
+    public List<CardCipherEntity> getLegacyCardCiphersByUser(@NonNull UUID userId, @NonNull UUID afterId, int limit) {
+        return getLegacyCardCiphers(LEGACY_CARD_CIPHERS_BY_USER_SQL, userId, afterId, limit);
+    }
+
+    @Override
+    public List<CardCipherEntity> getLegacyCardCiphersByTeam(@NonNull UUID teamId, @NonNull UUID afterId, int limit) {
+        return getLegacyCardCiphers(LEGACY_CARD_CIPHERS_BY_TEAM_SQL, teamId, afterId, limit);
+    }
+
+    private List<CardCipherEntity> getLegacyCardCiphers(String sql, UUID ownerParameter, UUID afterId, int limit) {
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setObject(1, ownerParameter);
+            preparedStatement.setBytes(2, new byte[] { CipherText.V1 });
+            preparedStatement.setObject(3, afterId);
+            preparedStatement.setInt(4, limit);
+            final ResultSet resultSet = preparedStatement.executeQuery();
+
+            final List<CardCipherEntity> ciphers = new ArrayList<>();
+            while (resultSet.next()) {
+                ciphers.add(
+                        new CardCipherEntity(
+                                UUID.fromString(resultSet.getString("id")),
+                                resultSet.getLong("last_modified"),
+                                resultSet.getBytes("tag"),
+                                resultSet.getBytes("cite"),
+                                resultSet.getBytes("cite_information"),
+                                resultSet.getBytes("body_html"),
+                                resultSet.getBytes("body_draft"),
+                                resultSet.getBytes("body_text")
+                        )
+                );
+            }
+            return ciphers;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
+    @Override
+    public int updateCardCiphers(@NonNull List<CardCipherEntity> ciphers) {
+        if (ciphers.isEmpty()) {
+            return 0;
+        }
+        final String sql = "UPDATE cards SET tag = ?, cite = ?, cite_information = ?, body_html = ?, body_draft = ?, body_text = ? WHERE id = ? AND last_modified = ?";
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            for (CardCipherEntity cipher : ciphers) {
+                preparedStatement.setBytes(1, cipher.getTag());
+                preparedStatement.setBytes(2, cipher.getCite());
+                preparedStatement.setBytes(3, cipher.getCiteInformation());
+                preparedStatement.setBytes(4, cipher.getBodyHtml());
+                preparedStatement.setBytes(5, cipher.getBodyDraft());
+                preparedStatement.setBytes(6, cipher.getBodyText());
+                preparedStatement.setObject(7, cipher.getId());
+                preparedStatement.setLong(8, cipher.getLastModified());
+                preparedStatement.addBatch();
+            }
+            int updated = 0;
+            for (int rowsChanged : preparedStatement.executeBatch()) {
+                updated += Math.max(rowsChanged, 0);
+            }
+            return updated;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
+
+    @Override
+    public boolean setCardTokens(@NonNull UUID cardId, long lastModified, @NonNull Map<Long, Integer> tokens) {
+        final Long[] tokenValues = new Long[tokens.size()];
+        final Integer[] weights = new Integer[tokens.size()];
+        int i = 0;
+        for (Map.Entry<Long, Integer> token : tokens.entrySet()) {
+            tokenValues[i] = token.getKey();
+            weights[i] = token.getValue();
+            i++;
+        }
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(SET_CARD_TOKENS_SQL)) {
+            preparedStatement.setObject(1, cardId);
+            preparedStatement.setLong(2, lastModified);
+            preparedStatement.setArray(3, connection.createArrayOf("int8", tokenValues));
+            preparedStatement.setArray(4, connection.createArrayOf("int8", tokenValues));
+            preparedStatement.setArray(5, connection.createArrayOf("int4", weights));
+            final ResultSet resultSet = preparedStatement.executeQuery();
+            return resultSet.next() && resultSet.getInt(1) > 0;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
+    @Override
+    public List<CardPreviewEntity> getUnindexedCardPreviewsByUser(@NonNull UUID userId, @NonNull UUID afterId, @NonNull Collection<UUID> excludedIds, int limit) {
+        return getUnindexedCardPreviews(UNINDEXED_CARD_PREVIEWS_BY_USER_SQL, userId, afterId, excludedIds, limit);
+    }
+
+    @Override
+    public List<CardPreviewEntity> getUnindexedCardPreviewsByTeam(@NonNull UUID teamId, @NonNull UUID afterId, @NonNull Collection<UUID> excludedIds, int limit) {
+        return getUnindexedCardPreviews(UNINDEXED_CARD_PREVIEWS_BY_TEAM_SQL, teamId, afterId, excludedIds, limit);
+    }
+
+    private List<CardPreviewEntity> getUnindexedCardPreviews(String sql, UUID ownerParameter, UUID afterId, Collection<UUID> excludedIds, int limit) {
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setObject(1, ownerParameter);
+            preparedStatement.setObject(2, afterId);
+            preparedStatement.setArray(3, connection.createArrayOf("uuid", excludedIds.toArray()));
+            preparedStatement.setInt(4, limit);
+            final ResultSet resultSet = preparedStatement.executeQuery();
+            final List<CardPreviewEntity> previews = new ArrayList<>();
+            while (resultSet.next()) {
+                previews.add(getCardPreviewEntityFromResultSet(resultSet));
+            }
+            return previews;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
+    @Override
+    public List<UUID> searchCardsByUser(@NonNull UUID userId, @NonNull long[] tokens, int limit) {
+        return searchCards(SEARCH_CARDS_BY_USER_SQL, userId, tokens, limit);
+    }
+
+    @Override
+    public List<UUID> searchCardsByTeam(@NonNull UUID teamId, @NonNull long[] tokens, int limit) {
+        return searchCards(SEARCH_CARDS_BY_TEAM_SQL, teamId, tokens, limit);
+    }
+
+    private List<UUID> searchCards(String sql, UUID ownerParameter, long[] tokens, int limit) {
+        if (tokens.length == 0) {
+            return new ArrayList<>();
+        }
+        final Long[] tokenValues = Arrays.stream(tokens).boxed().toArray(Long[]::new);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setArray(1, connection.createArrayOf("int8", tokenValues));
+            preparedStatement.setObject(2, ownerParameter);
+            preparedStatement.setInt(3, limit);
+            final ResultSet resultSet = preparedStatement.executeQuery();
+            final List<UUID> cardIds = new ArrayList<>();
+            while (resultSet.next()) {
+                cardIds.add(UUID.fromString(resultSet.getString("card_id")));
+            }
+            return cardIds;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
 }
@@ -4,6 +4,8 @@ import com.zackmurry.cardtown.exception.InternalServerException;
 import com.zackmurry.cardtown.model.team.TeamEntity;
 import com.zackmurry.cardtown.model.team.TeamMemberEntity;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -45,6 +47,15 @@ public interface TeamDao {
      */
     Optional<UUID> getTeamIdWithUser(UUID userId);
 
+    /**
+     * Gets the team ids of multiple users in a single query
+     *
+     * @param userIds Ids of users to find the teams of
+     * @return A map of user id to team id. Users that aren't in a team are left out
+     * @throws InternalServerException If a <code>SQLException</code> occurs
+     */
+    Map<UUID, UUID> getTeamIdsWithUsers(Collection<UUID> userIds);
+
     void deleteTeamById(UUID teamId);
 
     Optional<TeamMemberEntity> getTeamMemberEntityByUserId(UUID userId);
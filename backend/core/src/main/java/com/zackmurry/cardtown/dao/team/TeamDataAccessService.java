@@ -4,16 +4,20 @@ import com.zackmurry.cardtown.exception.InternalServerException;
 import com.zackmurry.cardtown.model.team.TeamEntity;
 import com.zackmurry.cardtown.model.team.TeamMemberEntity;
 import com.zackmurry.cardtown.model.team.TeamRole;
-import org.flywaydb.core.internal.jdbc.JdbcTemplate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
 import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Repository;
 
 import javax.sql.DataSource;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -22,18 +26,26 @@ public class TeamDataAccessService implements TeamDao {
 
     private static final Logger logger = LoggerFactory.getLogger(TeamDataAccessService.class);
 
-    private final JdbcTemplate jdbcTemplate;
+    // Queries are package-private so that TeamQueryPlanTest can check that they use indexes
 
-    public TeamDataAccessService(DataSource dataSource) throws SQLException {
-        this.jdbcTemplate = new JdbcTemplate(dataSource.getConnection());
+    static final String TEAM_ID_BY_USER_SQL = "SELECT team_id FROM team_members WHERE user_id = ?";
+
+    static final String TEAM_IDS_BY_USERS_SQL = "SELECT user_id, team_id FROM team_members WHERE user_id = ANY(?)";
+
+    static final String NUMBER_OF_MEMBERS_SQL = "SELECT COUNT(user_id) FROM team_members WHERE team_id = ?";
+
+    private final DataSource dataSource;
+
+    public TeamDataAccessService(DataSource dataSource) {
+        this.dataSource = new TransactionAwareDataSourceProxy(dataSource);
     }
 
     @Override
     public UUID createTeam(@NonNull TeamEntity request) {
         final String sql = "INSERT INTO teams (name, secret_key_hash) VALUES (?, ?)";
-        try {
-            final String[] returnId = {"id"};
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql, returnId);
+        final String[] returnId = {"id"};
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql, returnId)) {
             preparedStatement.setString(1, request.getName());
             preparedStatement.setString(2, request.getSecretKeyHash());
             preparedStatement.executeUpdate();
@@ -52,8 +64,8 @@ public class TeamDataAccessService implements TeamDao {
     @Override
     public void addMemberToTeam(@NonNull TeamMemberEntity entity) {
         final String sql = "INSERT INTO team_members (team_id, user_id, team_secret_key, role) VALUES (?, ?, ?, ?)";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setObject(1, entity.getTeamId());
             preparedStatement.setObject(2, entity.getUserId());
             preparedStatement.setString(3, entity.getTeamSecretKey());
@@ -68,8 +80,8 @@ public class TeamDataAccessService implements TeamDao {
     @Override
     public Optional<TeamEntity> getTeamById(@NonNull UUID id) {
         final String sql = "SELECT * FROM teams WHERE id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setObject(1, id);
             final ResultSet resultSet = preparedStatement.executeQuery();
             if (resultSet.next()) {
@@ -90,9 +102,8 @@ public class TeamDataAccessService implements TeamDao {
 
     @Override
     public Optional<UUID> getTeamIdWithUser(UUID userId) {
-        final String sql = "SELECT team_id FROM team_members WHERE user_id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(TEAM_ID_BY_USER_SQL)) {
             preparedStatement.setObject(1, userId);
             final ResultSet resultSet = preparedStatement.executeQuery();
             if (resultSet.next()) {
@@ -105,11 +116,31 @@ public class TeamDataAccessService implements TeamDao {
         }
     }
 
+    @Override
+    public Map<UUID, UUID> getTeamIdsWithUsers(@NonNull Collection<UUID> userIds) {
+        final Map<UUID, UUID> teamIds = new HashMap<>();
+        if (userIds.isEmpty()) {
+            return teamIds;
+        }
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(TEAM_IDS_BY_USERS_SQL)) {
+            preparedStatement.setArray(1, connection.createArrayOf("uuid", userIds.toArray()));
+            final ResultSet resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                teamIds.put(UUID.fromString(resultSet.getString("user_id")), UUID.fromString(resultSet.getString("team_id")));
+            }
+            return teamIds;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
     @Override
     public void deleteTeamById(@NonNull UUID teamId) {
         final String sql = "DELETE FROM teams WHERE id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setObject(1, teamId);
             final int rowsEffected = preparedStatement.executeUpdate();
             if (rowsEffected != 1) {
@@ -124,8 +155,8 @@ public class TeamDataAccessService implements TeamDao {
     @Override
     public Optional<TeamMemberEntity> getTeamMemberEntityByUserId(@NonNull UUID userId) {
         final String sql = "SELECT * FROM team_members WHERE user_id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setObject(1, userId);
             final ResultSet resultSet = preparedStatement.executeQuery();
             if (resultSet.next()) {
@@ -147,9 +178,8 @@ public class TeamDataAccessService implements TeamDao {
 
     @Override
     public int getMemberCountByTeam(@NonNull UUID teamId) {
-        final String sql = "SELECT COUNT(user_id) FROM team_members WHERE team_id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(NUMBER_OF_MEMBERS_SQL)) {
             preparedStatement.setObject(1, teamId);
             final ResultSet resultSet = preparedStatement.executeQuery();
             if (resultSet.next()) {
@@ -163,9 +193,9 @@ public class TeamDataAccessService implements TeamDao {
 
     @Override
     public void removeUserFromTeam(@NonNull UUID userId) {
-        final String sql = "DELETE FROOM team_members WHERE user_id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        final String sql = "DELETE FROM team_members WHERE user_id = ?";
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setObject(1, userId);
             preparedStatement.executeUpdate();
         } catch (SQLException e) {
@@ -7,6 +7,8 @@ import com.zackmurry.cardtown.model.auth.User;
 import com.zackmurry.cardtown.model.auth.UserModel;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -76,6 +78,24 @@ public interface UserDao {
      */
     Optional<User> findById(UUID id);
 
+    /**
+     * Finds the users with the specified ids in a single query
+     *
+     * @param ids Ids of users to find
+     * @return The users that were found. Ids that don't match a user are left out
+     * @throws InternalServerException If there is a <code>SQLException</code>
+     */
+    List<User> findByIds(Collection<UUID> ids);
+
+    /**
+     * Finds the members of a team
+     *
+     * @param teamId Id of team
+     * @return The members of the team
+     * @throws InternalServerException If there is a <code>SQLException</code>
+     */
+    List<User> findByTeamId(UUID teamId);
+
     void updateUserName(UUID id, FirstLastName name);
 
 }
@@ -8,18 +8,21 @@ import com.zackmurry.cardtown.model.auth.User;
 import com.zackmurry.cardtown.model.auth.UserModel;
 import com.zackmurry.cardtown.model.auth.UserRole;
 import org.apache.tomcat.util.codec.binary.Base64;
-import org.flywaydb.core.internal.jdbc.JdbcTemplate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
 import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Repository;
 import org.springframework.web.server.ResponseStatusException;
 
 import javax.sql.DataSource;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -29,30 +32,38 @@ public class UserDataAccessService implements UserDao {
 
     private static final Logger logger = LoggerFactory.getLogger(UserDataAccessService.class);
 
-    private final JdbcTemplate jdbcTemplate;
+    // Queries are package-private so that UserQueryPlanTest can check that they use indexes
 
-    public UserDataAccessService(DataSource dataSource) throws SQLException {
-        this.jdbcTemplate = new JdbcTemplate(dataSource.getConnection());
+    static final String USER_ID_BY_EMAIL_SQL = "SELECT id FROM users WHERE email = ?";
+
+    static final String USERS_BY_IDS_SQL = "SELECT id, email, first_name, last_name, password, role FROM users WHERE id = ANY(?)";
+
+    static final String USERS_BY_TEAM_SQL = "SELECT id, email, first_name, last_name, password, role FROM users WHERE id IN (SELECT user_id FROM team_members WHERE team_id = ?)";
+
+    private final DataSource dataSource;
+
+    public UserDataAccessService(DataSource dataSource) {
+        this.dataSource = new TransactionAwareDataSourceProxy(dataSource);
     }
 
     @Override
     public Optional<User> findByEmail(String email) {
-        final String sql = "SELECT * FROM users WHERE email= ?";
-        try {
-            final List<User> users = jdbcTemplate.query(
-                    sql,
-                    resultSet -> new User(
-                            UUID.fromString(resultSet.getString("id")),
-                            resultSet.getString("email"),
-                            resultSet.getString("first_name"),
-                            resultSet.getString("last_name"),
-                            resultSet.getString("password"),
-                            resultSet.getString("role")
-                    ),
-                    email
-            );
-            if (!users.isEmpty()) {
-                return Optional.of(users.get(0));
+        final String sql = "SELECT id, email, first_name, last_name, password, role FROM users WHERE email = ?";
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setString(1, email);
+            final ResultSet resultSet = preparedStatement.executeQuery();
+            if (resultSet.next()) {
+                return Optional.of(
+                        new User(
+                                UUID.fromString(resultSet.getString("id")),
+                                resultSet.getString("email"),
+                                resultSet.getString("first_name"),
+                                resultSet.getString("last_name"),
+                                resultSet.getString("password"),
+                                resultSet.getString("role")
+                        )
+                );
             }
             return Optional.empty();
         } catch (SQLException e) {
@@ -63,15 +74,12 @@ public class UserDataAccessService implements UserDao {
 
     @Override
     public Optional<UUID> getIdByEmail(String email) {
-        final String sql = "SELECT id FROM users WHERE email = ?";
-        try {
-            final List<Object> list = jdbcTemplate.query(
-                    sql,
-                    resultSet -> UUID.fromString(resultSet.getString("id")),
-                    email
-            );
-            if (!list.isEmpty()) {
-                return Optional.of((UUID) list.get(0));
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(USER_ID_BY_EMAIL_SQL)) {
+            preparedStatement.setString(1, email);
+            final ResultSet resultSet = preparedStatement.executeQuery();
+            if (resultSet.next()) {
+                return Optional.of(UUID.fromString(resultSet.getString("id")));
             }
             return Optional.empty();
         } catch (SQLException e) {
@@ -95,9 +103,9 @@ public class UserDataAccessService implements UserDao {
         }
         final String sql = "INSERT INTO users (email, first_name, last_name, password, encrypted_secret_key, role) VALUES (?, ?, ?, ?, ?, ?)";
 
-        try {
-            final String[] returnFields = { "id" };
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql, returnFields);
+        final String[] returnFields = { "id" };
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql, returnFields)) {
             preparedStatement.setString(1, user.getEmail());
             preparedStatement.setString(2, user.getFirstName());
             preparedStatement.setString(3, user.getLastName());
@@ -126,11 +134,10 @@ public class UserDataAccessService implements UserDao {
             throw new UserNotFoundException();
         }
         final String sql = "DELETE FROM users WHERE email = ?";
-        try {
-            jdbcTemplate.execute(
-                    sql,
-                    email
-            );
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setString(1, email);
+            preparedStatement.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
             throw new InternalServerException();
@@ -140,13 +147,14 @@ public class UserDataAccessService implements UserDao {
     @Override
     public Optional<String> getEncryptedSecretKey(String email) {
         final String sql = "SELECT encrypted_secret_key FROM users WHERE email = ?";
-        try {
-            return Optional.of(
-                    jdbcTemplate.queryForString(
-                            sql,
-                            email
-                    )
-            );
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setString(1, email);
+            final ResultSet resultSet = preparedStatement.executeQuery();
+            if (resultSet.next()) {
+                return Optional.of(resultSet.getString("encrypted_secret_key"));
+            }
+            return Optional.empty();
         } catch (SQLException e) {
             e.printStackTrace();
             throw new InternalServerException();
@@ -156,8 +164,8 @@ public class UserDataAccessService implements UserDao {
     @Override
     public Optional<User> findById(UUID id) {
         final String sql = "SELECT email, first_name, last_name, password, role FROM users WHERE id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setObject(1, id);
             final ResultSet resultSet = preparedStatement.executeQuery();
             if (resultSet.next()) {
@@ -179,11 +187,66 @@ public class UserDataAccessService implements UserDao {
         }
     }
 
+    @Override
+    public List<User> findByIds(@NonNull Collection<UUID> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(USERS_BY_IDS_SQL)) {
+            preparedStatement.setArray(1, connection.createArrayOf("uuid", ids.toArray()));
+            final ResultSet resultSet = preparedStatement.executeQuery();
+            final List<User> users = new ArrayList<>();
+            while (resultSet.next()) {
+                users.add(
+                        new User(
+                                UUID.fromString(resultSet.getString("id")),
+                                resultSet.getString("email"),
+                                resultSet.getString("first_name"),
+                                resultSet.getString("last_name"),
+                                resultSet.getString("password"),
+                                resultSet.getString("role")
+                        )
+                );
+            }
+            return users;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
+    @Override
+    public List<User> findByTeamId(@NonNull UUID teamId) {
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(USERS_BY_TEAM_SQL)) {
+            preparedStatement.setObject(1, teamId);
+            final ResultSet resultSet = preparedStatement.executeQuery();
+            final List<User> users = new ArrayList<>();
+            while (resultSet.next()) {
+                users.add(
+                        new User(
+                                UUID.fromString(resultSet.getString("id")),
+                                resultSet.getString("email"),
+                                resultSet.getString("first_name"),
+                                resultSet.getString("last_name"),
+                                resultSet.getString("password"),
+                                resultSet.getString("role")
+                        )
+                );
+            }
+            return users;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+    }
+
     @Override
     public void updateUserName(@NonNull UUID id, @NonNull FirstLastName name) {
         final String sql = "UPDATE users SET first_name = ?, last_name = ? WHERE id = ?";
-        try {
-            final PreparedStatement preparedStatement = jdbcTemplate.getConnection().prepareStatement(sql);
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
             preparedStatement.setString(1, name.getFirst());
             preparedStatement.setString(2, name.getLast());
             preparedStatement.setObject(3, id);
@@ -9,6 +9,14 @@ import org.springframework.context.annotation.Configuration;
 @Configuration
 public class PostgresDataSource {
 
+    /**
+     * Creates the connection pool that all of the DAOs borrow connections from.
+     * Each DAO method takes a connection for the duration of its statement (or for the surrounding transaction, if there is one),
+     * so the number of concurrent queries is bounded by <code>app.datasource.maximum-pool-size</code>.
+     * Pool usage (active, idle, pending, and timed out connections) is published under <code>hikaricp.connections.*</code> in the metrics actuator
+     *
+     * @return A Hikari pool configured from <code>app.datasource</code>
+     */
     @Bean
     @ConfigurationProperties("app.datasource")
     public HikariDataSource hikariDataSource() {
@@ -2,11 +2,15 @@ package com.zackmurry.cardtown.filter;
 
 import com.zackmurry.cardtown.exception.InternalServerException;
 import com.zackmurry.cardtown.exception.UserNotFoundException;
+import com.zackmurry.cardtown.model.auth.JwtClaims;
 import com.zackmurry.cardtown.model.auth.User;
 import com.zackmurry.cardtown.model.auth.UserModel;
+import com.zackmurry.cardtown.service.CardCipherMigrationService;
 import com.zackmurry.cardtown.service.TeamService;
 import com.zackmurry.cardtown.service.UserService;
 import com.zackmurry.cardtown.util.JwtUtil;
+import com.zackmurry.cardtown.util.PrincipalCache;
+import io.jsonwebtoken.ExpiredJwtException;
 import io.jsonwebtoken.MalformedJwtException;
 import io.jsonwebtoken.SignatureException;
 import org.apache.tomcat.util.codec.binary.Base64;
@@ -46,6 +50,12 @@ public class JwtRequestFilter extends OncePerRequestFilter {
     @Autowired
     private JwtUtil jwtUtil;
 
+    @Autowired
+    private PrincipalCache principalCache;
+
+    @Autowired
+    private CardCipherMigrationService cardCipherMigrationService;
+
     // Using a separate MessageDigest instead of using EncryptionUtils' so that the lock isn't interfered with by admin requests.
     // Thus, this is only used by Spring Boot Admin
     private final MessageDigest messageDigest;
@@ -78,39 +88,50 @@ public class JwtRequestFilter extends OncePerRequestFilter {
         if (authorizationHeader.startsWith("Bearer ")) {
             // Authentication using normal user workflow
             final String jwt = authorizationHeader.substring(7); // remove "Bearer " from the front
-            String email;
+            // The token is only parsed (and its signature verified) once; everything else reads from these claims
+            final JwtClaims claims;
             try {
-                email = jwtUtil.extractSubject(jwt);
-            } catch (MalformedJwtException | SignatureException e) {
+                claims = jwtUtil.parseToken(jwt);
+            } catch (MalformedJwtException | SignatureException | ExpiredJwtException e) {
                 response.sendError(HttpStatus.UNAUTHORIZED.value());
                 return;
             }
             if (SecurityContextHolder.getContext().getAuthentication() == null) {
-                final User user = userService.loadUserByUsername(email);
-                final String encryptionKeyBase64 = jwtUtil.extractEncryptionKey(jwt);
-                if (encryptionKeyBase64 == null) {
-                    response.sendError(HttpStatus.UNAUTHORIZED.value());
-                    return;
-                }
-                byte[] encryptionKey = Base64.decodeBase64(encryptionKeyBase64);
-                byte[] secretKey;
-                try {
-                    secretKey = userService.getUserSecretKey(email, encryptionKey);
-                } catch (UserNotFoundException e) {
-                    e.printStackTrace();
-                    throw new InternalServerException();
-                }
-                if (secretKey == null) {
-                    response.sendError(HttpStatus.UNAUTHORIZED.value());
-                    return;
-                }
-
-                if (jwtUtil.validateToken(jwt, user)) {
-                    final UserModel model = userService.getUserModelByEmail(email, encryptionKey).orElseThrow(InternalServerException::new);
-                    final var token = new UsernamePasswordAuthenticationToken(model, null, user.getAuthorities());
-                    token.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
-                    SecurityContextHolder.getContext().setAuthentication(token);
+                // Building a principal takes several queries and decryptions, so it's only done once per jwt
+                UserModel model = principalCache.get(jwt).orElse(null);
+                if (model == null) {
+                    final long invalidationCount = principalCache.getInvalidationCount();
+                    final String email = claims.getSubject();
+                    final User user = userService.loadUserByUsername(email);
+                    final String encryptionKeyBase64 = claims.getEncryptionKey();
+                    if (encryptionKeyBase64 == null) {
+                        response.sendError(HttpStatus.UNAUTHORIZED.value());
+                        return;
+                    }
+                    byte[] encryptionKey = Base64.decodeBase64(encryptionKeyBase64);
+                    byte[] secretKey;
+                    try {
+                        secretKey = userService.getUserSecretKey(email, encryptionKey);
+                    } catch (UserNotFoundException e) {
+                        e.printStackTrace();
+                        throw new InternalServerException();
+                    }
+                    if (secretKey == null) {
+                        response.sendError(HttpStatus.UNAUTHORIZED.value());
+                        return;
+                    }
+                    if (!jwtUtil.validateClaims(claims, user)) {
+                        chain.doFilter(request, response);
+                        return;
+                    }
+                    model = userService.getUserModelByEmail(email, encryptionKey).orElseThrow(InternalServerException::new);
+                    principalCache.put(jwt, model, claims.getExpiration(), invalidationCount);
+                    // The secret key is only available now, so this is when old cards can be re-encrypted
+                    cardCipherMigrationService.scheduleMigration(model);
                 }
+                final var token = new UsernamePasswordAuthenticationToken(model, null, model.getAuthorities());
+                token.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+                SecurityContextHolder.getContext().setAuthentication(token);
             }
         } else if (authorizationHeader.startsWith("Admin ")) {
             // Authentication for Spring Boot Admin Server
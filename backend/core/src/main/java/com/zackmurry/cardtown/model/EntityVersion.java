@@ -0,0 +1,28 @@
+package com.zackmurry.cardtown.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.UUID;
+
+/**
+ * Enough information about an entity to answer a conditional request for it (and check that the principal has access
+ * to it) without reading or decrypting its contents
+ */
+@Getter
+@AllArgsConstructor
+public class EntityVersion {
+
+    /**
+     * SQL for the next <code>last_modified</code> of a row: the current time, but always later than the row's previous
+     * <code>last_modified</code>, so that two changes in the same millisecond still give different versions. Takes the
+     * current time as a parameter
+     */
+    public static final String NEXT_LAST_MODIFIED = "GREATEST(?, last_modified + 1)";
+
+    private UUID ownerId;
+    // Changes whenever anything in the entity's response changes. Not quoted
+    private String eTag;
+    private long lastModified;
+
+}
@@ -0,0 +1,58 @@
+package com.zackmurry.cardtown.model.action;
+
+import com.zackmurry.cardtown.exception.BadRequestException;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.lang.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * A position in an action feed. Actions are ordered by time (DESC), with their ids breaking ties, so a time and an id
+ * are enough to pick up where a page left off, even if actions have been added since.
+ * <p>
+ * Clients only see the encoded form, which should be treated as opaque
+ */
+@Getter
+@AllArgsConstructor
+public class ActionCursor {
+
+    private static final int ENCODED_LENGTH = Long.BYTES * 3;
+
+    private final long time;
+    private final UUID id;
+
+    public static ActionCursor of(@NonNull ActionEntity actionEntity) {
+        return new ActionCursor(actionEntity.getTime(), actionEntity.getId());
+    }
+
+    public String encode() {
+        final ByteBuffer byteBuffer = ByteBuffer.allocate(ENCODED_LENGTH);
+        byteBuffer.putLong(time);
+        byteBuffer.putLong(id.getMostSignificantBits());
+        byteBuffer.putLong(id.getLeastSignificantBits());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(byteBuffer.array());
+    }
+
+    /**
+     * @param encoded A cursor from <code>ActionCursor#encode</code>
+     * @return The decoded cursor
+     * @throws BadRequestException If <code>encoded</code> isn't a valid cursor
+     */
+    public static ActionCursor decode(@NonNull String encoded) {
+        final byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(encoded);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Cursor is invalid");
+        }
+        if (bytes.length != ENCODED_LENGTH) {
+            throw new BadRequestException("Cursor is invalid");
+        }
+        final ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+        return new ActionCursor(byteBuffer.getLong(), new UUID(byteBuffer.getLong(), byteBuffer.getLong()));
+    }
+
+}
@@ -11,5 +11,6 @@ public enum ActionType {
     RESTORE_ARGUMENT,
     ADD_CARD_TO_ARGUMENT,
     REMOVE_CARD_FROM_ARGUMENT,
-    JOIN_TEAM
+    JOIN_TEAM,
+    IMPORT_CARDS
 }
@@ -20,6 +20,8 @@ public class ResponseAction {
     private ResponseUserDetails user;
     private ActionCardPreview card;
     private ActionArgumentPreview argument;
+    // Pass as the cursor parameter to get the actions after this one
+    private String cursor;
 
     public static ResponseAction of(@NonNull ActionEntity actionEntity,
                                     @NonNull ResponseUserDetails subject,
@@ -32,7 +34,8 @@ public class ResponseAction {
                 actionEntity.getTime(),
                 user,
                 card,
-                argument
+                argument,
+                ActionCursor.of(actionEntity).encode()
         );
     }
 
@@ -15,13 +15,13 @@ public class AnalyticEntity extends EncryptedAnalytic {
 
     private UUID id;
     private UUID argumentId;
-    private short position;
+    private long sortKey;
 
-    public AnalyticEntity(UUID id, UUID argumentId, String body, short position) {
+    public AnalyticEntity(UUID id, UUID argumentId, String body, long sortKey) {
         this.id = id;
         this.argumentId = argumentId;
         this.body = body;
-        this.position = position;
+        this.sortKey = sortKey;
     }
 
 }
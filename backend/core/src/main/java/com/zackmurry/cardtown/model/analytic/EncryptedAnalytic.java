@@ -1,5 +1,6 @@
 package com.zackmurry.cardtown.model.analytic;
 
+import com.zackmurry.cardtown.util.AESContext;
 import com.zackmurry.cardtown.util.EncryptionUtils;
 import lombok.Getter;
 import lombok.Setter;
@@ -11,11 +12,19 @@ public class EncryptedAnalytic {
     protected String body;
 
     public void encryptFields(byte[] secretKey) throws Exception {
-        body = EncryptionUtils.encryptStringAES(body, secretKey);
+        encryptFields(EncryptionUtils.forKey(secretKey));
+    }
+
+    public void encryptFields(AESContext aes) throws Exception {
+        body = aes.encryptString(body);
     }
 
     public void decryptFields(byte[] secretKey) throws Exception {
-        body = EncryptionUtils.decryptStringAES(body, secretKey);
+        decryptFields(EncryptionUtils.forKey(secretKey));
+    }
+
+    public void decryptFields(AESContext aes) throws Exception {
+        body = aes.decryptString(body);
     }
 
 }
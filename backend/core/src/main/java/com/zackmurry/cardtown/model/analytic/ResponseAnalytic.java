@@ -17,11 +17,11 @@ public class ResponseAnalytic {
     private String body;
     private short position;
 
-    public static ResponseAnalytic of(@NonNull AnalyticEntity analyticEntity) {
+    public static ResponseAnalytic of(@NonNull AnalyticEntity analyticEntity, short position) {
         return new ResponseAnalytic(
                 UUIDCompressor.compress(analyticEntity.getId()),
                 analyticEntity.getBody(),
-                analyticEntity.getPosition()
+                position
         );
     }
 
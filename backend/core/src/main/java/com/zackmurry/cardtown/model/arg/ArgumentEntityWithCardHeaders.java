@@ -0,0 +1,31 @@
+package com.zackmurry.cardtown.model.arg;
+
+import com.zackmurry.cardtown.model.card.CardHeaderEntity;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+import java.util.UUID;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ArgumentEntityWithCardHeaders extends EncryptedArgument {
+
+    private UUID id;
+    private UUID ownerId;
+    private boolean deleted;
+    private List<CardHeaderEntity> cards;
+
+    public ArgumentEntityWithCardHeaders(UUID id, UUID ownerId, String name, boolean deleted, List<CardHeaderEntity> cards) {
+        super(name);
+        this.id = id;
+        this.ownerId = ownerId;
+        this.deleted = deleted;
+        this.cards = cards;
+    }
+
+}
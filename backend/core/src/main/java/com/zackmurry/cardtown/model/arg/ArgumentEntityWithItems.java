@@ -0,0 +1,37 @@
+package com.zackmurry.cardtown.model.arg;
+
+import com.zackmurry.cardtown.model.analytic.AnalyticEntity;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * An argument with everything in it: the order of its items, and the analytics themselves (in the same order as they
+ * appear in <code>items</code>). Cards are only referenced by id
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ArgumentEntityWithItems extends EncryptedArgument {
+
+    private UUID id;
+    private UUID ownerId;
+    private boolean deleted;
+    private List<ArgumentItemEntity> items;
+    private List<AnalyticEntity> analytics;
+
+    public ArgumentEntityWithItems(UUID id, UUID ownerId, String name, boolean deleted, List<ArgumentItemEntity> items, List<AnalyticEntity> analytics) {
+        super(name);
+        this.id = id;
+        this.ownerId = ownerId;
+        this.deleted = deleted;
+        this.items = items;
+        this.analytics = analytics;
+    }
+
+}
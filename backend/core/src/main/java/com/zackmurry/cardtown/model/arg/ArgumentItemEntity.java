@@ -0,0 +1,26 @@
+package com.zackmurry.cardtown.model.arg;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.UUID;
+
+/**
+ * A card or an analytic in an argument. Items are ordered by their sort keys, which are sparse: there are usually unused
+ * keys between neighbours, so an item can be inserted or moved without changing any other item. The index of an item
+ * in an argument is the number of items with a lower sort key
+ */
+@Getter
+@AllArgsConstructor
+public class ArgumentItemEntity {
+
+    // Exactly one of cardId and analyticId is set
+    private final UUID cardId;
+    private final UUID analyticId;
+    private final long sortKey;
+
+    public boolean isCard() {
+        return cardId != null;
+    }
+
+}
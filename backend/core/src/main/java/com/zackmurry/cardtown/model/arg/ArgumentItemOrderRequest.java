@@ -0,0 +1,24 @@
+package com.zackmurry.cardtown.model.arg;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * The complete new order of the items in an argument
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ArgumentItemOrderRequest {
+
+    // ResponseArgument#version of the argument that the order was made from
+    private Integer version;
+    // Ids (in Base64) of every card and analytic in the argument, in their new order
+    private List<String> itemIds;
+
+}
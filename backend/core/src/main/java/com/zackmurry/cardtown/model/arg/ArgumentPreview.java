@@ -35,4 +35,14 @@ public class ArgumentPreview {
         );
     }
 
+    public static ArgumentPreview of(ArgumentEntityWithCardHeaders arg, ResponseUserDetails owner, List<CardHeader> cards) {
+        return new ArgumentPreview(
+                UUIDCompressor.compress(arg.getId()),
+                arg.getName(),
+                owner,
+                cards,
+                arg.isDeleted()
+        );
+    }
+
 }
@@ -24,9 +24,11 @@ public class ResponseArgument {
     private List<ResponseArgumentCard> cards;
     private List<ResponseAnalytic> analytics;
     private boolean deleted;
+    // Version of the items in the argument. Needed to replace their order
+    private int version;
 
-    public static ResponseArgument fromArgumentEntity(ArgumentEntity argumentEntity, ResponseUserDetails userDetails, List<ResponseArgumentCard> cards, List<ResponseAnalytic> analytics) {
-        return new ResponseArgument(UUIDCompressor.compress(argumentEntity.getId()), userDetails, argumentEntity.getName(), cards, analytics, argumentEntity.isDeleted());
+    public static ResponseArgument fromArgumentEntity(ArgumentEntity argumentEntity, ResponseUserDetails userDetails, List<ResponseArgumentCard> cards, List<ResponseAnalytic> analytics, int version) {
+        return new ResponseArgument(UUIDCompressor.compress(argumentEntity.getId()), userDetails, argumentEntity.getName(), cards, analytics, argumentEntity.isDeleted(), version);
     }
 
 }
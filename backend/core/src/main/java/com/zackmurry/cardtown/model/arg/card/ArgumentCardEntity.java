@@ -15,6 +15,6 @@ public class ArgumentCardEntity {
 
     private UUID argumentId;
     private UUID cardId;
-    private short indexInArgument;
+    private long sortKey;
 
 }
@@ -0,0 +1,30 @@
+package com.zackmurry.cardtown.model.auth;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Date;
+
+/**
+ * An immutable view of the claims of a jwt whose signature has already been verified.
+ * Built by <code>JwtUtil#parseToken</code> so that a token only has to be parsed once per request
+ */
+@AllArgsConstructor
+@Getter
+public class JwtClaims {
+
+    private final String subject;
+    private final String encryptionKey; // Base64; null if the token doesn't have an "ek" claim
+    private final String firstName;
+    private final String lastName;
+    private final long expiration; // Milliseconds since the epoch
+
+    public boolean isExpired() {
+        return expiration <= System.currentTimeMillis();
+    }
+
+    public Date getExpirationDate() {
+        return new Date(expiration);
+    }
+
+}
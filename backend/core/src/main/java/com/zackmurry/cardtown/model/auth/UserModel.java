@@ -30,4 +30,13 @@ public class UserModel extends User {
         this.encryptionKey = encryptionKey;
     }
 
+    /**
+     * Copies a principal. The keys are shared, since they're never modified
+     *
+     * @param other Principal to copy
+     */
+    public UserModel(UserModel other) {
+        this(other, other.secretKey, other.teamSecretKey, other.teamId, other.encryptionKey);
+    }
+
 }
@@ -0,0 +1,29 @@
+package com.zackmurry.cardtown.model.card;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.UUID;
+
+/**
+ * The encrypted columns of a card as they're stored, i.e. as versioned ciphers (see <code>CipherText</code>).
+ * Used for re-encrypting cards without converting them to and from their text form
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class CardCipherEntity {
+
+    private UUID id;
+    private long lastModified;
+    private byte[] tag;
+    private byte[] cite;
+    private byte[] citeInformation;
+    private byte[] bodyHtml;
+    private byte[] bodyDraft;
+    private byte[] bodyText;
+
+}
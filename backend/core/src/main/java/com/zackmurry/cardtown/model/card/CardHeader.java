@@ -1,6 +1,8 @@
 package com.zackmurry.cardtown.model.card;
 
 import com.zackmurry.cardtown.model.auth.ResponseUserDetails;
+import com.zackmurry.cardtown.util.AESContext;
+import com.zackmurry.cardtown.util.CipherText;
 import com.zackmurry.cardtown.util.EncryptionUtils;
 import com.zackmurry.cardtown.util.UUIDCompressor;
 import lombok.AllArgsConstructor;
@@ -43,9 +45,30 @@ public class CardHeader {
         );
     }
 
+    public static CardHeader of(CardHeaderEntity cardHeaderEntity, ResponseUserDetails owner) {
+        return new CardHeader(
+                UUIDCompressor.compress(cardHeaderEntity.getId()),
+                owner,
+                cardHeaderEntity.getTag(),
+                cardHeaderEntity.getCite(),
+                cardHeaderEntity.getTimeCreatedAt(),
+                cardHeaderEntity.getLastModified()
+        );
+    }
+
     public void decryptFields(byte[] secretKey) throws Exception {
-        tag = EncryptionUtils.decryptStringAES(tag, secretKey);
-        cite = EncryptionUtils.decryptStringAES(cite, secretKey);
+        decryptFields(EncryptionUtils.forKey(secretKey));
+    }
+
+    public void decryptFields(AESContext aes) throws Exception {
+        if (CipherText.isRecord(tag)) {
+            final String[] header = aes.decryptRecord(tag);
+            tag = header[EncryptedCard.HEADER_RECORD_TAG];
+            cite = header[EncryptedCard.HEADER_RECORD_CITE];
+        } else {
+            tag = aes.decryptString(tag);
+            cite = aes.decryptString(cite);
+        }
     }
 
 }
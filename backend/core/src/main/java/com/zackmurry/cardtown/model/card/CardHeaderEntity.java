@@ -0,0 +1,44 @@
+package com.zackmurry.cardtown.model.card;
+
+import com.zackmurry.cardtown.util.AESContext;
+import com.zackmurry.cardtown.util.CipherText;
+import com.zackmurry.cardtown.util.EncryptionUtils;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.UUID;
+
+/**
+ * The columns of a card needed to build a <code>CardHeader</code>, without the (much larger) body columns
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class CardHeaderEntity {
+
+    private UUID id;
+    private UUID ownerId;
+    private String tag;
+    private String cite;
+    private long timeCreatedAt;
+    private long lastModified;
+
+    public void decryptFields(byte[] secretKey) throws Exception {
+        decryptFields(EncryptionUtils.forKey(secretKey));
+    }
+
+    public void decryptFields(AESContext aes) throws Exception {
+        if (CipherText.isRecord(tag)) {
+            final String[] header = aes.decryptRecord(tag);
+            tag = header[EncryptedCard.HEADER_RECORD_TAG];
+            cite = header[EncryptedCard.HEADER_RECORD_CITE];
+        } else {
+            tag = aes.decryptString(tag);
+            cite = aes.decryptString(cite);
+        }
+    }
+
+}
@@ -0,0 +1,18 @@
+package com.zackmurry.cardtown.model.card;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class CardImportError {
+
+    // 0-based position of the card in the import
+    private int index;
+    private String message;
+
+}
@@ -0,0 +1,23 @@
+package com.zackmurry.cardtown.model.card;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * The outcome of a bulk card import. Cards that failed don't stop the rest of the import
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class CardImportResponse {
+
+    // Ids of the imported cards, in the order they were sent
+    private List<String> ids;
+    private List<CardImportError> errors;
+
+}
@@ -1,7 +1,6 @@
 package com.zackmurry.cardtown.model.card;
 
 import com.zackmurry.cardtown.model.auth.ResponseUserDetails;
-import com.zackmurry.cardtown.util.EncryptionUtils;
 import com.zackmurry.cardtown.util.UUIDCompressor;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -36,23 +35,17 @@ public class CardPreview {
         );
     }
 
-    public static CardPreview of(CardEntity cardEntity, ResponseUserDetails owner) {
+    public static CardPreview of(CardPreviewEntity entity, ResponseUserDetails owner) {
         return new CardPreview(
-                UUIDCompressor.compress(cardEntity.getId()),
+                UUIDCompressor.compress(entity.getId()),
                 owner,
-                cardEntity.getTag(),
-                cardEntity.getCite(),
-                cardEntity.getBodyText(),
-                cardEntity.getTimeCreatedAt(),
-                cardEntity.getLastModified(),
-                cardEntity.isDeleted()
+                entity.getTag(),
+                entity.getCite(),
+                entity.getBodyText(),
+                entity.getTimeCreatedAt(),
+                entity.getLastModified(),
+                entity.isDeleted()
         );
     }
 
-    public void decryptFields(byte[] secretKey) throws Exception {
-        tag = EncryptionUtils.decryptStringAES(tag, secretKey);
-        cite = EncryptionUtils.decryptStringAES(cite, secretKey);
-        bodyText = EncryptionUtils.decryptStringAES(bodyText, secretKey);
-    }
-
 }
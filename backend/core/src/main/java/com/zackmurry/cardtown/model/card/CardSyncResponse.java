@@ -0,0 +1,26 @@
+package com.zackmurry.cardtown.model.card;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * The changes to the cards that a user has access to since a sync watermark
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class CardSyncResponse {
+
+    // Cards that were created, edited, deleted, or restored. Deleted cards have deleted = true
+    private List<ResponseCard> cards;
+    // Ids of cards that were permanently deleted
+    private List<String> removedIds;
+    // Pass this as the watermark of the next sync
+    private long watermark;
+
+}
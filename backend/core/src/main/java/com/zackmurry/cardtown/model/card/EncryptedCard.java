@@ -1,5 +1,7 @@
 package com.zackmurry.cardtown.model.card;
 
+import com.zackmurry.cardtown.util.AESContext;
+import com.zackmurry.cardtown.util.CipherText;
 import com.zackmurry.cardtown.util.EncryptionUtils;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -12,6 +14,13 @@ import lombok.Setter;
 @AllArgsConstructor
 public abstract class EncryptedCard {
 
+    // Packed cards (see EncryptedCard#encryptFieldsPacked) keep these records in the tag and body_html columns
+    public static final int HEADER_RECORD_TAG = 0;
+    public static final int HEADER_RECORD_CITE = 1;
+    public static final int BODY_RECORD_CITE_INFORMATION = 0;
+    public static final int BODY_RECORD_HTML = 1;
+    public static final int BODY_RECORD_DRAFT = 2;
+
     protected String tag;
     protected String cite;
     protected String citeInformation;
@@ -20,21 +29,63 @@ public abstract class EncryptedCard {
     protected String bodyText;
 
     public void decryptFields(byte[] secretKey) throws Exception {
-        tag = EncryptionUtils.decryptStringAES(tag, secretKey);
-        cite = EncryptionUtils.decryptStringAES(cite, secretKey);
-        citeInformation = EncryptionUtils.decryptStringAES(citeInformation, secretKey);
-        bodyHtml = EncryptionUtils.decryptStringAES(bodyHtml, secretKey);
-        bodyDraft = EncryptionUtils.decryptStringAES(bodyDraft, secretKey);
-        bodyText = EncryptionUtils.decryptStringAES(bodyText, secretKey);
+        decryptFields(EncryptionUtils.forKey(secretKey));
+    }
+
+    public void decryptFields(AESContext aes) throws Exception {
+        if (CipherText.isRecord(tag)) {
+            final String[] header = aes.decryptRecord(tag);
+            tag = header[HEADER_RECORD_TAG];
+            cite = header[HEADER_RECORD_CITE];
+        } else {
+            tag = aes.decryptString(tag);
+            cite = aes.decryptString(cite);
+        }
+        if (CipherText.isRecord(bodyHtml)) {
+            final String[] body = aes.decryptRecord(bodyHtml);
+            citeInformation = body[BODY_RECORD_CITE_INFORMATION];
+            bodyHtml = body[BODY_RECORD_HTML];
+            bodyDraft = body[BODY_RECORD_DRAFT];
+            bodyText = aes.decryptString(bodyText);
+        } else {
+            citeInformation = aes.decryptString(citeInformation);
+            bodyHtml = aes.decryptString(bodyHtml);
+            bodyDraft = aes.decryptString(bodyDraft);
+            bodyText = aes.decryptString(bodyText);
+        }
     }
 
     public void encryptFields(byte[] secretKey) throws Exception {
-        tag = EncryptionUtils.encryptStringAES(tag, secretKey);
-        cite = EncryptionUtils.encryptStringAES(cite, secretKey);
-        citeInformation = EncryptionUtils.encryptStringAES(citeInformation, secretKey);
-        bodyHtml = EncryptionUtils.encryptStringAES(bodyHtml, secretKey);
-        bodyDraft = EncryptionUtils.encryptStringAES(bodyDraft, secretKey);
-        bodyText = EncryptionUtils.encryptStringAES(bodyText, secretKey);
+        encryptFields(EncryptionUtils.forKey(secretKey));
+    }
+
+    public void encryptFields(AESContext aes) throws Exception {
+        tag = aes.encryptString(tag);
+        cite = aes.encryptString(cite);
+        citeInformation = aes.encryptString(citeInformation);
+        bodyHtml = aes.encryptString(bodyHtml);
+        bodyDraft = aes.encryptString(bodyDraft);
+        bodyText = aes.encryptString(bodyText);
+    }
+
+    /**
+     * Encrypts the fields as two records and a cipher instead of six separate ciphers: a small header record (tag and
+     * cite), stored in place of the tag, a body record (cite information, html, and draft), stored in place of the body
+     * html, and the body text on its own. The other fields are left empty. Views that only need the header don't have
+     * to decrypt the body, and previews only have to decrypt the body text
+     *
+     * @param aes Context of the secret key to encrypt with
+     * @throws Exception If something goes wrong during encryption
+     */
+    public void encryptFieldsPacked(AESContext aes) throws Exception {
+        final String headerRecord = aes.encryptRecord(tag, cite);
+        final String bodyRecord = aes.encryptRecord(citeInformation, bodyHtml, bodyDraft);
+        tag = headerRecord;
+        cite = "";
+        citeInformation = "";
+        bodyHtml = bodyRecord;
+        bodyDraft = "";
+        bodyText = aes.encryptString(bodyText);
     }
 
 }
@@ -0,0 +1,23 @@
+package com.zackmurry.cardtown.model.export;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * A card or an argument that couldn't be exported, in place of its record
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ExportError {
+
+    // Either CARD or ARGUMENT
+    private ExportRecordType type;
+    // Compressed id of the card or argument
+    private String id;
+    private String message;
+
+}
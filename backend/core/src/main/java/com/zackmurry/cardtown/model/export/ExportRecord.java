@@ -0,0 +1,23 @@
+package com.zackmurry.cardtown.model.export;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * One line of a library export. <code>data</code> is a <code>ResponseCard</code> for cards, an
+ * <code>ExportedArgument</code> for arguments, and an <code>ExportError</code> for errors
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ExportRecord {
+
+    private ExportRecordType type;
+    private Object data;
+    // Pass this as <code>after</code> to resume an export after this record
+    private String cursor;
+
+}
@@ -0,0 +1,11 @@
+package com.zackmurry.cardtown.model.export;
+
+/**
+ * What a line of a library export contains. Exports list every card before every argument. A card or an argument that
+ * can't be decrypted is exported as an error in its place
+ */
+public enum ExportRecordType {
+    CARD,
+    ARGUMENT,
+    ERROR
+}
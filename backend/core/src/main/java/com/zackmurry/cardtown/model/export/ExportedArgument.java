@@ -0,0 +1,27 @@
+package com.zackmurry.cardtown.model.export;
+
+import com.zackmurry.cardtown.model.auth.ResponseUserDetails;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * An argument in a library export, with its cards and analytics in order. Cards are only referenced by id, since they
+ * are exported on their own
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ExportedArgument {
+
+    private String id;
+    private ResponseUserDetails owner;
+    private String name;
+    private boolean deleted;
+    private List<ExportedArgumentItem> items;
+
+}
@@ -0,0 +1,24 @@
+package com.zackmurry.cardtown.model.export;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * A card or an analytic in an exported argument
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ExportedArgumentItem {
+
+    // Compressed id of the card. Null for analytics
+    private String cardId;
+    // Compressed id of the analytic. Null for cards
+    private String analyticId;
+    // Body of the analytic. Null for cards
+    private String body;
+
+}
@@ -0,0 +1,25 @@
+package com.zackmurry.cardtown.model.search;
+
+import com.zackmurry.cardtown.util.InvertedIndex;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * A card, argument, or analytic that matched a search
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class SearchResult {
+
+    private InvertedIndex.DocumentType type;
+    // Compressed id of the card, argument, or analytic
+    private String id;
+    // Compressed id of the argument that an analytic is in. Null for cards and arguments
+    private String argumentId;
+    private float score;
+
+}
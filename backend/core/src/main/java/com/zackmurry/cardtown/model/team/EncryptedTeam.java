@@ -1,5 +1,6 @@
 package com.zackmurry.cardtown.model.team;
 
+import com.zackmurry.cardtown.util.AESContext;
 import com.zackmurry.cardtown.util.EncryptionUtils;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -16,11 +17,19 @@ public abstract class EncryptedTeam {
 
     // only encrypts the name because that's the only thing that's practical
     public void encryptFields(byte[] secretKey) throws Exception {
-        name = EncryptionUtils.encryptStringAES(name, secretKey);
+        encryptFields(EncryptionUtils.forKey(secretKey));
+    }
+
+    public void encryptFields(AESContext aes) throws Exception {
+        name = aes.encryptString(name);
     }
 
     public void decryptFields(byte[] secretKey) throws Exception {
-        name = EncryptionUtils.decryptStringAES(name, secretKey);
+        decryptFields(EncryptionUtils.forKey(secretKey));
+    }
+
+    public void decryptFields(AESContext aes) throws Exception {
+        name = aes.decryptString(name);
     }
 
 
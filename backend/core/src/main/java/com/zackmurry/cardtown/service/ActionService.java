@@ -3,6 +3,7 @@ package com.zackmurry.cardtown.service;
 import com.zackmurry.cardtown.dao.action.ActionDao;
 import com.zackmurry.cardtown.model.action.ActionArgumentPreview;
 import com.zackmurry.cardtown.model.action.ActionCardPreview;
+import com.zackmurry.cardtown.model.action.ActionCursor;
 import com.zackmurry.cardtown.model.action.ActionEntity;
 import com.zackmurry.cardtown.model.action.ResponseAction;
 import com.zackmurry.cardtown.model.arg.ArgumentEntity;
@@ -10,7 +11,10 @@ import com.zackmurry.cardtown.model.auth.ResponseUserDetails;
 import com.zackmurry.cardtown.model.auth.UserModel;
 import com.zackmurry.cardtown.model.card.CardPreview;
 import com.zackmurry.cardtown.model.team.TeamEntity;
+import com.zackmurry.cardtown.util.ActionLogWriter;
 import com.zackmurry.cardtown.util.UUIDCompressor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.lang.NonNull;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -22,8 +26,13 @@ import java.util.*;
 @Service
 public class ActionService {
 
+    private static final Logger logger = LoggerFactory.getLogger(ActionService.class);
+
     private static final int ACTIONS_PER_PAGE = 10;
 
+    // How long reading the feed waits for the principal's own queued actions to be written
+    private static final long OWN_ACTIONS_TIMEOUT_MILLIS = 2000;
+
     @Autowired
     private ActionDao actionDao;
 
@@ -39,14 +48,18 @@ public class ActionService {
     @Autowired
     private ArgumentService argumentService;
 
+    @Autowired
+    private ActionLogWriter actionLogWriter;
+
     /**
-     * Creates an action in the database
+     * Creates an action in the database. The action is written in the background unless the action log is in <code>SYNC</code> mode
      *
      * @param actionEntity Details of action to create
-     * @throws InternalServerException If a <code>SQLException</code> occurs in the DAO layer
+     * @throws InternalServerException If the action is written on the calling thread and a <code>SQLException</code> occurs in the DAO layer
+     * @see ActionLogWriter For durability modes
      */
     public void createAction(@NonNull ActionEntity actionEntity) {
-        actionDao.createAction(actionEntity);
+        actionLogWriter.write(actionEntity);
     }
 
     /**
@@ -56,6 +69,8 @@ public class ActionService {
      * @throws InternalServerException If a <code>SQLException</code> occurs in the DAO layer
      */
     public List<ActionEntity> getAllActionsVisibleToUser() {
+        // Wait for the user's own queued actions first so that they see what they've just done
+        awaitPrincipalActions();
         final Optional<TeamEntity> optionalTeamEntity = teamService.getTeamOfUser();
         if (optionalTeamEntity.isPresent()) {
             return actionDao.getAllActionsByTeam(optionalTeamEntity.get().getId());
@@ -64,28 +79,58 @@ public class ActionService {
         return actionDao.getAllActionsByUser(userId);
     }
 
+    /**
+     * Looks up the users, cards, and arguments that a page of actions refers to. Each kind of entity is loaded for
+     * the whole page at once, so a page costs the same handful of queries no matter how many actions it has
+     */
     private List<ResponseAction> convertActionEntitiesIntoResponseActions(@NonNull List<ActionEntity> actionEntities) {
-        // Putting all data into a map so that there aren't too many database queries
-        final Map<UUID, ResponseUserDetails> responseUserDetailsMap = new HashMap<>();
-        final Map<UUID, ActionCardPreview> actionCardPreviewMap = new HashMap<>();
-        final Map<UUID, ActionArgumentPreview> actionArgumentPreviewMap = new HashMap<>();
+        final Set<UUID> userIds = new HashSet<>();
+        final Set<UUID> cardIds = new HashSet<>();
+        final Set<UUID> argumentIds = new HashSet<>();
         for (ActionEntity actionEntity : actionEntities) {
-            if (!responseUserDetailsMap.containsKey(actionEntity.getSubjectId())) {
-                responseUserDetailsMap.put(actionEntity.getSubjectId(), userService.getResponseUserDetailsById(actionEntity.getSubjectId()).orElseThrow(InternalServerException::new));
+            userIds.add(actionEntity.getSubjectId());
+            if (actionEntity.getUserId() != null) {
+                userIds.add(actionEntity.getUserId());
+            }
+            if (actionEntity.getCardId() != null) {
+                cardIds.add(actionEntity.getCardId());
             }
-            if (actionEntity.getUserId() != null && !responseUserDetailsMap.containsKey(actionEntity.getUserId())) {
-                responseUserDetailsMap.put(actionEntity.getUserId(), userService.getResponseUserDetailsById(actionEntity.getUserId()).orElseThrow(InternalServerException::new));
+            if (actionEntity.getArgumentId() != null) {
+                argumentIds.add(actionEntity.getArgumentId());
             }
-            if (actionEntity.getCardId() != null && !actionCardPreviewMap.containsKey(actionEntity.getCardId())) {
-                final CardPreview cardPreview = cardService.getCardPreviewByIdIncludingDeleted(actionEntity.getCardId()).orElseThrow(InternalServerException::new);
-                final int numAppearancesInArgs = argumentService.getNumRelatedArgumentsByCardId(actionEntity.getCardId());
-                actionCardPreviewMap.put(actionEntity.getCardId(), ActionCardPreview.of(cardPreview, numAppearancesInArgs));
+        }
+
+        final Map<UUID, ResponseUserDetails> responseUserDetailsMap = userService.getResponseUserDetailsByIds(userIds);
+        if (responseUserDetailsMap.size() != userIds.size()) {
+            throw new InternalServerException();
+        }
+
+        final Map<UUID, ActionCardPreview> actionCardPreviewMap = new HashMap<>();
+        if (!cardIds.isEmpty()) {
+            final Map<UUID, CardPreview> cardPreviews = cardService.getCardPreviewsByIdsIncludingDeleted(cardIds);
+            final Map<UUID, Integer> numAppearancesInArgs = argumentService.getNumRelatedArgumentsByCardIds(cardIds);
+            for (UUID cardId : cardIds) {
+                final CardPreview cardPreview = cardPreviews.get(cardId);
+                if (cardPreview == null) {
+                    throw new InternalServerException();
+                }
+                actionCardPreviewMap.put(cardId, ActionCardPreview.of(cardPreview, numAppearancesInArgs.getOrDefault(cardId, 0)));
             }
-            if (actionEntity.getArgumentId() != null && !actionArgumentPreviewMap.containsKey(actionEntity.getArgumentId())) {
-                final ArgumentEntity argumentEntity = argumentService.getArgumentEntityById(actionEntity.getArgumentId()).orElseThrow(InternalServerException::new);
-                final int numCardsInArgument = argumentService.getNumCardsInArgument(actionEntity.getArgumentId());
-                final ActionArgumentPreview actionArgumentPreview = new ActionArgumentPreview(UUIDCompressor.compress(actionEntity.getArgumentId()), argumentEntity.getName(), numCardsInArgument);
-                actionArgumentPreviewMap.put(actionEntity.getArgumentId(), actionArgumentPreview);
+        }
+
+        final Map<UUID, ActionArgumentPreview> actionArgumentPreviewMap = new HashMap<>();
+        if (!argumentIds.isEmpty()) {
+            final Map<UUID, ArgumentEntity> argumentEntities = argumentService.getArgumentEntitiesByIds(argumentIds);
+            final Map<UUID, Integer> numCardsInArguments = argumentService.getNumCardsInArguments(argumentIds);
+            for (UUID argumentId : argumentIds) {
+                final ArgumentEntity argumentEntity = argumentEntities.get(argumentId);
+                if (argumentEntity == null) {
+                    throw new InternalServerException();
+                }
+                actionArgumentPreviewMap.put(
+                        argumentId,
+                        new ActionArgumentPreview(UUIDCompressor.compress(argumentId), argumentEntity.getName(), numCardsInArguments.getOrDefault(argumentId, 0))
+                );
             }
         }
 
@@ -104,16 +149,31 @@ public class ActionService {
         return responseActions;
     }
 
-    public List<ResponseAction> getRecentActions(int page) {
+    /**
+     * Gets a page of the actions that are visible to the principal, most recent first
+     *
+     * @param after Cursor of the last action on the previous page, or <code>null</code> for the first page
+     * @return Up to <code>ACTIONS_PER_PAGE</code> actions
+     * @throws InternalServerException If a <code>SQLException</code> occurs in the DAO layer
+     */
+    public List<ResponseAction> getRecentActions(ActionCursor after) {
+        awaitPrincipalActions();
         final UserModel principal = (UserModel) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
         final List<ActionEntity> actionEntities;
         if (principal.getTeamId().isPresent()) {
             // If user is in a team
-            actionEntities = actionDao.getRecentActionsByTeam(principal.getTeamId().get(), ACTIONS_PER_PAGE, page * ACTIONS_PER_PAGE);
+            actionEntities = actionDao.getRecentActionsByTeam(principal.getTeamId().get(), ACTIONS_PER_PAGE, after);
         } else {
-            actionEntities = actionDao.getRecentActionsByUser(principal.getId(), ACTIONS_PER_PAGE, page * ACTIONS_PER_PAGE);
+            actionEntities = actionDao.getRecentActionsByUser(principal.getId(), ACTIONS_PER_PAGE, after);
         }
         return convertActionEntitiesIntoResponseActions(actionEntities);
     }
 
+    private void awaitPrincipalActions() {
+        final UserModel principal = (UserModel) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        if (!actionLogWriter.awaitWritten(principal.getId(), OWN_ACTIONS_TIMEOUT_MILLIS)) {
+            logger.warn("Timed out waiting for the queued actions of {}", principal.getId());
+        }
+    }
+
 }
@@ -1,8 +1,10 @@
 package com.zackmurry.cardtown.service;
 
+import com.zackmurry.cardtown.dao.CursorQueries;
 import com.zackmurry.cardtown.dao.arg.ArgumentDao;
 import com.zackmurry.cardtown.dao.arg.analytic.ArgumentAnalyticDao;
 import com.zackmurry.cardtown.exception.*;
+import com.zackmurry.cardtown.model.EntityVersion;
 import com.zackmurry.cardtown.model.action.ActionEntity;
 import com.zackmurry.cardtown.model.action.ActionType;
 import com.zackmurry.cardtown.model.analytic.AnalyticCreateRequest;
@@ -11,6 +13,9 @@ import com.zackmurry.cardtown.model.analytic.AnalyticUpdateRequest;
 import com.zackmurry.cardtown.model.analytic.ResponseAnalytic;
 import com.zackmurry.cardtown.model.arg.ArgumentCreateRequest;
 import com.zackmurry.cardtown.model.arg.ArgumentEntity;
+import com.zackmurry.cardtown.model.arg.ArgumentEntityWithCardHeaders;
+import com.zackmurry.cardtown.model.arg.ArgumentItemEntity;
+import com.zackmurry.cardtown.model.arg.ArgumentItemOrderRequest;
 import com.zackmurry.cardtown.model.arg.ArgumentPreview;
 import com.zackmurry.cardtown.model.arg.ResponseArgument;
 import com.zackmurry.cardtown.model.arg.card.*;
@@ -19,9 +24,15 @@ import com.zackmurry.cardtown.model.auth.User;
 import com.zackmurry.cardtown.model.auth.UserModel;
 import com.zackmurry.cardtown.model.card.CardEntity;
 import com.zackmurry.cardtown.model.card.CardHeader;
+import com.zackmurry.cardtown.model.card.CardHeaderEntity;
 import com.zackmurry.cardtown.model.card.ResponseCard;
 import com.zackmurry.cardtown.model.team.TeamEntity;
+import com.zackmurry.cardtown.util.AESContext;
+import com.zackmurry.cardtown.util.ChunkedItemConsumer;
 import com.zackmurry.cardtown.util.EncryptionUtils;
+import com.zackmurry.cardtown.util.InvertedIndex;
+import com.zackmurry.cardtown.util.ItemConsumer;
+import com.zackmurry.cardtown.util.LibraryIndexCache;
 import com.zackmurry.cardtown.util.UUIDCompressor;
 import com.zackmurry.cardtown.util.UserSecretKeyHolder;
 import org.slf4j.Logger;
@@ -31,19 +42,29 @@ import org.springframework.http.HttpStatus;
 import org.springframework.lang.NonNull;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
- * todo auto-fix broken positions in argument when cards are reordered
+ * Items (cards and analytics) in an argument are ordered by sparse sort keys (see <code>ArgumentItemEntity</code>), but
+ * indices sent to and from clients are dense and 0-based
  */
 @Service
 public class ArgumentService {
 
     private static final Logger logger = LoggerFactory.getLogger(ArgumentService.class);
 
+    /**
+     * Difference between the sort keys of neighbouring items after renumbering, and between the last item and an appended one.
+     * Each move into a gap halves it, so about 32 moves into the same spot fit before the argument has to be renumbered
+     */
+    private static final long SORT_KEY_GAP = 1L << 32;
+
     @Autowired
     private ArgumentDao argumentDao;
 
@@ -62,6 +83,9 @@ public class ArgumentService {
     @Autowired
     private ActionService actionService;
 
+    @Autowired
+    private LibraryIndexCache libraryIndexCache;
+
     /**
      * Creates an argument with the specified information, with the owner id as the current principal
      *
@@ -84,6 +108,7 @@ public class ArgumentService {
             throw new LengthRequiredException("An argument's name must be between 1 and 128 characters long.");
         }
 
+        final String plaintextName = request.getName();
         try {
             request.encryptFields(UserSecretKeyHolder.getSecretKey());
         } catch (Exception e) {
@@ -94,6 +119,7 @@ public class ArgumentService {
         if (argId == null) {
             throw new InternalServerException();
         }
+        updateLibraryIndex(index -> index.putArgument(argId, plaintextName, false));
 
         if (request.getCardIds() != null && request.getCardIds().size() != 0) {
             final List<UUID> cardIds = request.getCardIds().stream().map(UUIDCompressor::decompress).collect(Collectors.toList());
@@ -144,27 +170,61 @@ public class ArgumentService {
         if (owner == null) {
             throw new InternalServerException();
         }
-        final List<ArgumentCardEntity> argumentCardEntities = argumentDao.getCardsByArgumentId(argumentEntity.getId());
+        // Read before the items, so that a change in between makes the version stale instead of hiding the change
+        final int itemsVersion = argumentDao.getItemsVersion(argId);
+        // The index of an item is its index in this list
+        final List<ArgumentItemEntity> items = argumentDao.getItemsInArgument(argId);
         final List<ResponseCard> responseCards = cardService.getResponseCardsByIds(
-                argumentCardEntities.stream()
-                        .map(ArgumentCardEntity::getCardId)
+                items.stream()
+                        .filter(ArgumentItemEntity::isCard)
+                        .map(ArgumentItemEntity::getCardId)
                         .collect(Collectors.toList())
         );
-        final List<ResponseArgumentCard> responseArgumentCards = new ArrayList<>();
-        for (int i = 0; i < responseCards.size(); i++) {
-            responseArgumentCards.add(ResponseArgumentCard.of(responseCards.get(i), argumentCardEntities.get(i).getIndexInArgument()));
+        final Map<UUID, AnalyticEntity> analyticEntities = new HashMap<>();
+        for (AnalyticEntity analyticEntity : argumentAnalyticDao.getAnalyticsByArgumentId(argId)) {
+            analyticEntities.put(analyticEntity.getId(), analyticEntity);
         }
-        final List<AnalyticEntity> analyticEntities = argumentAnalyticDao.getAnalyticsByArgumentId(argId);
+        final List<ResponseArgumentCard> responseArgumentCards = new ArrayList<>();
         final List<ResponseAnalytic> responseAnalytics = new ArrayList<>();
+        final AESContext aes = UserSecretKeyHolder.getAESContext();
         try {
-            for (AnalyticEntity analyticEntity : analyticEntities) {
-                analyticEntity.decryptFields(UserSecretKeyHolder.getSecretKey());
-                responseAnalytics.add(ResponseAnalytic.of(analyticEntity));
+            for (short i = 0; i < items.size(); i++) {
+                final ArgumentItemEntity item = items.get(i);
+                if (item.isCard()) {
+                    responseArgumentCards.add(ResponseArgumentCard.of(responseCards.get(responseArgumentCards.size()), i));
+                    continue;
+                }
+                final AnalyticEntity analyticEntity = analyticEntities.get(item.getAnalyticId());
+                if (analyticEntity == null) {
+                    // Deleted between the two queries
+                    continue;
+                }
+                analyticEntity.decryptFields(aes);
+                responseAnalytics.add(ResponseAnalytic.of(analyticEntity, i));
             }
         } catch (Exception e) {
             throw new InternalServerException();
         }
-        return ResponseArgument.fromArgumentEntity(argumentEntity, ResponseUserDetails.fromUser(owner), responseArgumentCards, responseAnalytics);
+        return ResponseArgument.fromArgumentEntity(argumentEntity, ResponseUserDetails.fromUser(owner), responseArgumentCards, responseAnalytics, itemsVersion);
+    }
+
+    /**
+     * Gets the version of an argument, for answering conditional requests without reading or decrypting the argument.
+     * Checks that the principal has access to it
+     *
+     * @param id Id of argument, in Base64
+     * @return The version of the argument, which covers its name, items, and the cards in it
+     * @throws ArgumentNotFoundException If the argument could not be found
+     * @throws ForbiddenException        If the principal does not have access to the argument
+     * @throws InternalServerException   If a <code>SQLException</code> occurs in the DAO layer
+     */
+    public EntityVersion getArgumentVersionById(@NonNull String id) {
+        final UUID userId = ((User) SecurityContextHolder.getContext().getAuthentication().getPrincipal()).getId();
+        final EntityVersion version = argumentDao.getArgumentVersionById(UUIDCompressor.decompress(id)).orElseThrow(ArgumentNotFoundException::new);
+        if (!teamService.usersInSameTeam(version.getOwnerId(), userId)) {
+            throw new ForbiddenException();
+        }
+        return version;
     }
 
     /**
@@ -179,7 +239,6 @@ public class ArgumentService {
      * @throws ForbiddenException        If the user does not have access to the card and write permission to the argument
      */
     public short addCardToArgument(@NonNull UUID argumentId, @NonNull UUID cardId) {
-        final short index = getFirstOpenIndexInArgument(argumentId);
         final CardEntity cardEntity = cardService.getCardEntityById(cardId).orElseThrow(CardNotFoundException::new);
         final UUID principalId = ((User) SecurityContextHolder.getContext().getAuthentication().getPrincipal()).getId();
         if (!teamService.usersInSameTeam(cardEntity.getOwnerId(), principalId)) {
@@ -192,9 +251,10 @@ public class ArgumentService {
         if (!teamService.usersInSameTeam(argumentEntity.getOwnerId(), principalId)) {
             throw new ForbiddenException();
         }
-        incrementItemPositionsInArgumentAtOrPastIndex(argumentId, index);
-        argumentDao.addCardToArgument(argumentId, cardId, index);
-        return index;
+        final List<ArgumentItemEntity> items = argumentDao.getItemsInArgument(argumentId);
+        argumentDao.addCardToArgument(argumentId, cardId, getSortKeyForAppending(argumentId, items));
+        argumentDao.incrementItemsVersion(argumentId);
+        return (short) items.size();
     }
 
     /**
@@ -218,50 +278,18 @@ public class ArgumentService {
         return ResponseArgumentCard.of(responseCard, position);
     }
 
+    /**
+     * Retrieves previews of all arguments owned by members of a team. Does not check if the principal is in the team
+     *
+     * @param teamId         Id of team to find arguments of
+     * @param includeDeleted Whether to include deleted arguments
+     * @return Argument previews of the team
+     * @throws InternalServerException If an error occurs while decrypting information
+     * @throws InternalServerException If a user was said to be the owner of an entity, but not found in the database
+     * @throws InternalServerException If a <code>SQLException</code> occurs in the DAO layer
+     */
     public List<ArgumentPreview> listArgumentsByTeam(@NonNull UUID teamId, boolean includeDeleted) {
-        final List<ArgumentEntity> argumentEntities = argumentDao.getArgumentsByTeam(teamId, includeDeleted);
-        final List<ArgumentPreview> argumentPreviews = new ArrayList<>();
-        final byte[] teamSecretKey = UserSecretKeyHolder.getSecretKey();
-        final Map<UUID, ResponseUserDetails> userDetailsMap = new HashMap<>();
-        for (ArgumentEntity argumentEntity : argumentEntities) {
-            try {
-                argumentEntity.decryptFields(teamSecretKey);
-            } catch (Exception e) {
-                e.printStackTrace();
-                throw new InternalServerException();
-            }
-
-            final List<CardEntity> cardEntities = getCardsInArgument(argumentEntity.getId());
-            final List<CardHeader> cardHeaders = new ArrayList<>();
-            for (CardEntity cardEntity : cardEntities) {
-                final ResponseUserDetails cardOwnerDetails;
-                if (userDetailsMap.containsKey(cardEntity.getOwnerId())) {
-                    cardOwnerDetails = userDetailsMap.get(cardEntity.getOwnerId());
-                } else {
-                    cardOwnerDetails = userService.getResponseUserDetailsById(cardEntity.getOwnerId()).orElseThrow(InternalServerException::new);
-                    userDetailsMap.put(cardEntity.getOwnerId(), cardOwnerDetails);
-                }
-                final ResponseCard responseCard = ResponseCard.fromCard(cardEntity, cardOwnerDetails);
-                final CardHeader cardHeader = CardHeader.of(responseCard);
-                try {
-                    cardHeader.decryptFields(teamSecretKey);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    throw new InternalServerException();
-                }
-                cardHeaders.add(cardHeader);
-            }
-            final ResponseUserDetails argumentOwnerDetails;
-            if (userDetailsMap.containsKey(argumentEntity.getOwnerId())) {
-                argumentOwnerDetails = userDetailsMap.get(argumentEntity.getOwnerId());
-            } else {
-                argumentOwnerDetails = userService.getResponseUserDetailsById(argumentEntity.getOwnerId()).orElseThrow(InternalServerException::new);
-                userDetailsMap.put(argumentEntity.getOwnerId(), argumentOwnerDetails);
-            }
-            final ArgumentPreview argumentPreview = ArgumentPreview.of(argumentEntity, argumentOwnerDetails, cardHeaders);
-            argumentPreviews.add(argumentPreview);
-        }
-        return argumentPreviews;
+        return toArgumentPreviews(argumentDao.getArgumentPreviewsByTeam(teamId, includeDeleted));
     }
 
     /**
@@ -274,45 +302,108 @@ public class ArgumentService {
      * @throws InternalServerException If a <code>SQLException</code> occurs in the DAO layer
      */
     public List<ArgumentPreview> listArgumentsByUser(boolean includeDeleted) {
-        // todo add unit tests
         final Optional<UUID> teamId = teamService.getTeamOfUser().map(TeamEntity::getId);
         // Delegate to listArgumentsByTeam if part of team
         if (teamId.isPresent()) {
             return listArgumentsByTeam(teamId.get(), includeDeleted);
         }
         final UserModel principal = (UserModel) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
-        final UUID userId = principal.getId();
-        final byte[] secretKey = UserSecretKeyHolder.getSecretKey();
-        final List<ArgumentEntity> argumentEntities = argumentDao.getArgumentsByUser(userId, includeDeleted);
-        final List<ArgumentPreview> argumentPreviews = new ArrayList<>();
-        final ResponseUserDetails responseUserDetails = userService.getResponseUserDetailsById(userId).orElseThrow(InternalServerException::new);
-        for (ArgumentEntity argumentEntity : argumentEntities) {
-            try {
-                argumentEntity.decryptFields(secretKey);
-            } catch (Exception e) {
-                e.printStackTrace();
-                throw new InternalServerException();
+        return toArgumentPreviews(argumentDao.getArgumentPreviewsByUser(principal.getId(), includeDeleted));
+    }
+
+    /**
+     * Streams previews of the arguments that the user has access to as they're read from the database, so that only
+     * <code>CursorQueries#FETCH_SIZE</code> arguments are in memory at a time
+     *
+     * @param includeDeleted Whether to include deleted arguments
+     * @param consumer       Called with each preview
+     * @throws IOException             If <code>consumer</code> throws one
+     * @throws InternalServerException If an error occurs while decrypting information
+     * @throws InternalServerException If a user was said to be the owner of an entity, but not found in the database
+     * @throws InternalServerException If a <code>SQLException</code> occurs in the DAO layer
+     * @see ArgumentService#listArgumentsByUser(boolean)
+     */
+    public void forEachArgumentPreviewByUser(boolean includeDeleted, @NonNull ItemConsumer<? super ArgumentPreview> consumer) throws IOException {
+        final Optional<UUID> teamId = teamService.getTeamOfUser().map(TeamEntity::getId);
+        // Owners are looked up once per stream, not once per chunk
+        final Map<UUID, ResponseUserDetails> userDetailsMap = new HashMap<>();
+        final ChunkedItemConsumer<ArgumentEntityWithCardHeaders> chunks = new ChunkedItemConsumer<>(CursorQueries.FETCH_SIZE, argumentEntities -> {
+            for (ArgumentPreview argumentPreview : toArgumentPreviews(argumentEntities, userDetailsMap)) {
+                consumer.accept(argumentPreview);
             }
+        });
+        if (teamId.isPresent()) {
+            argumentDao.forEachArgumentPreviewByTeam(teamId.get(), includeDeleted, chunks);
+        } else {
+            final UserModel principal = (UserModel) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+            argumentDao.forEachArgumentPreviewByUser(principal.getId(), includeDeleted, chunks);
+        }
+        chunks.flush();
+    }
 
-            final List<CardEntity> cardEntities = getCardsInArgument(argumentEntity.getId());
-            final List<CardHeader> cardHeaders = new ArrayList<>();
-            for (CardEntity cardEntity : cardEntities) {
-                final ResponseCard responseCard = ResponseCard.fromCard(cardEntity, responseUserDetails);
-                final CardHeader cardHeader = CardHeader.of(responseCard);
-                try {
-                    cardHeader.decryptFields(secretKey);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    throw new InternalServerException();
+    /**
+     * Decrypts arguments and their card headers and resolves the owners of all of them with a single query
+     *
+     * @param argumentEntities Arguments (with card headers) to convert
+     * @return The <code>ArgumentPreview</code>s of the arguments, in the same order
+     * @throws InternalServerException If an error occurs while decrypting information
+     * @throws InternalServerException If a user was said to be the owner of an entity, but not found in the database
+     */
+    private List<ArgumentPreview> toArgumentPreviews(@NonNull List<ArgumentEntityWithCardHeaders> argumentEntities) {
+        return toArgumentPreviews(argumentEntities, new HashMap<>());
+    }
+
+    /**
+     * Decrypts arguments and their card headers and resolves the owners that aren't already known with a single query
+     *
+     * @param argumentEntities Arguments (with card headers) to convert
+     * @param userDetailsMap   Owners that are already known. Owners that are looked up are added to it
+     * @return The <code>ArgumentPreview</code>s of the arguments, in the same order
+     * @throws InternalServerException If an error occurs while decrypting information
+     * @throws InternalServerException If a user was said to be the owner of an entity, but not found in the database
+     */
+    private List<ArgumentPreview> toArgumentPreviews(@NonNull List<ArgumentEntityWithCardHeaders> argumentEntities,
+                                                     @NonNull Map<UUID, ResponseUserDetails> userDetailsMap) {
+        final AESContext aes = UserSecretKeyHolder.getAESContext();
+        final Set<UUID> ownerIds = new HashSet<>();
+        try {
+            for (ArgumentEntityWithCardHeaders argumentEntity : argumentEntities) {
+                argumentEntity.decryptFields(aes);
+                ownerIds.add(argumentEntity.getOwnerId());
+                for (CardHeaderEntity cardHeaderEntity : argumentEntity.getCards()) {
+                    cardHeaderEntity.decryptFields(aes);
+                    ownerIds.add(cardHeaderEntity.getOwnerId());
                 }
-                cardHeaders.add(cardHeader);
             }
-            final ArgumentPreview argumentPreview = ArgumentPreview.of(argumentEntity, responseUserDetails, cardHeaders);
-            argumentPreviews.add(argumentPreview);
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+
+        ownerIds.removeAll(userDetailsMap.keySet());
+        if (!ownerIds.isEmpty()) {
+            userDetailsMap.putAll(userService.getResponseUserDetailsByIds(ownerIds));
+        }
+        final List<ArgumentPreview> argumentPreviews = new ArrayList<>();
+        for (ArgumentEntityWithCardHeaders argumentEntity : argumentEntities) {
+            final List<CardHeader> cardHeaders = new ArrayList<>();
+            for (CardHeaderEntity cardHeaderEntity : argumentEntity.getCards()) {
+                cardHeaders.add(CardHeader.of(cardHeaderEntity, getOwnerDetails(userDetailsMap, cardHeaderEntity.getOwnerId())));
+            }
+            argumentPreviews.add(ArgumentPreview.of(argumentEntity, getOwnerDetails(userDetailsMap, argumentEntity.getOwnerId()), cardHeaders));
         }
         return argumentPreviews;
     }
 
+    private static ResponseUserDetails getOwnerDetails(@NonNull Map<UUID, ResponseUserDetails> userDetailsMap, @NonNull UUID ownerId) {
+        final ResponseUserDetails ownerDetails = userDetailsMap.get(ownerId);
+        if (ownerDetails == null) {
+            logger.warn("Owner not found in users database. Owner id: {}", ownerId);
+            throw new InternalServerException();
+        }
+        return ownerDetails;
+    }
+
     /**
      * Gets the number of arguments that a user has access to
      *
@@ -328,28 +419,7 @@ public class ArgumentService {
     }
 
     /**
-     * Gets the cards in an argument, by the argument's id.
-     * Does not validate credentials! Returns a list of cards in the argument, sorted by index
-     *
-     * @param argumentId Id of argument to search
-     * @return List of cards in argument
-     */
-    private List<CardEntity> getCardsInArgument(UUID argumentId) {
-        final List<ArgumentCardEntity> argumentCardEntities = argumentDao.getCardsByArgumentId(argumentId);
-        final List<CardEntity> cardEntities = new ArrayList<>();
-        for (ArgumentCardEntity argumentCardEntity : argumentCardEntities) {
-            final Optional<CardEntity> optionalCardEntity = cardService.getCardEntityById(argumentCardEntity.getCardId());
-            if (optionalCardEntity.isEmpty()) {
-                logger.warn("Card found in argument_cards but not found in cards");
-                continue;
-            }
-            cardEntities.add(optionalCardEntity.get());
-        }
-        return cardEntities;
-    }
-
-    /**
-     * Removes a card from an argument, adjusting indices and whatnot.
+     * Removes a card from an argument. Other items keep their sort keys, so their indices shift down by themselves
      *
      * @param argumentId Id of argument to remove from
      * @param cardId     Id of card to remove
@@ -360,12 +430,12 @@ public class ArgumentService {
      */
     public void removeCardFromArgument(@NonNull UUID argumentId, @NonNull UUID cardId, short index) {
         checkAccessToArgument(argumentId);
-        final Optional<UUID> actualCardId = argumentDao.getCardIdInArgumentAtPosition(argumentId, index);
-        if (actualCardId.isEmpty() || !actualCardId.get().equals(cardId)) {
+        final List<ArgumentItemEntity> items = argumentDao.getItemsInArgument(argumentId);
+        if (index < 0 || index >= items.size() || !cardId.equals(items.get(index).getCardId())) {
             throw new BadRequestException();
         }
-        argumentDao.removeCardFromArgument(argumentId, cardId, index);
-        decrementItemPositionsInArgumentAtOrPastIndex(argumentId, index);
+        argumentDao.removeCardFromArgument(argumentId, cardId, items.get(index).getSortKey());
+        argumentDao.incrementItemsVersion(argumentId);
     }
 
     /**
@@ -418,6 +488,7 @@ public class ArgumentService {
             throw new ResponseStatusException(HttpStatus.NOT_MODIFIED);
         }
         argumentDao.markArgumentAsDeleted(decompressedArgId);
+        updateLibraryIndex(index -> index.setHidden(decompressedArgId, true));
         actionService.createAction(
                 ActionEntity.builder()
                         .type(ActionType.DELETE_ARGUMENT)
@@ -452,6 +523,7 @@ public class ArgumentService {
             throw new InternalServerException();
         }
         argumentDao.renameArgument(decompressedArgId, encryptedName);
+        updateLibraryIndex(index -> index.renameArgument(decompressedArgId, newName));
         actionService.createAction(
                 ActionEntity.builder()
                         .type(ActionType.EDIT_ARGUMENT)
@@ -462,7 +534,8 @@ public class ArgumentService {
     }
 
     /**
-     * Changes the position of a card in an argument, pushing along any other cards. Creates an action.
+     * Changes the position of an item in an argument. Only the moved item is written, unless the argument has to be renumbered
+     * (see <code>ArgumentService#getSortKeyForIndex</code>). Creates an action.
      *
      * @param argumentId Id of argument to modify
      * @param newIndex   New index of card in argument
@@ -476,36 +549,84 @@ public class ArgumentService {
     public void updateItemPosition(@NonNull String argumentId, @NonNull Short newIndex, @NonNull Short oldIndex) {
         final UUID decompressedArgId = UUIDCompressor.decompress(argumentId);
         checkAccessToArgument(decompressedArgId);
-        final short argumentSize = getNumberOfItemsInArgument(decompressedArgId);
-        if (newIndex >= argumentSize || oldIndex >= argumentSize || newIndex < 0 || oldIndex < 0) {
+        List<ArgumentItemEntity> items = argumentDao.getItemsInArgument(decompressedArgId);
+        if (newIndex >= items.size() || oldIndex >= items.size() || newIndex < 0 || oldIndex < 0) {
             throw new BadRequestException();
         }
         if (oldIndex.equals(newIndex)) {
             return;
         }
 
-        final UUID cardId = argumentDao.getCardIdInArgumentAtPosition(decompressedArgId, oldIndex).orElse(null);
-        if (cardId != null) {
-            // Remove the card from the argument, then add it back at the new index
-            argumentDao.removeCardFromArgument(decompressedArgId, cardId, oldIndex);
-            decrementItemPositionsInArgumentAtOrPastIndex(decompressedArgId, oldIndex);
-
-            incrementItemPositionsInArgumentAtOrPastIndex(decompressedArgId, newIndex);
-            argumentDao.addCardToArgument(decompressedArgId, cardId, newIndex);
-        } else {
-            // The item is an analytic
-            // Set the analytic's position to -1, move the other items, and then set it to the new index
-            final UUID analyticId = argumentAnalyticDao.getAnalyticIdInArgumentAtPosition(decompressedArgId, oldIndex).orElse(null);
-            if (analyticId == null) {
-                throw new InternalServerException();
+        OptionalLong sortKey = getSortKeyForIndex(items, newIndex, oldIndex);
+        if (sortKey.isEmpty()) {
+            items = renumberItemsInArgument(decompressedArgId);
+            if (oldIndex >= items.size() || newIndex >= items.size()) {
+                throw new BadRequestException();
             }
-            argumentAnalyticDao.updatePositionOfAnalyticById(analyticId, (short) -1);
-            if (newIndex > oldIndex) {
-                decrementItemPositionsInArgument(decompressedArgId, (short) (oldIndex + 1), newIndex);
-            } else {
-                incrementItemPositionsInArgument(decompressedArgId, newIndex, (short) (oldIndex - 1));
+            sortKey = getSortKeyForIndex(items, newIndex, oldIndex);
+        }
+        final ArgumentItemEntity item = items.get(oldIndex);
+        if (item.isCard()) {
+            argumentDao.updateCardSortKey(decompressedArgId, item.getCardId(), item.getSortKey(), sortKey.orElseThrow(InternalServerException::new));
+        } else {
+            argumentAnalyticDao.updateSortKeyOfAnalyticById(item.getAnalyticId(), sortKey.orElseThrow(InternalServerException::new));
+        }
+        argumentDao.incrementItemsVersion(decompressedArgId);
+
+        actionService.createAction(
+                ActionEntity.builder()
+                        .type(ActionType.EDIT_ARGUMENT)
+                        .principal()
+                        .argument(decompressedArgId)
+                        .build()
+        );
+    }
+
+    /**
+     * Replaces the order of every item in an argument at once, in a transaction. Creates an action.
+     *
+     * @param argumentId   Id of argument to reorder (in Base64)
+     * @param orderRequest Version that the order was made from and the ids of all items in their new order
+     * @return The new version of the argument's items
+     * @throws ArgumentNotFoundException If the argument could not be found
+     * @throws ForbiddenException        If the user does not have access to the requested argument
+     * @throws ConflictException         If the items of the argument have changed since the version in the request
+     * @throws BadRequestException       If the ids in the request aren't exactly the items of the argument
+     * @throws InternalServerException   If a <code>SQLException</code> occurs in the DAO layer
+     */
+    @Transactional
+    public int updateItemOrder(@NonNull String argumentId, @NonNull ArgumentItemOrderRequest orderRequest) {
+        if (orderRequest.getVersion() == null || orderRequest.getItemIds() == null) {
+            throw new BadRequestException();
+        }
+        final UUID decompressedArgId = UUIDCompressor.decompress(argumentId);
+        checkAccessToArgument(decompressedArgId);
+        // This also locks the argument until the transaction ends, so the items can't be reordered by someone else in the meantime
+        if (!argumentDao.compareAndIncrementItemsVersion(decompressedArgId, orderRequest.getVersion())) {
+            throw new ConflictException("The argument has changed since it was loaded");
+        }
+
+        // Items are matched by id. If a card is in the argument more than once, its appearances are interchangeable
+        final List<ArgumentItemEntity> items = argumentDao.getItemsInArgument(decompressedArgId);
+        if (orderRequest.getItemIds().size() != items.size()) {
+            throw new BadRequestException();
+        }
+        final Map<UUID, Deque<ArgumentItemEntity>> itemsById = new HashMap<>();
+        for (ArgumentItemEntity item : items) {
+            itemsById.computeIfAbsent(item.isCard() ? item.getCardId() : item.getAnalyticId(), id -> new ArrayDeque<>()).add(item);
+        }
+        final List<ArgumentItemEntity> reorderedItems = new ArrayList<>(items.size());
+        for (String itemId : orderRequest.getItemIds()) {
+            final Deque<ArgumentItemEntity> matches = itemsById.get(UUIDCompressor.decompress(itemId));
+            if (matches == null || matches.isEmpty()) {
+                throw new BadRequestException();
             }
-            argumentAnalyticDao.updatePositionOfAnalyticById(analyticId, newIndex);
+            reorderedItems.add(matches.poll());
+        }
+
+        if (argumentDao.reorderItemsInArgument(decompressedArgId, reorderedItems, SORT_KEY_GAP) != reorderedItems.size()) {
+            // An item was moved or removed by a request that didn't check the version
+            throw new ConflictException("The argument has changed since it was loaded");
         }
 
         actionService.createAction(
@@ -515,6 +636,7 @@ public class ArgumentService {
                         .argument(decompressedArgId)
                         .build()
         );
+        return orderRequest.getVersion() + 1;
     }
 
     /**
@@ -528,7 +650,9 @@ public class ArgumentService {
         // todo this needs unit tests
         final List<ArgumentCardEntity> argumentCardEntities = argumentDao.getArgumentCardEntitiesByCardId(cardId);
         for (ArgumentCardEntity argumentCardEntity : argumentCardEntities) {
-            removeCardFromArgument(argumentCardEntity.getArgumentId(), cardId, argumentCardEntity.getIndexInArgument());
+            checkAccessToArgument(argumentCardEntity.getArgumentId());
+            argumentDao.removeCardFromArgument(argumentCardEntity.getArgumentId(), cardId, argumentCardEntity.getSortKey());
+            argumentDao.incrementItemsVersion(argumentCardEntity.getArgumentId());
         }
     }
 
@@ -551,9 +675,10 @@ public class ArgumentService {
         // todo use a HashMap for greedily getting user details once sharing is implemented
         final Map<UUID, ResponseUserDetails> userDetailsMap = new HashMap<>();
         final List<ArgumentWithCardModel> argList = new ArrayList<>();
+        final AESContext aes = UserSecretKeyHolder.getAESContext();
         for (ArgumentCardJoinEntity e : argumentCardJoinEntities) {
             try {
-                e.decryptFields(UserSecretKeyHolder.getSecretKey());
+                e.decryptFields(aes);
             } catch (Exception exception) {
                 exception.printStackTrace();
                 throw new InternalServerException();
@@ -581,10 +706,56 @@ public class ArgumentService {
         return argumentDao.getArgumentCardEntitiesByCardId(cardId).size();
     }
 
+    /**
+     * Counts how many times each of several cards appears in arguments that haven't been deleted with one query
+     *
+     * @param cardIds Ids of cards
+     * @return A map of card id to number of appearances. Cards that aren't in any arguments are left out
+     */
+    public Map<UUID, Integer> getNumRelatedArgumentsByCardIds(@NonNull Collection<UUID> cardIds) {
+        return argumentDao.getNumberOfArgumentCardEntitiesByCardIds(cardIds);
+    }
+
     public int getNumCardsInArgument(@NonNull UUID argumentId) {
         return argumentDao.getNumberOfCardsInArgument(argumentId);
     }
 
+    /**
+     * Counts the cards in each of several arguments with one query
+     *
+     * @param argumentIds Ids of arguments
+     * @return A map of argument id to number of cards. Arguments without any cards are left out
+     */
+    public Map<UUID, Integer> getNumCardsInArguments(@NonNull Collection<UUID> argumentIds) {
+        return argumentDao.getNumberOfCardsInArguments(argumentIds);
+    }
+
+    /**
+     * Gets several decrypted argument entities by their ids, including deleted ones. Assumes privileges.
+     *
+     * @param argumentIds Ids of arguments to get
+     * @return A map of argument id to argument. Arguments that are not found are left out
+     * @throws InternalServerException If an argument can't be decrypted or a <code>SQLException</code> occurs in the DAO layer
+     */
+    public Map<UUID, ArgumentEntity> getArgumentEntitiesByIds(@NonNull Collection<UUID> argumentIds) {
+        final Map<UUID, ArgumentEntity> argumentEntities = new HashMap<>();
+        final List<ArgumentEntity> found = argumentDao.getArgumentEntitiesByIds(argumentIds);
+        if (found.isEmpty()) {
+            return argumentEntities;
+        }
+        final AESContext aes = UserSecretKeyHolder.getAESContext();
+        for (ArgumentEntity argumentEntity : found) {
+            try {
+                argumentEntity.decryptFields(aes);
+            } catch (Exception e) {
+                e.printStackTrace();
+                throw new InternalServerException();
+            }
+            argumentEntities.put(argumentEntity.getId(), argumentEntity);
+        }
+        return argumentEntities;
+    }
+
     /**
      * Gets a decrypted argument entity by its id. Assumes privileges. Ignores deleted arguments.
      *
@@ -617,6 +788,7 @@ public class ArgumentService {
             throw new ResponseStatusException(HttpStatus.NOT_MODIFIED);
         }
         argumentDao.restoreArgumentById(argumentId);
+        updateLibraryIndex(index -> index.setHidden(argumentId, false));
         actionService.createAction(
                 ActionEntity.builder()
                         .type(ActionType.RESTORE_ARGUMENT)
@@ -642,31 +814,58 @@ public class ArgumentService {
         }
         // todo: when speeches are added, arguments need to be removed from speeches before they are deleted
         argumentDao.deleteArgumentById(argumentId);
-
-    }
-
-    private void incrementItemPositionsInArgumentAtOrPastIndex(@NonNull UUID argumentId, short index) {
-        argumentDao.incrementCardPositionsInArgumentAtOrPastIndex(argumentId, index);
-        argumentAnalyticDao.incrementPositionsOfAnalyticsInArgumentAtOrPastIndex(argumentId, index);
+        updateLibraryIndex(index -> index.removeArgument(argumentId));
     }
 
-    private void decrementItemPositionsInArgumentAtOrPastIndex(@NonNull UUID argumentId, short index) {
-        argumentDao.decrementCardPositionsInArgumentAtOrPastIndex(argumentId, index);
-        argumentAnalyticDao.decrementPositionsOfAnalyticsInArgumentAtOrPastIndex(argumentId, index);
+    /**
+     * Picks a sort key for an item so that it ends up at an index: halfway between the sort keys of the items that will be
+     * before and after it, or one gap after the last item. Halving leaves room for many more moves into the same spot,
+     * but it eventually runs out, at which point the argument has to be renumbered
+     *
+     * @param items       Items of the argument, in order
+     * @param index       Index that the item should end up at
+     * @param movingIndex Current index of the item if it's already in the argument (it's ignored when finding neighbours), else -1
+     * @return The sort key, or <code>OptionalLong.empty()</code> if there's no unused sort key between the neighbours
+     */
+    private static OptionalLong getSortKeyForIndex(@NonNull List<ArgumentItemEntity> items, int index, int movingIndex) {
+        final int size = movingIndex >= 0 ? items.size() - 1 : items.size();
+        final long lower = index > 0 ? items.get(skipIndex(index - 1, movingIndex)).getSortKey() : 0;
+        if (index >= size) {
+            return lower <= Long.MAX_VALUE - SORT_KEY_GAP ? OptionalLong.of(lower + SORT_KEY_GAP) : OptionalLong.empty();
+        }
+        final long upper = items.get(skipIndex(index, movingIndex)).getSortKey();
+        return upper - lower >= 2 ? OptionalLong.of(lower + (upper - lower) / 2) : OptionalLong.empty();
     }
 
-    private void incrementItemPositionsInArgument(@NonNull UUID argumentId, short startInclusive, short endInclusive) {
-        argumentDao.incrementPositionsOfCardsInArgument(argumentId, startInclusive, endInclusive);
-        argumentAnalyticDao.incrementPositionsOfAnalyticsInArgument(argumentId, startInclusive, endInclusive);
+    /**
+     * Picks a sort key for an item that's being added to the end of an argument, renumbering the argument if the sort keys are used up
+     *
+     * @param argumentId Id of argument
+     * @param items      Current items of the argument, in order
+     * @return The sort key of the new item
+     */
+    private long getSortKeyForAppending(@NonNull UUID argumentId, @NonNull List<ArgumentItemEntity> items) {
+        final OptionalLong sortKey = getSortKeyForIndex(items, items.size(), -1);
+        if (sortKey.isPresent()) {
+            return sortKey.getAsLong();
+        }
+        final List<ArgumentItemEntity> renumbered = renumberItemsInArgument(argumentId);
+        return getSortKeyForIndex(renumbered, renumbered.size(), -1).orElseThrow(InternalServerException::new);
     }
 
-    private void decrementItemPositionsInArgument(@NonNull UUID argumentId, short startInclusive, short endInclusive) {
-        argumentDao.decrementPositionsOfCardsInArgument(argumentId, startInclusive, endInclusive);
-        argumentAnalyticDao.decrementPositionsOfAnalyticsInArgument(argumentId, startInclusive, endInclusive);
+    private static int skipIndex(int index, int skippedIndex) {
+        return skippedIndex >= 0 && index >= skippedIndex ? index + 1 : index;
     }
 
-    private short getNumberOfItemsInArgument(@NonNull UUID argumentId) {
-        return (short) (argumentDao.getNumberOfCardsInArgument(argumentId) + argumentAnalyticDao.getNumberOfAnalyticsInArgument(argumentId));
+    /**
+     * Spreads out the sort keys in an argument again. Only needed when a gap has been used up
+     *
+     * @return The items of the argument after renumbering
+     */
+    private List<ArgumentItemEntity> renumberItemsInArgument(@NonNull UUID argumentId) {
+        logger.info("Renumbering items in argument {}", UUIDCompressor.compress(argumentId));
+        argumentDao.renumberItemsInArgument(argumentId, SORT_KEY_GAP);
+        return argumentDao.getItemsInArgument(argumentId);
     }
 
     public ResponseAnalytic addAnalyticToArgument(@NonNull String id, @NonNull AnalyticCreateRequest createRequest) {
@@ -681,8 +880,11 @@ public class ArgumentService {
         } catch (Exception e) {
             throw new InternalServerException();
         }
-        short index = getFirstOpenIndexInArgument(argumentId);
-        final UUID analyticId = argumentAnalyticDao.createAnalytic(argumentId, createRequest.getBody(), index);
+        final List<ArgumentItemEntity> items = argumentDao.getItemsInArgument(argumentId);
+        final short index = (short) items.size();
+        final UUID analyticId = argumentAnalyticDao.createAnalytic(argumentId, createRequest.getBody(), getSortKeyForAppending(argumentId, items));
+        argumentDao.incrementItemsVersion(argumentId);
+        updateLibraryIndex(libraryIndex -> libraryIndex.putAnalytic(analyticId, argumentId, plaintextBody));
 
         actionService.createAction(
                 ActionEntity.builder()
@@ -707,12 +909,15 @@ public class ArgumentService {
             throw new ForbiddenException();
         }
 
+        final String plaintextBody = updateRequest.getBody();
         try {
             updateRequest.encryptFields(UserSecretKeyHolder.getSecretKey());
         } catch (Exception e) {
             throw new InternalServerException();
         }
         argumentAnalyticDao.updateAnalyticById(decompressedAnalyticId, updateRequest);
+        argumentDao.updateLastModified(argumentEntity.getId());
+        updateLibraryIndex(index -> index.putAnalytic(decompressedAnalyticId, argumentEntity.getId(), plaintextBody));
 
         actionService.createAction(
                 ActionEntity.builder()
@@ -723,15 +928,13 @@ public class ArgumentService {
         );
     }
 
-    private short getFirstOpenIndexInArgument(@NonNull UUID id) {
-        return (short) Math.max(argumentDao.getFirstOpenIndexInArgument(id), argumentAnalyticDao.getFirstOpenIndexInArgument(id));
-    }
-
     public void deleteAnalytic(@NonNull String id) {
         final UUID analyticId = UUIDCompressor.decompress(id);
         final UUID argumentId = argumentAnalyticDao.getArgumentIdByAnalyticId(analyticId).orElseThrow(AnalyticNotFoundException::new);
         checkAccessToArgument(argumentId);
         argumentAnalyticDao.deleteAnalyticById(analyticId);
+        updateLibraryIndex(index -> index.remove(analyticId));
+        argumentDao.incrementItemsVersion(argumentId);
         actionService.createAction(
                 ActionEntity.builder()
                         .type(ActionType.EDIT_ARGUMENT)
@@ -740,4 +943,14 @@ public class ArgumentService {
                         .build()
         );
     }
+
+    /**
+     * Applies a change to the principal's library in the <code>LibraryIndexCache</code>, if it's cached
+     *
+     * @param change Change to apply
+     */
+    private void updateLibraryIndex(Consumer<InvertedIndex> change) {
+        final UserModel principal = (UserModel) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        libraryIndexCache.update(LibraryIndexCache.scopeOf(principal), change);
+    }
 }
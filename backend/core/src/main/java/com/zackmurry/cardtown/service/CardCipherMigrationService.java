@@ -0,0 +1,226 @@
+package com.zackmurry.cardtown.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.zackmurry.cardtown.dao.card.CardDao;
+import com.zackmurry.cardtown.model.auth.UserModel;
+import com.zackmurry.cardtown.model.card.CardCipherEntity;
+import com.zackmurry.cardtown.util.AESContext;
+import com.zackmurry.cardtown.util.CipherText;
+import com.zackmurry.cardtown.util.EncryptionUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Re-encrypts cards that are still stored in the v1 (AES-CBC) format as v2 (AES-GCM).
+ * <p>
+ * Secret keys are only available while their user is authenticated, so cards can't be migrated all at once. Instead,
+ * <code>JwtRequestFilter</code> schedules a migration whenever it builds a principal, and the cards that the principal's key
+ * can read (their team's cards if they're in a team; else: their own) are migrated in batches on a background thread.
+ * Reading doesn't depend on this, since v1 and v2 ciphers are both readable.
+ * <p>
+ * Other background work on cards (like indexing cards for search) runs on the same thread (see
+ * <code>CardCipherMigrationService#execute</code>).
+ * <p>
+ * Migrated and skipped cards are reported as the <code>cards.cipher.migrations</code> metric
+ */
+@Service
+public class CardCipherMigrationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CardCipherMigrationService.class);
+
+    private static final UUID MIN_UUID = new UUID(0, 0);
+
+    @Autowired
+    private CardDao cardDao;
+
+    private final boolean enabled;
+
+    private final int batchSize;
+
+    private final ThreadPoolExecutor executor;
+
+    // Ids of the users and teams whose cards have been (or are being) migrated. Nothing writes v1 ciphers anymore, so
+    // they don't need to be checked again. Bounded, since an owner that was forgotten is just checked once more
+    private final Cache<UUID, Boolean> scheduledOwners;
+
+    private final Counter migrated;
+
+    private final Counter skipped;
+
+    public CardCipherMigrationService(MeterRegistry meterRegistry,
+                                      @Value("${app.card-cipher-migration.enabled:true}") boolean enabled,
+                                      @Value("${app.card-cipher-migration.batch-size:100}") int batchSize,
+                                      @Value("${app.card-cipher-migration.queue-capacity:1000}") int queueCapacity,
+                                      @Value("${app.card-cipher-migration.maximum-owners:100000}") int maximumOwners) {
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.scheduledOwners = Caffeine.newBuilder().maximumSize(maximumOwners).build();
+        // One thread so that migrations don't compete with requests for connections
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(queueCapacity), runnable -> {
+            final Thread thread = new Thread(runnable, "card-cipher-migration");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.migrated = Counter.builder("cards.cipher.migrations").tag("result", "migrated").register(meterRegistry);
+        this.skipped = Counter.builder("cards.cipher.migrations").tag("result", "skipped").register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Migrates the cards readable by a principal in the background, unless they've already been migrated
+     *
+     * @param principal Principal whose secret key should be used
+     */
+    public void scheduleMigration(@NonNull UserModel principal) {
+        if (!enabled) {
+            return;
+        }
+        final UUID ownerId = getOwnerId(principal);
+        if (scheduledOwners.asMap().putIfAbsent(ownerId, Boolean.TRUE) != null) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    migrateCards(principal);
+                } catch (RuntimeException e) {
+                    logger.error("Failed to migrate cards of {}", ownerId, e);
+                    // Try again the next time that a principal is built
+                    scheduledOwners.invalidate(ownerId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            scheduledOwners.invalidate(ownerId);
+        }
+    }
+
+    /**
+     * Runs a task on the background thread, after the tasks that are already queued
+     *
+     * @param task Task to run
+     * @return Whether the task was queued (false if the queue is full)
+     */
+    public boolean execute(@NonNull Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Re-encrypts all of the v1 cards readable by a principal as v2. Cards that can't be decrypted with the principal's key
+     * (for example, cards made before their owner joined their team) are left as they are
+     *
+     * @param principal Principal whose secret key should be used
+     * @return The number of cards that were migrated
+     * @throws com.zackmurry.cardtown.exception.InternalServerException If a <code>SQLException</code> occurs in the DAO layer
+     */
+    public int migrateCards(@NonNull UserModel principal) {
+        final boolean inTeam = principal.getTeamSecretKey() != null;
+        final UUID ownerId = getOwnerId(principal);
+        final AESContext aes;
+        try {
+            aes = EncryptionUtils.forKey(inTeam ? principal.getTeamSecretKey() : principal.getSecretKey());
+        } catch (GeneralSecurityException e) {
+            logger.error("Failed to create AES context for migrating cards of {}", ownerId, e);
+            return 0;
+        }
+
+        int migratedCount = 0;
+        UUID afterId = MIN_UUID;
+        while (true) {
+            final List<CardCipherEntity> batch = inTeam
+                    ? cardDao.getLegacyCardCiphersByTeam(ownerId, afterId, batchSize)
+                    : cardDao.getLegacyCardCiphersByUser(ownerId, afterId, batchSize);
+            if (batch.isEmpty()) {
+                break;
+            }
+            final List<CardCipherEntity> reencrypted = new ArrayList<>(batch.size());
+            for (CardCipherEntity cipher : batch) {
+                if (reencrypt(cipher, aes)) {
+                    reencrypted.add(cipher);
+                } else {
+                    skipped.increment();
+                }
+            }
+            final int updated = cardDao.updateCardCiphers(reencrypted);
+            migrated.increment(updated);
+            migratedCount += updated;
+            afterId = batch.get(batch.size() - 1).getId();
+        }
+        if (migratedCount > 0) {
+            logger.info("Migrated {} cards of {} to v2 ciphers", migratedCount, ownerId);
+        }
+        return migratedCount;
+    }
+
+    private static UUID getOwnerId(UserModel principal) {
+        if (principal.getTeamSecretKey() != null && principal.getTeamId() != null && principal.getTeamId().isPresent()) {
+            return principal.getTeamId().get();
+        }
+        return principal.getId();
+    }
+
+    /**
+     * Re-encrypts every column of a card. The card is only changed if every column could be decrypted
+     *
+     * @return Whether the card was re-encrypted
+     */
+    private static boolean reencrypt(CardCipherEntity cipher, AESContext aes) {
+        try {
+            final byte[] tag = reencrypt(cipher.getTag(), aes);
+            final byte[] cite = reencrypt(cipher.getCite(), aes);
+            final byte[] citeInformation = reencrypt(cipher.getCiteInformation(), aes);
+            final byte[] bodyHtml = reencrypt(cipher.getBodyHtml(), aes);
+            final byte[] bodyDraft = reencrypt(cipher.getBodyDraft(), aes);
+            final byte[] bodyText = reencrypt(cipher.getBodyText(), aes);
+            cipher.setTag(tag);
+            cipher.setCite(cite);
+            cipher.setCiteInformation(citeInformation);
+            cipher.setBodyHtml(bodyHtml);
+            cipher.setBodyDraft(bodyDraft);
+            cipher.setBodyText(bodyText);
+            return true;
+        } catch (GeneralSecurityException | CharacterCodingException e) {
+            return false;
+        }
+    }
+
+    private static byte[] reencrypt(byte[] value, AESContext aes) throws GeneralSecurityException, CharacterCodingException {
+        if (!CipherText.isLegacy(value)) {
+            return value;
+        }
+        final byte[] plainText = aes.decryptVersioned(value);
+        // v1 has no integrity check, so a wrong key occasionally "decrypts" into garbage with valid padding.
+        // Requiring valid UTF-8 makes sure that garbage is never re-encrypted as if it were the card
+        StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(plainText));
+        return aes.encryptVersioned(plainText);
+    }
+
+}
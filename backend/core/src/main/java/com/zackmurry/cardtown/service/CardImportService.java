@@ -0,0 +1,257 @@
+package com.zackmurry.cardtown.service;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zackmurry.cardtown.dao.card.CardDao;
+import com.zackmurry.cardtown.exception.BadRequestException;
+import com.zackmurry.cardtown.exception.InternalServerException;
+import com.zackmurry.cardtown.exception.LengthRequiredException;
+import com.zackmurry.cardtown.exception.PayloadTooLargeException;
+import com.zackmurry.cardtown.model.action.ActionEntity;
+import com.zackmurry.cardtown.model.action.ActionType;
+import com.zackmurry.cardtown.model.auth.UserModel;
+import com.zackmurry.cardtown.model.card.CardCreateRequest;
+import com.zackmurry.cardtown.model.card.CardEntity;
+import com.zackmurry.cardtown.model.card.CardImportError;
+import com.zackmurry.cardtown.model.card.CardImportResponse;
+import com.zackmurry.cardtown.util.AESContext;
+import com.zackmurry.cardtown.util.BlindIndex;
+import com.zackmurry.cardtown.util.DecryptionPool;
+import com.zackmurry.cardtown.util.HtmlSanitizer;
+import com.zackmurry.cardtown.util.LibraryIndexCache;
+import com.zackmurry.cardtown.util.UUIDCompressor;
+import com.zackmurry.cardtown.util.UserSecretKeyHolder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Imports many cards from a single request body, for moving an existing library into cardtown.
+ * <p>
+ * The body (a JSON array or newline-delimited JSON of <code>CardCreateRequest</code>s) is read as a stream, a chunk of
+ * <code>app.card-import.chunk-size</code> cards at a time. Each chunk is validated, sanitized, and encrypted on the
+ * <code>DecryptionPool</code> (AES is CPU-bound either way), then inserted with batched statements in its own transaction.
+ * A card that fails doesn't stop the import: it's reported in the response, and so are the cards of a chunk that fails to save.
+ * One <code>IMPORT_CARDS</code> action is created for the whole import instead of one per card.
+ * <p>
+ * Imported and failed cards are reported as the <code>cards.imports</code> metric
+ */
+@Service
+public class CardImportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CardImportService.class);
+
+    @Autowired
+    private CardDao cardDao;
+
+    @Autowired
+    private CardService cardService;
+
+    @Autowired
+    private ActionService actionService;
+
+    @Autowired
+    private DecryptionPool decryptionPool;
+
+    @Autowired
+    private LibraryIndexCache libraryIndexCache;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final int chunkSize;
+
+    private final int maximumCards;
+
+    private final Counter imported;
+
+    private final Counter failed;
+
+    public CardImportService(MeterRegistry meterRegistry,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${app.card-import.chunk-size:500}") int chunkSize,
+                             @Value("${app.card-import.maximum-cards:20000}") int maximumCards) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.chunkSize = chunkSize;
+        this.maximumCards = maximumCards;
+        this.imported = Counter.builder("cards.imports").tag("result", "imported").register(meterRegistry);
+        this.failed = Counter.builder("cards.imports").tag("result", "failed").register(meterRegistry);
+    }
+
+    /**
+     * Imports cards owned by the principal. Cards before a syntax error in the body (or before the limit of
+     * <code>app.card-import.maximum-cards</code>) are still imported, and the error is reported in the response
+     *
+     * @param body JSON array or newline-delimited JSON of cards (the owner email of each card is ignored)
+     * @return The ids of the imported cards and the errors of the rest
+     * @throws IOException             If reading the body fails. Chunks that were already imported stay imported
+     * @throws InternalServerException If an error occurs while encrypting the cards
+     */
+    public CardImportResponse importCards(@NonNull InputStream body) throws IOException {
+        final UserModel principal = (UserModel) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        final AESContext aes = UserSecretKeyHolder.getAESContext();
+        final byte[] secretKey = UserSecretKeyHolder.getSecretKey();
+        final List<String> ids = new ArrayList<>();
+        final List<CardImportError> errors = new ArrayList<>();
+        final List<ImportItem> chunk = new ArrayList<>(chunkSize);
+        int index = 0;
+        try (final MappingIterator<CardCreateRequest> requests = objectMapper.readerFor(CardCreateRequest.class).readValues(body)) {
+            while (true) {
+                final CardCreateRequest request;
+                try {
+                    if (!requests.hasNextValue()) {
+                        break;
+                    }
+                    request = requests.nextValue();
+                } catch (JsonMappingException e) {
+                    if (e.getCause() instanceof JsonParseException) {
+                        // Syntax errors inside a card (like the body ending in the middle of one) are wrapped
+                        errors.add(new CardImportError(index, "Malformed JSON; nothing from here on was imported"));
+                        break;
+                    }
+                    // The iterator skips the rest of the value, so the next card can still be read
+                    errors.add(new CardImportError(index++, "Not a valid card"));
+                    continue;
+                } catch (JsonParseException e) {
+                    errors.add(new CardImportError(index, "Malformed JSON; nothing from here on was imported"));
+                    break;
+                }
+                if (index >= maximumCards) {
+                    errors.add(new CardImportError(index, "At most " + maximumCards + " cards can be imported at once; nothing from here on was imported"));
+                    break;
+                }
+                chunk.add(new ImportItem(index++, request));
+                if (chunk.size() >= chunkSize) {
+                    importChunk(principal, aes, secretKey, chunk, ids, errors);
+                    chunk.clear();
+                }
+            }
+            importChunk(principal, aes, secretKey, chunk, ids, errors);
+        } finally {
+            if (!ids.isEmpty()) {
+                actionService.createAction(
+                        ActionEntity.builder()
+                                .type(ActionType.IMPORT_CARDS)
+                                .principal()
+                                .build()
+                );
+            }
+        }
+        errors.sort(Comparator.comparingInt(CardImportError::getIndex));
+        return new CardImportResponse(ids, errors);
+    }
+
+    private void importChunk(UserModel principal, AESContext aes, byte[] secretKey, List<ImportItem> chunk, List<String> ids, List<CardImportError> errors) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        try {
+            decryptionPool.encryptAll(chunk, aes, (item, context) -> prepare(item, principal.getId(), context, secretKey));
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+
+        final List<ImportItem> prepared = chunk.stream().filter(item -> item.error == null).collect(Collectors.toList());
+        if (!prepared.isEmpty()) {
+            final List<CardEntity> cards = prepared.stream().map(item -> item.card).collect(Collectors.toList());
+            final List<Map<Long, Integer>> tokens = prepared.stream().map(item -> item.tokens).collect(Collectors.toList());
+            try {
+                transactionTemplate.executeWithoutResult(status -> cardDao.createCards(cards, tokens));
+            } catch (RuntimeException e) {
+                logger.error("Failed to save a chunk of {} imported cards", prepared.size(), e);
+                prepared.forEach(item -> item.error = "Failed to save card");
+            }
+        }
+
+        final List<ImportItem> saved = new ArrayList<>();
+        for (ImportItem item : chunk) {
+            if (item.error != null) {
+                errors.add(new CardImportError(item.index, item.error));
+                failed.increment();
+            } else {
+                ids.add(UUIDCompressor.compress(item.card.getId()));
+                saved.add(item);
+                imported.increment();
+            }
+        }
+        libraryIndexCache.update(LibraryIndexCache.scopeOf(principal), index -> {
+            for (ImportItem item : saved) {
+                index.putCard(item.card.getId(), item.tag, item.cite, item.bodyText, false);
+            }
+        });
+    }
+
+    /**
+     * Validates, sanitizes, and encrypts a card the same way as <code>CardService#createCard</code>. Runs on pool threads,
+     * so it can't read the <code>SecurityContext</code>. Failures are stored in the item instead of being thrown
+     */
+    private void prepare(ImportItem item, UUID ownerId, AESContext aes, byte[] secretKey) {
+        final CardCreateRequest request = item.request;
+        try {
+            if (request == null) {
+                throw new BadRequestException();
+            }
+            request.validateFields();
+            request.setBodyHtml(HtmlSanitizer.sanitizeHtml(request.getBodyHtml()));
+            item.tag = request.getTag();
+            item.cite = request.getCite();
+            item.bodyText = request.getBodyText();
+            // BlindIndex isn't thread-safe, so each card gets its own
+            item.tokens = BlindIndex.forKey(secretKey).cardTokens(item.tag, item.cite, item.bodyText);
+            item.card = request.toCardEntity(ownerId);
+            cardService.encryptCard(item.card, aes);
+        } catch (BadRequestException e) {
+            item.error = "Missing cite, bodyHtml, bodyDraft, or bodyText";
+        } catch (LengthRequiredException e) {
+            item.error = "Tag must be 1 to 256 characters, cite 1 to 128, and cite information at most 2048";
+        } catch (PayloadTooLargeException e) {
+            item.error = "Body is too large";
+        } catch (Exception e) {
+            logger.warn("Failed to encrypt imported card", e);
+            item.error = "Failed to encrypt card";
+        }
+        // Only the fields above are needed from here on, so the rest of the request can be collected while the import runs
+        item.request = null;
+    }
+
+    private static final class ImportItem {
+
+        private final int index;
+        private CardCreateRequest request;
+        private String tag;
+        private String cite;
+        private String bodyText;
+        private Map<Long, Integer> tokens;
+        private CardEntity card;
+        private String error;
+
+        private ImportItem(int index, CardCreateRequest request) {
+            this.index = index;
+            this.request = request;
+        }
+
+    }
+
+}
@@ -1,10 +1,12 @@
 package com.zackmurry.cardtown.service;
 
+import com.zackmurry.cardtown.dao.CursorQueries;
 import com.zackmurry.cardtown.dao.card.CardDao;
 import com.zackmurry.cardtown.exception.BadRequestException;
 import com.zackmurry.cardtown.exception.CardNotFoundException;
 import com.zackmurry.cardtown.exception.ForbiddenException;
 import com.zackmurry.cardtown.exception.InternalServerException;
+import com.zackmurry.cardtown.model.EntityVersion;
 import com.zackmurry.cardtown.model.action.ActionEntity;
 import com.zackmurry.cardtown.model.action.ActionType;
 import com.zackmurry.cardtown.model.auth.ResponseUserDetails;
@@ -13,22 +15,39 @@ import com.zackmurry.cardtown.model.auth.UserModel;
 import com.zackmurry.cardtown.model.card.CardCreateRequest;
 import com.zackmurry.cardtown.model.card.CardEntity;
 import com.zackmurry.cardtown.model.card.CardPreview;
+import com.zackmurry.cardtown.model.card.CardPreviewEntity;
+import com.zackmurry.cardtown.model.card.CardSyncResponse;
+import com.zackmurry.cardtown.model.card.EncryptedCard;
 import com.zackmurry.cardtown.model.card.ResponseCard;
 import com.zackmurry.cardtown.model.team.TeamEntity;
+import com.zackmurry.cardtown.util.AESContext;
+import com.zackmurry.cardtown.util.BlindIndex;
+import com.zackmurry.cardtown.util.ChunkedItemConsumer;
+import com.zackmurry.cardtown.util.DecryptedCardCache;
+import com.zackmurry.cardtown.util.DecryptionPool;
 import com.zackmurry.cardtown.util.HtmlSanitizer;
+import com.zackmurry.cardtown.util.InvertedIndex;
+import com.zackmurry.cardtown.util.ItemConsumer;
+import com.zackmurry.cardtown.util.LibraryIndexCache;
 import com.zackmurry.cardtown.util.UUIDCompressor;
+import com.zackmurry.cardtown.util.UnreadableCardCache;
 import com.zackmurry.cardtown.util.UserSecretKeyHolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.lang.NonNull;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.io.IOException;
 import java.nio.BufferUnderflowException;
+import java.security.GeneralSecurityException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Service
@@ -36,6 +55,14 @@ public class CardService {
 
     private static final Logger logger = LoggerFactory.getLogger(CardService.class);
 
+    // How far before a sync watermark cards are sent again (see CardService#syncCards)
+    private static final long SYNC_OVERLAP_MILLIS = 5000;
+
+    // Most search results that can be asked for at once
+    private static final int MAX_SEARCH_LIMIT = 200;
+
+    private static final UUID MIN_UUID = new UUID(0, 0);
+
     @Autowired
     private UserService userService;
 
@@ -51,6 +78,28 @@ public class CardService {
     @Autowired
     private ActionService actionService;
 
+    @Autowired
+    private DecryptionPool decryptionPool;
+
+    @Autowired
+    private UnreadableCardCache unreadableCardCache;
+
+    @Autowired
+    private DecryptedCardCache decryptedCardCache;
+
+    @Autowired
+    private LibraryIndexCache libraryIndexCache;
+
+    @Autowired
+    private CardCipherMigrationService cardCipherMigrationService;
+
+    // Scopes of the keys whose cards are being indexed in the background (see CardService#scheduleIndexing)
+    private final Set<String> indexingScopes = ConcurrentHashMap.newKeySet();
+
+    // Whether cards are written as two records instead of six separate ciphers (see EncryptedCard#encryptFieldsPacked)
+    @Value("${app.card-storage.packed:false}")
+    private boolean packedStorage;
+
     /**
      * Returns a <code>ResponseCard</code> by its id.
      * Checks if the principal has permission to access it.
@@ -76,7 +125,7 @@ public class CardService {
         }
 
         try {
-            cardEntity.decryptFields(UserSecretKeyHolder.getSecretKey());
+            decryptCards(List.of(cardEntity), UserSecretKeyHolder.getAESContext());
         } catch (Exception e) {
             e.printStackTrace();
             throw new BadRequestException();
@@ -112,6 +161,32 @@ public class CardService {
         }
     }
 
+    /**
+     * Gets the version of a card, for answering conditional requests without reading or decrypting the card.
+     * Checks that the principal has access to it
+     *
+     * @param id Id of card in Base64
+     * @return The version of the card
+     * @throws CardNotFoundException   If the card could not be found
+     * @throws ForbiddenException      If the user doesn't have access to the card
+     * @throws BadRequestException     If the card has an invalid id
+     * @throws InternalServerException If a <code>SQLException</code> occurs in the DAO layer
+     */
+    public EntityVersion getCardVersionById(@NonNull String id) {
+        final UUID cardId;
+        try {
+            cardId = UUIDCompressor.decompress(id);
+        } catch (BufferUnderflowException e) {
+            throw new BadRequestException();
+        }
+        final UUID userId = ((UserModel) SecurityContextHolder.getContext().getAuthentication().getPrincipal()).getId();
+        final EntityVersion version = cardDao.getCardVersionById(cardId).orElseThrow(CardNotFoundException::new);
+        if (!teamService.usersInSameTeam(userId, version.getOwnerId())) {
+            throw new ForbiddenException();
+        }
+        return version;
+    }
+
     /**
      * Creates a card in the database and returns its id in Base64.
      * If the card's tag or cite information are null, this will replace them with an empty <code>String</code>.
@@ -136,13 +211,16 @@ public class CardService {
         }
 
         final CardEntity cardEntity = request.toCardEntity(optionalUserId.get());
+        final Map<Long, Integer> tokens = newBlindIndex().cardTokens(request.getTag(), request.getCite(), request.getBodyText());
         try {
-            cardEntity.encryptFields(UserSecretKeyHolder.getSecretKey());
+            encryptCard(cardEntity);
         } catch (Exception e) {
             e.printStackTrace();
             throw new BadRequestException();
         }
         final UUID cardId = cardDao.createCard(cardEntity);
+        cardDao.setCardTokens(cardId, cardEntity.getLastModified(), tokens);
+        updateLibraryIndex(index -> index.putCard(cardId, request.getTag(), request.getCite(), request.getBodyText(), false));
         actionService.createAction(
                 ActionEntity.builder()
                         .type(ActionType.CREATE_CARD)
@@ -163,11 +241,9 @@ public class CardService {
     public List<ResponseCard> getCardsOwnedByUser() {
         final UserModel principal = (UserModel) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
         final List<CardEntity> rawCards = cardDao.getCardsByUser(principal.getId());
-        final byte[] secretKey = UserSecretKeyHolder.getSecretKey();
+        final AESContext aes = UserSecretKeyHolder.getAESContext();
         try {
-            for (CardEntity c : rawCards) {
-                c.decryptFields(secretKey);
-            }
+            decryptCards(rawCards, aes);
         } catch (Exception e) {
             e.printStackTrace();
             throw new InternalServerException();
@@ -187,11 +263,9 @@ public class CardService {
     public List<ResponseCard> getCardsOwnedByUser(boolean includeDeleted) {
         final UserModel principal = (UserModel) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
         final List<CardEntity> rawCards = cardDao.getCardsByUser(principal.getId(), includeDeleted);
-        final byte[] secretKey = UserSecretKeyHolder.getSecretKey();
+        final AESContext aes = UserSecretKeyHolder.getAESContext();
         try {
-            for (CardEntity c : rawCards) {
-                c.decryptFields(secretKey);
-            }
+            decryptCards(rawCards, aes);
         } catch (Exception e) {
             e.printStackTrace();
             throw new InternalServerException();
@@ -217,39 +291,126 @@ public class CardService {
         }
         final List<CardEntity> rawCards = cardDao.getCardsByTeamId(userTeam.get().getId(), showDeleted);
 
-        final byte[] secretKey = UserSecretKeyHolder.getSecretKey();
+        final AESContext aes = UserSecretKeyHolder.getAESContext();
         try {
-            for (CardEntity c : rawCards) {
-                c.decryptFields(secretKey);
-            }
+            decryptCards(rawCards, aes);
         } catch (Exception e) {
             e.printStackTrace();
             throw new InternalServerException();
         }
 
-        // Get ResponseUserDetails for each CardEntity and map the cards to ResponseCards
+        // Get ResponseUserDetails for every owner at once and map the cards to ResponseCards
+        final Set<UUID> ownerIds = rawCards.stream().map(CardEntity::getOwnerId).collect(Collectors.toSet());
+        final Map<UUID, ResponseUserDetails> userDetailsMap = userService.getResponseUserDetailsByIds(ownerIds);
         final List<ResponseCard> responseCards = new ArrayList<>();
-        // This map is to reduce the amount of times the database is queried
-        // Every owner will be fetched exactly once
-        final Map<UUID, ResponseUserDetails> userDetailsMap = new HashMap<>();
         for (CardEntity c : rawCards) {
-            final ResponseUserDetails responseUserDetails;
-            if (userDetailsMap.containsKey(c.getOwnerId())) {
-                responseUserDetails = userDetailsMap.get(c.getOwnerId());
-            } else {
-                final User ownerEntity = userService.getUserById(c.getOwnerId()).orElse(null);
-                if (ownerEntity == null) {
-                    logger.warn("Owner of card not found in database -- owner id: {}", c.getOwnerId());
-                    throw new InternalServerException();
-                }
-                responseUserDetails = ResponseUserDetails.fromUser(ownerEntity);
-                userDetailsMap.put(c.getOwnerId(), responseUserDetails);
+            final ResponseUserDetails responseUserDetails = userDetailsMap.get(c.getOwnerId());
+            if (responseUserDetails == null) {
+                logger.warn("Owner of card not found in database -- owner id: {}", c.getOwnerId());
+                throw new InternalServerException();
             }
             responseCards.add(ResponseCard.fromCard(c, responseUserDetails));
         }
         return responseCards;
     }
 
+    /**
+     * Streams the principal's cards (and those of their team) to a consumer as they're read from the database, so that
+     * only <code>CursorQueries#FETCH_SIZE</code> cards are in memory at a time. Cards are decrypted a chunk at a time.
+     * <p>
+     * The owners (the principal, or the members of their team) are looked up before the cursor is opened, so that
+     * writing the cards never needs a second connection while the cursor holds one
+     *
+     * @param showDeleted Whether to include deleted cards
+     * @param consumer    Called with each card
+     * @throws IOException             If <code>consumer</code> throws one
+     * @throws InternalServerException If there is an error decrypting the cards
+     * @throws InternalServerException If a <code>SQLException</code> occurs in the DAO layer
+     * @see CardService#getAllCardsVisibleToUser(boolean)
+     */
+    public void forEachCardVisibleToUser(boolean showDeleted, @NonNull ItemConsumer<? super ResponseCard> consumer) throws IOException {
+        final UserModel principal = (UserModel) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        final Optional<TeamEntity> userTeam = teamService.getTeamOfUser();
+        final AESContext aes = UserSecretKeyHolder.getAESContext();
+        final Map<UUID, ResponseUserDetails> userDetailsMap = userTeam.isEmpty()
+                ? Map.of(principal.getId(), ResponseUserDetails.fromUser(principal))
+                : userService.getResponseUserDetailsByTeam(userTeam.get().getId());
+        final ChunkedItemConsumer<CardEntity> chunks = new ChunkedItemConsumer<>(CursorQueries.FETCH_SIZE, rawCards -> {
+            try {
+                decryptCards(rawCards, aes);
+            } catch (Exception e) {
+                e.printStackTrace();
+                throw new InternalServerException();
+            }
+            for (CardEntity c : rawCards) {
+                consumer.accept(ResponseCard.fromCard(c, userDetailsMap.get(c.getOwnerId())));
+            }
+        });
+        if (userTeam.isEmpty()) {
+            cardDao.forEachCardByUser(principal.getId(), showDeleted, chunks);
+        } else {
+            // Only the owners that were looked up, in case someone joins the team in between
+            cardDao.forEachCardByOwners(userDetailsMap.keySet(), showDeleted, chunks);
+        }
+        chunks.flush();
+    }
+
+    /**
+     * Gets the changes to the cards that the principal has access to since a previous sync.
+     * <p>
+     * Clients should pass the watermark from their last sync (or 0 for the first one) and apply the changes to their
+     * copy. A few seconds before the watermark are always included again, in case a card was modified right before the
+     * last sync but committed after it, so a client may see the same change twice. Cards that were already visible to a
+     * user before they joined a team aren't sent again, so clients should start over with a watermark of 0 after the user
+     * joins or leaves a team
+     *
+     * @param since Watermark from the last sync
+     * @return The changed cards, the ids of cards that were permanently deleted, and the watermark for the next sync
+     * @throws InternalServerException If there is an error decrypting the cards
+     * @throws InternalServerException If a card's owner cannot be found in the users table
+     * @throws InternalServerException If a <code>SQLException</code> occurs in the DAO layer
+     */
+    public CardSyncResponse syncCards(long since) {
+        final UserModel principal = (UserModel) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        // Taken before reading so that anything modified while reading is sent again next time
+        final long watermark = System.currentTimeMillis();
+        final long modifiedAfter = since > 0 ? since - SYNC_OVERLAP_MILLIS : Long.MIN_VALUE;
+        final Optional<TeamEntity> userTeam = teamService.getTeamOfUser();
+        final List<CardEntity> rawCards;
+        final List<UUID> removedIds;
+        if (userTeam.isEmpty()) {
+            rawCards = cardDao.getCardsModifiedSince(principal.getId(), modifiedAfter);
+            removedIds = cardDao.getCardIdsDeletedSince(principal.getId(), modifiedAfter);
+        } else {
+            rawCards = cardDao.getCardsModifiedSinceByTeamId(userTeam.get().getId(), modifiedAfter);
+            removedIds = cardDao.getCardIdsDeletedSinceByTeamId(userTeam.get().getId(), modifiedAfter);
+        }
+
+        try {
+            decryptCards(rawCards, UserSecretKeyHolder.getAESContext());
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+        final Map<UUID, ResponseUserDetails> userDetailsMap = new HashMap<>();
+        userDetailsMap.put(principal.getId(), ResponseUserDetails.fromUser(principal));
+        userService.addMissingResponseUserDetails(userDetailsMap, rawCards.stream().map(CardEntity::getOwnerId).collect(Collectors.toSet()));
+        final List<ResponseCard> responseCards = new ArrayList<>();
+        for (CardEntity c : rawCards) {
+            final ResponseUserDetails responseUserDetails = userDetailsMap.get(c.getOwnerId());
+            if (responseUserDetails == null) {
+                logger.warn("Owner of card not found in database -- owner id: {}", c.getOwnerId());
+                throw new InternalServerException();
+            }
+            responseCards.add(ResponseCard.fromCard(c, responseUserDetails));
+        }
+        return new CardSyncResponse(
+                responseCards,
+                removedIds.stream().map(UUIDCompressor::compress).collect(Collectors.toList()),
+                watermark
+        );
+    }
+
     /**
      * Returns the amount of cards that the principal has access to. Does not check if the user exists
      *
@@ -286,6 +447,8 @@ public class CardService {
         }
         argumentService.removeCardFromAllArguments(cardId);
         cardDao.markCardAsDeleted(cardId);
+        decryptedCardCache.invalidate(cardId);
+        updateLibraryIndex(index -> index.setHidden(cardId, true));
         actionService.createAction(
                 ActionEntity.builder()
                         .type(ActionType.DELETE_CARD)
@@ -332,13 +495,18 @@ public class CardService {
                 request.getBodyText()
         );
 
+        final Map<Long, Integer> tokens = newBlindIndex().cardTokens(request.getTag(), request.getCite(), request.getBodyText());
         try {
-            cardEntity.encryptFields(UserSecretKeyHolder.getSecretKey());
+            encryptCard(cardEntity);
         } catch (Exception e) {
             e.printStackTrace();
             throw new InternalServerException();
         }
-        cardDao.updateCardById(cardId, cardEntity);
+        final long lastModified = cardDao.updateCardById(cardId, cardEntity);
+        // If another update gets in first, its tokens are the ones that stay
+        cardDao.setCardTokens(cardId, lastModified, tokens);
+        decryptedCardCache.invalidate(cardId);
+        updateLibraryIndex(index -> index.updateCard(cardId, request.getTag(), request.getCite(), request.getBodyText()));
         actionService.createAction(
                 ActionEntity.builder()
                         .type(ActionType.EDIT_CARD)
@@ -349,16 +517,50 @@ public class CardService {
     }
 
     /**
-     * Finds the response cards of a list of ids. Preserves order. Does not check if the principal has access to them
+     * Finds the response cards of a list of ids. Preserves order (and duplicate ids).
+     * Checks if the principal has access to every card before decrypting any of them.
+     * The cards, the principal's permission to their owners, and the owners' details are each loaded with a single query
      *
      * @param ids Ids of cards to find
      * @return A list of <code>ResponseCard</code>s that have the requested ids
+     * @throws CardNotFoundException   If any of the cards could not be found
+     * @throws ForbiddenException      If the principal doesn't have access to any of the requested cards
+     * @throws InternalServerException If an error occurs while decrypting the cards
+     * @throws InternalServerException If the owner of a card is not found in the users table
      * @throws InternalServerException If a <code>SQLException</code> occurs in the DAO layer
      */
-    public List<ResponseCard> getResponseCardsByIds(List<UUID> ids) {
+    public List<ResponseCard> getResponseCardsByIds(@NonNull List<UUID> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final List<CardEntity> cardEntities = cardDao.getCardsByIds(ids);
+        if (cardEntities.size() != ids.size()) {
+            throw new CardNotFoundException();
+        }
+
+        final UUID principalId = ((UserModel) SecurityContextHolder.getContext().getAuthentication().getPrincipal()).getId();
+        final Set<UUID> ownerIds = cardEntities.stream().map(CardEntity::getOwnerId).collect(Collectors.toSet());
+        if (!teamService.usersInSameTeam(principalId, ownerIds)) {
+            throw new ForbiddenException();
+        }
+
+        final AESContext aes = UserSecretKeyHolder.getAESContext();
+        try {
+            decryptCards(cardEntities, aes);
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+
+        final Map<UUID, ResponseUserDetails> ownerDetails = userService.getResponseUserDetailsByIds(ownerIds);
         final List<ResponseCard> responseCards = new ArrayList<>();
-        for (UUID id : ids) {
-            responseCards.add(getResponseCardById(id));
+        for (CardEntity c : cardEntities) {
+            final ResponseUserDetails owner = ownerDetails.get(c.getOwnerId());
+            if (owner == null) {
+                logger.warn("Owner of card not found in users database. Owner id: {}, card id: {}", c.getOwnerId(), c.getId());
+                throw new InternalServerException();
+            }
+            responseCards.add(ResponseCard.fromCard(c, owner));
         }
         return responseCards;
     }
@@ -372,20 +574,47 @@ public class CardService {
      */
     public List<CardPreview> getCardPreviewsByUser() {
         final UserModel principal = (UserModel) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
-        final List<CardEntity> rawCards = cardDao.getCardsByUser(principal.getId());
+        // Only the preview columns are read, so the html and draft of each card aren't fetched or decrypted
+        final List<CardPreviewEntity> previewEntities = cardDao.getCardPreviewsByUser(principal.getId());
+        try {
+            decryptPreviews(previewEntities, UserSecretKeyHolder.getAESContext());
+        } catch (Exception e) {
+            throw new InternalServerException();
+        }
         final ResponseUserDetails userDetails = ResponseUserDetails.fromUser(principal);
-        final byte[] secretKey = UserSecretKeyHolder.getSecretKey();
         final List<CardPreview> cardPreviews = new ArrayList<>();
-        for (CardEntity c : rawCards) {
-            final CardPreview cardPreview = CardPreview.of(c, userDetails);
+        for (CardPreviewEntity previewEntity : previewEntities) {
+            cardPreviews.add(CardPreview.of(previewEntity, userDetails));
+        }
+        return cardPreviews;
+    }
+
+    /**
+     * Streams the <code>CardPreview</code>s of the principal's cards to a consumer as they're read from the database,
+     * decrypting them a chunk at a time
+     *
+     * @param consumer Called with each preview
+     * @throws IOException             If <code>consumer</code> throws one
+     * @throws InternalServerException If an error occurs while decrypting the cards
+     * @throws InternalServerException If a <code>SQLException</code> occurs in the DAO layer
+     * @see CardService#getCardPreviewsByUser()
+     */
+    public void forEachCardPreviewByUser(@NonNull ItemConsumer<? super CardPreview> consumer) throws IOException {
+        final UserModel principal = (UserModel) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        final AESContext aes = UserSecretKeyHolder.getAESContext();
+        final ResponseUserDetails userDetails = ResponseUserDetails.fromUser(principal);
+        final ChunkedItemConsumer<CardPreviewEntity> chunks = new ChunkedItemConsumer<>(CursorQueries.FETCH_SIZE, previewEntities -> {
             try {
-                cardPreview.decryptFields(secretKey);
+                decryptPreviews(previewEntities, aes);
             } catch (Exception e) {
                 throw new InternalServerException();
             }
-            cardPreviews.add(cardPreview);
-        }
-        return cardPreviews;
+            for (CardPreviewEntity previewEntity : previewEntities) {
+                consumer.accept(CardPreview.of(previewEntity, userDetails));
+            }
+        });
+        cardDao.forEachCardPreviewByUser(principal.getId(), chunks);
+        chunks.flush();
     }
 
     /**
@@ -406,18 +635,49 @@ public class CardService {
      * @return If found: an <code>Optional</code> containing the card preview; else <code>Optional.empty()</code>
      */
     public Optional<CardPreview> getCardPreviewByIdIncludingDeleted(@NonNull UUID cardId) {
-        final CardEntity cardEntity = cardDao.getCardById(cardId).orElse(null);
-        if (cardEntity == null) {
+        final CardPreviewEntity previewEntity = cardDao.getCardPreviewById(cardId).orElse(null);
+        if (previewEntity == null) {
             return Optional.empty();
         }
-        final CardPreview cardPreview = CardPreview.of(cardEntity, userService.getResponseUserDetailsById(cardEntity.getOwnerId()).orElseThrow(InternalServerException::new));
         try {
-            cardPreview.decryptFields(UserSecretKeyHolder.getSecretKey());
+            decryptPreviews(List.of(previewEntity), UserSecretKeyHolder.getAESContext());
         } catch (Exception e) {
             e.printStackTrace();
             throw new InternalServerException();
         }
-        return Optional.of(cardPreview);
+        return Optional.of(CardPreview.of(previewEntity, userService.getResponseUserDetailsById(previewEntity.getOwnerId()).orElseThrow(InternalServerException::new)));
+    }
+
+    /**
+     * Gets several <code>CardPreview</code>s by their ids, even if they have been deleted. Internal method; assumes that the user has the correct privileges
+     *
+     * @param cardIds Ids of cards to find
+     * @return A map of card id to card preview. Cards that are not found are left out
+     * @throws InternalServerException If a <code>SQLException</code> occurs in the DAO layer
+     */
+    public Map<UUID, CardPreview> getCardPreviewsByIdsIncludingDeleted(@NonNull Collection<UUID> cardIds) {
+        final Map<UUID, CardPreview> cardPreviews = new HashMap<>();
+        final List<CardPreviewEntity> previewEntities = cardDao.getCardPreviewsByIds(cardIds);
+        if (previewEntities.isEmpty()) {
+            return cardPreviews;
+        }
+        try {
+            decryptPreviews(previewEntities, UserSecretKeyHolder.getAESContext());
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+        final Set<UUID> ownerIds = previewEntities.stream().map(CardPreviewEntity::getOwnerId).collect(Collectors.toSet());
+        final Map<UUID, ResponseUserDetails> ownerDetails = userService.getResponseUserDetailsByIds(ownerIds);
+        for (CardPreviewEntity previewEntity : previewEntities) {
+            final ResponseUserDetails owner = ownerDetails.get(previewEntity.getOwnerId());
+            if (owner == null) {
+                logger.warn("Owner of card not found in database -- owner id: {}", previewEntity.getOwnerId());
+                throw new InternalServerException();
+            }
+            cardPreviews.put(previewEntity.getId(), CardPreview.of(previewEntity, owner));
+        }
+        return cardPreviews;
     }
 
     public void restoreCardById(@NonNull String id) {
@@ -432,6 +692,8 @@ public class CardService {
             throw new ResponseStatusException(HttpStatus.NOT_MODIFIED);
         }
         cardDao.restoreCardById(cardId);
+        decryptedCardCache.invalidate(cardId);
+        updateLibraryIndex(index -> index.setHidden(cardId, false));
         actionService.createAction(
                 ActionEntity.builder()
                         .type(ActionType.RESTORE_CARD)
@@ -459,6 +721,206 @@ public class CardService {
             argumentService.removeCardFromAllArguments(cardId);
         }
         cardDao.deleteCardById(cardId);
+        decryptedCardCache.invalidate(cardId);
+        updateLibraryIndex(index -> index.remove(cardId));
+    }
+
+    /**
+     * Searches the cards that the principal has access to (excluding deleted ones) for the words in a query, without decrypting
+     * any card that doesn't match. Cards match if they contain any word of the query in their tag, cite, or body text, and are
+     * ranked by how many of the query's words they contain, then by where and how often those words appear (see <code>BlindIndex</code>).
+     * <p>
+     * Cards that haven't been indexed yet (cards from before search existed, or whose tokens failed to save) are indexed in
+     * the background, so they're found by later searches
+     *
+     * @param query Words to search for
+     * @param limit Maximum number of results
+     * @return Ids of the matching cards in Base64, best match first
+     * @throws BadRequestException     If <code>limit</code> is less than 1 or more than 200
+     * @throws InternalServerException If a <code>SQLException</code> occurs in the DAO layer
+     */
+    public List<String> searchCards(@NonNull String query, int limit) {
+        if (limit < 1 || limit > MAX_SEARCH_LIMIT) {
+            throw new BadRequestException();
+        }
+        final UserModel principal = (UserModel) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        final Optional<TeamEntity> userTeam = teamService.getTeamOfUser();
+        final BlindIndex blindIndex = newBlindIndex();
+        final long[] tokens = blindIndex.queryTokens(query);
+        if (tokens.length == 0) {
+            return new ArrayList<>();
+        }
+        scheduleIndexing(principal.getId(), userTeam, blindIndex);
+        final List<UUID> cardIds = userTeam.isEmpty()
+                ? cardDao.searchCardsByUser(principal.getId(), tokens, limit)
+                : cardDao.searchCardsByTeam(userTeam.get().getId(), tokens, limit);
+        return cardIds.stream().map(UUIDCompressor::compress).collect(Collectors.toList());
+    }
+
+    /**
+     * Writes the search tokens of every card visible to the principal that doesn't have up to date tokens.
+     * Cards that can't be decrypted with the principal's key (e.g. cards made before their owner joined the team) are skipped
+     * and recorded in the <code>UnreadableCardCache</code>, so that later searches don't read and decrypt them again
+     *
+     * @throws InternalServerException If a <code>SQLException</code> occurs in the DAO layer
+     */
+    public void indexUnindexedCards() {
+        final UserModel principal = (UserModel) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        indexUnindexedCards(principal.getId(), teamService.getTeamOfUser(), newBlindIndex(), UserSecretKeyHolder.getAESContext(),
+                DecryptedCardCache.scopeOf(UserSecretKeyHolder.getSecretKey()));
+    }
+
+    /**
+     * Indexes the cards visible to the principal on the background thread of the <code>CardCipherMigrationService</code>,
+     * unless they're already being indexed. The key is passed along, since the security context isn't available there
+     */
+    private void scheduleIndexing(UUID principalId, Optional<TeamEntity> userTeam, BlindIndex blindIndex) {
+        final AESContext aes = UserSecretKeyHolder.getAESContext();
+        final String scope = DecryptedCardCache.scopeOf(UserSecretKeyHolder.getSecretKey());
+        if (!indexingScopes.add(scope)) {
+            return;
+        }
+        final boolean queued = cardCipherMigrationService.execute(() -> {
+            try {
+                indexUnindexedCards(principalId, userTeam, blindIndex, aes, scope);
+            } catch (RuntimeException e) {
+                logger.error("Failed to index cards of {}", principalId, e);
+            } finally {
+                indexingScopes.remove(scope);
+            }
+        });
+        if (!queued) {
+            indexingScopes.remove(scope);
+        }
+    }
+
+    private void indexUnindexedCards(UUID principalId, Optional<TeamEntity> userTeam, BlindIndex blindIndex, AESContext aes, String scope) {
+        final Set<UUID> unreadableIds = unreadableCardCache.get(scope);
+        UUID afterId = MIN_UUID;
+        while (true) {
+            final List<CardPreviewEntity> previews = userTeam.isEmpty()
+                    ? cardDao.getUnindexedCardPreviewsByUser(principalId, afterId, unreadableIds, CursorQueries.FETCH_SIZE)
+                    : cardDao.getUnindexedCardPreviewsByTeam(userTeam.get().getId(), afterId, unreadableIds, CursorQueries.FETCH_SIZE);
+            if (previews.isEmpty()) {
+                return;
+            }
+            final List<CardPreviewEntity> misses = previews.stream()
+                    .filter(preview -> !decryptedCardCache.fill(scope, preview))
+                    .collect(Collectors.toList());
+            final Set<UUID> failed = ConcurrentHashMap.newKeySet();
+            try {
+                decryptionPool.decryptAll(misses, aes, (preview, context) -> {
+                    try {
+                        preview.decryptFields(context);
+                    } catch (Exception e) {
+                        failed.add(preview.getId());
+                    }
+                });
+            } catch (Exception e) {
+                e.printStackTrace();
+                throw new InternalServerException();
+            }
+            unreadableCardCache.addAll(scope, failed);
+            for (CardPreviewEntity preview : previews) {
+                if (!failed.contains(preview.getId())) {
+                    cardDao.setCardTokens(preview.getId(), preview.getLastModified(), blindIndex.cardTokens(preview.getTag(), preview.getCite(), preview.getBodyText()));
+                }
+            }
+            afterId = previews.get(previews.size() - 1).getId();
+        }
+    }
+
+    /**
+     * Applies a change to the principal's library in the <code>LibraryIndexCache</code>, if it's cached
+     *
+     * @param change Change to apply
+     */
+    private void updateLibraryIndex(Consumer<InvertedIndex> change) {
+        final UserModel principal = (UserModel) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        libraryIndexCache.update(LibraryIndexCache.scopeOf(principal), change);
+    }
+
+    /**
+     * Creates a <code>BlindIndex</code> for the principal's key (their team's key if they're in a team; else: their own)
+     *
+     * @throws InternalServerException If HMAC-SHA256 is unavailable
+     */
+    private static BlindIndex newBlindIndex() {
+        try {
+            return BlindIndex.forKey(UserSecretKeyHolder.getSecretKey());
+        } catch (GeneralSecurityException e) {
+            logger.error("Failed to create blind index", e);
+            throw new InternalServerException();
+        }
+    }
+
+    /**
+     * Decrypts cards with the principal's key. Cards that were decrypted before (at the same version and with the same key)
+     * are taken from the <code>DecryptedCardCache</code>, and the rest are decrypted with the <code>DecryptionPool</code> and cached
+     *
+     * @param cards Cards to decrypt
+     * @param aes   Context for the principal's key
+     * @throws Exception If a card fails to decrypt
+     */
+    private void decryptCards(List<CardEntity> cards, AESContext aes) throws Exception {
+        final String scope = DecryptedCardCache.scopeOf(UserSecretKeyHolder.getSecretKey());
+        final List<CardEntity> misses = new ArrayList<>();
+        for (CardEntity card : cards) {
+            if (!decryptedCardCache.fill(scope, card)) {
+                misses.add(card);
+            }
+        }
+        decryptionPool.decryptAll(misses, aes, CardEntity::decryptFields);
+        for (CardEntity card : misses) {
+            decryptedCardCache.put(scope, card);
+        }
+    }
+
+    /**
+     * Decrypts card previews with the principal's key, using the <code>DecryptedCardCache</code> like <code>CardService#decryptCards</code>
+     *
+     * @param previews Previews to decrypt
+     * @param aes      Context for the principal's key
+     * @throws Exception If a preview fails to decrypt
+     */
+    private void decryptPreviews(List<CardPreviewEntity> previews, AESContext aes) throws Exception {
+        final String scope = DecryptedCardCache.scopeOf(UserSecretKeyHolder.getSecretKey());
+        final List<CardPreviewEntity> misses = new ArrayList<>();
+        for (CardPreviewEntity preview : previews) {
+            if (!decryptedCardCache.fill(scope, preview)) {
+                misses.add(preview);
+            }
+        }
+        decryptionPool.decryptAll(misses, aes, CardPreviewEntity::decryptFields);
+        for (CardPreviewEntity preview : misses) {
+            decryptedCardCache.put(scope, preview);
+        }
+    }
+
+    /**
+     * Encrypts a card with the principal's secret key, packing it into records if packed storage is enabled
+     *
+     * @param card Card to encrypt
+     * @throws Exception If something goes wrong during encryption
+     */
+    private void encryptCard(EncryptedCard card) throws Exception {
+        encryptCard(card, UserSecretKeyHolder.getAESContext());
+    }
+
+    /**
+     * Encrypts a card, packing it into records if packed storage is enabled. Doesn't read the <code>SecurityContext</code>,
+     * so it can be called from worker threads
+     *
+     * @param card Card to encrypt
+     * @param aes  Context of the key to encrypt with
+     * @throws Exception If something goes wrong during encryption
+     */
+    public void encryptCard(@NonNull EncryptedCard card, @NonNull AESContext aes) throws Exception {
+        if (packedStorage) {
+            card.encryptFieldsPacked(aes);
+        } else {
+            card.encryptFields(aes);
+        }
     }
 
 }
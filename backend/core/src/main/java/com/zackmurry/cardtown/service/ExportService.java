@@ -0,0 +1,244 @@
+package com.zackmurry.cardtown.service;
+
+import com.zackmurry.cardtown.dao.arg.ArgumentDao;
+import com.zackmurry.cardtown.dao.card.CardDao;
+import com.zackmurry.cardtown.exception.BadRequestException;
+import com.zackmurry.cardtown.exception.InternalServerException;
+import com.zackmurry.cardtown.model.analytic.AnalyticEntity;
+import com.zackmurry.cardtown.model.arg.ArgumentEntityWithItems;
+import com.zackmurry.cardtown.model.arg.ArgumentItemEntity;
+import com.zackmurry.cardtown.model.auth.ResponseUserDetails;
+import com.zackmurry.cardtown.model.auth.UserModel;
+import com.zackmurry.cardtown.model.card.CardEntity;
+import com.zackmurry.cardtown.model.card.ResponseCard;
+import com.zackmurry.cardtown.model.export.ExportError;
+import com.zackmurry.cardtown.model.export.ExportRecord;
+import com.zackmurry.cardtown.model.export.ExportRecordType;
+import com.zackmurry.cardtown.model.export.ExportedArgument;
+import com.zackmurry.cardtown.model.export.ExportedArgumentItem;
+import com.zackmurry.cardtown.model.team.TeamEntity;
+import com.zackmurry.cardtown.util.AESContext;
+import com.zackmurry.cardtown.util.DecryptionPool;
+import com.zackmurry.cardtown.util.ItemConsumer;
+import com.zackmurry.cardtown.util.UUIDCompressor;
+import com.zackmurry.cardtown.util.UserSecretKeyHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.lang.NonNull;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Exports everything in the principal's library (their team's, if they're in one): every card, then every argument with
+ * its cards and analytics in order. Deleted cards and arguments are included and marked as deleted.
+ * <p>
+ * Cards and arguments are read in order of id a page of <code>ExportService#PAGE_SIZE</code> at a time and decrypted on
+ * the <code>DecryptionPool</code>, so only one page is in memory no matter how large the library is. Each page is a short
+ * query of its own, so no connection or transaction is held while the records are written to a (possibly slow) client.
+ * Each record has a cursor, and an export that was cut off can be resumed after the last record that was received
+ * instead of starting over. Exported cards aren't put in the <code>DecryptedCardCache</code>, since an export reads each
+ * card once and would only push out the cards that are actually being used.
+ * <p>
+ * A card or an argument that can't be decrypted (for example, a card made before its owner joined their team) doesn't stop
+ * the export. It's exported as an <code>ERROR</code> record with the same cursor that it would have had
+ */
+@Service
+public class ExportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExportService.class);
+
+    private static final String CURSOR_SEPARATOR = ":";
+
+    // Cards or arguments read per query
+    private static final int PAGE_SIZE = 100;
+
+    private static final UUID MIN_UUID = new UUID(0, 0);
+
+    @Autowired
+    private CardDao cardDao;
+
+    @Autowired
+    private ArgumentDao argumentDao;
+
+    @Autowired
+    private TeamService teamService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private DecryptionPool decryptionPool;
+
+    /**
+     * Streams the principal's library to a consumer as it's read from the database
+     *
+     * @param after    Cursor of the last record that was received, to resume an export. If null, the export starts from the beginning
+     * @param consumer Called with each record
+     * @throws IOException             If <code>consumer</code> throws one
+     * @throws BadRequestException     If <code>after</code> isn't a valid cursor
+     * @throws InternalServerException If the <code>DecryptionPool</code> fails
+     * @throws InternalServerException If the owner of a card or argument cannot be found in the users table
+     * @throws InternalServerException If a <code>SQLException</code> occurs in the DAO layer
+     */
+    public void exportLibrary(String after, @NonNull ItemConsumer<? super ExportRecord> consumer) throws IOException {
+        ExportRecordType afterType = null;
+        UUID afterId = null;
+        if (after != null) {
+            final String[] parts = after.split(CURSOR_SEPARATOR, 2);
+            if (parts.length != 2) {
+                throw new BadRequestException();
+            }
+            try {
+                afterType = ExportRecordType.valueOf(parts[0]);
+                afterId = UUIDCompressor.decompress(parts[1]);
+            } catch (IllegalArgumentException | BufferUnderflowException e) {
+                throw new BadRequestException();
+            }
+            // Error records use the cursor of the card or argument that failed
+            if (afterType == ExportRecordType.ERROR) {
+                throw new BadRequestException();
+            }
+        }
+
+        final UserModel principal = (UserModel) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        final Optional<UUID> teamId = teamService.getTeamOfUser().map(TeamEntity::getId);
+        final AESContext aes = UserSecretKeyHolder.getAESContext();
+        // Owners are looked up once per export, not once per page
+        final Map<UUID, ResponseUserDetails> userDetailsMap = new HashMap<>();
+        userDetailsMap.put(principal.getId(), ResponseUserDetails.fromUser(principal));
+
+        if (afterType != ExportRecordType.ARGUMENT) {
+            UUID cardsAfter = afterType == ExportRecordType.CARD ? afterId : MIN_UUID;
+            while (true) {
+                final List<CardEntity> cards = teamId.isPresent()
+                        ? cardDao.getCardsByTeamIdAfter(teamId.get(), cardsAfter, PAGE_SIZE)
+                        : cardDao.getCardsByUserAfter(principal.getId(), cardsAfter, PAGE_SIZE);
+                exportCards(cards, aes, userDetailsMap, consumer);
+                if (cards.size() < PAGE_SIZE) {
+                    break;
+                }
+                cardsAfter = cards.get(cards.size() - 1).getId();
+            }
+        }
+
+        UUID argumentsAfter = afterType == ExportRecordType.ARGUMENT ? afterId : MIN_UUID;
+        while (true) {
+            final List<ArgumentEntityWithItems> arguments = teamId.isPresent()
+                    ? argumentDao.getArgumentsWithItemsByTeamAfter(teamId.get(), argumentsAfter, PAGE_SIZE)
+                    : argumentDao.getArgumentsWithItemsByUserAfter(principal.getId(), argumentsAfter, PAGE_SIZE);
+            exportArguments(arguments, aes, userDetailsMap, consumer);
+            if (arguments.size() < PAGE_SIZE) {
+                break;
+            }
+            argumentsAfter = arguments.get(arguments.size() - 1).getId();
+        }
+    }
+
+    private void exportCards(List<CardEntity> cardEntities, AESContext aes, Map<UUID, ResponseUserDetails> userDetailsMap,
+                             ItemConsumer<? super ExportRecord> consumer) throws IOException {
+        final Set<UUID> failed = ConcurrentHashMap.newKeySet();
+        try {
+            decryptionPool.decryptAll(cardEntities, aes, (card, context) -> {
+                try {
+                    card.decryptFields(context);
+                } catch (Exception e) {
+                    failed.add(card.getId());
+                }
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+        userService.addMissingResponseUserDetails(userDetailsMap, cardEntities.stream().map(CardEntity::getOwnerId).collect(Collectors.toSet()));
+        for (CardEntity c : cardEntities) {
+            if (failed.contains(c.getId())) {
+                consumer.accept(toErrorRecord(ExportRecordType.CARD, c.getId()));
+                continue;
+            }
+            final ResponseCard card = ResponseCard.fromCard(c, getUserDetails(userDetailsMap, c.getOwnerId()));
+            consumer.accept(new ExportRecord(ExportRecordType.CARD, card, ExportRecordType.CARD + CURSOR_SEPARATOR + card.getId()));
+        }
+    }
+
+    private void exportArguments(List<ArgumentEntityWithItems> argumentEntities, AESContext aes, Map<UUID, ResponseUserDetails> userDetailsMap,
+                                 ItemConsumer<? super ExportRecord> consumer) throws IOException {
+        final Set<UUID> failed = ConcurrentHashMap.newKeySet();
+        try {
+            decryptionPool.decryptAll(argumentEntities, aes, (argument, context) -> {
+                try {
+                    argument.decryptFields(context);
+                    for (AnalyticEntity analytic : argument.getAnalytics()) {
+                        analytic.decryptFields(context);
+                    }
+                } catch (Exception e) {
+                    failed.add(argument.getId());
+                }
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+        userService.addMissingResponseUserDetails(userDetailsMap, argumentEntities.stream().map(ArgumentEntityWithItems::getOwnerId).collect(Collectors.toSet()));
+        for (ArgumentEntityWithItems a : argumentEntities) {
+            if (failed.contains(a.getId())) {
+                consumer.accept(toErrorRecord(ExportRecordType.ARGUMENT, a.getId()));
+                continue;
+            }
+            final ExportedArgument argument = toExportedArgument(a, getUserDetails(userDetailsMap, a.getOwnerId()));
+            consumer.accept(new ExportRecord(ExportRecordType.ARGUMENT, argument, ExportRecordType.ARGUMENT + CURSOR_SEPARATOR + argument.getId()));
+        }
+    }
+
+    private static ExportRecord toErrorRecord(ExportRecordType type, UUID id) {
+        final String compressedId = UUIDCompressor.compress(id);
+        return new ExportRecord(
+                ExportRecordType.ERROR,
+                new ExportError(type, compressedId, "Failed to decrypt"),
+                type + CURSOR_SEPARATOR + compressedId
+        );
+    }
+
+    private static ExportedArgument toExportedArgument(ArgumentEntityWithItems argumentEntity, ResponseUserDetails owner) {
+        final List<ExportedArgumentItem> items = new ArrayList<>(argumentEntity.getItems().size());
+        // Analytics are in the same order as their items
+        final Iterator<AnalyticEntity> analytics = argumentEntity.getAnalytics().iterator();
+        for (ArgumentItemEntity item : argumentEntity.getItems()) {
+            if (item.isCard()) {
+                items.add(new ExportedArgumentItem(UUIDCompressor.compress(item.getCardId()), null, null));
+            } else {
+                items.add(new ExportedArgumentItem(null, UUIDCompressor.compress(item.getAnalyticId()), analytics.next().getBody()));
+            }
+        }
+        return new ExportedArgument(
+                UUIDCompressor.compress(argumentEntity.getId()),
+                owner,
+                argumentEntity.getName(),
+                argumentEntity.isDeleted(),
+                items
+        );
+    }
+
+    private static ResponseUserDetails getUserDetails(@NonNull Map<UUID, ResponseUserDetails> userDetailsMap, @NonNull UUID ownerId) {
+        final ResponseUserDetails userDetails = userDetailsMap.get(ownerId);
+        if (userDetails == null) {
+            logger.warn("Owner of exported entity not found in database -- owner id: {}", ownerId);
+            throw new InternalServerException();
+        }
+        return userDetails;
+    }
+
+}
@@ -0,0 +1,184 @@
+package com.zackmurry.cardtown.service;
+
+import com.zackmurry.cardtown.dao.CursorQueries;
+import com.zackmurry.cardtown.dao.arg.ArgumentDao;
+import com.zackmurry.cardtown.dao.arg.analytic.ArgumentAnalyticDao;
+import com.zackmurry.cardtown.dao.card.CardDao;
+import com.zackmurry.cardtown.exception.BadRequestException;
+import com.zackmurry.cardtown.exception.InternalServerException;
+import com.zackmurry.cardtown.model.analytic.AnalyticEntity;
+import com.zackmurry.cardtown.model.arg.ArgumentEntity;
+import com.zackmurry.cardtown.model.auth.UserModel;
+import com.zackmurry.cardtown.model.card.CardPreviewEntity;
+import com.zackmurry.cardtown.model.search.SearchResult;
+import com.zackmurry.cardtown.util.AESContext;
+import com.zackmurry.cardtown.util.ChunkedItemConsumer;
+import com.zackmurry.cardtown.util.DecryptedCardCache;
+import com.zackmurry.cardtown.util.DecryptionPool;
+import com.zackmurry.cardtown.util.InvertedIndex;
+import com.zackmurry.cardtown.util.LibraryIndexCache;
+import com.zackmurry.cardtown.util.UUIDCompressor;
+import com.zackmurry.cardtown.util.UserSecretKeyHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.NonNull;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Full-text search over a library's cards, arguments, and analytics, using the <code>InvertedIndex</code> in the
+ * <code>LibraryIndexCache</code>. The index is built from the database the first time a library is searched
+ */
+@Service
+public class SearchService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchService.class);
+
+    private static final int MAX_SEARCH_LIMIT = 200;
+
+    @Autowired
+    private CardDao cardDao;
+
+    @Autowired
+    private ArgumentDao argumentDao;
+
+    @Autowired
+    private ArgumentAnalyticDao argumentAnalyticDao;
+
+    @Autowired
+    private DecryptionPool decryptionPool;
+
+    @Autowired
+    private DecryptedCardCache decryptedCardCache;
+
+    @Autowired
+    private LibraryIndexCache libraryIndexCache;
+
+    /**
+     * Searches the cards, arguments, and analytics that the principal has access to. Deleted items aren't included
+     *
+     * @param query Words, prefixes (<code>word*</code>), and quoted phrases, all of which have to match
+     * @param limit Maximum number of results
+     * @return The matching items, best match first
+     * @throws ResponseStatusException (Not found) If the search index is disabled
+     * @throws BadRequestException     If <code>limit</code> isn't between 1 and 200
+     * @throws InternalServerException If a <code>SQLException</code> occurs in the DAO layer
+     */
+    public List<SearchResult> search(@NonNull String query, int limit) {
+        if (!libraryIndexCache.isEnabled()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        }
+        if (limit < 1 || limit > MAX_SEARCH_LIMIT) {
+            throw new BadRequestException();
+        }
+        final UserModel principal = (UserModel) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        final UUID scope = LibraryIndexCache.scopeOf(principal);
+        final InvertedIndex index = libraryIndexCache.getOrBuild(scope, () -> buildIndex(principal, scope));
+        return index.search(query, limit).stream()
+                .map(hit -> new SearchResult(
+                        hit.getType(),
+                        UUIDCompressor.compress(hit.getId()),
+                        hit.getParentId() == null ? null : UUIDCompressor.compress(hit.getParentId()),
+                        hit.getScore()
+                ))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Builds and caches the index of a library. Items that can't be decrypted with the principal's key (e.g. cards made
+     * before their owner joined the team) are left out
+     *
+     * @param principal User whose key the library is decrypted with
+     * @param scope     Id of the principal's team, or of the principal if they aren't in a team
+     */
+    private InvertedIndex buildIndex(UserModel principal, UUID scope) {
+        final LibraryIndexCache.Build build = libraryIndexCache.beginBuild(scope);
+        final long start = System.nanoTime();
+        final boolean team = !scope.equals(principal.getId());
+        final AESContext aes = UserSecretKeyHolder.getAESContext();
+        final InvertedIndex index = new InvertedIndex();
+        try {
+            final String keyScope = DecryptedCardCache.scopeOf(UserSecretKeyHolder.getSecretKey());
+            final ChunkedItemConsumer<CardPreviewEntity> chunks = new ChunkedItemConsumer<>(CursorQueries.FETCH_SIZE, previews -> indexCards(index, previews, aes, keyScope));
+            if (team) {
+                cardDao.forEachCardPreviewByTeamId(scope, true, chunks);
+            } else {
+                cardDao.forEachCardPreviewByUser(scope, true, chunks);
+            }
+            chunks.flush();
+
+            final List<ArgumentEntity> arguments = team ? argumentDao.getArgumentsByTeam(scope, true) : argumentDao.getArgumentsByUser(scope, true);
+            for (ArgumentEntity argument : arguments) {
+                try {
+                    argument.decryptFields(aes);
+                } catch (Exception e) {
+                    continue;
+                }
+                index.putArgument(argument.getId(), argument.getName(), argument.isDeleted());
+            }
+
+            final List<AnalyticEntity> analytics = team ? argumentAnalyticDao.getAnalyticsByTeam(scope) : argumentAnalyticDao.getAnalyticsByUser(scope);
+            for (AnalyticEntity analytic : analytics) {
+                try {
+                    analytic.decryptFields(aes);
+                } catch (Exception e) {
+                    continue;
+                }
+                index.putAnalytic(analytic.getId(), analytic.getArgumentId(), analytic.getBody());
+            }
+        } catch (IOException | RuntimeException e) {
+            libraryIndexCache.cancel(build);
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            throw new InternalServerException();
+        }
+        libraryIndexCache.put(build, index);
+        logger.debug("Built search index of {} items in {} ms", index.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return index;
+    }
+
+    /**
+     * Adds a chunk of encrypted card previews to an index. Previews are taken from the <code>DecryptedCardCache</code> if
+     * they're there, but newly decrypted ones aren't added to it, so that building an index doesn't push out the cards that are in use
+     */
+    private void indexCards(InvertedIndex index, List<CardPreviewEntity> previews, AESContext aes, String keyScope) {
+        final List<CardPreviewEntity> misses = new ArrayList<>();
+        for (CardPreviewEntity preview : previews) {
+            if (!decryptedCardCache.fill(keyScope, preview)) {
+                misses.add(preview);
+            }
+        }
+        final Set<UUID> failed = ConcurrentHashMap.newKeySet();
+        try {
+            decryptionPool.decryptAll(misses, aes, (preview, context) -> {
+                try {
+                    preview.decryptFields(context);
+                } catch (Exception e) {
+                    failed.add(preview.getId());
+                }
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new InternalServerException();
+        }
+        for (CardPreviewEntity preview : previews) {
+            if (!failed.contains(preview.getId())) {
+                index.putCard(preview.getId(), preview.getTag(), preview.getCite(), preview.getBodyText(), preview.isDeleted());
+            }
+        }
+    }
+
+}
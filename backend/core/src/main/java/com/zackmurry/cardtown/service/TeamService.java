@@ -9,7 +9,11 @@ import com.zackmurry.cardtown.model.action.ActionEntity;
 import com.zackmurry.cardtown.model.action.ActionType;
 import com.zackmurry.cardtown.model.auth.UserModel;
 import com.zackmurry.cardtown.model.team.*;
+import com.zackmurry.cardtown.util.DecryptedCardCache;
 import com.zackmurry.cardtown.util.EncryptionUtils;
+import com.zackmurry.cardtown.util.LibraryIndexCache;
+import com.zackmurry.cardtown.util.PrincipalCache;
+import com.zackmurry.cardtown.util.TeamMembershipCache;
 import com.zackmurry.cardtown.util.UUIDCompressor;
 import org.apache.tomcat.util.codec.binary.Base64;
 import org.slf4j.Logger;
@@ -22,8 +26,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
 
 import javax.crypto.SecretKey;
-import java.util.Optional;
-import java.util.UUID;
+import java.util.*;
 
 @Service
 public class TeamService {
@@ -39,6 +42,18 @@ public class TeamService {
     @Autowired
     private EncryptionUtils encryptionUtils;
 
+    @Autowired
+    private PrincipalCache principalCache;
+
+    @Autowired
+    private TeamMembershipCache teamMembershipCache;
+
+    @Autowired
+    private DecryptedCardCache decryptedCardCache;
+
+    @Autowired
+    private LibraryIndexCache libraryIndexCache;
+
     /**
      * Creates a team with the specified information
      *
@@ -82,6 +97,10 @@ public class TeamService {
         }
         final TeamMemberEntity teamMemberEntity = new TeamMemberEntity(teamId, principal.getId(), Base64.encodeBase64String(encryptedTeamSecretKey), TeamRole.OWNER);
         teamDao.addMemberToTeam(teamMemberEntity);
+        teamMembershipCache.set(principal.getId(), teamId);
+        principalCache.invalidateUser(principal.getId());
+        // The user searches the team's library from now on
+        libraryIndexCache.invalidate(principal.getId());
         final String encodedTeamSecretKey = Base64.encodeBase64URLSafeString(teamSecretKey.getEncoded());
         // Additional link invites can be generated later based on the decryption of the team secret key by a member
         return new TeamCreationResponse(UUIDCompressor.compress(teamId), encodedTeamSecretKey);
@@ -119,6 +138,10 @@ public class TeamService {
         }
         final TeamMemberEntity teamMemberEntity = new TeamMemberEntity(teamId, principal.getId(), Base64.encodeBase64String(encryptedTeamSecretKey));
         teamDao.addMemberToTeam(teamMemberEntity);
+        teamMembershipCache.set(principal.getId(), teamId);
+        principalCache.invalidateUser(principal.getId());
+        libraryIndexCache.invalidate(principal.getId());
+        libraryIndexCache.invalidate(teamId);
 
         actionService.createAction(
                 ActionEntity.builder()
@@ -138,12 +161,19 @@ public class TeamService {
     public void deleteTeam() {
         // todo prompt for switching ownership of team if 1+ other members
         // todo for TeamResponse: include owner in preview of team
-        final UUID userId = ((UserModel) SecurityContextHolder.getContext().getAuthentication().getPrincipal()).getId();
-        final TeamMemberEntity teamMemberEntity = teamDao.getTeamMemberEntityByUserId(userId).orElseThrow(BadRequestException::new);
+        final UserModel principal = (UserModel) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        final TeamMemberEntity teamMemberEntity = teamDao.getTeamMemberEntityByUserId(principal.getId()).orElseThrow(BadRequestException::new);
         if (!teamMemberEntity.getRole().equals(TeamRole.OWNER)) {
             throw new ForbiddenException();
         }
         teamDao.deleteTeamById(teamMemberEntity.getTeamId());
+        teamMembershipCache.invalidateTeam(teamMemberEntity.getTeamId());
+        principalCache.invalidateTeam(teamMemberEntity.getTeamId());
+        libraryIndexCache.invalidate(teamMemberEntity.getTeamId());
+        if (principal.getTeamSecretKey() != null) {
+            // Nobody holds the team's key anymore
+            decryptedCardCache.invalidateKey(principal.getTeamSecretKey());
+        }
     }
 
     /**
@@ -157,7 +187,7 @@ public class TeamService {
         if (principal.getTeamSecretKey() == null) {
             return Optional.empty();
         }
-        final UUID teamId = teamDao.getTeamIdWithUser(principal.getId()).orElse(null);
+        final UUID teamId = getTeamIdByUserId(principal.getId()).orElse(null);
         if (teamId == null) {
             return Optional.empty();
         }
@@ -175,8 +205,52 @@ public class TeamService {
         return Optional.of(teamEntity);
     }
 
+    /**
+     * Gets the id of the team that a user is in. Served from memory after the first lookup for a user
+     *
+     * @param userId Id of user
+     * @return If the user is in a team: an <code>Optional</code> containing the team's id; else: <code>Optional.empty()</code>
+     * @throws InternalServerException If a <code>SQLException</code> occurs in the DAO layer
+     */
     public Optional<UUID> getTeamIdByUserId(@NonNull UUID userId) {
-        return teamDao.getTeamIdWithUser(userId);
+        UUID teamId = teamMembershipCache.get(userId);
+        if (teamId == null) {
+            final long invalidationCount = teamMembershipCache.getInvalidationCount();
+            teamId = teamDao.getTeamIdWithUser(userId).orElse(TeamMembershipCache.NO_TEAM);
+            teamMembershipCache.putLoaded(userId, teamId, invalidationCount);
+        }
+        return TeamMembershipCache.NO_TEAM.equals(teamId) ? Optional.empty() : Optional.of(teamId);
+    }
+
+    /**
+     * Gets the ids of the teams that users are in. Users that haven't been looked up yet are loaded with a single query
+     *
+     * @param userIds Ids of users
+     * @return A map of user id to team id. Users that aren't in a team are mapped to <code>TeamMembershipCache#NO_TEAM</code>
+     * @throws InternalServerException If a <code>SQLException</code> occurs in the DAO layer
+     */
+    private Map<UUID, UUID> getTeamIdsByUserIds(@NonNull Collection<UUID> userIds) {
+        final Map<UUID, UUID> teamIds = new HashMap<>();
+        final Set<UUID> missing = new HashSet<>();
+        for (UUID userId : userIds) {
+            final UUID teamId = teamMembershipCache.get(userId);
+            if (teamId == null) {
+                missing.add(userId);
+            } else {
+                teamIds.put(userId, teamId);
+            }
+        }
+        if (!missing.isEmpty()) {
+            final long invalidationCount = teamMembershipCache.getInvalidationCount();
+            final Map<UUID, UUID> loaded = teamDao.getTeamIdsWithUsers(missing);
+            for (UUID userId : missing) {
+                // The answer from the database is used for this check even if it isn't cached
+                final UUID teamId = loaded.getOrDefault(userId, TeamMembershipCache.NO_TEAM);
+                teamMembershipCache.putLoaded(userId, teamId, invalidationCount);
+                teamIds.put(userId, teamId);
+            }
+        }
+        return teamIds;
     }
 
     /**
@@ -200,24 +274,59 @@ public class TeamService {
         }
     }
 
+    /**
+     * Checks whether two users are in the same team. A user is always considered to be in the same team as themself.
+     * Doesn't query the database once both users' teams have been looked up
+     *
+     * @param userId1 Id of the first user
+     * @param userId2 Id of the second user
+     * @return Whether the users share a team (or are the same user)
+     * @throws InternalServerException If a <code>SQLException</code> occurs in the DAO layer
+     */
     public boolean usersInSameTeam(@NonNull UUID userId1, @NonNull UUID userId2) {
         if (userId1.equals(userId2)) {
             return true;
         }
-        final TeamMemberEntity teamMemberEntity1 = teamDao.getTeamMemberEntityByUserId(userId1).orElse(null);
-        if (teamMemberEntity1 == null) {
+        final UUID teamId1 = getTeamIdByUserId(userId1).orElse(null);
+        if (teamId1 == null) {
             return false;
         }
-        final TeamMemberEntity teamMemberEntity2 = teamDao.getTeamMemberEntityByUserId(userId2).orElse(null);
-        if (teamMemberEntity2 == null) {
+        return getTeamIdByUserId(userId2).map(teamId1::equals).orElse(false);
+    }
+
+    /**
+     * Checks whether a user is in the same team as every one of a set of other users.
+     * A user is always considered to be in the same team as themself.
+     * Users whose teams haven't been looked up yet are loaded with a single query
+     *
+     * @param userId       Id of the user to check (usually the principal)
+     * @param otherUserIds Ids of the users to compare against
+     * @return Whether <code>userId</code> shares a team with (or is) every user in <code>otherUserIds</code>
+     * @throws InternalServerException If a <code>SQLException</code> occurs in the DAO layer
+     */
+    public boolean usersInSameTeam(@NonNull UUID userId, @NonNull Collection<UUID> otherUserIds) {
+        final Set<UUID> others = new HashSet<>(otherUserIds);
+        others.remove(userId);
+        if (others.isEmpty()) {
+            return true;
+        }
+        others.add(userId);
+        final Map<UUID, UUID> teamIds = getTeamIdsByUserIds(others);
+        final UUID teamId = teamIds.get(userId);
+        if (TeamMembershipCache.NO_TEAM.equals(teamId)) {
             return false;
         }
-        return teamMemberEntity1.getTeamId().equals(teamMemberEntity2.getTeamId());
+        for (UUID otherUserId : others) {
+            if (!teamId.equals(teamIds.get(otherUserId))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public Optional<TeamHeader> getTeamInformation() {
         final UserModel principal = (UserModel) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
-        final UUID teamId = teamDao.getTeamIdWithUser(principal.getId()).orElse(null);
+        final UUID teamId = getTeamIdByUserId(principal.getId()).orElse(null);
         if (teamId == null) {
             return Optional.empty();
         }
@@ -244,6 +353,12 @@ public class TeamService {
             deleteTeam();
         } else {
             teamDao.removeUserFromTeam(principal.getId());
+            teamMembershipCache.set(principal.getId(), TeamMembershipCache.NO_TEAM);
+            principalCache.invalidateUser(principal.getId());
+            // The rest of the team can no longer see the user's cards, so don't keep them decrypted in memory
+            decryptedCardCache.invalidateOwner(principal.getId());
+            libraryIndexCache.invalidate(teamMemberEntity.getTeamId());
+            libraryIndexCache.invalidate(principal.getId());
         }
     }
 
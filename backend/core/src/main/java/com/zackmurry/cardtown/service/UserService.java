@@ -8,6 +8,8 @@ import com.zackmurry.cardtown.exception.UserNotFoundException;
 import com.zackmurry.cardtown.model.auth.*;
 import com.zackmurry.cardtown.util.EncryptionUtils;
 import com.zackmurry.cardtown.util.JwtUtil;
+import com.zackmurry.cardtown.util.LibraryIndexCache;
+import com.zackmurry.cardtown.util.PrincipalCache;
 import com.zackmurry.cardtown.util.UUIDCompressor;
 import org.apache.tomcat.util.codec.binary.Base64;
 import org.slf4j.Logger;
@@ -60,6 +62,12 @@ public class UserService implements UserDetailsService {
     @Autowired
     private TeamService teamService;
 
+    @Autowired
+    private PrincipalCache principalCache;
+
+    @Autowired
+    private LibraryIndexCache libraryIndexCache;
+
     @PostConstruct
     private void init() {
         File f = new File(PROFILE_PICTURE_DIRECTORY_PATH);
@@ -189,7 +197,12 @@ public class UserService implements UserDetailsService {
      * @throws InternalServerException If there was a <code>SQLException</code> in the DAO layer
      */
     public void deleteUserAccount(@NonNull String email) throws UserNotFoundException {
+        final Optional<UUID> userId = userDao.getIdByEmail(email);
+        final Optional<UUID> teamId = userId.flatMap(teamService::getTeamIdByUserId);
         userDao.deleteUser(email);
+        userId.ifPresent(principalCache::invalidateUser);
+        userId.ifPresent(libraryIndexCache::invalidate);
+        teamId.ifPresent(libraryIndexCache::invalidate);
     }
 
     /**
@@ -296,6 +309,50 @@ public class UserService implements UserDetailsService {
         return Optional.of(ResponseUserDetails.fromUser(user));
     }
 
+    /**
+     * Creates <code>ResponseUserDetails</code> for multiple users with a single query
+     *
+     * @param ids Ids of the users
+     * @return A map of user id to <code>ResponseUserDetails</code>. Users that are not found are left out
+     * @throws InternalServerException If there is a <code>SQLException</code> in the DAO layer
+     */
+    public Map<UUID, ResponseUserDetails> getResponseUserDetailsByIds(@NonNull Collection<UUID> ids) {
+        final Map<UUID, ResponseUserDetails> userDetails = new HashMap<>();
+        for (User user : userDao.findByIds(ids)) {
+            userDetails.put(user.getId(), ResponseUserDetails.fromUser(user));
+        }
+        return userDetails;
+    }
+
+    /**
+     * Looks up the details of users that aren't in a map yet and adds them to it, with a single query
+     *
+     * @param userDetailsMap Details that have already been looked up
+     * @param userIds        Ids of users whose details are needed. Ids that are already in the map are removed from it
+     * @throws InternalServerException If there is a <code>SQLException</code> in the DAO layer
+     */
+    public void addMissingResponseUserDetails(@NonNull Map<UUID, ResponseUserDetails> userDetailsMap, @NonNull Set<UUID> userIds) {
+        userIds.removeAll(userDetailsMap.keySet());
+        if (!userIds.isEmpty()) {
+            userDetailsMap.putAll(getResponseUserDetailsByIds(userIds));
+        }
+    }
+
+    /**
+     * Creates <code>ResponseUserDetails</code> for every member of a team with a single query
+     *
+     * @param teamId Id of team
+     * @return A map of user id to <code>ResponseUserDetails</code>
+     * @throws InternalServerException If there is a <code>SQLException</code> in the DAO layer
+     */
+    public Map<UUID, ResponseUserDetails> getResponseUserDetailsByTeam(@NonNull UUID teamId) {
+        final Map<UUID, ResponseUserDetails> userDetails = new HashMap<>();
+        for (User user : userDao.findByTeamId(teamId)) {
+            userDetails.put(user.getId(), ResponseUserDetails.fromUser(user));
+        }
+        return userDetails;
+    }
+
     /**
      * Generates a <code>UserModel</code> from a user's email and encryption key
      *
@@ -365,6 +422,7 @@ public class UserService implements UserDetailsService {
         userDao.updateUserName(principal.getId(), name);
         principal.setFirstName(name.getFirst());
         principal.setLastName(name.getLast());
+        principalCache.invalidateUser(principal.getId());
         // Return a new jwt for the user because the details in it have changed
         return new AuthenticationResponse(buildJwtForUser(principal), UUIDCompressor.compress(principal.getId()));
     }
@@ -0,0 +1,267 @@
+package com.zackmurry.cardtown.util;
+
+import org.apache.tomcat.util.codec.binary.Base64;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encrypts and decrypts with a single secret key.
+ * <p>
+ * There are two cipher formats:
+ * <ul>
+ *     <li>v1: a 16-byte IV followed by AES/CBC/PKCS5Padding ciphertext, keyed by the first 16 bytes of the SHA-256 hash of
+ *     the secret key. This is what <code>AESContext#encrypt</code> and <code>EncryptionUtils#encryptAES</code> produce</li>
+ *     <li>v2: a 12-byte nonce followed by AES/GCM/NoPadding ciphertext and its 16-byte tag, keyed by the first 16 bytes of
+ *     HMAC-SHA256(secret key, "cardtown-aes-gcm-v2")</li>
+ * </ul>
+ * Versioned ciphers (see <code>CipherText</code>) start with a header byte saying which format follows. New values are
+ * always written as v2; v1 is still readable so that existing rows can be migrated lazily.
+ * <p>
+ * Several values can also be packed into one v2 record (see <code>AESContext#encryptRecord</code>), so that they're
+ * encrypted with a single cipher operation.
+ * <p>
+ * The AES keys are derived once when the context is created, and <code>Cipher</code>s are reused per thread, so decrypting
+ * a list of entities should create one context and pass it to each entity.
+ * Instances are immutable and safe to share between threads
+ *
+ * @see EncryptionUtils#forKey(byte[]) For creating a context
+ */
+public final class AESContext {
+
+    private static final int IV_SIZE = 16;
+    private static final int KEY_SIZE = 16;
+    private static final int GCM_NONCE_SIZE = 12;
+    private static final int GCM_TAG_BITS = 128;
+    private static final byte[] V2_KEY_LABEL = "cardtown-aes-gcm-v2".getBytes(StandardCharsets.UTF_8);
+
+    // Ciphers aren't thread-safe, but creating one is expensive, so each thread keeps its own and re-initializes it per call
+    private static final ThreadLocal<Cipher> CIPHER = ThreadLocal.withInitial(() -> newCipher("AES/CBC/PKCS5Padding"));
+
+    private static final ThreadLocal<Cipher> GCM_CIPHER = ThreadLocal.withInitial(() -> newCipher("AES/GCM/NoPadding"));
+
+    // SecureRandom is thread-safe
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final SecretKeySpec secretKeySpec;
+
+    // Separate from the v1 key so that the same AES key is never used with both modes
+    private final SecretKeySpec gcmKeySpec;
+
+    AESContext(byte[] secretKey) throws GeneralSecurityException {
+        final byte[] keyBytes = new byte[KEY_SIZE];
+        System.arraycopy(MessageDigest.getInstance("SHA-256").digest(secretKey), 0, keyBytes, 0, KEY_SIZE);
+        this.secretKeySpec = new SecretKeySpec(keyBytes, "AES");
+
+        final Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secretKey, "HmacSHA256"));
+        final byte[] gcmKeyBytes = new byte[KEY_SIZE];
+        System.arraycopy(mac.doFinal(V2_KEY_LABEL), 0, gcmKeyBytes, 0, KEY_SIZE);
+        this.gcmKeySpec = new SecretKeySpec(gcmKeyBytes, "AES");
+    }
+
+    /**
+     * Encrypts bytes with a random IV
+     *
+     * @param plainText Bytes to encrypt
+     * @return The IV followed by the cipher text
+     * @throws GeneralSecurityException If something goes wrong during encryption
+     */
+    public byte[] encrypt(byte[] plainText) throws GeneralSecurityException {
+        final byte[] iv = new byte[IV_SIZE];
+        RANDOM.nextBytes(iv);
+        final Cipher cipher = CIPHER.get();
+        cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec, new IvParameterSpec(iv));
+
+        // Write the IV and the ciphertext into the same array instead of combining them afterwards
+        final byte[] encryptedIVAndText = new byte[IV_SIZE + cipher.getOutputSize(plainText.length)];
+        System.arraycopy(iv, 0, encryptedIVAndText, 0, IV_SIZE);
+        final int encryptedSize = cipher.doFinal(plainText, 0, plainText.length, encryptedIVAndText, IV_SIZE);
+        if (IV_SIZE + encryptedSize == encryptedIVAndText.length) {
+            return encryptedIVAndText;
+        }
+        final byte[] trimmed = new byte[IV_SIZE + encryptedSize];
+        System.arraycopy(encryptedIVAndText, 0, trimmed, 0, trimmed.length);
+        return trimmed;
+    }
+
+    /**
+     * Decrypts the output of <code>AESContext#encrypt</code> (or <code>EncryptionUtils#encryptAES</code>)
+     *
+     * @param encryptedIVAndText The IV followed by the cipher text
+     * @return The decrypted bytes
+     * @throws GeneralSecurityException If the cipher can't be decrypted with this key
+     */
+    public byte[] decrypt(byte[] encryptedIVAndText) throws GeneralSecurityException {
+        if (encryptedIVAndText.length < IV_SIZE) {
+            throw new GeneralSecurityException("Cipher text is shorter than an IV");
+        }
+        final Cipher cipher = CIPHER.get();
+        cipher.init(Cipher.DECRYPT_MODE, secretKeySpec, new IvParameterSpec(encryptedIVAndText, 0, IV_SIZE));
+        return cipher.doFinal(encryptedIVAndText, IV_SIZE, encryptedIVAndText.length - IV_SIZE);
+    }
+
+    /**
+     * Encrypts bytes in the v2 format, with a random nonce
+     *
+     * @param plainText Bytes to encrypt
+     * @return The v2 header byte, nonce, cipher text, and tag
+     * @throws GeneralSecurityException If something goes wrong during encryption
+     */
+    public byte[] encryptVersioned(byte[] plainText) throws GeneralSecurityException {
+        return encryptGCM(CipherText.V2, plainText);
+    }
+
+    private byte[] encryptGCM(byte version, byte[] plainText) throws GeneralSecurityException {
+        final byte[] nonce = new byte[GCM_NONCE_SIZE];
+        RANDOM.nextBytes(nonce);
+        final Cipher cipher = GCM_CIPHER.get();
+        cipher.init(Cipher.ENCRYPT_MODE, gcmKeySpec, new GCMParameterSpec(GCM_TAG_BITS, nonce));
+
+        final int headerSize = 1 + GCM_NONCE_SIZE;
+        final byte[] versioned = new byte[headerSize + cipher.getOutputSize(plainText.length)];
+        versioned[0] = version;
+        System.arraycopy(nonce, 0, versioned, 1, GCM_NONCE_SIZE);
+        cipher.doFinal(plainText, 0, plainText.length, versioned, headerSize);
+        return versioned;
+    }
+
+    /**
+     * Decrypts a versioned cipher in either format
+     *
+     * @param versioned A header byte followed by a v1 or v2 cipher
+     * @return The decrypted bytes
+     * @throws GeneralSecurityException If the version is unknown, the cipher has been tampered with (v2), or the cipher
+     *                                  can't be decrypted with this key
+     */
+    public byte[] decryptVersioned(byte[] versioned) throws GeneralSecurityException {
+        if (versioned.length == 0) {
+            throw new GeneralSecurityException("Cipher text is empty");
+        }
+        switch (versioned[0]) {
+            case CipherText.V1: {
+                if (versioned.length < 1 + IV_SIZE) {
+                    throw new GeneralSecurityException("Cipher text is shorter than an IV");
+                }
+                final Cipher cipher = CIPHER.get();
+                cipher.init(Cipher.DECRYPT_MODE, secretKeySpec, new IvParameterSpec(versioned, 1, IV_SIZE));
+                return cipher.doFinal(versioned, 1 + IV_SIZE, versioned.length - 1 - IV_SIZE);
+            }
+            case CipherText.V2:
+            case CipherText.V2_RECORD: {
+                if (versioned.length < 1 + GCM_NONCE_SIZE) {
+                    throw new GeneralSecurityException("Cipher text is shorter than a nonce");
+                }
+                final Cipher cipher = GCM_CIPHER.get();
+                cipher.init(Cipher.DECRYPT_MODE, gcmKeySpec, new GCMParameterSpec(GCM_TAG_BITS, versioned, 1, GCM_NONCE_SIZE));
+                return cipher.doFinal(versioned, 1 + GCM_NONCE_SIZE, versioned.length - 1 - GCM_NONCE_SIZE);
+            }
+            default:
+                throw new GeneralSecurityException("Unknown cipher version " + versioned[0]);
+        }
+    }
+
+    /**
+     * Encrypts a UTF-8 <code>String</code> in the v2 format
+     *
+     * @param plainText Text to encrypt
+     * @return The cipher in its text form (see <code>CipherText#toText</code>)
+     * @throws GeneralSecurityException If something goes wrong during encryption
+     */
+    public String encryptString(String plainText) throws GeneralSecurityException {
+        return CipherText.toText(encryptVersioned(plainText.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Decrypts a cipher into a UTF-8 <code>String</code>
+     *
+     * @param cipherText Either a legacy Base64 v1 cipher or a versioned cipher in its text form
+     * @return The decrypted text
+     * @throws GeneralSecurityException If the cipher can't be decrypted with this key
+     */
+    public String decryptString(String cipherText) throws GeneralSecurityException {
+        if (CipherText.isRecord(cipherText)) {
+            throw new GeneralSecurityException("Records have to be decrypted with decryptRecord");
+        }
+        if (CipherText.isVersioned(cipherText)) {
+            return new String(decryptVersioned(CipherText.toBytes(cipherText)), StandardCharsets.UTF_8);
+        }
+        return new String(decrypt(Base64.decodeBase64(cipherText)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Packs values into a single length-prefixed record and encrypts it as one v2 cipher.
+     * Each value is written as a 4-byte big-endian length (-1 for <code>null</code>) followed by its UTF-8 bytes
+     *
+     * @param values Values to pack, in the order that <code>AESContext#decryptRecord</code> should return them
+     * @return The record cipher in its text form
+     * @throws GeneralSecurityException If something goes wrong during encryption
+     */
+    public String encryptRecord(String... values) throws GeneralSecurityException {
+        final byte[][] encodedValues = new byte[values.length][];
+        int size = 0;
+        for (int i = 0; i < values.length; i++) {
+            encodedValues[i] = values[i] == null ? null : values[i].getBytes(StandardCharsets.UTF_8);
+            size += Integer.BYTES + (encodedValues[i] == null ? 0 : encodedValues[i].length);
+        }
+        final ByteBuffer record = ByteBuffer.allocate(size);
+        for (byte[] encodedValue : encodedValues) {
+            if (encodedValue == null) {
+                record.putInt(-1);
+            } else {
+                record.putInt(encodedValue.length);
+                record.put(encodedValue);
+            }
+        }
+        return CipherText.toText(encryptGCM(CipherText.V2_RECORD, record.array()));
+    }
+
+    /**
+     * Decrypts a record made by <code>AESContext#encryptRecord</code>
+     *
+     * @param cipherText Record cipher in its text form
+     * @return The values of the record, in the order that they were packed
+     * @throws GeneralSecurityException If the cipher isn't a record, has been tampered with, or can't be decrypted with this key
+     */
+    public String[] decryptRecord(String cipherText) throws GeneralSecurityException {
+        if (!CipherText.isRecord(cipherText)) {
+            throw new GeneralSecurityException("Cipher text is not a record");
+        }
+        final ByteBuffer record = ByteBuffer.wrap(decryptVersioned(CipherText.toBytes(cipherText)));
+        final List<String> values = new ArrayList<>();
+        try {
+            while (record.hasRemaining()) {
+                final int length = record.getInt();
+                if (length < 0) {
+                    values.add(null);
+                } else {
+                    values.add(new String(record.array(), record.position(), length, StandardCharsets.UTF_8));
+                    record.position(record.position() + length);
+                }
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new GeneralSecurityException("Malformed record", e);
+        }
+        return values.toArray(new String[0]);
+    }
+
+    private static Cipher newCipher(String transformation) {
+        try {
+            return Cipher.getInstance(transformation);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(transformation + " should always be available in a Java runtime", e);
+        }
+    }
+
+}
@@ -0,0 +1,276 @@
+package com.zackmurry.cardtown.util;
+
+import com.zackmurry.cardtown.dao.action.ActionDao;
+import com.zackmurry.cardtown.model.action.ActionEntity;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes actions to the database off of the request thread.
+ * <p>
+ * Actions are put in a bounded, lock-free queue and written with batch inserts by a writer thread, either when
+ * <code>app.action-log.batch-size</code> actions are waiting or every <code>app.action-log.flush-interval-ms</code>,
+ * whichever is first. If the queue is full, the action is written on the calling thread instead, which slows the caller
+ * down until the writer catches up. Readers that need to see a user's own actions can wait for just that user's queued
+ * actions with <code>awaitWritten</code>, which wakes the writer instead of writing anything on the reader's thread.
+ * <p>
+ * <code>app.action-log.durability</code> controls what happens to actions that haven't been written yet:
+ * <ul>
+ *     <li><code>SYNC</code>: actions are written on the calling thread before <code>write</code> returns, like before this existed</li>
+ *     <li><code>ASYNC</code>: queued actions are lost if the application stops</li>
+ *     <li><code>ASYNC_FLUSH_ON_SHUTDOWN</code>: queued actions are written when the application shuts down gracefully.
+ *     They're still lost if the process is killed</li>
+ * </ul>
+ * Metrics: <code>actions.queue.size</code>, <code>actions.flushes</code> (latency of each batch insert),
+ * <code>actions.queue.rejections</code> (actions written on the calling thread because the queue was full), and
+ * <code>actions.dropped</code> (actions that couldn't be written at all)
+ */
+@Component
+public class ActionLogWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ActionLogWriter.class);
+
+    public enum Durability {
+        SYNC,
+        ASYNC,
+        ASYNC_FLUSH_ON_SHUTDOWN
+    }
+
+    private final ActionDao actionDao;
+
+    private final Durability durability;
+
+    private final int capacity;
+
+    private final int batchSize;
+
+    private final long flushIntervalNanos;
+
+    private final Queue<ActionEntity> queue = new ConcurrentLinkedQueue<>();
+
+    // ConcurrentLinkedQueue#size is O(n), so the number of queued actions is tracked separately. It also bounds the queue
+    private final AtomicInteger queueSize = new AtomicInteger();
+
+    // Number of queued (or being written) actions of each subject. Subjects are removed when they reach zero, so this is
+    // never larger than the queue
+    private final Map<UUID, Integer> pendingBySubject = new ConcurrentHashMap<>();
+
+    // Notified after every flush of the writer thread, for threads in awaitWritten
+    private final Object writtenMonitor = new Object();
+
+    private volatile boolean flushRequested;
+
+    private final Thread writerThread;
+
+    private volatile boolean running = true;
+
+    private final Timer flushes;
+
+    private final Counter rejections;
+
+    private final Counter dropped;
+
+    public ActionLogWriter(ActionDao actionDao,
+                           MeterRegistry meterRegistry,
+                           @Value("${app.action-log.durability:ASYNC_FLUSH_ON_SHUTDOWN}") Durability durability,
+                           @Value("${app.action-log.queue-capacity:10000}") int capacity,
+                           @Value("${app.action-log.batch-size:100}") int batchSize,
+                           @Value("${app.action-log.flush-interval-ms:200}") long flushIntervalMillis) {
+        this.actionDao = actionDao;
+        this.durability = durability;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.flushes = Timer.builder("actions.flushes").register(meterRegistry);
+        this.rejections = Counter.builder("actions.queue.rejections").register(meterRegistry);
+        this.dropped = Counter.builder("actions.dropped").register(meterRegistry);
+        Gauge.builder("actions.queue.size", queueSize, AtomicInteger::get).register(meterRegistry);
+        if (durability == Durability.SYNC) {
+            this.writerThread = null;
+        } else {
+            this.writerThread = new Thread(this::runWriter, "action-log-writer");
+            this.writerThread.setDaemon(true);
+            this.writerThread.start();
+        }
+    }
+
+    /**
+     * Stores an action. Unless the durability mode is <code>SYNC</code>, it may not be in the database yet when this returns
+     *
+     * @param actionEntity Action to store
+     * @throws com.zackmurry.cardtown.exception.InternalServerException If the action is written on the calling thread and a
+     *                                                                  <code>SQLException</code> occurs in the DAO layer
+     */
+    public void write(@NonNull ActionEntity actionEntity) {
+        if (writerThread == null || !running) {
+            actionDao.createAction(actionEntity);
+            return;
+        }
+        // Reserving a slot before adding keeps the queue bounded without locking
+        int size;
+        do {
+            size = queueSize.get();
+            if (size >= capacity) {
+                rejections.increment();
+                actionDao.createAction(actionEntity);
+                return;
+            }
+        } while (!queueSize.compareAndSet(size, size + 1));
+        pendingBySubject.merge(actionEntity.getSubjectId(), 1, Integer::sum);
+        queue.offer(actionEntity);
+        if (size + 1 >= batchSize) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    /**
+     * Waits until every queued action of a subject has been written, so that a user sees what they've just done. The writer
+     * thread is woken to write them, and nothing is written on the calling thread. Returns immediately if the subject has
+     * no queued actions
+     *
+     * @param subjectId Id of the user whose actions should be written
+     * @param timeoutMillis Maximum time to wait
+     * @return Whether the subject's actions were all written in time
+     */
+    public boolean awaitWritten(@NonNull UUID subjectId, long timeoutMillis) {
+        if (writerThread == null || !pendingBySubject.containsKey(subjectId)) {
+            return true;
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (writtenMonitor) {
+            while (pendingBySubject.containsKey(subjectId)) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !writerThread.isAlive()) {
+                    return false;
+                }
+                flushRequested = true;
+                LockSupport.unpark(writerThread);
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(writtenMonitor, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes every queued action on the calling thread
+     */
+    private void flush() {
+        while (flushBatch() > 0) {
+            // Keep going until the queue is empty
+        }
+    }
+
+    /**
+     * @return The number of actions that haven't been written yet
+     */
+    public int getQueueSize() {
+        return queueSize.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (writerThread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos) + 5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (durability == Durability.ASYNC_FLUSH_ON_SHUTDOWN) {
+            flush();
+        } else if (queueSize.get() > 0) {
+            logger.warn("Discarding {} actions that weren't written before shutdown", queueSize.get());
+            dropped.increment(queueSize.get());
+        }
+    }
+
+    private void runWriter() {
+        while (running) {
+            // parkNanos can return early for no reason, so keep waiting until the interval is up or a batch is ready
+            final long deadline = System.nanoTime() + flushIntervalNanos;
+            long remaining;
+            while (running && !flushRequested && queueSize.get() < batchSize && (remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            flushRequested = false;
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                logger.error("Unexpected error while writing actions", e);
+            }
+            synchronized (writtenMonitor) {
+                writtenMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Writes up to <code>batchSize</code> queued actions
+     *
+     * @return The number of actions taken from the queue
+     */
+    private int flushBatch() {
+        final List<ActionEntity> batch = new ArrayList<>(Math.min(batchSize, queueSize.get()));
+        ActionEntity actionEntity;
+        while (batch.size() < batchSize && (actionEntity = queue.poll()) != null) {
+            batch.add(actionEntity);
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        queueSize.addAndGet(-batch.size());
+        try {
+            flushes.record(() -> writeBatch(batch));
+        } finally {
+            // Written or dropped, these actions aren't pending anymore
+            for (ActionEntity written : batch) {
+                pendingBySubject.computeIfPresent(written.getSubjectId(), (subjectId, count) -> count > 1 ? count - 1 : null);
+            }
+        }
+        return batch.size();
+    }
+
+    private void writeBatch(List<ActionEntity> batch) {
+        try {
+            actionDao.createActions(batch);
+        } catch (RuntimeException e) {
+            // One bad action (e.g. one whose card was permanently deleted before it was written) shouldn't lose the whole batch
+            for (ActionEntity actionEntity : batch) {
+                try {
+                    actionDao.createAction(actionEntity);
+                } catch (RuntimeException actionException) {
+                    logger.warn("Dropping action {} by {}", actionEntity.getActionType(), actionEntity.getSubjectId());
+                    dropped.increment();
+                }
+            }
+        }
+    }
+
+}
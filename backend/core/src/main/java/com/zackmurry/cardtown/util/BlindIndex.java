@@ -0,0 +1,140 @@
+package com.zackmurry.cardtown.util;
+
+import org.springframework.lang.NonNull;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Turns the words of a card into tokens that can be searched for without decrypting anything.
+ * <p>
+ * Text is normalized (decomposed, stripped of accents, and lower-cased) and split into words, and each word is hashed with
+ * HMAC-SHA256 under a key derived from the team's (or user's) secret key: HMAC-SHA256(secret key, "cardtown-blind-index-v1").
+ * The first 8 bytes of the hash are the token. Anyone without the key can only tell that two cards share a word, not which
+ * word it is. Tokens from different keys never match, so a team's tokens are useless to everyone else.
+ * <p>
+ * Instances hold a <code>Mac</code>, so they aren't thread-safe
+ */
+public final class BlindIndex {
+
+    public static final int TAG_WEIGHT = 4;
+    public static final int CITE_WEIGHT = 2;
+    public static final int BODY_WEIGHT = 1;
+
+    // Single characters match too much to be worth indexing
+    private static final int MIN_WORD_LENGTH = 2;
+
+    // Longer words are truncated, so that pasted URLs and the like don't need to match exactly
+    private static final int MAX_WORD_LENGTH = 64;
+
+    private static final byte[] KEY_LABEL = "cardtown-blind-index-v1".getBytes(StandardCharsets.UTF_8);
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+    private static final Pattern WORD_SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final Mac mac;
+
+    private BlindIndex(byte[] secretKey) throws GeneralSecurityException {
+        final Mac keyMac = Mac.getInstance("HmacSHA256");
+        keyMac.init(new SecretKeySpec(secretKey, "HmacSHA256"));
+        this.mac = Mac.getInstance("HmacSHA256");
+        this.mac.init(new SecretKeySpec(keyMac.doFinal(KEY_LABEL), "HmacSHA256"));
+    }
+
+    /**
+     * Creates an index for a key
+     *
+     * @param secretKey Secret key of the team (or user) that owns the cards
+     * @return An index whose tokens only match tokens made with the same key
+     * @throws GeneralSecurityException If HMAC-SHA256 is unavailable
+     */
+    public static BlindIndex forKey(@NonNull byte[] secretKey) throws GeneralSecurityException {
+        return new BlindIndex(secretKey);
+    }
+
+    /**
+     * Splits text into normalized words
+     *
+     * @param text Text to split. May be null
+     * @return The words of the text in order, including duplicates
+     */
+    public static List<String> words(String text) {
+        final List<String> words = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return words;
+        }
+        final String normalized = DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFKD)).replaceAll("").toLowerCase(Locale.ROOT);
+        for (String word : WORD_SEPARATORS.split(normalized)) {
+            if (word.length() >= MIN_WORD_LENGTH) {
+                words.add(word.length() > MAX_WORD_LENGTH ? word.substring(0, MAX_WORD_LENGTH) : word);
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Gets the token of a normalized word
+     *
+     * @param word Word from <code>BlindIndex#words</code>
+     * @return The first 8 bytes of the word's keyed hash
+     */
+    public long token(@NonNull String word) {
+        return ByteBuffer.wrap(mac.doFinal(word.getBytes(StandardCharsets.UTF_8))).getLong();
+    }
+
+    /**
+     * Gets the tokens of a card's searchable fields. A token's weight is the sum of the weights of the fields it appears in,
+     * counting each appearance
+     *
+     * @param tag      Decrypted tag
+     * @param cite     Decrypted cite
+     * @param bodyText Decrypted body text
+     * @return A map of token to weight
+     */
+    public Map<Long, Integer> cardTokens(String tag, String cite, String bodyText) {
+        final Map<String, Integer> wordWeights = new HashMap<>();
+        addWords(wordWeights, tag, TAG_WEIGHT);
+        addWords(wordWeights, cite, CITE_WEIGHT);
+        addWords(wordWeights, bodyText, BODY_WEIGHT);
+        final Map<Long, Integer> tokens = new HashMap<>();
+        for (Map.Entry<String, Integer> wordWeight : wordWeights.entrySet()) {
+            // Different words only share a token if their hashes collide, which is harmless (they'd just both match)
+            tokens.merge(token(wordWeight.getKey()), wordWeight.getValue(), Integer::sum);
+        }
+        return tokens;
+    }
+
+    /**
+     * Gets the distinct tokens of a search query
+     *
+     * @param query Query text
+     * @return Tokens of the query's words, without duplicates
+     */
+    public long[] queryTokens(@NonNull String query) {
+        final Set<Long> tokens = new LinkedHashSet<>();
+        for (String word : words(query)) {
+            tokens.add(token(word));
+        }
+        return tokens.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static void addWords(Map<String, Integer> wordWeights, String text, int weight) {
+        for (String word : words(text)) {
+            wordWeights.merge(word, weight, Integer::sum);
+        }
+    }
+
+}
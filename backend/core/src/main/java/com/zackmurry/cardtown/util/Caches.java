@@ -0,0 +1,22 @@
+package com.zackmurry.cardtown.util;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Shared setup of the in-memory caches
+ */
+final class Caches {
+
+    private Caches() {}
+
+    /**
+     * Gets a Caffeine builder for one of the caches. Evictions and other maintenance run on the thread that used the cache
+     * instead of the common fork-join pool, so a cache is already within its bounds when a call that filled it returns
+     *
+     * @return A new builder
+     */
+    static Caffeine<Object, Object> newBuilder() {
+        return Caffeine.newBuilder().executor(Runnable::run);
+    }
+
+}
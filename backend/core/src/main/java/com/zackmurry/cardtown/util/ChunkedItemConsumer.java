@@ -0,0 +1,56 @@
+package com.zackmurry.cardtown.util;
+
+import org.springframework.lang.NonNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects items into chunks of a fixed size before passing them on, so that work which is cheaper in bulk (decrypting
+ * with the <code>DecryptionPool</code>, looking up owners) can still be done on a stream of items.
+ * <code>ChunkedItemConsumer#flush</code> has to be called after the last item to pass on the final, partial chunk
+ *
+ * @param <T> Type of the items
+ */
+public class ChunkedItemConsumer<T> implements ItemConsumer<T> {
+
+    private final int chunkSize;
+
+    private final ItemConsumer<List<T>> chunkConsumer;
+
+    private List<T> chunk;
+
+    /**
+     * @param chunkSize     Number of items in each chunk (except for the last)
+     * @param chunkConsumer Called with each chunk. The list isn't used again afterwards, so it may be modified
+     */
+    public ChunkedItemConsumer(int chunkSize, @NonNull ItemConsumer<List<T>> chunkConsumer) {
+        this.chunkSize = chunkSize;
+        this.chunkConsumer = chunkConsumer;
+        this.chunk = new ArrayList<>(chunkSize);
+    }
+
+    @Override
+    public void accept(T item) throws IOException {
+        chunk.add(item);
+        if (chunk.size() >= chunkSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Passes on the items that haven't been passed on yet, if there are any
+     *
+     * @throws IOException If the chunk consumer throws one
+     */
+    public void flush() throws IOException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        final List<T> full = chunk;
+        chunk = new ArrayList<>(chunkSize);
+        chunkConsumer.accept(full);
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.zackmurry.cardtown.util;
+
+import org.apache.tomcat.util.codec.binary.Base64;
+
+/**
+ * Converts between the ways that an encrypted value is represented.
+ * <p>
+ * Columns that store ciphers as <code>BYTEA</code> hold versioned ciphers: a header byte (<code>CipherText#V1</code>,
+ * <code>CipherText#V2</code>, or <code>CipherText#V2_RECORD</code>) followed by the cipher in that format (see <code>AESContext</code>).
+ * Models keep encrypted values as <code>String</code>s, so versioned ciphers are passed around in a text form: <code>~</code>
+ * followed by the versioned cipher in Base64. Values without the prefix are legacy v1 ciphers in plain Base64, which is
+ * how every column was written before the v2 format. <code>~</code> isn't a Base64 character, so the two can't be confused
+ */
+public final class CipherText {
+
+    public static final byte V1 = 1;
+    public static final byte V2 = 2;
+    // A v2 cipher of several values packed together (see AESContext#encryptRecord)
+    public static final byte V2_RECORD = 3;
+
+    private static final char VERSIONED_PREFIX = '~';
+
+    private CipherText() {}
+
+    /**
+     * @param text An encrypted value in text form
+     * @return Whether the value is a versioned cipher (as opposed to a legacy v1 cipher)
+     */
+    public static boolean isVersioned(String text) {
+        return text != null && !text.isEmpty() && text.charAt(0) == VERSIONED_PREFIX;
+    }
+
+    /**
+     * @param text An encrypted value in text form
+     * @return Whether the value is a record of several values (see <code>AESContext#encryptRecord</code>)
+     */
+    public static boolean isRecord(String text) {
+        // The first four Base64 characters are enough to decode the header byte
+        return isVersioned(text) && text.length() >= 5 && Base64.decodeBase64(text.substring(1, 5))[0] == V2_RECORD;
+    }
+
+    /**
+     * Converts a versioned cipher (i.e. a value from a <code>BYTEA</code> column) to its text form
+     *
+     * @param versioned Versioned cipher. May be <code>null</code>
+     * @return The text form of the cipher, or <code>null</code> if <code>versioned</code> is <code>null</code>
+     */
+    public static String toText(byte[] versioned) {
+        if (versioned == null) {
+            return null;
+        }
+        if (versioned.length == 0) {
+            return "";
+        }
+        return VERSIONED_PREFIX + Base64.encodeBase64String(versioned);
+    }
+
+    /**
+     * Converts an encrypted value in text form to a versioned cipher for storing in a <code>BYTEA</code> column.
+     * Legacy v1 ciphers are given a v1 header
+     *
+     * @param text Encrypted value. May be <code>null</code>
+     * @return The versioned cipher, or <code>null</code> if <code>text</code> is <code>null</code>
+     */
+    public static byte[] toBytes(String text) {
+        if (text == null) {
+            return null;
+        }
+        if (text.isEmpty()) {
+            return new byte[0];
+        }
+        if (isVersioned(text)) {
+            return Base64.decodeBase64(text.substring(1));
+        }
+        final byte[] legacy = Base64.decodeBase64(text);
+        final byte[] versioned = new byte[legacy.length + 1];
+        versioned[0] = V1;
+        System.arraycopy(legacy, 0, versioned, 1, legacy.length);
+        return versioned;
+    }
+
+    /**
+     * @param versioned Versioned cipher
+     * @return Whether the cipher is in the v1 format and should be re-encrypted
+     */
+    public static boolean isLegacy(byte[] versioned) {
+        return versioned != null && versioned.length > 0 && versioned[0] == V1;
+    }
+
+}
@@ -0,0 +1,226 @@
+package com.zackmurry.cardtown.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.stats.ConcurrentStatsCounter;
+import com.github.benmanes.caffeine.cache.stats.StatsCounter;
+import com.zackmurry.cardtown.model.card.CardEntity;
+import com.zackmurry.cardtown.model.card.CardPreviewEntity;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.apache.tomcat.util.codec.binary.Base64;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+/**
+ * A bounded cache of decrypted card contents, so that cards which are viewed often (e.g. the cards in an argument that
+ * a team keeps opening) aren't decrypted on every request.
+ * <p>
+ * Entries are keyed by card id and are only used for the same <code>last_modified</code> that they were decrypted at.
+ * Every change to a card moves <code>last_modified</code> forward, so an entry can't be served after its card changes,
+ * and invalidating one is only about freeing memory. Entries are also scoped by a hash of the key that they were decrypted
+ * with (see <code>DecryptedCardCache#scopeOf</code>), so a user only gets an entry if they hold the same team (or personal) key.
+ * <p>
+ * The cache is bounded by <code>app.card-cache.maximum-weight</code>, roughly the number of bytes that the cached strings
+ * take up, and evicts the entries that are least likely to be used again first. Setting it to 0 disables the cache.
+ * Hits and misses are reported as the <code>cache.gets</code> metric with the tag <code>cache=card</code>
+ */
+@Component
+public class DecryptedCardCache {
+
+    private static final String CACHE_NAME = "card";
+
+    // Rough size of an entry apart from its strings (the entry, its map node, and the string headers)
+    private static final long ENTRY_OVERHEAD = 200;
+
+    private final Cache<UUID, Entry> entries;
+
+    // Recorded by hand, since an entry only counts as a hit if it's for the right version and key
+    private final StatsCounter stats = new ConcurrentStatsCounter();
+
+    public DecryptedCardCache(MeterRegistry meterRegistry,
+                              @Value("${app.card-cache.maximum-weight:67108864}") long maximumWeight) {
+        this.entries = Caches.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher((UUID cardId, Entry entry) -> (int) Math.min(entry.weight, Integer.MAX_VALUE))
+                .recordStats(() -> stats)
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, entries, CACHE_NAME);
+        Gauge.builder("cache.weight", this, DecryptedCardCache::getWeight).tag("cache", CACHE_NAME).register(meterRegistry);
+    }
+
+    /**
+     * Gets the scope of entries decrypted with a key. The key itself is never stored
+     *
+     * @param secretKey Key that cards are decrypted with
+     * @return A hash of the key
+     */
+    public static String scopeOf(@NonNull byte[] secretKey) {
+        try {
+            return Base64.encodeBase64String(MessageDigest.getInstance("SHA-256").digest(secretKey));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Replaces the encrypted fields of a card with its cached, decrypted ones
+     *
+     * @param scope Scope of the key that the card would be decrypted with
+     * @param card  Encrypted card. Its id and last modified time are used to find the entry
+     * @return Whether the card was found (and is now decrypted)
+     */
+    public boolean fill(@NonNull String scope, @NonNull CardEntity card) {
+        final Entry entry = getEntry(scope, card.getId(), card.getLastModified(), true);
+        if (entry == null) {
+            return false;
+        }
+        card.setTag(entry.tag);
+        card.setCite(entry.cite);
+        card.setCiteInformation(entry.citeInformation);
+        card.setBodyHtml(entry.bodyHtml);
+        card.setBodyDraft(entry.bodyDraft);
+        card.setBodyText(entry.bodyText);
+        return true;
+    }
+
+    /**
+     * Replaces the encrypted fields of a card preview with its cached, decrypted ones
+     *
+     * @param scope   Scope of the key that the preview would be decrypted with
+     * @param preview Encrypted preview. Its id and last modified time are used to find the entry
+     * @return Whether the preview was found (and is now decrypted)
+     */
+    public boolean fill(@NonNull String scope, @NonNull CardPreviewEntity preview) {
+        final Entry entry = getEntry(scope, preview.getId(), preview.getLastModified(), false);
+        if (entry == null) {
+            return false;
+        }
+        preview.setTag(entry.tag);
+        preview.setCite(entry.cite);
+        preview.setBodyText(entry.bodyText);
+        return true;
+    }
+
+    /**
+     * Caches a decrypted card
+     *
+     * @param scope Scope of the key that the card was decrypted with
+     * @param card  Decrypted card
+     */
+    public void put(@NonNull String scope, @NonNull CardEntity card) {
+        entries.put(card.getId(), new Entry(scope, card.getOwnerId(), card.getLastModified(), card.getTag(), card.getCite(),
+                card.getCiteInformation(), card.getBodyHtml(), card.getBodyDraft(), card.getBodyText()));
+    }
+
+    /**
+     * Caches a decrypted card preview. A cached full card with the same version isn't replaced, since it can serve
+     * previews too
+     *
+     * @param scope   Scope of the key that the preview was decrypted with
+     * @param preview Decrypted preview
+     */
+    public void put(@NonNull String scope, @NonNull CardPreviewEntity preview) {
+        final Entry entry = new Entry(scope, preview.getOwnerId(), preview.getLastModified(), preview.getTag(),
+                preview.getCite(), null, null, null, preview.getBodyText());
+        entries.asMap().compute(preview.getId(), (cardId, existing) ->
+                existing != null && existing.isFull() && existing.matches(scope, preview.getLastModified()) ? existing : entry);
+    }
+
+    /**
+     * Removes the entry of a card. Should be called when a card changes so that the old version doesn't take up space
+     *
+     * @param cardId Id of card
+     */
+    public void invalidate(@NonNull UUID cardId) {
+        entries.invalidate(cardId);
+    }
+
+    /**
+     * Removes the entries of every card owned by a user. Used when a user leaves a team, since the rest of the team
+     * should stop getting their cards
+     *
+     * @param ownerId Id of owner
+     */
+    public void invalidateOwner(@NonNull UUID ownerId) {
+        entries.asMap().values().removeIf(entry -> ownerId.equals(entry.ownerId));
+    }
+
+    /**
+     * Removes the entries decrypted with a key. Used when a team is deleted
+     *
+     * @param secretKey Key that the entries were decrypted with
+     */
+    public void invalidateKey(@NonNull byte[] secretKey) {
+        final String scope = scopeOf(secretKey);
+        entries.asMap().values().removeIf(entry -> scope.equals(entry.scope));
+    }
+
+    public long size() {
+        return entries.estimatedSize();
+    }
+
+    public long getWeight() {
+        return entries.policy().eviction().orElseThrow().weightedSize().orElse(0);
+    }
+
+    private Entry getEntry(String scope, UUID cardId, long lastModified, boolean full) {
+        // Reads through the map view aren't recorded, so only matching entries count as hits
+        final Entry entry = entries.asMap().get(cardId);
+        if (entry == null || !entry.matches(scope, lastModified) || (full && !entry.isFull())) {
+            stats.recordMisses(1);
+            return null;
+        }
+        stats.recordHits(1);
+        return entry;
+    }
+
+    private static final class Entry {
+
+        private final String scope;
+        private final UUID ownerId;
+        private final long lastModified;
+        private final String tag;
+        private final String cite;
+        // These three are null if only the preview of the card is cached
+        private final String citeInformation;
+        private final String bodyHtml;
+        private final String bodyDraft;
+        private final String bodyText;
+        private final long weight;
+
+        private Entry(String scope, UUID ownerId, long lastModified, String tag, String cite, String citeInformation,
+                      String bodyHtml, String bodyDraft, String bodyText) {
+            this.scope = scope;
+            this.ownerId = ownerId;
+            this.lastModified = lastModified;
+            this.tag = tag;
+            this.cite = cite;
+            this.citeInformation = citeInformation;
+            this.bodyHtml = bodyHtml;
+            this.bodyDraft = bodyDraft;
+            this.bodyText = bodyText;
+            this.weight = ENTRY_OVERHEAD + 2L * (length(tag) + length(cite) + length(citeInformation) + length(bodyHtml) + length(bodyDraft) + length(bodyText));
+        }
+
+        private boolean matches(String scope, long lastModified) {
+            return this.lastModified == lastModified && this.scope.equals(scope);
+        }
+
+        private boolean isFull() {
+            return bodyHtml != null;
+        }
+
+        private static int length(String s) {
+            return s == null ? 0 : s.length();
+        }
+
+    }
+
+}
@@ -0,0 +1,191 @@
+package com.zackmurry.cardtown.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of worker threads for decrypting large lists of entities (and for encrypting them, like when cards are
+ * imported).
+ * <p>
+ * Lists smaller than <code>app.decryption-pool.parallel-threshold</code> are handled on the calling thread, since handing
+ * them off costs more than it saves. Larger lists are split into one chunk per worker, and the calling thread decrypts
+ * the first chunk itself. Workers never read the <code>SecurityContext</code> (it's thread-local), so the key is passed
+ * to them as an <code>AESContext</code>.
+ * <p>
+ * If the queue is full, chunks are decrypted on the calling thread instead of waiting. Saturation shows up in these metrics:
+ * <ul>
+ *     <li><code>decryption.batches</code>: time to decrypt a list, tagged with <code>mode=inline</code> or <code>mode=parallel</code></li>
+ *     <li><code>encryption.batches</code>: the same for encrypting a list</li>
+ *     <li><code>decryption.pool.queue.wait</code>: time that chunks spend waiting for a worker</li>
+ *     <li><code>decryption.pool.queue.size</code> and <code>decryption.pool.active</code>: queued chunks and busy workers</li>
+ *     <li><code>decryption.pool.rejections</code>: chunks run on the calling thread because the queue was full</li>
+ * </ul>
+ */
+@Component
+public class DecryptionPool {
+
+    private final ThreadPoolExecutor executor;
+
+    private final int parallelThreshold;
+
+    private final int threads;
+
+    private final Timer inlineBatches;
+
+    private final Timer parallelBatches;
+
+    private final Timer inlineEncryptionBatches;
+
+    private final Timer parallelEncryptionBatches;
+
+    private final Timer queueWait;
+
+    private final Counter rejections;
+
+    public DecryptionPool(MeterRegistry meterRegistry,
+                          @Value("${app.decryption-pool.threads:0}") int threads,
+                          @Value("${app.decryption-pool.queue-capacity:256}") int queueCapacity,
+                          @Value("${app.decryption-pool.parallel-threshold:64}") int parallelThreshold) {
+        // AES is CPU-bound, so there's no point in having more workers than cores
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.parallelThreshold = parallelThreshold;
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.rejections = Counter.builder("decryption.pool.rejections").register(meterRegistry);
+        this.executor = new ThreadPoolExecutor(
+                this.threads,
+                this.threads,
+                0,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, "decryption-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, executor) -> {
+                    rejections.increment();
+                    if (!executor.isShutdown()) {
+                        runnable.run();
+                    }
+                }
+        );
+        this.inlineBatches = Timer.builder("decryption.batches").tag("mode", "inline").register(meterRegistry);
+        this.parallelBatches = Timer.builder("decryption.batches").tag("mode", "parallel").register(meterRegistry);
+        this.inlineEncryptionBatches = Timer.builder("encryption.batches").tag("mode", "inline").register(meterRegistry);
+        this.parallelEncryptionBatches = Timer.builder("encryption.batches").tag("mode", "parallel").register(meterRegistry);
+        this.queueWait = Timer.builder("decryption.pool.queue.wait").register(meterRegistry);
+        Gauge.builder("decryption.pool.queue.size", executor, e -> e.getQueue().size()).register(meterRegistry);
+        Gauge.builder("decryption.pool.active", executor, ThreadPoolExecutor::getActiveCount).register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Decrypts every item of a list, in parallel if the list is large enough
+     *
+     * @param items     Items to decrypt (in place)
+     * @param aes       Context of the key to decrypt with
+     * @param decryptor Decrypts a single item
+     * @param <T>       Type of the items
+     * @throws Exception The first exception thrown by <code>decryptor</code>, if any
+     */
+    public <T> void decryptAll(@NonNull List<T> items, @NonNull AESContext aes, @NonNull Decryptor<T> decryptor) throws Exception {
+        runAll(items, aes, decryptor::decrypt, inlineBatches, parallelBatches);
+    }
+
+    /**
+     * Encrypts every item of a list, in parallel if the list is large enough
+     *
+     * @param items     Items to encrypt (in place)
+     * @param aes       Context of the key to encrypt with
+     * @param encryptor Encrypts a single item
+     * @param <T>       Type of the items
+     * @throws Exception The first exception thrown by <code>encryptor</code>, if any
+     */
+    public <T> void encryptAll(@NonNull List<T> items, @NonNull AESContext aes, @NonNull Encryptor<T> encryptor) throws Exception {
+        runAll(items, aes, encryptor::encrypt, inlineEncryptionBatches, parallelEncryptionBatches);
+    }
+
+    private <T> void runAll(List<T> items, AESContext aes, Task<T> task, Timer inlineTimer, Timer parallelTimer) throws Exception {
+        if (items.size() < parallelThreshold || threads < 2) {
+            final long start = System.nanoTime();
+            runRange(items, 0, items.size(), aes, task);
+            inlineTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final int chunkSize = (items.size() + threads - 1) / threads;
+        final List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int from = chunkSize; from < items.size(); from += chunkSize) {
+                final int chunkStart = from;
+                final int chunkEnd = Math.min(from + chunkSize, items.size());
+                final long submittedAt = System.nanoTime();
+                futures.add(executor.submit(() -> {
+                    queueWait.record(System.nanoTime() - submittedAt, TimeUnit.NANOSECONDS);
+                    runRange(items, chunkStart, chunkEnd, aes, task);
+                    return null;
+                }));
+            }
+            // The calling thread would be waiting anyway, so it takes the first chunk
+            runRange(items, 0, Math.min(chunkSize, items.size()), aes, task);
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            // Stop any chunks that are still queued if an item failed
+            for (Future<?> future : futures) {
+                future.cancel(false);
+            }
+            parallelTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static <T> void runRange(List<T> items, int from, int to, AESContext aes, Task<T> task) throws Exception {
+        for (int i = from; i < to; i++) {
+            task.run(items.get(i), aes);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Decryptor<T> {
+
+        void decrypt(T item, AESContext aes) throws Exception;
+
+    }
+
+    @FunctionalInterface
+    public interface Encryptor<T> {
+
+        void encrypt(T item, AESContext aes) throws Exception;
+
+    }
+
+    private interface Task<T> {
+
+        void run(T item, AESContext aes) throws Exception;
+
+    }
+
+}
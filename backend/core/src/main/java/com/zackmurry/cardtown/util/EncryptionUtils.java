@@ -4,12 +4,10 @@ package com.zackmurry.cardtown.util;
 import org.apache.tomcat.util.codec.binary.Base64;
 import org.springframework.stereotype.Component;
 
-import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
@@ -76,61 +74,24 @@ public class EncryptionUtils {
         return keyGenerator.generateKey();
     }
 
-    // from https://gist.github.com/itarato/abef95871756970a9dad
+    /**
+     * Creates a context for encrypting and decrypting with a key. The AES key is only derived once per context,
+     * so this should be used instead of the static methods when working with more than one value
+     *
+     * @param secretKey Secret key for AES
+     * @return A reusable context for the key
+     * @throws GeneralSecurityException If SHA-256 is unavailable
+     */
+    public static AESContext forKey(byte[] secretKey) throws GeneralSecurityException {
+        return new AESContext(secretKey);
+    }
 
     public static byte[] encryptAES(byte[] plainText, byte[] key) throws Exception {
-        // Generating IV.
-        int ivSize = 16;
-        byte[] iv = new byte[ivSize];
-        SecureRandom random = new SecureRandom();
-        random.nextBytes(iv);
-        IvParameterSpec ivParameterSpec = new IvParameterSpec(iv);
-
-        // Hashing key.
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        digest.update(key);
-        byte[] keyBytes = new byte[16];
-        System.arraycopy(digest.digest(), 0, keyBytes, 0, keyBytes.length);
-        SecretKeySpec secretKeySpec = new SecretKeySpec(keyBytes, "AES");
-
-        // Encrypt.
-        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-        cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec, ivParameterSpec);
-        byte[] encrypted = cipher.doFinal(plainText);
-
-        // Combine IV and encrypted part.
-        byte[] encryptedIVAndText = new byte[ivSize + encrypted.length];
-        System.arraycopy(iv, 0, encryptedIVAndText, 0, ivSize);
-        System.arraycopy(encrypted, 0, encryptedIVAndText, ivSize, encrypted.length);
-
-        return encryptedIVAndText;
+        return forKey(key).encrypt(plainText);
     }
 
     public static byte[] decryptAES(byte[] cipher, byte[] key) throws Exception {
-        int ivSize = 16;
-        int keySize = 16;
-
-        // Extract IV.
-        byte[] iv = new byte[ivSize];
-        System.arraycopy(cipher, 0, iv, 0, iv.length);
-        IvParameterSpec ivParameterSpec = new IvParameterSpec(iv);
-
-        // Extract encrypted part.
-        int encryptedSize = cipher.length - ivSize;
-        byte[] encryptedBytes = new byte[encryptedSize];
-        System.arraycopy(cipher, ivSize, encryptedBytes, 0, encryptedSize);
-
-        // Hash key.
-        byte[] keyBytes = new byte[keySize];
-        MessageDigest md = MessageDigest.getInstance("SHA-256");
-        md.update(key);
-        System.arraycopy(md.digest(), 0, keyBytes, 0, keyBytes.length);
-        SecretKeySpec secretKeySpec = new SecretKeySpec(keyBytes, "AES");
-
-        // Decrypt.
-        Cipher cipherDecrypt = Cipher.getInstance("AES/CBC/PKCS5Padding");
-        cipherDecrypt.init(Cipher.DECRYPT_MODE, secretKeySpec, ivParameterSpec);
-        return cipherDecrypt.doFinal(encryptedBytes);
+        return forKey(key).decrypt(cipher);
     }
 
     /**
@@ -142,7 +103,7 @@ public class EncryptionUtils {
      * @throws Exception if something goes wrong, like a bad secret key
      */
     public static String encryptStringAES(String plainText, byte[] secretKey) throws Exception {
-        return Base64.encodeBase64String(encryptAES(plainText.getBytes(StandardCharsets.UTF_8), secretKey));
+        return forKey(secretKey).encryptString(plainText);
     }
 
     /**
@@ -153,7 +114,7 @@ public class EncryptionUtils {
      * @return output in hex
      */
     public static String decryptStringAES(String cipher, byte[] secretKey) throws Exception {
-        return new String(decryptAES(Base64.decodeBase64(cipher), secretKey), StandardCharsets.UTF_8);
+        return forKey(secretKey).decryptString(cipher);
     }
 
 }
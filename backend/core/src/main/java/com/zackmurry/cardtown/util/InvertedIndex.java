@@ -0,0 +1,600 @@
+package com.zackmurry.cardtown.util;
+
+import org.springframework.lang.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An in-memory full-text index of the decrypted cards, arguments, and analytics of a team (or of a user without a team).
+ * <p>
+ * Words are normalized the same way as in <code>BlindIndex</code>. Every word gets a term number, and every term keeps its
+ * postings as two parallel <code>int</code> arrays (document numbers, which are only ever appended in increasing order, and
+ * the weighted frequency of the term in each document), so a posting takes 8 bytes. Documents also keep their sequence of
+ * term numbers for matching phrases.
+ * <p>
+ * Queries match documents that contain every clause, where a clause is a word, a prefix (<code>word*</code>), or a quoted
+ * phrase. Matches are ranked with BM25, with words in tags and names weighted over cites and bodies.
+ * <p>
+ * Replacing or removing a document leaves its postings behind until the index is compacted, which happens when more than
+ * half of the documents are dead. Thread-safe: searches share a read lock and changes take a write lock
+ */
+public final class InvertedIndex {
+
+    public enum DocumentType {
+        CARD,
+        ARGUMENT,
+        ANALYTIC
+    }
+
+    // BM25 parameters: term frequency saturation and length normalization
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    // Goes between the fields of a document's term sequence so that phrases can't span two fields
+    private static final int FIELD_BREAK = -1;
+
+    // A prefix like "a*" could match most of the dictionary, so only this many terms are expanded
+    private static final int MAX_PREFIX_TERMS = 256;
+
+    // Compacting small indexes saves too little to be worth it
+    private static final int MIN_DEAD_TO_COMPACT = 1024;
+
+    private static final int[] CARD_WEIGHTS = { BlindIndex.TAG_WEIGHT, BlindIndex.CITE_WEIGHT, BlindIndex.BODY_WEIGHT };
+
+    private static final int[] ARGUMENT_WEIGHTS = { BlindIndex.TAG_WEIGHT };
+
+    private static final int[] ANALYTIC_WEIGHTS = { BlindIndex.BODY_WEIGHT };
+
+    private static final Pattern CLAUSE = Pattern.compile("\"([^\"]*)\"?|(\\S+)");
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Everything below is guarded by lock
+
+    // Sorted so that prefixes can be expanded with a range lookup
+    private final TreeMap<String, Integer> terms = new TreeMap<>();
+
+    private final List<Postings> postings = new ArrayList<>();
+
+    // Indexed by document number. Null once a document is removed or replaced
+    private final List<Document> documents = new ArrayList<>();
+
+    private final Map<UUID, Integer> documentNumbers = new HashMap<>();
+
+    private long totalLength;
+
+    private int deadCount;
+
+    /**
+     * Adds a card, replacing it if it's already in the index
+     *
+     * @param id       Id of card
+     * @param tag      Decrypted tag
+     * @param cite     Decrypted cite
+     * @param bodyText Decrypted body text
+     * @param deleted  Whether the card is deleted (it's kept, but not returned from searches)
+     */
+    public void putCard(@NonNull UUID id, String tag, String cite, String bodyText, boolean deleted) {
+        put(id, DocumentType.CARD, null, deleted, new String[] { tag, cite, bodyText }, CARD_WEIGHTS);
+    }
+
+    /**
+     * Replaces the contents of a card (or adds it), keeping whether it's hidden
+     *
+     * @param id       Id of card
+     * @param tag      Decrypted tag
+     * @param cite     Decrypted cite
+     * @param bodyText Decrypted body text
+     */
+    public void updateCard(@NonNull UUID id, String tag, String cite, String bodyText) {
+        put(id, DocumentType.CARD, null, null, new String[] { tag, cite, bodyText }, CARD_WEIGHTS);
+    }
+
+    /**
+     * Adds an argument, replacing it if it's already in the index
+     *
+     * @param id      Id of argument
+     * @param name    Decrypted name
+     * @param deleted Whether the argument is deleted. Analytics in deleted arguments aren't returned from searches either
+     */
+    public void putArgument(@NonNull UUID id, String name, boolean deleted) {
+        put(id, DocumentType.ARGUMENT, null, deleted, new String[] { name }, ARGUMENT_WEIGHTS);
+    }
+
+    /**
+     * Replaces the name of an argument (or adds it), keeping whether it's hidden
+     *
+     * @param id   Id of argument
+     * @param name Decrypted name
+     */
+    public void renameArgument(@NonNull UUID id, String name) {
+        put(id, DocumentType.ARGUMENT, null, null, new String[] { name }, ARGUMENT_WEIGHTS);
+    }
+
+    /**
+     * Adds an analytic, replacing it if it's already in the index
+     *
+     * @param id         Id of analytic
+     * @param argumentId Id of the argument that the analytic is in
+     * @param body       Decrypted body
+     */
+    public void putAnalytic(@NonNull UUID id, @NonNull UUID argumentId, String body) {
+        put(id, DocumentType.ANALYTIC, argumentId, false, new String[] { body }, ANALYTIC_WEIGHTS);
+    }
+
+    /**
+     * Hides a document from searches (or shows it again) without removing it, e.g. when a card is deleted
+     *
+     * @param id     Id of document
+     * @param hidden Whether to hide the document
+     */
+    public void setHidden(@NonNull UUID id, boolean hidden) {
+        lock.writeLock().lock();
+        try {
+            final Integer number = documentNumbers.get(id);
+            if (number != null) {
+                documents.get(number).hidden = hidden;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a document
+     *
+     * @param id Id of document
+     */
+    public void remove(@NonNull UUID id) {
+        lock.writeLock().lock();
+        try {
+            removeDocument(id);
+            compactIfSparse();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes an argument along with its analytics
+     *
+     * @param argumentId Id of argument
+     */
+    public void removeArgument(@NonNull UUID argumentId) {
+        lock.writeLock().lock();
+        try {
+            removeDocument(argumentId);
+            final List<UUID> analyticIds = new ArrayList<>();
+            for (Document document : documents) {
+                if (document != null && argumentId.equals(document.parentId)) {
+                    analyticIds.add(document.id);
+                }
+            }
+            analyticIds.forEach(this::removeDocument);
+            compactIfSparse();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The number of documents in the index, including hidden ones
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documentNumbers.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the documents that match a query, best match first. Hidden documents (and analytics in hidden arguments) are left out
+     *
+     * @param query Words, prefixes (<code>word*</code>), and quoted phrases, all of which have to match
+     * @param limit Maximum number of results
+     * @return The matching documents, ordered by score
+     */
+    public List<Hit> search(@NonNull String query, int limit) {
+        final List<Clause> clauses = parse(query);
+        if (clauses.isEmpty() || limit < 1) {
+            return new ArrayList<>();
+        }
+        lock.readLock().lock();
+        try {
+            final int documentCount = documents.size();
+            final int liveCount = documentNumbers.size();
+            final float averageLength = liveCount == 0 ? 1 : Math.max(1, (float) totalLength / liveCount);
+            final float[] scores = new float[documentCount];
+            // The number of clauses that each document has matched so far. A document can only match clause i if it
+            // matched every clause before it, which is what makes this an AND
+            final int[] matched = new int[documentCount];
+            for (int i = 0; i < clauses.size(); i++) {
+                final int[][] positions = resolve(clauses.get(i));
+                if (positions == null) {
+                    return new ArrayList<>();
+                }
+                if (positions.length == 1) {
+                    matchTerms(positions[0], i, scores, matched, liveCount, averageLength);
+                } else {
+                    matchPhrase(positions, i, scores, matched, liveCount, averageLength);
+                }
+            }
+
+            final PriorityQueue<Hit> top = new PriorityQueue<>(Comparator.comparingDouble(Hit::getScore));
+            for (int number = 0; number < documentCount; number++) {
+                if (matched[number] != clauses.size()) {
+                    continue;
+                }
+                final Document document = documents.get(number);
+                if (document == null || document.hidden || isParentHidden(document)) {
+                    continue;
+                }
+                if (top.size() < limit) {
+                    top.add(new Hit(document.id, document.type, document.parentId, scores[number]));
+                } else if (scores[number] > top.peek().getScore()) {
+                    top.poll();
+                    top.add(new Hit(document.id, document.type, document.parentId, scores[number]));
+                }
+            }
+            final List<Hit> hits = new ArrayList<>(top);
+            hits.sort(Comparator.comparingDouble(Hit::getScore).reversed());
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param hidden Whether to hide the document, or null to keep whether the document it replaces was hidden
+     */
+    private void put(UUID id, DocumentType type, UUID parentId, Boolean hidden, String[] fields, int[] fieldWeights) {
+        lock.writeLock().lock();
+        try {
+            final Integer replaced = documentNumbers.get(id);
+            final boolean hide = hidden != null ? hidden : replaced != null && documents.get(replaced).hidden;
+            removeDocument(id);
+            final int number = documents.size();
+            final IntList sequence = new IntList();
+            final Map<Integer, Integer> termWeights = new HashMap<>();
+            int length = 0;
+            for (int i = 0; i < fields.length; i++) {
+                if (i > 0) {
+                    sequence.add(FIELD_BREAK);
+                }
+                for (String word : BlindIndex.words(fields[i])) {
+                    final int term = terms.computeIfAbsent(word, w -> {
+                        postings.add(new Postings());
+                        return postings.size() - 1;
+                    });
+                    sequence.add(term);
+                    termWeights.merge(term, fieldWeights[i], Integer::sum);
+                    length += fieldWeights[i];
+                }
+            }
+            for (Map.Entry<Integer, Integer> termWeight : termWeights.entrySet()) {
+                postings.get(termWeight.getKey()).add(number, termWeight.getValue());
+            }
+            documents.add(new Document(id, type, parentId, sequence.toArray(), length, hide));
+            documentNumbers.put(id, number);
+            totalLength += length;
+            compactIfSparse();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Requires the write lock
+    private void removeDocument(UUID id) {
+        final Integer number = documentNumbers.remove(id);
+        if (number == null) {
+            return;
+        }
+        totalLength -= documents.get(number).length;
+        documents.set(number, null);
+        deadCount++;
+    }
+
+    /**
+     * Renumbers the live documents and drops the postings of dead ones, if dead documents make up most of the index.
+     * Requires the write lock
+     */
+    private void compactIfSparse() {
+        if (deadCount < MIN_DEAD_TO_COMPACT || deadCount <= documentNumbers.size()) {
+            return;
+        }
+        final int[] renumbered = new int[documents.size()];
+        final List<Document> liveDocuments = new ArrayList<>(documentNumbers.size());
+        for (int number = 0; number < documents.size(); number++) {
+            final Document document = documents.get(number);
+            if (document == null) {
+                renumbered[number] = -1;
+            } else {
+                renumbered[number] = liveDocuments.size();
+                documentNumbers.put(document.id, liveDocuments.size());
+                liveDocuments.add(document);
+            }
+        }
+        // Renumbering keeps the order of documents, so postings stay sorted
+        for (Postings termPostings : postings) {
+            termPostings.renumber(renumbered);
+        }
+        documents.clear();
+        documents.addAll(liveDocuments);
+        deadCount = 0;
+    }
+
+    /**
+     * Looks up the terms that can appear at each position of a clause
+     *
+     * @return One array of term numbers per word of the clause, or null if some word isn't in the index
+     */
+    private int[][] resolve(Clause clause) {
+        final int[][] positions = new int[clause.words.size()][];
+        for (int i = 0; i < positions.length; i++) {
+            final String word = clause.words.get(i);
+            if (clause.prefix && i == positions.length - 1) {
+                positions[i] = terms.subMap(word, true, word + Character.MAX_VALUE, false).values().stream()
+                        .limit(MAX_PREFIX_TERMS)
+                        .mapToInt(Integer::intValue)
+                        .toArray();
+            } else {
+                final Integer term = terms.get(word);
+                positions[i] = term == null ? new int[0] : new int[] { term };
+            }
+            if (positions[i].length == 0) {
+                return null;
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Matches a clause of a single word (or a prefix, which is any one of several terms)
+     */
+    private void matchTerms(int[] clauseTerms, int clause, float[] scores, int[] matched, int liveCount, float averageLength) {
+        for (int term : clauseTerms) {
+            final Postings termPostings = postings.get(term);
+            final float idf = idf(termPostings.size, liveCount);
+            for (int i = 0; i < termPostings.size; i++) {
+                final int number = termPostings.documents[i];
+                // Documents that already matched this clause through another term of the prefix are still scored for it
+                if (matched[number] == clause) {
+                    matched[number] = clause + 1;
+                } else if (matched[number] != clause + 1) {
+                    continue;
+                }
+                final Document document = documents.get(number);
+                if (document != null) {
+                    scores[number] += score(idf, termPostings.weights[i], document.length, averageLength);
+                }
+            }
+        }
+    }
+
+    /**
+     * Matches a quoted phrase (or a query word with punctuation in it, like "cap-and-trade"). Candidates are the documents
+     * with the phrase's first word, which are then checked for the whole phrase in their term sequence
+     */
+    private void matchPhrase(int[][] positions, int clause, float[] scores, int[] matched, int liveCount, float averageLength) {
+        final Postings firstPostings = postings.get(positions[0][0]);
+        for (int i = 0; i < firstPostings.size; i++) {
+            final int number = firstPostings.documents[i];
+            if (matched[number] != clause) {
+                continue;
+            }
+            final Document document = documents.get(number);
+            if (document == null || !containsPhrase(document.sequence, positions)) {
+                continue;
+            }
+            matched[number] = clause + 1;
+            for (int[] position : positions) {
+                // Only the first term of a prefix is scored; it's rare for a phrase to end in more than one of them
+                for (int term : position) {
+                    final Postings termPostings = postings.get(term);
+                    final int weight = termPostings.weightOf(number);
+                    if (weight > 0) {
+                        scores[number] += score(idf(termPostings.size, liveCount), weight, document.length, averageLength);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isParentHidden(Document document) {
+        if (document.parentId == null) {
+            return false;
+        }
+        final Integer parentNumber = documentNumbers.get(document.parentId);
+        return parentNumber != null && documents.get(parentNumber).hidden;
+    }
+
+    private static boolean containsPhrase(int[] sequence, int[][] positions) {
+        for (int start = 0; start + positions.length <= sequence.length; start++) {
+            int i = 0;
+            while (i < positions.length && contains(positions[i], sequence[start + i])) {
+                i++;
+            }
+            if (i == positions.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(int[] terms, int term) {
+        for (int t : terms) {
+            if (t == term) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static float idf(int documentFrequency, int documentCount) {
+        // Postings of dead documents are counted until compaction, so the frequency can be higher than the document count
+        return (float) Math.log(1 + (Math.max(0, documentCount - documentFrequency) + 0.5) / (documentFrequency + 0.5));
+    }
+
+    private static float score(float idf, int weight, int length, float averageLength) {
+        return idf * weight * (K1 + 1) / (weight + K1 * (1 - B + B * length / averageLength));
+    }
+
+    /**
+     * Splits a query into clauses. Quoted text is a phrase, as is an unquoted word that normalizes to several words
+     * (e.g. "cap-and-trade"), and a trailing <code>*</code> makes the last word of an unquoted clause a prefix
+     */
+    static List<Clause> parse(String query) {
+        final List<Clause> clauses = new ArrayList<>();
+        final Matcher matcher = CLAUSE.matcher(query);
+        while (matcher.find()) {
+            final boolean quoted = matcher.group(1) != null;
+            final String text = quoted ? matcher.group(1) : matcher.group(2);
+            final List<String> words = BlindIndex.words(text);
+            if (!words.isEmpty()) {
+                clauses.add(new Clause(words, !quoted && text.endsWith("*")));
+            }
+        }
+        return clauses;
+    }
+
+    public static final class Hit {
+
+        private final UUID id;
+        private final DocumentType type;
+        private final UUID parentId;
+        private final float score;
+
+        private Hit(UUID id, DocumentType type, UUID parentId, float score) {
+            this.id = id;
+            this.type = type;
+            this.parentId = parentId;
+            this.score = score;
+        }
+
+        public UUID getId() {
+            return id;
+        }
+
+        public DocumentType getType() {
+            return type;
+        }
+
+        /**
+         * @return The id of the argument that an analytic is in, or null for other documents
+         */
+        public UUID getParentId() {
+            return parentId;
+        }
+
+        public float getScore() {
+            return score;
+        }
+
+    }
+
+    static final class Clause {
+
+        private final List<String> words;
+        private final boolean prefix;
+
+        private Clause(List<String> words, boolean prefix) {
+            this.words = words;
+            this.prefix = prefix;
+        }
+
+    }
+
+    private static final class Document {
+
+        private final UUID id;
+        private final DocumentType type;
+        private final UUID parentId;
+        private final int[] sequence;
+        private final int length;
+        private boolean hidden;
+
+        private Document(UUID id, DocumentType type, UUID parentId, int[] sequence, int length, boolean hidden) {
+            this.id = id;
+            this.type = type;
+            this.parentId = parentId;
+            this.sequence = sequence;
+            this.length = length;
+            this.hidden = hidden;
+        }
+
+    }
+
+    private static final class Postings {
+
+        private int[] documents = new int[2];
+        private int[] weights = new int[2];
+        private int size;
+
+        private void add(int document, int weight) {
+            if (size == documents.length) {
+                documents = Arrays.copyOf(documents, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            documents[size] = document;
+            weights[size] = weight;
+            size++;
+        }
+
+        private int weightOf(int document) {
+            final int i = Arrays.binarySearch(documents, 0, size, document);
+            return i < 0 ? 0 : weights[i];
+        }
+
+        private void renumber(int[] renumbered) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                final int document = renumbered[documents[i]];
+                if (document >= 0) {
+                    documents[kept] = document;
+                    weights[kept] = weights[i];
+                    kept++;
+                }
+            }
+            size = kept;
+            if (size < documents.length / 4) {
+                documents = Arrays.copyOf(documents, Math.max(2, size));
+                weights = Arrays.copyOf(weights, Math.max(2, size));
+            }
+        }
+
+    }
+
+    private static final class IntList {
+
+        private int[] values = new int[16];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+
+    }
+
+}
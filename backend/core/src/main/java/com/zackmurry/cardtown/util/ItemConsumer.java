@@ -0,0 +1,16 @@
+package com.zackmurry.cardtown.util;
+
+import java.io.IOException;
+
+/**
+ * Receives the items of a list one at a time, so that the whole list never has to be in memory.
+ * Throws <code>IOException</code> since items are usually written to a response as they arrive
+ *
+ * @param <T> Type of the items
+ */
+@FunctionalInterface
+public interface ItemConsumer<T> {
+
+    void accept(T item) throws IOException;
+
+}
@@ -1,5 +1,6 @@
 package com.zackmurry.cardtown.util;
 
+import com.zackmurry.cardtown.model.auth.JwtClaims;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.ExpiredJwtException;
 import io.jsonwebtoken.Jwts;
@@ -17,6 +18,38 @@ public class JwtUtil {
 
     private static final String SECRET_KEY = System.getenv("CARDTOWN_JWT_SECRET_KEY");
 
+    /**
+     * Verifies the signature of a jwt and reads all of the claims that the application uses, parsing the token only once
+     *
+     * @param token Jwt to parse
+     * @return The claims of the jwt
+     * @throws io.jsonwebtoken.MalformedJwtException If the token is not a valid jwt
+     * @throws io.jsonwebtoken.SignatureException    If the token's signature is invalid
+     * @throws ExpiredJwtException                   If the token is expired
+     */
+    public JwtClaims parseToken(String token) {
+        final Claims claims = extractAllClaims(token);
+        final Date expiration = claims.getExpiration();
+        return new JwtClaims(
+                claims.getSubject(),
+                claims.get("ek", String.class),
+                claims.get("f_name", String.class),
+                claims.get("l_name", String.class),
+                expiration == null ? Long.MAX_VALUE : expiration.getTime()
+        );
+    }
+
+    /**
+     * Checks that already parsed claims belong to a user and haven't expired
+     *
+     * @param claims      Claims of the jwt, from <code>JwtUtil#parseToken</code>
+     * @param userDetails User that the jwt should belong to
+     * @return Whether the jwt is valid for the user
+     */
+    public boolean validateClaims(JwtClaims claims, UserDetails userDetails) {
+        return claims.getSubject() != null && claims.getSubject().equals(userDetails.getUsername()) && !claims.isExpired();
+    }
+
     public String extractSubject(String token) throws ExpiredJwtException {
         return extractClaim(token, Claims::getSubject);
     }
@@ -0,0 +1,219 @@
+package com.zackmurry.cardtown.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.zackmurry.cardtown.model.auth.UserModel;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Holds an <code>InvertedIndex</code> for each library (a team's, or a user's if they aren't in a team) that has been searched recently.
+ * <p>
+ * An index is built by <code>SearchService</code> the first time someone searches a library, and is kept up to date by the
+ * services that change cards, arguments, and analytics (through <code>LibraryIndexCache#update</code>). Indexes that haven't
+ * been searched for <code>app.search-index.idle-minutes</code> are evicted, and at most <code>app.search-index.maximum-size</code>
+ * are kept. Searches of a library that arrive while its index is being built wait for that build instead of starting
+ * their own. Anything that changes which key a library is decrypted with (joining or leaving a team) has to invalidate
+ * the affected libraries.
+ * <p>
+ * Hits and misses are reported as the <code>cache.gets</code> metric with the tag <code>cache=search-index</code>
+ */
+@Component
+public class LibraryIndexCache {
+
+    private static final String CACHE_NAME = "search-index";
+
+    private final Cache<UUID, InvertedIndex> indexes;
+
+    // Indexes that are being built. A change to a library while its index is being built makes the build stale
+    private final Set<Build> builds = ConcurrentHashMap.newKeySet();
+
+    // Results of the builds in progress, by library, for the searches waiting on them
+    private final Map<UUID, CompletableFuture<InvertedIndex>> pendingIndexes = new ConcurrentHashMap<>();
+
+    private final boolean enabled;
+
+    public LibraryIndexCache(MeterRegistry meterRegistry,
+                             @Value("${app.search-index.enabled:true}") boolean enabled,
+                             @Value("${app.search-index.idle-minutes:15}") long idleMinutes,
+                             @Value("${app.search-index.maximum-size:100}") int maximumSize) {
+        this.enabled = enabled;
+        this.indexes = Caches.newBuilder()
+                .expireAfterAccess(Duration.ofMinutes(idleMinutes))
+                .maximumSize(enabled ? maximumSize : 0)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, indexes, CACHE_NAME);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Gets the library that a user searches: their team's if they're in one; else: their own
+     *
+     * @param principal User
+     * @return The id of the user's team, or the id of the user
+     */
+    public static UUID scopeOf(@NonNull UserModel principal) {
+        if (principal.getTeamSecretKey() != null && principal.getTeamId() != null && principal.getTeamId().isPresent()) {
+            return principal.getTeamId().get();
+        }
+        return principal.getId();
+    }
+
+    /**
+     * Gets the index of a library, marking it as used
+     *
+     * @param scope Id of team or user (see <code>LibraryIndexCache#scopeOf</code>)
+     * @return If cached: an <code>Optional</code> containing the index; else: <code>Optional.empty()</code>
+     */
+    public Optional<InvertedIndex> get(@NonNull UUID scope) {
+        return Optional.ofNullable(indexes.getIfPresent(scope));
+    }
+
+    /**
+     * Gets the index of a library, building it if it isn't cached. If another thread is already building it, this waits
+     * for that build instead of starting another one
+     *
+     * @param scope   Id of team or user (see <code>LibraryIndexCache#scopeOf</code>)
+     * @param builder Builds the index (and caches it with <code>LibraryIndexCache#beginBuild</code> and <code>LibraryIndexCache#put</code>).
+     *                Only called on this thread
+     * @return The index of the library
+     */
+    public InvertedIndex getOrBuild(@NonNull UUID scope, @NonNull Supplier<InvertedIndex> builder) {
+        final Optional<InvertedIndex> cached = get(scope);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        final CompletableFuture<InvertedIndex> future = new CompletableFuture<>();
+        final CompletableFuture<InvertedIndex> pending = pendingIndexes.putIfAbsent(scope, future);
+        if (pending != null) {
+            try {
+                return pending.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        try {
+            // Another build may have finished between checking the cache and registering this one
+            InvertedIndex index = indexes.policy().getIfPresentQuietly(scope);
+            if (index == null) {
+                index = builder.get();
+            }
+            future.complete(index);
+            return index;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            pendingIndexes.remove(scope, future);
+        }
+    }
+
+    /**
+     * Registers an index that's about to be built. This should be called before reading anything from the database
+     *
+     * @param scope Library that the index is for
+     * @return A token to pass to <code>LibraryIndexCache#put</code>
+     */
+    public Build beginBuild(@NonNull UUID scope) {
+        final Build build = new Build(scope);
+        builds.add(build);
+        return build;
+    }
+
+    /**
+     * Caches a newly built index. The index isn't cached if its library changed while it was being built, since
+     * the change may be missing from it
+     *
+     * @param build Result of <code>LibraryIndexCache#beginBuild</code> from before the index was built
+     * @param index Index to cache
+     */
+    public void put(@NonNull Build build, @NonNull InvertedIndex index) {
+        try {
+            if (!enabled || build.stale) {
+                return;
+            }
+            indexes.put(build.scope, index);
+        } finally {
+            builds.remove(build);
+        }
+        // If the library changed between checking for staleness and caching the index, the index may be missing the change
+        if (build.stale) {
+            indexes.invalidate(build.scope);
+        }
+    }
+
+    /**
+     * Forgets about a build that failed
+     *
+     * @param build Result of <code>LibraryIndexCache#beginBuild</code>
+     */
+    public void cancel(@NonNull Build build) {
+        builds.remove(build);
+    }
+
+    /**
+     * Applies a change to the index of a library, if it's cached
+     *
+     * @param scope  Library that changed
+     * @param change Change to apply
+     */
+    public void update(@NonNull UUID scope, @NonNull Consumer<InvertedIndex> change) {
+        markBuildsStale(scope);
+        // Changes aren't searches, so they don't keep an index from being evicted
+        final InvertedIndex index = indexes.policy().getIfPresentQuietly(scope);
+        if (index != null) {
+            change.accept(index);
+        }
+    }
+
+    /**
+     * Removes the index of a library
+     *
+     * @param scope Id of team or user
+     */
+    public void invalidate(@NonNull UUID scope) {
+        markBuildsStale(scope);
+        indexes.invalidate(scope);
+    }
+
+    public long size() {
+        return indexes.estimatedSize();
+    }
+
+    private void markBuildsStale(UUID scope) {
+        for (Build build : builds) {
+            if (build.scope.equals(scope)) {
+                build.stale = true;
+            }
+        }
+    }
+
+    public static final class Build {
+
+        private final UUID scope;
+        private volatile boolean stale;
+
+        private Build(UUID scope) {
+            this.scope = scope;
+        }
+
+    }
+
+}
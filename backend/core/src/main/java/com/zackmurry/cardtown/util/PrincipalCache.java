@@ -0,0 +1,164 @@
+package com.zackmurry.cardtown.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.zackmurry.cardtown.model.auth.UserModel;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.apache.tomcat.util.codec.binary.Base64;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of fully built <code>UserModel</code>s, keyed by a SHA-256 hash of the jwt that they were built from.
+ * <p>
+ * Building a principal takes several queries and AES decryptions, so <code>JwtRequestFilter</code> uses this to only do it
+ * once per jwt (until the entry expires). Entries expire after <code>app.principal-cache.ttl-seconds</code> or when their jwt
+ * expires, whichever is first. Anything that changes the data in a <code>UserModel</code> (name, team, credentials) has to
+ * invalidate the affected users' entries. The cache keeps its own copy of each principal and hands out a new copy on every
+ * hit, so a request that changes its principal (like <code>UserService#updateUserName</code>) can't be seen half-done by
+ * other requests.
+ * <p>
+ * Hits and misses are reported as the <code>cache.gets</code> metric with the tag <code>cache=principal</code>
+ */
+@Component
+public class PrincipalCache {
+
+    private static final String CACHE_NAME = "principal";
+
+    private final Cache<String, Entry> entries;
+
+    // Incremented on every invalidation so that a principal built before an invalidation isn't cached after it
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    private final long ttlMillis;
+
+    public PrincipalCache(MeterRegistry meterRegistry,
+                          @Value("${app.principal-cache.ttl-seconds:300}") long ttlSeconds,
+                          @Value("${app.principal-cache.maximum-size:10000}") int maximumSize) {
+        this.ttlMillis = ttlSeconds * 1000;
+        this.entries = Caches.newBuilder()
+                .expireAfter(new Expiry<String, Entry>() {
+                    @Override
+                    public long expireAfterCreate(@NonNull String key, @NonNull Entry entry, long currentTime) {
+                        return TimeUnit.MILLISECONDS.toNanos(entry.expiresAt - System.currentTimeMillis());
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(@NonNull String key, @NonNull Entry entry, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, entry, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(@NonNull String key, @NonNull Entry entry, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, entries, CACHE_NAME);
+    }
+
+    /**
+     * Gets the cached principal of a jwt. Does not validate the jwt
+     *
+     * @param jwt Jwt that the principal was built from
+     * @return If cached and not expired: an <code>Optional</code> containing a copy of the principal; else: <code>Optional.empty()</code>
+     */
+    public Optional<UserModel> get(@NonNull String jwt) {
+        final Entry entry = entries.getIfPresent(hash(jwt));
+        return entry == null ? Optional.empty() : Optional.of(new UserModel(entry.principal));
+    }
+
+    /**
+     * Gets a value to pass to <code>PrincipalCache#put</code>. This should be called before loading the principal
+     *
+     * @return A token representing the current state of the cache
+     */
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    /**
+     * Caches the principal of a jwt. The entry is discarded if an invalidation happened while the principal was being built
+     *
+     * @param jwt                     Jwt that the principal was built from
+     * @param principal               Principal to cache
+     * @param jwtExpiresAt            Time that the jwt expires at, in milliseconds since the epoch
+     * @param invalidationCountAtLoad Result of <code>PrincipalCache#getInvalidationCount</code> from before the principal was loaded
+     */
+    public void put(@NonNull String jwt, @NonNull UserModel principal, long jwtExpiresAt, long invalidationCountAtLoad) {
+        final long now = System.currentTimeMillis();
+        final long expiresAt = Math.min(now + ttlMillis, jwtExpiresAt);
+        if (expiresAt <= now) {
+            return;
+        }
+        entries.put(hash(jwt), new Entry(new UserModel(principal), expiresAt));
+        // If the principal was invalidated while this thread was building it, it may be stale
+        if (invalidationCount.get() != invalidationCountAtLoad) {
+            invalidateUser(principal.getId());
+        }
+    }
+
+    /**
+     * Removes all cached principals of a user
+     *
+     * @param userId Id of user
+     */
+    public void invalidateUser(@NonNull UUID userId) {
+        invalidationCount.incrementAndGet();
+        entries.asMap().values().removeIf(entry -> userId.equals(entry.principal.getId()));
+    }
+
+    /**
+     * Removes all cached principals of users in a team
+     *
+     * @param teamId Id of team
+     */
+    public void invalidateTeam(@NonNull UUID teamId) {
+        invalidationCount.incrementAndGet();
+        entries.asMap().values().removeIf(entry -> entry.principal.getTeamId().map(teamId::equals).orElse(false));
+    }
+
+    /**
+     * Removes all cached principals
+     */
+    public void invalidateAll() {
+        invalidationCount.incrementAndGet();
+        entries.invalidateAll();
+    }
+
+    private static String hash(@NonNull String jwt) {
+        try {
+            // MessageDigests aren't thread-safe, and getting a new one is cheap compared to sharing one with a lock
+            final MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            return Base64.encodeBase64String(messageDigest.digest(jwt.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Entry {
+
+        private final UserModel principal;
+        private final long expiresAt;
+
+        private Entry(UserModel principal, long expiresAt) {
+            this.principal = principal;
+            this.expiresAt = expiresAt;
+        }
+
+    }
+
+}
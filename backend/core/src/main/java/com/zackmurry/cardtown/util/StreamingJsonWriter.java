@@ -0,0 +1,90 @@
+package com.zackmurry.cardtown.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes JSON arrays to a response one item at a time, so that large lists never have to be held in memory and the
+ * client starts receiving items before the last one is read.
+ * <p>
+ * Items are serialized with the same <code>ObjectMapper</code> that Spring uses for return values, so the output is
+ * the same as returning a <code>List</code>. Nothing is sent until the generator's buffer fills up, so an exception
+ * thrown before then still becomes a normal error response. After that, the status has already been sent and an
+ * exception can only cut the array short
+ */
+@Component
+public class StreamingJsonWriter {
+
+    public static final String GZIP_VALUE = "application/gzip";
+
+    private static final int GZIP_BUFFER_SIZE = 8192;
+
+    private final ObjectMapper objectMapper;
+
+    public StreamingJsonWriter(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Writes a JSON array of items to a response
+     *
+     * @param response Response to write to
+     * @param source   Passes each item to the consumer it's given
+     * @throws IOException If writing to the response fails or <code>source</code> throws one
+     */
+    public void writeArray(@NonNull HttpServletResponse response, @NonNull ItemSource source) throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        final JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream());
+        // The servlet container closes the output stream itself
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.writeStartArray();
+        source.forEach(generator::writeObject);
+        generator.writeEndArray();
+        // Only flushed on success, so that a failure before the buffer fills up doesn't commit the response
+        generator.close();
+    }
+
+    /**
+     * Writes items to a response as gzipped, newline-delimited JSON (one item per line), to be downloaded as a file.
+     * A client that gets cut off can tell, since the gzip stream won't be finished, and every complete line before that
+     * point is a whole item
+     *
+     * @param response Response to write to
+     * @param fileName Name that the file is saved as
+     * @param source   Passes each item to the consumer it's given
+     * @throws IOException If writing to the response fails or <code>source</code> throws one
+     */
+    public void writeCompressedLines(@NonNull HttpServletResponse response, @NonNull String fileName, @NonNull ItemSource source) throws IOException {
+        response.setContentType(GZIP_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.builder("attachment").filename(fileName).build().toString());
+        final GZIPOutputStream gzip = new GZIPOutputStream(response.getOutputStream(), GZIP_BUFFER_SIZE);
+        final JsonGenerator generator = objectMapper.getFactory().createGenerator(gzip);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        // Lines are ended explicitly, so that the last one is too
+        generator.setRootValueSeparator(null);
+        source.forEach(item -> {
+            generator.writeObject(item);
+            generator.writeRaw('\n');
+        });
+        generator.close();
+        // Only finished on success, so that a cut-off export is never mistaken for a complete one
+        gzip.finish();
+    }
+
+    @FunctionalInterface
+    public interface ItemSource {
+
+        void forEach(ItemConsumer<Object> consumer) throws IOException;
+
+    }
+
+}
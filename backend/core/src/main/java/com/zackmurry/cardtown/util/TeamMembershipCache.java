@@ -0,0 +1,106 @@
+package com.zackmurry.cardtown.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of which team each user is in, used for permission checks (which happen on practically every request).
+ * <p>
+ * Entries expire after <code>app.team-membership-cache.ttl-seconds</code>. Anything that changes team membership has to
+ * update or invalidate the affected users' entries. A team id that was read from the database before an invalidation is
+ * never kept after it, so a user who left (or whose team was deleted) can't keep passing checks with their old team.
+ * <p>
+ * Hits and misses are reported as the <code>cache.gets</code> metric with the tag <code>cache=team-membership</code>
+ */
+@Component
+public class TeamMembershipCache {
+
+    /**
+     * Cached for users who aren't in a team (the cache doesn't allow null values)
+     */
+    public static final UUID NO_TEAM = new UUID(0, 0);
+
+    private static final String CACHE_NAME = "team-membership";
+
+    private final Cache<UUID, UUID> teamIds;
+
+    // Incremented on every change so that a team id read before a change isn't cached after it
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    public TeamMembershipCache(MeterRegistry meterRegistry,
+                               @Value("${app.team-membership-cache.ttl-seconds:300}") long ttlSeconds,
+                               @Value("${app.team-membership-cache.maximum-size:100000}") int maximumSize) {
+        this.teamIds = Caches.newBuilder()
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, teamIds, CACHE_NAME);
+    }
+
+    /**
+     * Gets the cached team of a user
+     *
+     * @param userId Id of user
+     * @return If cached and not expired: the id of the user's team, or <code>TeamMembershipCache#NO_TEAM</code> if they
+     * aren't in one; else: null
+     */
+    public UUID get(@NonNull UUID userId) {
+        return teamIds.getIfPresent(userId);
+    }
+
+    /**
+     * Gets a value to pass to <code>TeamMembershipCache#putLoaded</code>. This should be called before reading the
+     * database
+     *
+     * @return A token representing the current state of the cache
+     */
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    /**
+     * Caches a team id that was read from the database. The entry is discarded if membership changed while it was being read
+     *
+     * @param userId                  Id of user
+     * @param teamId                  Id of the user's team, or <code>TeamMembershipCache#NO_TEAM</code>
+     * @param invalidationCountAtLoad Result of <code>TeamMembershipCache#getInvalidationCount</code> from before the read
+     */
+    public void putLoaded(@NonNull UUID userId, @NonNull UUID teamId, long invalidationCountAtLoad) {
+        teamIds.put(userId, teamId);
+        // Checked after putting, so that an invalidation can't slip in between the check and the put
+        if (invalidationCount.get() != invalidationCountAtLoad) {
+            teamIds.asMap().remove(userId, teamId);
+        }
+    }
+
+    /**
+     * Records a change to a user's team that was just written to the database
+     *
+     * @param userId Id of user
+     * @param teamId Id of the user's new team, or <code>TeamMembershipCache#NO_TEAM</code>
+     */
+    public void set(@NonNull UUID userId, @NonNull UUID teamId) {
+        invalidationCount.incrementAndGet();
+        teamIds.put(userId, teamId);
+    }
+
+    /**
+     * Removes the entries of every member of a team, so that they are read from the database again
+     *
+     * @param teamId Id of team
+     */
+    public void invalidateTeam(@NonNull UUID teamId) {
+        invalidationCount.incrementAndGet();
+        teamIds.asMap().values().removeIf(teamId::equals);
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.zackmurry.cardtown.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bounded cache of the cards that couldn't be decrypted with a key (for example, cards that were made before their
+ * owner joined a team can't be decrypted with the team's key), so that they aren't read and decrypted again every time
+ * that the cards of that key are indexed.
+ * <p>
+ * Cards are grouped by the scope of the key (see <code>DecryptedCardCache#scopeOf</code>). Each scope expires
+ * <code>app.unreadable-card-cache.ttl-seconds</code> after it was created, so cards are retried every once in a while,
+ * and at most <code>app.unreadable-card-cache.maximum-size</code> scopes are kept. The ids are sent to the database
+ * whenever a scope's cards are indexed, so each scope keeps at most <code>app.unreadable-card-cache.maximum-ids-per-scope</code>
+ * of them (cards past that are just read again).
+ * <p>
+ * Hits and misses are reported as the <code>cache.gets</code> metric with the tag <code>cache=unreadable-card</code>
+ */
+@Component
+public class UnreadableCardCache {
+
+    private static final String CACHE_NAME = "unreadable-card";
+
+    private final Cache<String, Set<UUID>> cardIds;
+
+    private final int maximumIdsPerScope;
+
+    public UnreadableCardCache(MeterRegistry meterRegistry,
+                               @Value("${app.unreadable-card-cache.ttl-seconds:3600}") long ttlSeconds,
+                               @Value("${app.unreadable-card-cache.maximum-size:10000}") int maximumSize,
+                               @Value("${app.unreadable-card-cache.maximum-ids-per-scope:1000}") int maximumIdsPerScope) {
+        this.maximumIdsPerScope = maximumIdsPerScope;
+        this.cardIds = Caches.newBuilder()
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cardIds, CACHE_NAME);
+    }
+
+    /**
+     * Gets the ids of the cards that couldn't be decrypted with a key
+     *
+     * @param scope Scope of the key
+     * @return The ids of the cards (empty if none are cached). The set shouldn't be modified
+     */
+    public Set<UUID> get(@NonNull String scope) {
+        final Set<UUID> ids = cardIds.getIfPresent(scope);
+        return ids == null ? Set.of() : ids;
+    }
+
+    /**
+     * Records cards that couldn't be decrypted with a key. Once a scope has <code>maximumIdsPerScope</code> cards, the rest
+     * aren't recorded
+     *
+     * @param scope Scope of the key
+     * @param ids   Ids of the cards
+     */
+    public void addAll(@NonNull String scope, @NonNull Collection<UUID> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        // Adding to the set doesn't count as a write, so the scope still expires a ttl after it was created
+        final Set<UUID> scopeIds = cardIds.asMap().computeIfAbsent(scope, key -> ConcurrentHashMap.newKeySet());
+        for (UUID id : ids) {
+            if (scopeIds.size() >= maximumIdsPerScope) {
+                return;
+            }
+            scopeIds.add(id);
+        }
+    }
+
+}
@@ -1,11 +1,14 @@
 package com.zackmurry.cardtown.util;
 
 import com.zackmurry.cardtown.exception.ForbiddenException;
+import com.zackmurry.cardtown.exception.InternalServerException;
 import com.zackmurry.cardtown.model.auth.UserModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.security.core.context.SecurityContextHolder;
 
+import java.security.GeneralSecurityException;
+
 /**
  * This is a utility class for retrieving a secret key for a user.
  * This is only for data that the user's entire team should be able to access.
@@ -33,4 +36,21 @@ public class UserSecretKeyHolder {
         return principal.getSecretKey();
     }
 
+    /**
+     * Gets a reusable encryption context for the user's secret key (see <code>UserSecretKeyHolder#getSecretKey</code>).
+     * This should be preferred when decrypting more than one entity
+     *
+     * @return An <code>AESContext</code> for the team's secret key if the user is in a team; else: for the user's secret key
+     * @throws ForbiddenException      If the user is unauthenticated
+     * @throws InternalServerException If the key could not be derived
+     */
+    public static AESContext getAESContext() {
+        try {
+            return EncryptionUtils.forKey(getSecretKey());
+        } catch (GeneralSecurityException e) {
+            logger.error("Failed to create AES context", e);
+            throw new InternalServerException();
+        }
+    }
+
 }
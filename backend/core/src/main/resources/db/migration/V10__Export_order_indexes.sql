@@ -0,0 +1,11 @@
+-- Exports read a user's cards and arguments in id order, resuming after the last id that was sent. With the id in the
+-- index, the rows come out already sorted and a resumed export starts where it left off instead of sorting every row
+-- again.
+-- cards_owner_last_modified_idx from V7 stays: syncing needs a range of last_modified within an owner, and one index
+-- can't be ordered by both columns after owner_id. Plain owner_id lookups were already served by that index, which
+-- replaced cards_owner_idx in V7, so there's nothing to drop for cards
+CREATE INDEX IF NOT EXISTS cards_owner_id_idx ON cards (owner_id, id);
+
+-- Arguments have no other (owner_id, ...) index that covers everything, so this one replaces arguments_owner_idx from V4
+CREATE INDEX IF NOT EXISTS arguments_owner_id_idx ON arguments (owner_id, id);
+DROP INDEX IF EXISTS arguments_owner_idx;
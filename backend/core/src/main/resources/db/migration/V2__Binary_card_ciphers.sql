@@ -0,0 +1,20 @@
+-- Stores card ciphers as versioned binary instead of Base64 text (see CipherText).
+-- Existing values are v1 ciphers, so they're given a v1 header byte (0x01). Empty strings stay empty.
+-- New values are written as v2 (AES-GCM), and v1 values are re-encrypted by CardCipherMigrationService
+ALTER TABLE cards ALTER COLUMN tag DROP DEFAULT;
+ALTER TABLE cards ALTER COLUMN cite_information DROP DEFAULT;
+ALTER TABLE cards ALTER COLUMN body_draft DROP DEFAULT;
+ALTER TABLE cards ALTER COLUMN body_text DROP DEFAULT;
+
+ALTER TABLE cards
+    ALTER COLUMN tag TYPE BYTEA USING CASE WHEN tag = '' THEN ''::BYTEA ELSE '\x01'::BYTEA || decode(tag, 'base64') END,
+    ALTER COLUMN cite TYPE BYTEA USING CASE WHEN cite = '' THEN ''::BYTEA ELSE '\x01'::BYTEA || decode(cite, 'base64') END,
+    ALTER COLUMN cite_information TYPE BYTEA USING CASE WHEN cite_information = '' THEN ''::BYTEA ELSE '\x01'::BYTEA || decode(cite_information, 'base64') END,
+    ALTER COLUMN body_html TYPE BYTEA USING CASE WHEN body_html = '' THEN ''::BYTEA ELSE '\x01'::BYTEA || decode(body_html, 'base64') END,
+    ALTER COLUMN body_draft TYPE BYTEA USING CASE WHEN body_draft = '' THEN ''::BYTEA ELSE '\x01'::BYTEA || decode(body_draft, 'base64') END,
+    ALTER COLUMN body_text TYPE BYTEA USING CASE WHEN body_text = '' THEN ''::BYTEA ELSE '\x01'::BYTEA || decode(body_text, 'base64') END;
+
+ALTER TABLE cards ALTER COLUMN tag SET DEFAULT ''::BYTEA;
+ALTER TABLE cards ALTER COLUMN cite_information SET DEFAULT ''::BYTEA;
+ALTER TABLE cards ALTER COLUMN body_draft SET DEFAULT ''::BYTEA;
+ALTER TABLE cards ALTER COLUMN body_text SET DEFAULT ''::BYTEA;
@@ -0,0 +1,3 @@
+-- the action feed pages by (time, id) within each user's actions (see ActionDataAccessService#getRecentActionsByTeam),
+-- so every page is a short range scan of this index, no matter how deep it is
+CREATE INDEX IF NOT EXISTS actions_subject_time_idx ON actions (subject_id, time DESC, id DESC);
@@ -0,0 +1,25 @@
+-- Secondary indexes for the queries in the DAOs. Each one is checked by QueryPlanTest, so add the query shape there
+-- when adding a query that filters on a new column.
+-- (actions is covered by actions_subject_time_idx from V3)
+
+-- listing a user's cards (the common case only wants cards that aren't deleted)
+CREATE INDEX IF NOT EXISTS cards_owner_active_idx ON cards (owner_id) WHERE deleted = FALSE;
+-- listing a user's cards including deleted ones, and deleting a user's cards when they're deleted
+CREATE INDEX IF NOT EXISTS cards_owner_idx ON cards (owner_id);
+
+CREATE INDEX IF NOT EXISTS arguments_owner_active_idx ON arguments (owner_id) WHERE deleted = FALSE;
+CREATE INDEX IF NOT EXISTS arguments_owner_idx ON arguments (owner_id);
+
+-- cards of an argument in order, and position lookups/shifts within an argument
+CREATE INDEX IF NOT EXISTS argument_cards_argument_position_idx ON argument_cards (argument_id, index_in_argument);
+-- arguments that contain a card, and deleting a card's appearances when it's deleted
+CREATE INDEX IF NOT EXISTS argument_cards_card_idx ON argument_cards (card_id);
+
+CREATE INDEX IF NOT EXISTS argument_analytics_argument_position_idx ON argument_analytics (argument_id, index_in_argument);
+
+CREATE INDEX IF NOT EXISTS team_members_user_idx ON team_members (user_id);
+CREATE INDEX IF NOT EXISTS team_members_team_idx ON team_members (team_id);
+
+-- actions are deleted along with their card or argument. Most actions don't have both, so only rows that do are indexed
+CREATE INDEX IF NOT EXISTS actions_card_idx ON actions (card_id) WHERE card_id IS NOT NULL;
+CREATE INDEX IF NOT EXISTS actions_argument_idx ON actions (argument_id) WHERE argument_id IS NOT NULL;
@@ -0,0 +1,19 @@
+-- Orders the items (cards and analytics) of an argument by a sparse sort key instead of a dense index. An item can be
+-- inserted or moved by giving it a key between its neighbours' keys, so no other rows are rewritten. Dense indices
+-- are computed when reading. See ArgumentService#getSortKeyForIndex
+ALTER TABLE argument_cards ADD COLUMN sort_key BIGINT;
+ALTER TABLE argument_analytics ADD COLUMN sort_key BIGINT;
+
+-- Keep the existing order, leaving a gap of 2^32 between neighbours (ArgumentService.SORT_KEY_GAP)
+UPDATE argument_cards SET sort_key = (index_in_argument + 1) * 4294967296;
+UPDATE argument_analytics SET sort_key = (index_in_argument + 1) * 4294967296;
+
+ALTER TABLE argument_cards ALTER COLUMN sort_key SET NOT NULL;
+ALTER TABLE argument_analytics ALTER COLUMN sort_key SET NOT NULL;
+
+-- Also drops the (argument_id, index_in_argument) indexes from V4
+ALTER TABLE argument_cards DROP COLUMN index_in_argument;
+ALTER TABLE argument_analytics DROP COLUMN index_in_argument;
+
+CREATE INDEX IF NOT EXISTS argument_cards_argument_position_idx ON argument_cards (argument_id, sort_key);
+CREATE INDEX IF NOT EXISTS argument_analytics_argument_position_idx ON argument_analytics (argument_id, sort_key);
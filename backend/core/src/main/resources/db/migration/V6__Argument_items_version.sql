@@ -0,0 +1,3 @@
+-- Incremented whenever the items (cards and analytics) of an argument are added, removed, or moved, so that a client
+-- replacing the whole order can be rejected if it loaded the argument before another change
+ALTER TABLE arguments ADD COLUMN IF NOT EXISTS items_version INTEGER NOT NULL DEFAULT 0;
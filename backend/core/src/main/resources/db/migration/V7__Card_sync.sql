@@ -0,0 +1,12 @@
+-- Cards changed since a sync watermark. Also serves everything cards_owner_idx did, so that one is dropped
+CREATE INDEX IF NOT EXISTS cards_owner_last_modified_idx ON cards (owner_id, last_modified);
+DROP INDEX IF EXISTS cards_owner_idx;
+
+-- Cards that have been permanently deleted, so that syncing clients can drop their copies. Soft deleted cards don't
+-- need one since they're still in cards (with deleted = TRUE and last_modified set to when they were deleted)
+CREATE TABLE IF NOT EXISTS card_tombstones (
+    card_id UUID PRIMARY KEY,
+    owner_id UUID NOT NULL REFERENCES users ON DELETE CASCADE,
+    deleted_at BIGINT NOT NULL
+);
+CREATE INDEX IF NOT EXISTS card_tombstones_owner_deleted_at_idx ON card_tombstones (owner_id, deleted_at);
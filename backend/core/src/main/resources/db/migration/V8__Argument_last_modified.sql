@@ -0,0 +1,3 @@
+-- Time that an argument or any of its items last changed, for conditional requests. Arguments from before this are
+-- given 0, which is still a valid validator since the next change replaces it
+ALTER TABLE arguments ADD COLUMN IF NOT EXISTS last_modified BIGINT NOT NULL DEFAULT 0;
@@ -0,0 +1,14 @@
+-- Blind index for searching cards (see BlindIndex). Each row is a keyed hash of a word in a card's tag, cite, or body
+-- text, weighted by where (and how often) it appears. Tokens are replaced whenever the card is written
+CREATE TABLE IF NOT EXISTS card_tokens (
+    card_id UUID NOT NULL REFERENCES cards ON DELETE CASCADE,
+    token BIGINT NOT NULL,
+    weight INT NOT NULL,
+    PRIMARY KEY (card_id, token)
+);
+CREATE INDEX IF NOT EXISTS card_tokens_token_idx ON card_tokens (token);
+
+-- Whether a card's current contents have been indexed. Cards from before this (and cards whose tokens couldn't be written
+-- with the card) are indexed the next time that someone who can read them searches
+ALTER TABLE cards ADD COLUMN IF NOT EXISTS tokens_indexed BOOLEAN NOT NULL DEFAULT FALSE;
+CREATE INDEX IF NOT EXISTS cards_owner_unindexed_idx ON cards (owner_id, id) WHERE tokens_indexed = FALSE;
@@ -0,0 +1,123 @@
+package com.zackmurry.cardtown;
+
+import com.zackmurry.cardtown.dao.action.ActionDao;
+import com.zackmurry.cardtown.exception.UserNotFoundException;
+import com.zackmurry.cardtown.model.action.ActionEntity;
+import com.zackmurry.cardtown.model.action.ActionType;
+import com.zackmurry.cardtown.service.UserService;
+import com.zackmurry.cardtown.util.ActionLogWriter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest
+public class ActionLogWriterTest {
+
+    @Autowired
+    private ActionDao actionDao;
+
+    @Autowired
+    private UserService userService;
+
+    private String testEmail;
+    private UUID testUserId;
+
+    @BeforeAll
+    public void createTestUser() throws UserNotFoundException {
+        testEmail = RandomStringUtils.randomAlphanumeric(12, 40);
+        while (userService.accountExists(testEmail)) {
+            testEmail = RandomStringUtils.randomAlphanumeric(12, 40);
+        }
+        assertDoesNotThrow(() -> userService.createUserAccount(testEmail, "__TEST__", "__USER__", RandomStringUtils.randomAlphanumeric(12, 20)));
+        testUserId = userService.getIdByEmail(testEmail).orElseThrow(UserNotFoundException::new);
+    }
+
+    @AfterAll
+    public void deleteTestUser() {
+        assertDoesNotThrow(() -> userService.deleteUserAccount(testEmail));
+    }
+
+    private ActionEntity createMockAction() {
+        return ActionEntity.builder().type(ActionType.CREATE_CARD).subject(testUserId).build();
+    }
+
+    private int countActions() {
+        return actionDao.getAllActionsByUser(testUserId).size();
+    }
+
+    @DisplayName("Test writing actions in batches")
+    @Test
+    public void testBatchedWrites() {
+        final int countBefore = countActions();
+        // The flush interval is long enough that only the batch size triggers a write
+        final ActionLogWriter writer = new ActionLogWriter(actionDao, new SimpleMeterRegistry(), ActionLogWriter.Durability.ASYNC_FLUSH_ON_SHUTDOWN, 1000, 10, 60000);
+        try {
+            for (int i = 0; i < 5; i++) {
+                writer.write(createMockAction());
+            }
+            assertEquals(5, writer.getQueueSize());
+            assertEquals(countBefore, countActions(), "Actions shouldn't be written until a batch is full");
+            for (int i = 0; i < 5; i++) {
+                writer.write(createMockAction());
+            }
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (countActions() < countBefore + 10 && System.currentTimeMillis() < deadline) {
+                Thread.onSpinWait();
+            }
+            assertEquals(countBefore + 10, countActions());
+            assertEquals(0, writer.getQueueSize());
+
+            // Waiting for another user's actions doesn't write anything
+            writer.write(createMockAction());
+            assertTrue(writer.awaitWritten(UUID.randomUUID(), 5000));
+            assertEquals(1, writer.getQueueSize());
+            // Waiting for a user's own actions wakes the writer instead of waiting for the flush interval
+            assertTrue(writer.awaitWritten(testUserId, 5000));
+            assertEquals(countBefore + 11, countActions());
+            assertEquals(0, writer.getQueueSize());
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    @DisplayName("Test durability modes and backpressure")
+    @Test
+    public void testDurability() {
+        final int countBefore = countActions();
+        final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        final ActionLogWriter writer = new ActionLogWriter(actionDao, registry, ActionLogWriter.Durability.ASYNC_FLUSH_ON_SHUTDOWN, 3, 100, 60000);
+        for (int i = 0; i < 5; i++) {
+            writer.write(createMockAction());
+        }
+        // The queue only holds three, so the other two are written immediately
+        assertEquals(3, writer.getQueueSize());
+        assertEquals(countBefore + 2, countActions());
+        assertEquals(2, registry.get("actions.queue.rejections").counter().count());
+        writer.shutdown();
+        assertEquals(countBefore + 5, countActions(), "Queued actions should be written on shutdown");
+        writer.write(createMockAction());
+        assertEquals(countBefore + 6, countActions(), "Actions should be written synchronously after shutdown");
+
+        final ActionLogWriter syncWriter = new ActionLogWriter(actionDao, new SimpleMeterRegistry(), ActionLogWriter.Durability.SYNC, 3, 100, 60000);
+        syncWriter.write(createMockAction());
+        assertEquals(countBefore + 7, countActions());
+        syncWriter.shutdown();
+
+        // An action that can't be written shouldn't stop the rest of its batch
+        final ActionLogWriter asyncWriter = new ActionLogWriter(actionDao, registry, ActionLogWriter.Durability.ASYNC, 100, 100, 60000);
+        asyncWriter.write(ActionEntity.builder().type(ActionType.CREATE_CARD).subject(UUID.randomUUID()).build());
+        asyncWriter.write(createMockAction());
+        assertTrue(asyncWriter.awaitWritten(testUserId, 5000));
+        assertEquals(countBefore + 8, countActions());
+        assertEquals(1, registry.get("actions.dropped").counter().count());
+        asyncWriter.shutdown();
+    }
+
+}
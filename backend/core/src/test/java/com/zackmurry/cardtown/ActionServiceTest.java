@@ -1,9 +1,17 @@
 package com.zackmurry.cardtown;
 
+import com.zackmurry.cardtown.exception.BadRequestException;
+import com.zackmurry.cardtown.dao.action.ActionDao;
 import com.zackmurry.cardtown.exception.UserNotFoundException;
+import com.zackmurry.cardtown.model.action.ActionCursor;
 import com.zackmurry.cardtown.model.action.ActionEntity;
 import com.zackmurry.cardtown.model.action.ActionType;
+import com.zackmurry.cardtown.model.action.ResponseAction;
+import com.zackmurry.cardtown.model.arg.ArgumentCreateRequest;
 import com.zackmurry.cardtown.model.auth.UserModel;
+import com.zackmurry.cardtown.model.team.TeamCreateRequest;
+import com.zackmurry.cardtown.model.team.TeamCreationResponse;
+import com.zackmurry.cardtown.model.team.TeamJoinRequest;
 import com.zackmurry.cardtown.service.*;
 import com.zackmurry.cardtown.util.EncryptionUtils;
 import com.zackmurry.cardtown.util.UUIDCompressor;
@@ -15,7 +23,11 @@ import org.springframework.security.authentication.UsernamePasswordAuthenticatio
 import org.springframework.security.core.context.SecurityContextHolder;
 
 import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -38,6 +50,12 @@ public class ActionServiceTest {
     @Autowired
     private ActionService actionService;
 
+    @Autowired
+    private TeamService teamService;
+
+    @Autowired
+    private ActionDao actionDao;
+
     private String testEmail;
     private String testPassword;
 
@@ -89,8 +107,129 @@ public class ActionServiceTest {
         assertEquals(ActionType.DELETE_CARD, cardDeleteAction.getActionType());
         assertEquals(((UserModel) token.getPrincipal()).getId(), cardDeleteAction.getSubjectId());
         assertEquals(UUIDCompressor.decompress(cardId), cardDeleteAction.getCardId());
+
+        // Every action in a page should have its user, card, and argument filled in
+        final String otherCardId = cardService.createCard(CardServiceTest.generateMockCard(testEmail));
+        final String argumentId = argumentService.createArgument(new ArgumentCreateRequest(RandomStringUtils.randomAlphanumeric(25)));
+        argumentService.addCardToArgument(argumentId, otherCardId);
+        argumentService.addCardToArgument(argumentId, otherCardId);
+        final List<ResponseAction> recentActions = actionService.getRecentActions(null);
+        assertEquals(6, recentActions.size());
+        for (ResponseAction action : recentActions) {
+            assertEquals(UUIDCompressor.compress(((UserModel) token.getPrincipal()).getId()), action.getSubject().getId());
+            if (action.getCard() != null && action.getCard().getId().equals(otherCardId)) {
+                assertEquals(2, action.getCard().getNumRelatedArguments());
+            } else if (action.getCard() != null) {
+                assertEquals(cardId, action.getCard().getId());
+                assertEquals(0, action.getCard().getNumRelatedArguments());
+            }
+            if (action.getArgument() != null) {
+                assertEquals(argumentId, action.getArgument().getId());
+                assertEquals(2, action.getArgument().getNumCards());
+            }
+        }
+        assertEquals(ActionType.ADD_CARD_TO_ARGUMENT, recentActions.get(0).getActionType());
+        assertNotNull(recentActions.get(0).getArgument());
+
+        // Deleted arguments don't count as appearances
+        argumentService.deleteArgument(argumentId);
+        final List<ResponseAction> actionsAfterDeletion = actionService.getRecentActions(null);
+        assertTrue(actionsAfterDeletion.stream().anyMatch(action -> action.getCard() != null && action.getCard().getId().equals(otherCardId)));
+        for (ResponseAction action : actionsAfterDeletion) {
+            if (action.getCard() != null) {
+                assertEquals(0, action.getCard().getNumRelatedArguments());
+            }
+        }
     }
 
-    // todo add more tests
+    @Nested
+    @TestInstance(TestInstance.Lifecycle.PER_CLASS)
+    @DisplayName("Test team action feed")
+    class TestWithTeams {
+
+        private String teamOwnerEmail;
+        private String teamOwnerPassword;
+        private UsernamePasswordAuthenticationToken teamOwnerToken;
+
+        @BeforeAll
+        public void initializeTeam() {
+            teamOwnerEmail = RandomStringUtils.randomAlphanumeric(12, 40);
+            while (userService.accountExists(teamOwnerEmail)) {
+                teamOwnerEmail = RandomStringUtils.randomAlphanumeric(12, 40);
+            }
+            teamOwnerPassword = RandomStringUtils.randomAlphanumeric(12, 20);
+            final String teamOwnerEmailCopy = teamOwnerEmail;
+            assertDoesNotThrow(() -> userService.createUserAccount(teamOwnerEmailCopy, "__TEST__", "__USER__", teamOwnerPassword));
+            final UserModel teamOwnerModel = userService.getUserModelByEmail(
+                    teamOwnerEmail,
+                    encryptionUtils.getSHA256Hash(teamOwnerPassword.getBytes(StandardCharsets.UTF_8))
+            ).orElseThrow(RuntimeException::new);
+            teamOwnerToken = new UsernamePasswordAuthenticationToken(teamOwnerModel, null, teamOwnerModel.getAuthorities());
+            SecurityContextHolder.getContext().setAuthentication(teamOwnerToken);
+            final TeamCreationResponse teamCreationResponse = teamService.createTeam(new TeamCreateRequest(RandomStringUtils.randomAlphanumeric(1, 20)));
+            teamOwnerToken = userService.regenerateTokenDetails(teamOwnerToken, teamOwnerPassword);
+            SecurityContextHolder.getContext().setAuthentication(token);
+            teamService.joinTeam(new TeamJoinRequest(teamCreationResponse.getId(), teamCreationResponse.getSecretKey()));
+            token = userService.regenerateTokenDetails(token, testPassword);
+            SecurityContextHolder.getContext().setAuthentication(token);
+        }
+
+        @AfterAll
+        public void cleanUpTeam() {
+            SecurityContextHolder.getContext().setAuthentication(teamOwnerToken);
+            teamService.deleteTeam();
+            userService.deleteUserAccount(teamOwnerEmail);
+            SecurityContextHolder.getContext().setAuthentication(userService.regenerateTokenDetails(token, testPassword));
+        }
+
+        @DisplayName("Test paging through recent actions")
+        @Test
+        public void testRecentActionPages() {
+            // Most of these share a time so that ties have to be broken by id
+            final long time = System.currentTimeMillis();
+            for (int i = 0; i < 12; i++) {
+                actionService.createAction(ActionEntity.builder().type(ActionType.JOIN_TEAM).principal().time(time).build());
+            }
+            SecurityContextHolder.getContext().setAuthentication(teamOwnerToken);
+            for (int i = 0; i < 13; i++) {
+                actionService.createAction(ActionEntity.builder().type(ActionType.JOIN_TEAM).principal().time(i % 2 == 0 ? time : time - i).build());
+            }
+            SecurityContextHolder.getContext().setAuthentication(token);
+
+            final UUID userId = ((UserModel) token.getPrincipal()).getId();
+            final UUID teamId = teamService.getTeamIdByUserId(userId).orElseThrow(RuntimeException::new);
+            final int teamActionCount = actionService.getAllActionsVisibleToUser().size();
+            assertEquals(teamActionCount, countPages(cursor -> actionDao.getRecentActionsByTeam(teamId, 10, cursor)));
+            assertEquals(actionDao.getAllActionsByUser(userId).size(), countPages(cursor -> actionDao.getRecentActionsByUser(userId, 10, cursor)));
+            assertThrows(BadRequestException.class, () -> ActionCursor.decode("not a cursor"));
+        }
+
+        /**
+         * Pages through an action feed until it runs out, making sure that no action appears twice
+         *
+         * @return The number of actions that were in the feed when paging started
+         */
+        private int countPages(Function<ActionCursor, List<ActionEntity>> getPage) {
+            final Set<UUID> ids = new HashSet<>();
+            ActionCursor lastCursor = null;
+            List<ActionEntity> page;
+            do {
+                page = getPage.apply(lastCursor);
+                for (ActionEntity action : page) {
+                    assertTrue(ids.add(action.getId()), "Actions shouldn't appear on multiple pages");
+                    if (lastCursor != null) {
+                        // Postgres compares UUIDs as unsigned bytes, which is the same as comparing them as hex strings
+                        assertTrue(action.getTime() < lastCursor.getTime() || (action.getTime() == lastCursor.getTime() && action.getId().toString().compareTo(lastCursor.getId().toString()) < 0));
+                    }
+                    lastCursor = ActionCursor.of(action);
+                }
+                // New actions go at the top of the feed, so they shouldn't affect the next page
+                actionService.createAction(ActionEntity.builder().type(ActionType.JOIN_TEAM).principal().build());
+                actionService.getAllActionsVisibleToUser(); // Flushes the new action
+            } while (!page.isEmpty());
+            return ids.size();
+        }
+
+    }
 
 }
@@ -2,13 +2,21 @@ package com.zackmurry.cardtown;
 
 import com.zackmurry.cardtown.exception.ArgumentNotFoundException;
 import com.zackmurry.cardtown.exception.BadRequestException;
+import com.zackmurry.cardtown.exception.ConflictException;
 import com.zackmurry.cardtown.exception.LengthRequiredException;
 import com.zackmurry.cardtown.exception.UserNotFoundException;
+import com.zackmurry.cardtown.model.analytic.AnalyticCreateRequest;
+import com.zackmurry.cardtown.model.analytic.AnalyticUpdateRequest;
+import com.zackmurry.cardtown.model.analytic.ResponseAnalytic;
 import com.zackmurry.cardtown.model.arg.ArgumentCreateRequest;
+import com.zackmurry.cardtown.model.arg.ArgumentItemOrderRequest;
+import com.zackmurry.cardtown.model.arg.ArgumentPreview;
 import com.zackmurry.cardtown.model.arg.ResponseArgument;
 import com.zackmurry.cardtown.model.arg.card.ArgumentWithCardModel;
+import com.zackmurry.cardtown.model.arg.card.ResponseArgumentCard;
 import com.zackmurry.cardtown.model.auth.UserModel;
 import com.zackmurry.cardtown.model.card.CardCreateRequest;
+import com.zackmurry.cardtown.model.card.CardHeader;
 import com.zackmurry.cardtown.model.card.ResponseCard;
 import com.zackmurry.cardtown.model.team.TeamCreateRequest;
 import com.zackmurry.cardtown.model.team.TeamCreationResponse;
@@ -18,6 +26,7 @@ import com.zackmurry.cardtown.service.CardService;
 import com.zackmurry.cardtown.service.TeamService;
 import com.zackmurry.cardtown.service.UserService;
 import com.zackmurry.cardtown.util.EncryptionUtils;
+import com.zackmurry.cardtown.util.UUIDCompressor;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.RandomUtils;
 import org.junit.jupiter.api.*;
@@ -28,7 +37,10 @@ import org.springframework.security.core.context.SecurityContextHolder;
 
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.UUID;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -208,6 +220,103 @@ public class ArgumentServiceTest {
         assertDoesNotThrow(() -> argumentService.deleteArgument(argumentId));
     }
 
+    @DisplayName("Test moving items into the same spot until the argument is renumbered")
+    @Test
+    public void testRepeatedMovesIntoSameSpot() {
+        final String argumentId = argumentService.createArgument(new ArgumentCreateRequest(RandomStringUtils.randomAlphanumeric(1, 129)));
+        final List<String> itemIds = new ArrayList<>();
+        final List<String> cardIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final String cardId = cardService.createCard(CardServiceTest.generateMockCard(testEmail));
+            cardIds.add(cardId);
+            assertEquals(itemIds.size(), argumentService.addCardToArgument(argumentId, cardId).getPosition());
+            itemIds.add(cardId);
+            if (i < 2) {
+                final ResponseAnalytic analytic = argumentService.addAnalyticToArgument(argumentId, new AnalyticCreateRequest(RandomStringUtils.randomAlphanumeric(1, 100)));
+                assertEquals(itemIds.size(), analytic.getPosition());
+                itemIds.add(analytic.getId());
+            }
+        }
+
+        // Each move halves the gap that the next one goes into, so this goes through a few renumberings
+        for (int i = 0; i < 100; i++) {
+            final short oldIndex = (short) (itemIds.size() - 1);
+            final short newIndex = (short) (i % 3 == 0 ? 0 : 1);
+            itemIds.add(newIndex, itemIds.remove(oldIndex));
+            argumentService.updateItemPosition(argumentId, newIndex, oldIndex);
+            assertEquals(itemIds, getItemIdsInOrder(argumentId));
+        }
+
+        // Indices should stay dense after removing an item
+        final String removedCardId = cardIds.get(0);
+        argumentService.removeCardFromArgument(argumentId, removedCardId, (short) itemIds.indexOf(removedCardId));
+        itemIds.remove(removedCardId);
+        assertEquals(itemIds, getItemIdsInOrder(argumentId));
+
+        for (String cardId : cardIds) {
+            cardService.markCardAsDeletedById(cardId);
+        }
+        assertDoesNotThrow(() -> argumentService.deleteArgument(argumentId));
+    }
+
+    @DisplayName("Test replacing the order of every item in an argument")
+    @Test
+    public void testUpdateItemOrder() {
+        final String argumentId = argumentService.createArgument(new ArgumentCreateRequest(RandomStringUtils.randomAlphanumeric(1, 129)));
+        final List<String> cardIds = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final String cardId = cardService.createCard(CardServiceTest.generateMockCard(testEmail));
+            cardIds.add(cardId);
+            argumentService.addCardToArgument(argumentId, cardId);
+        }
+        // A card can be in an argument more than once
+        argumentService.addCardToArgument(argumentId, cardIds.get(0));
+        argumentService.addAnalyticToArgument(argumentId, new AnalyticCreateRequest(RandomStringUtils.randomAlphanumeric(1, 100)));
+        final List<String> itemIds = new ArrayList<>(getItemIdsInOrder(argumentId));
+        final int version = argumentService.getResponseArgumentById(argumentId).getVersion();
+
+        Collections.shuffle(itemIds);
+        assertEquals(version + 1, argumentService.updateItemOrder(argumentId, new ArgumentItemOrderRequest(version, itemIds)));
+        assertEquals(itemIds, getItemIdsInOrder(argumentId));
+        assertEquals(version + 1, argumentService.getResponseArgumentById(argumentId).getVersion());
+
+        // Orders made from an old version should be rejected
+        Collections.reverse(itemIds);
+        assertThrows(ConflictException.class, () -> argumentService.updateItemOrder(argumentId, new ArgumentItemOrderRequest(version, itemIds)));
+        Collections.reverse(itemIds);
+        assertEquals(itemIds, getItemIdsInOrder(argumentId));
+
+        // Orders that leave out an item should be rejected without changing the version
+        assertThrows(BadRequestException.class, () -> argumentService.updateItemOrder(argumentId, new ArgumentItemOrderRequest(version + 1, itemIds.subList(1, itemIds.size()))));
+        assertEquals(version + 1, argumentService.getResponseArgumentById(argumentId).getVersion());
+
+        // Changing the items one at a time should also change the version
+        argumentService.updateItemPosition(argumentId, (short) 0, (short) 1);
+        assertEquals(version + 2, argumentService.getResponseArgumentById(argumentId).getVersion());
+
+        for (String cardId : cardIds) {
+            cardService.markCardAsDeletedById(cardId);
+        }
+        assertDoesNotThrow(() -> argumentService.deleteArgument(argumentId));
+    }
+
+    /**
+     * @return The ids of the cards and analytics in an argument, ordered by the indices that are sent to clients
+     */
+    private List<String> getItemIdsInOrder(String argumentId) {
+        final ResponseArgument responseArgument = argumentService.getResponseArgumentById(argumentId);
+        final String[] itemIds = new String[responseArgument.getCards().size() + responseArgument.getAnalytics().size()];
+        for (ResponseArgumentCard card : responseArgument.getCards()) {
+            assertNull(itemIds[card.getPosition()]);
+            itemIds[card.getPosition()] = card.getId();
+        }
+        for (ResponseAnalytic analytic : responseArgument.getAnalytics()) {
+            assertNull(itemIds[analytic.getPosition()]);
+            itemIds[analytic.getPosition()] = analytic.getId();
+        }
+        return Arrays.asList(itemIds);
+    }
+
     @DisplayName("Test renaming arguments")
     @Test
     public void testArgumentRename() {
@@ -224,6 +333,34 @@ public class ArgumentServiceTest {
         }
     }
 
+    @DisplayName("Test that argument versions change with the argument")
+    @Test
+    public void testArgumentVersion() {
+        final String argId = argumentService.createArgument(new ArgumentCreateRequest(RandomStringUtils.randomAlphanumeric(25)));
+        final String cardId = cardService.createCard(CardServiceTest.generateMockCard(testEmail));
+        final List<String> eTags = new ArrayList<>();
+        eTags.add(argumentService.getArgumentVersionById(argId).getETag());
+        assertEquals(eTags.get(0), argumentService.getArgumentVersionById(argId).getETag(), "The version shouldn't change without a change to the argument");
+
+        argumentService.addCardToArgument(argId, cardId);
+        eTags.add(argumentService.getArgumentVersionById(argId).getETag());
+        // Editing a card in the argument changes what the argument looks like
+        cardService.updateCardById(cardId, CardServiceTest.generateMockCard(testEmail));
+        eTags.add(argumentService.getArgumentVersionById(argId).getETag());
+        argumentService.renameArgument(argId, RandomStringUtils.randomAlphanumeric(25));
+        eTags.add(argumentService.getArgumentVersionById(argId).getETag());
+        final ResponseAnalytic analytic = argumentService.addAnalyticToArgument(argId, new AnalyticCreateRequest(RandomStringUtils.randomAlphanumeric(1, 100)));
+        eTags.add(argumentService.getArgumentVersionById(argId).getETag());
+        argumentService.updateAnalytic(analytic.getId(), new AnalyticUpdateRequest(RandomStringUtils.randomAlphanumeric(1, 100)));
+        eTags.add(argumentService.getArgumentVersionById(argId).getETag());
+        argumentService.deleteArgument(argId);
+        eTags.add(argumentService.getArgumentVersionById(argId).getETag());
+        assertEquals(eTags.size(), eTags.stream().distinct().count(), "Every change should give a new version: " + eTags);
+
+        assertThrows(ArgumentNotFoundException.class, () -> argumentService.getArgumentVersionById(UUIDCompressor.compress(UUID.randomUUID())));
+        cardService.markCardAsDeletedById(cardId);
+    }
+
     @DisplayName("Test getting argument previews by card")
     @Test
     public void testGetArgumentPreviewsByCard() {
@@ -249,6 +386,73 @@ public class ArgumentServiceTest {
         }
     }
 
+    @DisplayName("Test listing argument previews by user")
+    @Test
+    public void testListArgumentsByUser() {
+        final List<CardCreateRequest> cardCreateRequests = new ArrayList<>();
+        final List<String> cardIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final CardCreateRequest cardCreateRequest = CardServiceTest.generateMockCard(testEmail);
+            cardCreateRequests.add(cardCreateRequest);
+            cardIds.add(cardService.createCard(cardCreateRequest));
+        }
+        final String emptyArgName = RandomStringUtils.randomAlphanumeric(25);
+        final String emptyArgId = argumentService.createArgument(new ArgumentCreateRequest(emptyArgName));
+        final String fullArgName = RandomStringUtils.randomAlphanumeric(25);
+        final String fullArgId = argumentService.createArgument(new ArgumentCreateRequest(fullArgName));
+        // Add the cards in reverse, then the last card again, so that the order differs from creation order
+        final List<Integer> expectedOrder = new ArrayList<>();
+        for (int i = cardIds.size() - 1; i >= 0; i--) {
+            argumentService.addCardToArgument(fullArgId, cardIds.get(i));
+            expectedOrder.add(i);
+        }
+        argumentService.addCardToArgument(fullArgId, cardIds.get(cardIds.size() - 1));
+        expectedOrder.add(cardIds.size() - 1);
+
+        final String testUserId = UUIDCompressor.compress(((UserModel) token.getPrincipal()).getId());
+        final List<ArgumentPreview> argumentPreviews = argumentService.listArgumentsByUser(false);
+        final ArgumentPreview emptyPreview = argumentPreviews.stream().filter(a -> a.getId().equals(emptyArgId)).findFirst().orElse(null);
+        assertNotNull(emptyPreview);
+        assertEquals(emptyArgName, emptyPreview.getName());
+        assertEquals(0, emptyPreview.getCards().size());
+        assertEquals(testUserId, emptyPreview.getOwner().getId());
+
+        final ArgumentPreview fullPreview = argumentPreviews.stream().filter(a -> a.getId().equals(fullArgId)).findFirst().orElse(null);
+        assertNotNull(fullPreview);
+        assertEquals(fullArgName, fullPreview.getName());
+        assertEquals(expectedOrder.size(), fullPreview.getCards().size());
+        for (int i = 0; i < expectedOrder.size(); i++) {
+            final CardHeader cardHeader = fullPreview.getCards().get(i);
+            final CardCreateRequest cardCreateRequest = cardCreateRequests.get(expectedOrder.get(i));
+            assertEquals(cardIds.get(expectedOrder.get(i)), cardHeader.getId());
+            assertEquals(cardCreateRequest.getTag(), cardHeader.getTag());
+            assertEquals(cardCreateRequest.getCite(), cardHeader.getCite());
+            assertEquals(testUserId, cardHeader.getOwner().getId());
+        }
+
+        // Streaming should give the same previews in the same order, with each argument's cards grouped together
+        final List<ArgumentPreview> streamedPreviews = new ArrayList<>();
+        assertDoesNotThrow(() -> argumentService.forEachArgumentPreviewByUser(false, streamedPreviews::add));
+        assertEquals(argumentPreviews.size(), streamedPreviews.size());
+        for (int i = 0; i < argumentPreviews.size(); i++) {
+            assertEquals(argumentPreviews.get(i).getId(), streamedPreviews.get(i).getId());
+            assertEquals(
+                    argumentPreviews.get(i).getCards().stream().map(CardHeader::getId).collect(Collectors.toList()),
+                    streamedPreviews.get(i).getCards().stream().map(CardHeader::getId).collect(Collectors.toList())
+            );
+        }
+
+        // Deleted arguments should only be included when requested
+        argumentService.deleteArgument(emptyArgId);
+        assertTrue(argumentService.listArgumentsByUser(false).stream().noneMatch(a -> a.getId().equals(emptyArgId)));
+        assertTrue(argumentService.listArgumentsByUser(true).stream().anyMatch(a -> a.getId().equals(emptyArgId) && a.isDeleted()));
+
+        argumentService.deleteArgument(fullArgId);
+        for (String cardId : cardIds) {
+            cardService.markCardAsDeletedById(cardId);
+        }
+    }
+
     @DisplayName("Test getting number of arguments by user")
     @Test
     public void testNumberOfArguments() {
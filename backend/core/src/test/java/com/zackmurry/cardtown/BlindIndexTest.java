@@ -0,0 +1,41 @@
+package com.zackmurry.cardtown;
+
+import com.zackmurry.cardtown.util.BlindIndex;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.Map;
+
+import static com.zackmurry.cardtown.util.EncryptionUtils.generateStrongAESKey;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlindIndexTest {
+
+    @DisplayName("Test normalizing words")
+    @Test
+    public void testWords() {
+        assertEquals(List.of("cafe", "deja", "vu", "2021", "econ"), BlindIndex.words("Café — Déjà-vu, a 2021 ECON!"));
+        assertTrue(BlindIndex.words(null).isEmpty());
+        assertTrue(BlindIndex.words(" . ").isEmpty());
+        assertEquals(64, BlindIndex.words("x".repeat(100)).get(0).length());
+    }
+
+    @DisplayName("Test tokens and weights")
+    @Test
+    public void testTokens() throws GeneralSecurityException {
+        final byte[] key = generateStrongAESKey(256).getEncoded();
+        final BlindIndex blindIndex = BlindIndex.forKey(key);
+        final Map<Long, Integer> tokens = blindIndex.cardTokens("Nuclear deterrence", "Smith 20", "deterrence fails; deterrence");
+        assertEquals(BlindIndex.TAG_WEIGHT, tokens.get(blindIndex.token("nuclear")));
+        assertEquals(BlindIndex.TAG_WEIGHT + 2 * BlindIndex.BODY_WEIGHT, tokens.get(blindIndex.token("deterrence")));
+        assertEquals(BlindIndex.CITE_WEIGHT, tokens.get(blindIndex.token("smith")));
+
+        assertArrayEquals(new long[] { blindIndex.token("nuclear") }, blindIndex.queryTokens("NUCLEAR nuclear"));
+        assertEquals(blindIndex.token("nuclear"), BlindIndex.forKey(key).token("nuclear"), "Tokens should be the same for the same key");
+        assertNotEquals(blindIndex.token("nuclear"), BlindIndex.forKey(generateStrongAESKey(256).getEncoded()).token("nuclear"),
+                "Tokens should be different for different keys");
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.zackmurry.cardtown;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zackmurry.cardtown.exception.UserNotFoundException;
+import com.zackmurry.cardtown.model.auth.UserModel;
+import com.zackmurry.cardtown.model.card.CardCreateRequest;
+import com.zackmurry.cardtown.model.card.CardImportError;
+import com.zackmurry.cardtown.model.card.CardImportResponse;
+import com.zackmurry.cardtown.model.card.ResponseCard;
+import com.zackmurry.cardtown.service.CardImportService;
+import com.zackmurry.cardtown.service.CardService;
+import com.zackmurry.cardtown.service.UserService;
+import com.zackmurry.cardtown.util.EncryptionUtils;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest(properties = "app.card-import.chunk-size=2")
+public class CardImportServiceTest {
+
+    @Autowired
+    private CardImportService cardImportService;
+
+    @Autowired
+    private CardService cardService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private EncryptionUtils encryptionUtils;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private String testEmail;
+
+    private UsernamePasswordAuthenticationToken token;
+
+    @BeforeAll
+    public void createTestUser() throws UserNotFoundException {
+        testEmail = RandomStringUtils.randomAlphanumeric(12);
+
+        // try again if this user already exists
+        if (userService.accountExists(testEmail)) {
+            createTestUser();
+        } else {
+            final String testPassword = RandomStringUtils.randomAlphanumeric(12);
+            assertDoesNotThrow(() -> userService.createUserAccount(testEmail, "__TEST__", "__USER__", testPassword));
+            final UserModel userModel = userService.getUserModelByEmail(
+                    testEmail,
+                    encryptionUtils.getSHA256Hash(testPassword.getBytes(StandardCharsets.UTF_8))
+            ).orElseThrow(UserNotFoundException::new);
+            token = new UsernamePasswordAuthenticationToken(userModel, null, userModel.getAuthorities());
+            SecurityContextHolder.getContext().setAuthentication(token);
+        }
+    }
+
+    @AfterAll
+    public void deleteTestUser() {
+        assertDoesNotThrow(() -> userService.deleteUserAccount(testEmail));
+    }
+
+    @BeforeEach
+    public void setAuthentication() {
+        SecurityContextHolder.getContext().setAuthentication(token);
+    }
+
+    private CardImportResponse importCards(String body) throws IOException {
+        return cardImportService.importCards(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private List<Integer> errorIndices(CardImportResponse response) {
+        return response.getErrors().stream().map(CardImportError::getIndex).collect(Collectors.toList());
+    }
+
+    @DisplayName("Test importing newline-delimited JSON")
+    @Test
+    public void testImportNdjson() throws IOException {
+        final String word = RandomStringUtils.randomAlphabetic(20);
+        final List<CardCreateRequest> cards = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final CardCreateRequest card = CardServiceTest.generateMockCard(null);
+            card.setTag(word + " " + i);
+            cards.add(card);
+        }
+        final CardCreateRequest missingCite = CardServiceTest.generateMockCard(null);
+        missingCite.setCite(null);
+        final StringBuilder body = new StringBuilder();
+        body.append(objectMapper.writeValueAsString(cards.get(0))).append('\n');
+        body.append(objectMapper.writeValueAsString(missingCite)).append('\n');
+        body.append(objectMapper.writeValueAsString(cards.get(1))).append('\n');
+        body.append("{ \"tag\": { \"not\": \"a string\" } }\n");
+        for (int i = 2; i < cards.size(); i++) {
+            body.append(objectMapper.writeValueAsString(cards.get(i))).append('\n');
+        }
+
+        final CardImportResponse response = importCards(body.toString());
+        assertEquals(List.of(1, 3), errorIndices(response), "Invalid cards should be reported without stopping the import");
+        assertEquals(cards.size(), response.getIds().size());
+        for (int i = 0; i < cards.size(); i++) {
+            final ResponseCard imported = cardService.getResponseCardById(response.getIds().get(i));
+            assertEquals(cards.get(i).getTag(), imported.getTag());
+            assertEquals(cards.get(i).getBodyText(), imported.getBodyText());
+            assertEquals("__TEST__", imported.getOwner().getName().getFirst());
+        }
+        assertEquals(cards.size(), cardService.searchCards(word, 50).size(), "Imported cards should be searchable");
+    }
+
+    @DisplayName("Test importing a JSON array")
+    @Test
+    public void testImportArray() throws IOException {
+        final List<CardCreateRequest> cards = List.of(CardServiceTest.generateMockCard(null), CardServiceTest.generateMockCard(null), CardServiceTest.generateMockCard(null));
+        final CardImportResponse response = importCards(objectMapper.writeValueAsString(cards));
+        assertTrue(response.getErrors().isEmpty());
+        assertEquals(3, response.getIds().size());
+        assertEquals(cards.get(2).getCite(), cardService.getResponseCardById(response.getIds().get(2)).getCite());
+
+        final String truncated = objectMapper.writeValueAsString(cards);
+        final CardImportResponse partial = importCards(truncated.substring(0, truncated.length() - 20));
+        assertEquals(2, partial.getIds().size(), "Cards before malformed JSON should still be imported");
+        assertEquals(List.of(2), errorIndices(partial));
+    }
+
+}
@@ -1,21 +1,33 @@
 package com.zackmurry.cardtown;
 
+import com.zackmurry.cardtown.dao.CursorQueries;
+import com.zackmurry.cardtown.dao.card.CardDao;
+import com.zackmurry.cardtown.exception.BadRequestException;
 import com.zackmurry.cardtown.exception.CardNotFoundException;
 import com.zackmurry.cardtown.exception.UserNotFoundException;
+import com.zackmurry.cardtown.model.EntityVersion;
 import com.zackmurry.cardtown.model.auth.UserModel;
 import com.zackmurry.cardtown.model.card.CardCreateRequest;
 import com.zackmurry.cardtown.model.card.CardEntity;
 import com.zackmurry.cardtown.model.card.CardPreview;
+import com.zackmurry.cardtown.model.card.CardSyncResponse;
 import com.zackmurry.cardtown.model.card.ResponseCard;
 import com.zackmurry.cardtown.model.team.TeamCreateRequest;
 import com.zackmurry.cardtown.model.team.TeamCreationResponse;
 import com.zackmurry.cardtown.model.team.TeamJoinRequest;
+import com.zackmurry.cardtown.service.CardCipherMigrationService;
 import com.zackmurry.cardtown.service.CardService;
 import com.zackmurry.cardtown.service.TeamService;
 import com.zackmurry.cardtown.service.UserService;
+import com.zackmurry.cardtown.util.AESContext;
+import com.zackmurry.cardtown.util.CipherText;
+import com.zackmurry.cardtown.util.DecryptedCardCache;
 import com.zackmurry.cardtown.util.EncryptionUtils;
 import com.zackmurry.cardtown.util.UUIDCompressor;
+import com.zackmurry.cardtown.util.UnreadableCardCache;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.tomcat.util.codec.binary.Base64;
 import org.junit.jupiter.api.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -23,10 +35,14 @@ import org.springframework.lang.NonNull;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
 
+import javax.sql.DataSource;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -43,9 +59,24 @@ public class CardServiceTest {
     @Autowired
     private TeamService teamService;
 
+    @Autowired
+    private CardCipherMigrationService cardCipherMigrationService;
+
+    @Autowired
+    private CardDao cardDao;
+
+    @Autowired
+    private UnreadableCardCache unreadableCardCache;
+
     @Autowired
     private EncryptionUtils encryptionUtils;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private DataSource dataSource;
+
     private String testEmail;
     private String testPassword;
 
@@ -144,6 +175,47 @@ public class CardServiceTest {
         assertTrue(cardEntity.isDeleted());
     }
 
+    @DisplayName("Test that card versions change with the card")
+    @Test
+    public void testCardVersion() {
+        final String cardId = cardService.createCard(generateMockCard(testEmail));
+        final EntityVersion version = cardService.getCardVersionById(cardId);
+        assertEquals(version.getETag(), cardService.getCardVersionById(cardId).getETag());
+
+        // Changes right after each other still need different versions
+        final Set<String> eTags = new HashSet<>();
+        eTags.add(version.getETag());
+        for (int i = 0; i < 5; i++) {
+            cardService.updateCardById(cardId, generateMockCard(testEmail));
+            assertTrue(eTags.add(cardService.getCardVersionById(cardId).getETag()));
+        }
+        cardService.markCardAsDeletedById(cardId);
+        assertTrue(eTags.add(cardService.getCardVersionById(cardId).getETag()));
+        cardService.restoreCardById(cardId);
+        assertTrue(eTags.add(cardService.getCardVersionById(cardId).getETag()));
+        assertTrue(cardService.getCardVersionById(cardId).getLastModified() >= version.getLastModified());
+
+        assertThrows(CardNotFoundException.class, () -> cardService.getCardVersionById(UUIDCompressor.compress(UUID.randomUUID())));
+        cardService.markCardAsDeletedById(cardId);
+    }
+
+    @DisplayName("Test caching decrypted cards")
+    @Test
+    public void testDecryptedCardCache() {
+        final String cardId = cardService.createCard(generateMockCard(testEmail));
+        final ResponseCard first = cardService.getResponseCardById(cardId);
+        final double hitsBefore = meterRegistry.get("cache.gets").tag("cache", "card").tag("result", "hit").functionCounter().count();
+        final ResponseCard cached = cardService.getResponseCardById(cardId);
+        assertEquals(hitsBefore + 1, meterRegistry.get("cache.gets").tag("cache", "card").tag("result", "hit").functionCounter().count());
+        assertEquals(first.getBodyHtml(), cached.getBodyHtml());
+        assertEquals(first.getTag(), cardService.getCardPreviewByIdIncludingDeleted(UUIDCompressor.decompress(cardId)).orElseThrow().getTag());
+
+        final CardCreateRequest update = generateMockCard(testEmail);
+        cardService.updateCardById(cardId, update);
+        assertTrue(createRequestEqualsResponse(update, cardService.getResponseCardById(cardId)), "Updated cards shouldn't be served from the cache");
+        cardService.markCardAsDeletedById(cardId);
+    }
+
     @DisplayName("Test card previews")
     @Test
     public void testCardPreviews() {
@@ -175,6 +247,241 @@ public class CardServiceTest {
         }
     }
 
+    @DisplayName("Test streaming cards")
+    @Test
+    public void testStreamingCards() throws IOException {
+        // More cards than fit in one fetch, so that rows are read and decrypted in more than one chunk
+        final Map<String, CardCreateRequest> cardCreateRequestsMap = new HashMap<>();
+        for (int i = 0; i < CursorQueries.FETCH_SIZE + 5; i++) {
+            final CardCreateRequest cardCreateRequest = generateMockCard(testEmail);
+            cardCreateRequestsMap.put(cardService.createCard(cardCreateRequest), cardCreateRequest);
+        }
+
+        final List<ResponseCard> streamedCards = new ArrayList<>();
+        cardService.forEachCardVisibleToUser(false, streamedCards::add);
+        assertEquals(cardService.getAllCardsVisibleToUser(false).size(), streamedCards.size());
+        for (ResponseCard rc : streamedCards) {
+            final CardCreateRequest createRequest = cardCreateRequestsMap.get(rc.getId());
+            if (createRequest != null) {
+                assertTrue(createRequestEqualsResponse(createRequest, rc));
+                assertEquals("__TEST__", rc.getOwner().getName().getFirst());
+            }
+        }
+        assertTrue(streamedCards.stream().map(ResponseCard::getId).collect(Collectors.toSet()).containsAll(cardCreateRequestsMap.keySet()));
+
+        final List<CardPreview> streamedPreviews = new ArrayList<>();
+        cardService.forEachCardPreviewByUser(streamedPreviews::add);
+        assertEquals(streamedCards.size(), streamedPreviews.size());
+        for (CardPreview cardPreview : streamedPreviews) {
+            final CardCreateRequest createRequest = cardCreateRequestsMap.get(cardPreview.getId());
+            if (createRequest != null) {
+                assertEquals(createRequest.getTag(), cardPreview.getTag());
+                assertEquals(createRequest.getBodyText(), cardPreview.getBodyText());
+            }
+        }
+
+        for (String cardId : cardCreateRequestsMap.keySet()) {
+            cardService.markCardAsDeletedById(cardId);
+        }
+    }
+
+    @DisplayName("Test searching cards")
+    @Test
+    public void testSearchCards() throws Exception {
+        final String word = RandomStringUtils.randomAlphabetic(20);
+        final String otherWord = RandomStringUtils.randomAlphabetic(20);
+        final CardCreateRequest inTag = generateMockCard(testEmail);
+        inTag.setTag("About " + word.toUpperCase());
+        final CardCreateRequest inBody = generateMockCard(testEmail);
+        inBody.setBodyText("Something about " + word + " and " + otherWord);
+        final CardCreateRequest inNeither = generateMockCard(testEmail);
+        final String inTagId = cardService.createCard(inTag);
+        final String inBodyId = cardService.createCard(inBody);
+        final String inNeitherId = cardService.createCard(inNeither);
+
+        assertEquals(List.of(inTagId, inBodyId), cardService.searchCards(word, 50), "Matches in the tag should rank above matches in the body");
+        assertEquals(List.of(inBodyId, inTagId), cardService.searchCards(word + " " + otherWord, 50), "Matching more words should rank higher");
+        assertEquals(List.of(inTagId), cardService.searchCards(word, 1));
+        assertTrue(cardService.searchCards(".", 50).isEmpty());
+        assertThrows(BadRequestException.class, () -> cardService.searchCards(word, 0));
+
+        // Edits replace the old tokens
+        cardService.updateCardById(inTagId, generateMockCard(testEmail));
+        assertEquals(List.of(inBodyId), cardService.searchCards(word, 50));
+        final CardCreateRequest edited = generateMockCard(testEmail);
+        edited.setCite(otherWord + " 21");
+        cardService.updateCardById(inNeitherId, edited);
+        assertEquals(Set.of(inBodyId, inNeitherId), new HashSet<>(cardService.searchCards(otherWord, 50)));
+
+        // Cards without tokens (like ones from before search existed) are indexed in the background by searches, or directly
+        try (final Connection connection = dataSource.getConnection();
+             final PreparedStatement preparedStatement = connection.prepareStatement("DELETE FROM card_tokens WHERE card_id = ?; UPDATE cards SET tokens_indexed = FALSE WHERE id = ?")) {
+            preparedStatement.setObject(1, UUIDCompressor.decompress(inBodyId));
+            preparedStatement.setObject(2, UUIDCompressor.decompress(inBodyId));
+            preparedStatement.execute();
+        }
+        cardService.indexUnindexedCards();
+        assertEquals(List.of(inBodyId), cardService.searchCards(word, 50));
+
+        // Cards that can't be decrypted are only read once
+        final UserModel principal = (UserModel) token.getPrincipal();
+        final CardEntity unreadable = generateMockCard(testEmail).toCardEntity(principal.getId());
+        unreadable.encryptFields(EncryptionUtils.forKey(EncryptionUtils.generateStrongAESKey(256).getEncoded()));
+        final UUID unreadableId = cardDao.createCard(unreadable);
+        cardService.indexUnindexedCards();
+        assertEquals(List.of(inBodyId), cardService.searchCards(word, 50));
+        final Set<UUID> unreadableIds = unreadableCardCache.get(DecryptedCardCache.scopeOf(principal.getSecretKey()));
+        assertTrue(unreadableIds.contains(unreadableId));
+        assertTrue(cardDao.getUnindexedCardPreviewsByUser(principal.getId(), new UUID(0, 0), unreadableIds, CursorQueries.FETCH_SIZE).isEmpty(),
+                "Cards that couldn't be decrypted shouldn't be read again");
+        cardDao.deleteCardById(unreadableId);
+
+        cardService.markCardAsDeletedById(inBodyId);
+        assertTrue(cardService.searchCards(word, 50).isEmpty(), "Deleted cards shouldn't be found");
+        cardService.markCardAsDeletedById(inTagId);
+        cardService.markCardAsDeletedById(inNeitherId);
+    }
+
+    @DisplayName("Test syncing cards")
+    @Test
+    public void testSyncCards() {
+        final long watermark = cardService.syncCards(0).getWatermark();
+        final CardCreateRequest createRequest = generateMockCard(testEmail);
+        final String cardId = cardService.createCard(createRequest);
+
+        CardSyncResponse syncResponse = cardService.syncCards(watermark);
+        final ResponseCard syncedCard = syncResponse.getCards().stream().filter(c -> c.getId().equals(cardId)).findFirst().orElse(null);
+        assertNotNull(syncedCard, "A new card should be included in the next sync");
+        assertTrue(createRequestEqualsResponse(createRequest, syncedCard));
+        assertTrue(syncResponse.getWatermark() >= watermark);
+
+        // Deleting a card should send it again as a tombstone
+        cardService.markCardAsDeletedById(cardId);
+        syncResponse = cardService.syncCards(syncResponse.getWatermark());
+        assertTrue(syncResponse.getCards().stream().anyMatch(c -> c.getId().equals(cardId) && c.isDeleted()));
+
+        // Permanently deleting it should send its id
+        cardService.permanentlyDeleteCardById(cardId);
+        syncResponse = cardService.syncCards(syncResponse.getWatermark());
+        assertTrue(syncResponse.getCards().stream().noneMatch(c -> c.getId().equals(cardId)));
+        assertTrue(syncResponse.getRemovedIds().contains(cardId));
+
+        // Cards modified before the watermark shouldn't be sent
+        final UUID userId = ((UserModel) token.getPrincipal()).getId();
+        assertTrue(cardDao.getCardsModifiedSince(userId, System.currentTimeMillis() + 1000).isEmpty());
+        assertTrue(cardDao.getCardIdsDeletedSince(userId, System.currentTimeMillis() + 1000).isEmpty());
+    }
+
+    @DisplayName("Test getting multiple cards by id")
+    @Test
+    public void testGetResponseCardsByIds() {
+        final CardCreateRequest[] cardCreateRequests = new CardCreateRequest[10];
+        final List<UUID> cardIds = new ArrayList<>();
+        for (int i = 0; i < cardCreateRequests.length; i++) {
+            cardCreateRequests[i] = generateMockCard(testEmail);
+            cardIds.add(UUIDCompressor.decompress(cardService.createCard(cardCreateRequests[i])));
+        }
+        // Request the cards in reverse order with a duplicate, like an argument containing the same card twice
+        final List<UUID> requestedIds = new ArrayList<>(cardIds);
+        Collections.reverse(requestedIds);
+        requestedIds.add(cardIds.get(0));
+        final List<ResponseCard> responseCards = cardService.getResponseCardsByIds(requestedIds);
+        assertEquals(requestedIds.size(), responseCards.size());
+        for (int i = 0; i < requestedIds.size(); i++) {
+            final ResponseCard responseCard = responseCards.get(i);
+            assertEquals(UUIDCompressor.compress(requestedIds.get(i)), responseCard.getId(), "Cards should be returned in the requested order");
+            assertTrue(createRequestEqualsResponse(cardCreateRequests[cardIds.indexOf(requestedIds.get(i))], responseCard));
+        }
+
+        final List<UUID> idsWithMissingCard = new ArrayList<>(cardIds);
+        idsWithMissingCard.add(UUID.randomUUID());
+        assertThrows(CardNotFoundException.class, () -> cardService.getResponseCardsByIds(idsWithMissingCard));
+        assertTrue(cardService.getResponseCardsByIds(new ArrayList<>()).isEmpty());
+
+        for (UUID cardId : cardIds) {
+            assertDoesNotThrow(() -> cardService.markCardAsDeletedById(UUIDCompressor.compress(cardId)));
+        }
+    }
+
+    @DisplayName("Test reading and migrating v1 cards")
+    @Test
+    public void testLegacyCardMigration() throws Exception {
+        final UserModel principal = (UserModel) token.getPrincipal();
+        final CardCreateRequest request = generateMockCard(testEmail);
+        final byte[] secretKey = principal.getSecretKey();
+        // Cards used to be encrypted as Base64 v1 ciphers, which the DAO stores with a v1 header
+        final UUID cardId = cardDao.createCard(
+                new CardEntity(
+                        principal.getId(),
+                        Base64.encodeBase64String(EncryptionUtils.encryptAES(request.getTag().getBytes(StandardCharsets.UTF_8), secretKey)),
+                        Base64.encodeBase64String(EncryptionUtils.encryptAES(request.getCite().getBytes(StandardCharsets.UTF_8), secretKey)),
+                        Base64.encodeBase64String(EncryptionUtils.encryptAES(request.getCiteInformation().getBytes(StandardCharsets.UTF_8), secretKey)),
+                        Base64.encodeBase64String(EncryptionUtils.encryptAES(request.getBodyHtml().getBytes(StandardCharsets.UTF_8), secretKey)),
+                        Base64.encodeBase64String(EncryptionUtils.encryptAES(request.getBodyDraft().getBytes(StandardCharsets.UTF_8), secretKey)),
+                        Base64.encodeBase64String(EncryptionUtils.encryptAES(request.getBodyText().getBytes(StandardCharsets.UTF_8), secretKey))
+                )
+        );
+        final String compressedId = UUIDCompressor.compress(cardId);
+        assertEquals(CipherText.V1, CipherText.toBytes(cardDao.getCardById(cardId).orElseThrow().getBodyHtml())[0]);
+        assertTrue(createRequestEqualsResponse(request, cardService.getResponseCardById(compressedId)), "v1 cards should still be readable");
+        final CardPreview legacyPreview = cardService.getCardPreviewByIdIncludingDeleted(cardId).orElseThrow();
+        assertEquals(request.getTag(), legacyPreview.getTag());
+        assertEquals(request.getBodyText(), legacyPreview.getBodyText());
+
+        assertTrue(cardCipherMigrationService.migrateCards(principal) >= 1);
+        final CardEntity migratedCard = cardDao.getCardById(cardId).orElseThrow();
+        assertEquals(CipherText.V2, CipherText.toBytes(migratedCard.getTag())[0]);
+        assertEquals(CipherText.V2, CipherText.toBytes(migratedCard.getBodyHtml())[0]);
+        assertTrue(createRequestEqualsResponse(request, cardService.getResponseCardById(compressedId)), "Migrating a card shouldn't change its contents");
+        assertEquals(0, cardCipherMigrationService.migrateCards(principal));
+
+        // Newly created cards are never v1
+        final UUID newCardId = UUIDCompressor.decompress(cardService.createCard(generateMockCard(testEmail)));
+        assertNotEquals(CipherText.V1, CipherText.toBytes(cardDao.getCardById(newCardId).orElseThrow().getBodyHtml())[0]);
+
+        assertDoesNotThrow(() -> cardService.permanentlyDeleteCardById(compressedId));
+        assertDoesNotThrow(() -> cardService.permanentlyDeleteCardById(UUIDCompressor.compress(newCardId)));
+    }
+
+    @DisplayName("Test packed card storage")
+    @Test
+    public void testPackedCards() throws Exception {
+        // Packed storage is enabled in application.yml
+        final CardCreateRequest request = generateMockCard(testEmail);
+        final String cardId = cardService.createCard(request);
+        final CardEntity storedCard = cardDao.getCardById(UUIDCompressor.decompress(cardId)).orElseThrow();
+        assertTrue(CipherText.isRecord(storedCard.getTag()));
+        assertTrue(CipherText.isRecord(storedCard.getBodyHtml()));
+        assertEquals("", storedCard.getCite());
+        assertFalse(CipherText.isRecord(storedCard.getBodyText()), "Previews should be able to read the body text without the rest of the body");
+        assertTrue(createRequestEqualsResponse(request, cardService.getResponseCardById(cardId)));
+        final CardPreview cardPreview = cardService.getCardPreviewsByUser()
+                .stream()
+                .filter(preview -> preview.getId().equals(cardId))
+                .findFirst()
+                .orElseThrow();
+        assertEquals(request.getTag(), cardPreview.getTag());
+        assertEquals(request.getCite(), cardPreview.getCite());
+        assertEquals(request.getBodyText(), cardPreview.getBodyText());
+
+        final CardCreateRequest editRequest = generateMockCard(testEmail);
+        cardService.updateCardById(cardId, editRequest);
+        assertTrue(createRequestEqualsResponse(editRequest, cardService.getResponseCardById(cardId)));
+
+        // Unpacked and packed cards can be read the same way
+        final AESContext aes = EncryptionUtils.forKey(((UserModel) token.getPrincipal()).getSecretKey());
+        final CardEntity unpacked = request.toCardEntity(UUID.randomUUID());
+        final CardEntity packed = request.toCardEntity(UUID.randomUUID());
+        unpacked.encryptFields(aes);
+        packed.encryptFieldsPacked(aes);
+        unpacked.decryptFields(aes);
+        packed.decryptFields(aes);
+        assertTrue(createRequestEqualsResponse(request, ResponseCard.fromCard(unpacked, null, "")));
+        assertTrue(createRequestEqualsResponse(request, ResponseCard.fromCard(packed, null, "")));
+
+        assertDoesNotThrow(() -> cardService.permanentlyDeleteCardById(cardId));
+    }
+
     @Nested
     @TestInstance(TestInstance.Lifecycle.PER_CLASS)
     @DisplayName("Test team integration")
@@ -285,6 +592,35 @@ public class CardServiceTest {
             }
         }
 
+        @DisplayName("Test getting multiple team cards by id")
+        @Test
+        public void testTeamGetResponseCardsByIds() {
+            // Create cards as testUser and teamOwner
+            final List<UUID> cardIds = new ArrayList<>();
+            final List<CardCreateRequest> cardCreateRequests = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                SecurityContextHolder.getContext().setAuthentication(i % 2 == 0 ? token : teamOwnerToken);
+                final CardCreateRequest cardCreateRequest = generateMockCard(i % 2 == 0 ? testEmail : teamOwnerEmail);
+                cardCreateRequests.add(cardCreateRequest);
+                cardIds.add(UUIDCompressor.decompress(cardService.createCard(cardCreateRequest)));
+            }
+
+            // Both members should be able to load all of the cards at once
+            for (UsernamePasswordAuthenticationToken t : new UsernamePasswordAuthenticationToken[]{token, teamOwnerToken}) {
+                SecurityContextHolder.getContext().setAuthentication(t);
+                final List<ResponseCard> responseCards = cardService.getResponseCardsByIds(cardIds);
+                assertEquals(cardIds.size(), responseCards.size());
+                for (int i = 0; i < cardIds.size(); i++) {
+                    assertTrue(createRequestEqualsResponse(cardCreateRequests.get(i), responseCards.get(i)));
+                }
+            }
+
+            SecurityContextHolder.getContext().setAuthentication(token);
+            for (UUID cardId : cardIds) {
+                cardService.markCardAsDeletedById(UUIDCompressor.compress(cardId));
+            }
+        }
+
         @DisplayName("Test get all cards in team")
         @Test
         public void testTeamGetAllCards() {
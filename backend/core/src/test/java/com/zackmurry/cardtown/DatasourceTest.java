@@ -1,17 +1,24 @@
 package com.zackmurry.cardtown;
 
+import com.zaxxer.hikari.HikariDataSource;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
 
-import static org.junit.jupiter.api.Assertions.assertNotNull;
+import java.sql.Connection;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 @SpringBootTest
 public class DatasourceTest {
 
+    @Autowired
+    private HikariDataSource hikariDataSource;
+
     @Value("app.datasource.username")
     private String databaseUsername;
 
@@ -29,4 +36,19 @@ public class DatasourceTest {
     public void testDatabasePassword() {
         assertNotNull(databasePassword);
     }
+
+    @DisplayName("Test connection pool configuration")
+    @Test
+    public void testConnectionPool() {
+        assertEquals(30, hikariDataSource.getMaximumPoolSize());
+        // Connections should be returned to the pool after use instead of being held by the DAOs
+        assertDoesNotThrow(() -> {
+            for (int i = 0; i < hikariDataSource.getMaximumPoolSize() * 2; i++) {
+                try (final Connection connection = hikariDataSource.getConnection()) {
+                    assertTrue(connection.isValid(1));
+                }
+            }
+        });
+        assertEquals(0, hikariDataSource.getHikariPoolMXBean().getThreadsAwaitingConnection());
+    }
 }
@@ -0,0 +1,150 @@
+package com.zackmurry.cardtown;
+
+import com.zackmurry.cardtown.model.card.CardEntity;
+import com.zackmurry.cardtown.model.card.CardPreviewEntity;
+import com.zackmurry.cardtown.util.DecryptedCardCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DecryptedCardCacheTest {
+
+    private static final String SCOPE = DecryptedCardCache.scopeOf(new byte[] { 1, 2, 3 });
+
+    private static final String OTHER_SCOPE = DecryptedCardCache.scopeOf(new byte[] { 4, 5, 6 });
+
+    private static CardEntity generateCard(UUID ownerId, long lastModified) {
+        return new CardEntity(
+                UUID.randomUUID(),
+                ownerId,
+                RandomStringUtils.randomAlphanumeric(25),
+                RandomStringUtils.randomAlphanumeric(25),
+                RandomStringUtils.randomAlphanumeric(25),
+                "<p>" + RandomStringUtils.randomAlphanumeric(50) + "</p>",
+                RandomStringUtils.randomAlphanumeric(100),
+                RandomStringUtils.randomAlphanumeric(100),
+                0,
+                lastModified,
+                false
+        );
+    }
+
+    // A copy of a card as it would be read from the database, before decrypting
+    private static CardEntity encryptedCopy(CardEntity card, long lastModified) {
+        return new CardEntity(card.getId(), card.getOwnerId(), "?", "?", "?", "?", "?", "?", 0, lastModified, false);
+    }
+
+    private static CardPreviewEntity encryptedPreview(CardEntity card, long lastModified) {
+        return new CardPreviewEntity(card.getId(), card.getOwnerId(), "?", "?", "?", 0, lastModified, false);
+    }
+
+    @DisplayName("Test filling cards from the cache")
+    @Test
+    public void testFill() {
+        final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        final DecryptedCardCache cache = new DecryptedCardCache(meterRegistry, 1 << 20);
+        final CardEntity card = generateCard(UUID.randomUUID(), 10);
+        final CardEntity copy = encryptedCopy(card, 10);
+        assertFalse(cache.fill(SCOPE, copy));
+        cache.put(SCOPE, card);
+
+        assertTrue(cache.fill(SCOPE, copy));
+        assertEquals(card.getTag(), copy.getTag());
+        assertEquals(card.getCite(), copy.getCite());
+        assertEquals(card.getCiteInformation(), copy.getCiteInformation());
+        assertEquals(card.getBodyHtml(), copy.getBodyHtml());
+        assertEquals(card.getBodyDraft(), copy.getBodyDraft());
+        assertEquals(card.getBodyText(), copy.getBodyText());
+
+        final CardPreviewEntity preview = encryptedPreview(card, 10);
+        assertTrue(cache.fill(SCOPE, preview), "Full cards should also serve previews");
+        assertEquals(card.getTag(), preview.getTag());
+        assertEquals(card.getBodyText(), preview.getBodyText());
+
+        assertFalse(cache.fill(SCOPE, encryptedCopy(card, 11)), "Cards should only be served for the version they were cached at");
+        assertFalse(cache.fill(OTHER_SCOPE, encryptedCopy(card, 10)), "Cards should only be served for the key they were decrypted with");
+        assertEquals(2, meterRegistry.get("cache.gets").tag("cache", "card").tag("result", "hit").functionCounter().count());
+        assertEquals(3, meterRegistry.get("cache.gets").tag("cache", "card").tag("result", "miss").functionCounter().count());
+    }
+
+    @DisplayName("Test caching previews")
+    @Test
+    public void testPreviews() {
+        final DecryptedCardCache cache = new DecryptedCardCache(new SimpleMeterRegistry(), 1 << 20);
+        final CardEntity card = generateCard(UUID.randomUUID(), 10);
+        cache.put(SCOPE, new CardPreviewEntity(card.getId(), card.getOwnerId(), card.getTag(), card.getCite(), card.getBodyText(), 0, 10, false));
+        assertTrue(cache.fill(SCOPE, encryptedPreview(card, 10)));
+        assertFalse(cache.fill(SCOPE, encryptedCopy(card, 10)), "Previews shouldn't be used for full cards");
+
+        cache.put(SCOPE, card);
+        cache.put(SCOPE, new CardPreviewEntity(card.getId(), card.getOwnerId(), card.getTag(), card.getCite(), card.getBodyText(), 0, 10, false));
+        assertTrue(cache.fill(SCOPE, encryptedCopy(card, 10)), "Caching a preview shouldn't replace the full card");
+    }
+
+    @DisplayName("Test evicting by weight")
+    @Test
+    public void testEviction() {
+        final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        final CardEntity[] cards = new CardEntity[20];
+        for (int i = 0; i < cards.length; i++) {
+            cards[i] = generateCard(UUID.randomUUID(), 1);
+        }
+        final DecryptedCardCache probe = new DecryptedCardCache(new SimpleMeterRegistry(), Long.MAX_VALUE);
+        probe.put(SCOPE, cards[0]);
+        final long cardWeight = probe.getWeight();
+
+        final DecryptedCardCache cache = new DecryptedCardCache(meterRegistry, cardWeight * 5 + cardWeight / 2);
+        for (CardEntity card : cards) {
+            cache.put(SCOPE, card);
+            // Keep the first card in use so that it's never the one evicted
+            assertTrue(cache.fill(SCOPE, encryptedCopy(cards[0], 1)));
+        }
+        assertEquals(5, cache.size());
+        assertTrue(cache.getWeight() <= cardWeight * 5 + cardWeight / 2);
+        assertEquals(cards.length - 5, meterRegistry.get("cache.evictions").tag("cache", "card").functionCounter().count());
+        int cached = 0;
+        for (CardEntity card : cards) {
+            if (cache.fill(SCOPE, encryptedCopy(card, 1))) {
+                cached++;
+            }
+        }
+        assertEquals(5, cached);
+
+        final DecryptedCardCache disabled = new DecryptedCardCache(new SimpleMeterRegistry(), 0);
+        disabled.put(SCOPE, cards[0]);
+        assertEquals(0, disabled.size());
+    }
+
+    @DisplayName("Test invalidation")
+    @Test
+    public void testInvalidation() {
+        final DecryptedCardCache cache = new DecryptedCardCache(new SimpleMeterRegistry(), 1 << 20);
+        final UUID ownerId = UUID.randomUUID();
+        final CardEntity first = generateCard(ownerId, 1);
+        final CardEntity second = generateCard(ownerId, 1);
+        final CardEntity other = generateCard(UUID.randomUUID(), 1);
+        cache.put(SCOPE, first);
+        cache.put(SCOPE, second);
+        cache.put(OTHER_SCOPE, other);
+
+        cache.invalidate(first.getId());
+        assertFalse(cache.fill(SCOPE, encryptedCopy(first, 1)));
+        assertTrue(cache.fill(SCOPE, encryptedCopy(second, 1)));
+
+        cache.invalidateOwner(ownerId);
+        assertFalse(cache.fill(SCOPE, encryptedCopy(second, 1)));
+        assertTrue(cache.fill(OTHER_SCOPE, encryptedCopy(other, 1)));
+
+        cache.invalidateKey(new byte[] { 4, 5, 6 });
+        assertFalse(cache.fill(OTHER_SCOPE, encryptedCopy(other, 1)));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+
+}
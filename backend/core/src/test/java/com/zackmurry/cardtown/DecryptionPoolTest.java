@@ -0,0 +1,129 @@
+package com.zackmurry.cardtown;
+
+import com.zackmurry.cardtown.util.AESContext;
+import com.zackmurry.cardtown.util.DecryptionPool;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.zackmurry.cardtown.util.EncryptionUtils.forKey;
+import static com.zackmurry.cardtown.util.EncryptionUtils.generateStrongAESKey;
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest
+public class DecryptionPoolTest {
+
+    @Autowired
+    private DecryptionPool decryptionPool;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @DisplayName("Test decrypting lists")
+    @Test
+    public void testDecryptAll() throws Exception {
+        final AESContext aes = forKey(generateStrongAESKey(256).getEncoded());
+        for (int size : new int[] { 0, 1, 10, 1000 }) {
+            final List<String> plainTexts = new ArrayList<>();
+            final List<String[]> items = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                plainTexts.add(RandomStringUtils.randomAlphanumeric(1, 200));
+                items.add(new String[] { aes.encryptString(plainTexts.get(i)) });
+            }
+            final Set<String> threadNames = ConcurrentHashMap.newKeySet();
+            decryptionPool.decryptAll(items, aes, (item, itemAes) -> {
+                threadNames.add(Thread.currentThread().getName());
+                item[0] = itemAes.decryptString(item[0]);
+            });
+            for (int i = 0; i < size; i++) {
+                assertEquals(plainTexts.get(i), items.get(i)[0]);
+            }
+            if (size < 64) {
+                assertTrue(threadNames.size() <= 1, "Small lists should be decrypted on the calling thread");
+            }
+        }
+        assertTrue(meterRegistry.get("decryption.batches").tag("mode", "inline").timer().count() > 0);
+        if (Runtime.getRuntime().availableProcessors() > 1) {
+            assertTrue(meterRegistry.get("decryption.batches").tag("mode", "parallel").timer().count() > 0);
+        }
+    }
+
+    @DisplayName("Test encrypting lists")
+    @Test
+    public void testEncryptAll() throws Exception {
+        final AESContext aes = forKey(generateStrongAESKey(256).getEncoded());
+        final List<String> plainTexts = new ArrayList<>();
+        final List<String[]> items = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            plainTexts.add(RandomStringUtils.randomAlphanumeric(1, 200));
+            items.add(new String[] { plainTexts.get(i) });
+        }
+        decryptionPool.encryptAll(items, aes, (item, itemAes) -> item[0] = itemAes.encryptString(item[0]));
+        for (int i = 0; i < items.size(); i++) {
+            assertEquals(plainTexts.get(i), aes.decryptString(items.get(i)[0]));
+        }
+        final double encryptions = meterRegistry.get("encryption.batches").tag("mode", "inline").timer().count()
+                + meterRegistry.get("encryption.batches").tag("mode", "parallel").timer().count();
+        assertTrue(encryptions > 0, "Encrypting should be reported separately from decrypting");
+    }
+
+    @DisplayName("Test decrypting in parallel")
+    @Test
+    public void testParallelDecryption() throws Exception {
+        // A queue of one makes the pool saturate, so some chunks have to run on the calling thread
+        final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        final DecryptionPool pool = new DecryptionPool(registry, 4, 1, 8);
+        try {
+            final AESContext aes = forKey(generateStrongAESKey(256).getEncoded());
+            final List<String> plainTexts = new ArrayList<>();
+            final List<String[]> items = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                plainTexts.add(RandomStringUtils.randomAlphanumeric(1, 200));
+                items.add(new String[] { aes.encryptString(plainTexts.get(i)) });
+            }
+            final Set<String> threadNames = ConcurrentHashMap.newKeySet();
+            pool.decryptAll(items, aes, (item, itemAes) -> {
+                threadNames.add(Thread.currentThread().getName());
+                item[0] = itemAes.decryptString(item[0]);
+            });
+            for (int i = 0; i < items.size(); i++) {
+                assertEquals(plainTexts.get(i), items.get(i)[0]);
+            }
+            assertTrue(threadNames.size() > 1, "Large lists should be split across threads");
+            assertEquals(1, registry.get("decryption.batches").tag("mode", "parallel").timer().count());
+
+            final List<String[]> invalidItems = new ArrayList<>(items.subList(0, 100));
+            invalidItems.add(new String[] { "not a cipher" });
+            assertThrows(Exception.class, () -> pool.decryptAll(invalidItems, aes, (item, itemAes) -> item[0] = itemAes.decryptString(item[0])));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @DisplayName("Test decryption errors")
+    @Test
+    public void testDecryptAllErrors() throws Exception {
+        final AESContext aes = forKey(generateStrongAESKey(256).getEncoded());
+        final AESContext otherAes = forKey(generateStrongAESKey(256).getEncoded());
+        final List<String[]> items = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            items.add(new String[] { aes.encryptString(RandomStringUtils.randomAlphanumeric(20)) });
+        }
+        // The item that fails is in the last chunk, so it's decrypted by a worker if there is more than one
+        items.add(new String[] { otherAes.encryptString("wrong key") });
+        assertThrows(GeneralSecurityException.class, () -> decryptionPool.decryptAll(items, aes, (item, itemAes) -> item[0] = itemAes.decryptString(item[0])));
+    }
+
+}
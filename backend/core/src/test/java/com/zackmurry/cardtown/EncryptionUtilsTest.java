@@ -1,7 +1,10 @@
 package com.zackmurry.cardtown;
 
+import com.zackmurry.cardtown.util.AESContext;
+import com.zackmurry.cardtown.util.CipherText;
 import com.zackmurry.cardtown.util.EncryptionUtils;
 import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.tomcat.util.codec.binary.Base64;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
@@ -9,8 +12,14 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static com.zackmurry.cardtown.util.EncryptionUtils.*;
 import static org.junit.jupiter.api.Assertions.*;
@@ -71,4 +80,97 @@ public class EncryptionUtilsTest {
         }
     }
 
+    @DisplayName("Test reusable AES contexts")
+    @Test
+    public void testAESContext() throws Exception {
+        final byte[] key = generateStrongAESKey(256).getEncoded();
+        final AESContext aes = forKey(key);
+        for (int i = 0; i < 100; i++) {
+            final String toBeEncrypted = RandomStringUtils.randomAlphanumeric(0, 200);
+            assertEquals(toBeEncrypted, aes.decryptString(aes.encryptString(toBeEncrypted)));
+            // Contexts should be interchangeable with the static methods
+            assertEquals(toBeEncrypted, aes.decryptString(encryptStringAES(toBeEncrypted, key)));
+            assertEquals(toBeEncrypted, decryptStringAES(aes.encryptString(toBeEncrypted), key));
+        }
+        assertNotEquals(aes.encryptString("same text"), aes.encryptString("same text"), "Each encryption should use a new IV");
+
+        final AESContext otherAes = forKey(generateStrongAESKey(256).getEncoded());
+        final String cipherText = aes.encryptString(RandomStringUtils.randomAlphanumeric(64));
+        assertThrows(GeneralSecurityException.class, () -> otherAes.decryptString(cipherText));
+        assertThrows(GeneralSecurityException.class, () -> aes.decrypt(new byte[3]));
+
+        // Contexts are shared between threads when decrypting lists
+        final ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                results.add(executorService.submit(() -> {
+                    for (int j = 0; j < 100; j++) {
+                        final String text = RandomStringUtils.randomAlphanumeric(1, 100);
+                        if (!text.equals(aes.decryptString(aes.encryptString(text)))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @DisplayName("Test versioned ciphers")
+    @Test
+    public void testVersionedCiphers() throws Exception {
+        final byte[] key = generateStrongAESKey(256).getEncoded();
+        final AESContext aes = forKey(key);
+        final String text = RandomStringUtils.randomAlphanumeric(100);
+
+        final String v2 = aes.encryptString(text);
+        assertTrue(CipherText.isVersioned(v2), "New ciphers should be versioned");
+        final byte[] v2Bytes = CipherText.toBytes(v2);
+        assertEquals(CipherText.V2, v2Bytes[0]);
+        // header byte + nonce + tag
+        assertEquals(1 + 12 + text.length() + 16, v2Bytes.length);
+        assertEquals(v2, CipherText.toText(v2Bytes));
+
+        // Legacy ciphers are readable both as Base64 and after being given a v1 header
+        final String v1 = Base64.encodeBase64String(encryptAES(text.getBytes(StandardCharsets.UTF_8), key));
+        assertFalse(CipherText.isVersioned(v1));
+        assertEquals(text, aes.decryptString(v1));
+        final byte[] v1Bytes = CipherText.toBytes(v1);
+        assertTrue(CipherText.isLegacy(v1Bytes));
+        assertEquals(text, new String(aes.decryptVersioned(v1Bytes), StandardCharsets.UTF_8));
+        assertEquals(text, aes.decryptString(CipherText.toText(v1Bytes)));
+
+        // Unlike v1, v2 ciphers can't be modified without being detected
+        v2Bytes[v2Bytes.length - 20] ^= 1;
+        assertThrows(GeneralSecurityException.class, () -> aes.decryptVersioned(v2Bytes));
+        assertThrows(GeneralSecurityException.class, () -> forKey(generateStrongAESKey(256).getEncoded()).decryptString(v2));
+        assertThrows(GeneralSecurityException.class, () -> aes.decryptVersioned(new byte[] { 7, 1, 2, 3 }));
+
+        assertEquals("", CipherText.toText(new byte[0]));
+        assertNull(CipherText.toBytes(null));
+    }
+
+    @DisplayName("Test encrypting records")
+    @Test
+    public void testRecords() throws Exception {
+        final AESContext aes = forKey(generateStrongAESKey(256).getEncoded());
+        final String[] values = { RandomStringUtils.randomAlphanumeric(50), "", null, "caf\u00e9 \u2014 \ud83d\ude00", RandomStringUtils.random(3000) };
+        final String record = aes.encryptRecord(values);
+        assertTrue(CipherText.isRecord(record));
+        assertArrayEquals(values, aes.decryptRecord(record));
+        assertArrayEquals(new String[0], aes.decryptRecord(aes.encryptRecord()));
+
+        // Records and single values can't be mixed up
+        final String single = aes.encryptString(values[0]);
+        assertFalse(CipherText.isRecord(single));
+        assertThrows(GeneralSecurityException.class, () -> aes.decryptRecord(single));
+        assertThrows(GeneralSecurityException.class, () -> aes.decryptString(record));
+    }
+
 }
@@ -0,0 +1,177 @@
+package com.zackmurry.cardtown;
+
+import com.zackmurry.cardtown.dao.card.CardDao;
+import com.zackmurry.cardtown.exception.BadRequestException;
+import com.zackmurry.cardtown.exception.UserNotFoundException;
+import com.zackmurry.cardtown.model.analytic.AnalyticCreateRequest;
+import com.zackmurry.cardtown.model.analytic.ResponseAnalytic;
+import com.zackmurry.cardtown.model.arg.ArgumentCreateRequest;
+import com.zackmurry.cardtown.model.auth.UserModel;
+import com.zackmurry.cardtown.model.card.CardEntity;
+import com.zackmurry.cardtown.model.card.ResponseCard;
+import com.zackmurry.cardtown.model.export.ExportError;
+import com.zackmurry.cardtown.model.export.ExportRecord;
+import com.zackmurry.cardtown.model.export.ExportRecordType;
+import com.zackmurry.cardtown.model.export.ExportedArgument;
+import com.zackmurry.cardtown.model.export.ExportedArgumentItem;
+import com.zackmurry.cardtown.service.ArgumentService;
+import com.zackmurry.cardtown.service.CardService;
+import com.zackmurry.cardtown.service.ExportService;
+import com.zackmurry.cardtown.service.UserService;
+import com.zackmurry.cardtown.util.EncryptionUtils;
+import com.zackmurry.cardtown.util.UUIDCompressor;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest
+public class ExportServiceTest {
+
+    @Autowired
+    private ExportService exportService;
+
+    @Autowired
+    private CardService cardService;
+
+    @Autowired
+    private ArgumentService argumentService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private CardDao cardDao;
+
+    @Autowired
+    private EncryptionUtils encryptionUtils;
+
+    private String testEmail;
+
+    private UsernamePasswordAuthenticationToken token;
+
+    @BeforeAll
+    public void createTestUser() throws UserNotFoundException {
+        testEmail = RandomStringUtils.randomAlphanumeric(12);
+
+        // try again if this user already exists
+        if (userService.accountExists(testEmail)) {
+            createTestUser();
+        } else {
+            final String testPassword = RandomStringUtils.randomAlphanumeric(12);
+            assertDoesNotThrow(() -> userService.createUserAccount(testEmail, "__TEST__", "__USER__", testPassword));
+            final UserModel userModel = userService.getUserModelByEmail(
+                    testEmail,
+                    encryptionUtils.getSHA256Hash(testPassword.getBytes(StandardCharsets.UTF_8))
+            ).orElseThrow(UserNotFoundException::new);
+            token = new UsernamePasswordAuthenticationToken(userModel, null, userModel.getAuthorities());
+            SecurityContextHolder.getContext().setAuthentication(token);
+        }
+    }
+
+    @AfterAll
+    public void deleteTestUser() {
+        assertDoesNotThrow(() -> userService.deleteUserAccount(testEmail));
+    }
+
+    @BeforeEach
+    public void setAuthentication() {
+        SecurityContextHolder.getContext().setAuthentication(token);
+    }
+
+    private List<ExportRecord> export(String after) throws IOException {
+        final List<ExportRecord> records = new ArrayList<>();
+        exportService.exportLibrary(after, records::add);
+        return records;
+    }
+
+    @DisplayName("Test exporting and resuming an export")
+    @Test
+    public void testExport() throws IOException {
+        final List<String> cardIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            cardIds.add(cardService.createCard(CardServiceTest.generateMockCard(testEmail)));
+        }
+        final String argumentName = RandomStringUtils.randomAlphanumeric(20);
+        final String argumentId = argumentService.createArgument(new ArgumentCreateRequest(argumentName));
+        argumentService.addCardToArgument(argumentId, cardIds.get(1));
+        final ResponseAnalytic analytic = argumentService.addAnalyticToArgument(argumentId, new AnalyticCreateRequest("Extend this"));
+        argumentService.addCardToArgument(argumentId, cardIds.get(0));
+        cardService.markCardAsDeletedById(cardIds.get(2));
+
+        final List<ExportRecord> records = export(null);
+        assertEquals(4, records.size());
+        final List<ResponseCard> cards = records.subList(0, 3).stream().map(record -> (ResponseCard) record.getData()).collect(Collectors.toList());
+        assertTrue(records.subList(0, 3).stream().allMatch(record -> record.getType() == ExportRecordType.CARD), "Cards should be exported before arguments");
+        // UUID#compareTo compares signed longs, but Postgres orders UUIDs by their unsigned bytes, like their strings
+        final List<String> sortedIds = cardIds.stream().sorted(Comparator.comparing(id -> UUIDCompressor.decompress(id).toString())).collect(Collectors.toList());
+        assertEquals(sortedIds, cards.stream().map(ResponseCard::getId).collect(Collectors.toList()), "Cards should be exported in order of id");
+        final ResponseCard deletedCard = cards.stream().filter(card -> card.getId().equals(cardIds.get(2))).findFirst().orElseThrow();
+        assertTrue(deletedCard.isDeleted(), "Deleted cards should be exported and marked as deleted");
+        assertEquals(cardService.getResponseCardById(cardIds.get(0)).getBodyHtml(), cards.stream().filter(card -> card.getId().equals(cardIds.get(0))).findFirst().orElseThrow().getBodyHtml());
+
+        assertEquals(ExportRecordType.ARGUMENT, records.get(3).getType());
+        final ExportedArgument argument = (ExportedArgument) records.get(3).getData();
+        assertEquals(argumentId, argument.getId());
+        assertEquals(argumentName, argument.getName());
+        final List<ExportedArgumentItem> items = argument.getItems();
+        assertEquals(3, items.size());
+        assertEquals(cardIds.get(1), items.get(0).getCardId());
+        assertEquals(analytic.getId(), items.get(1).getAnalyticId());
+        assertEquals("Extend this", items.get(1).getBody());
+        assertEquals(cardIds.get(0), items.get(2).getCardId());
+
+        // Resuming after a record should export exactly the records after it
+        for (int i = 0; i < records.size(); i++) {
+            final List<ExportRecord> resumed = export(records.get(i).getCursor());
+            assertEquals(records.size() - i - 1, resumed.size());
+            if (!resumed.isEmpty()) {
+                assertEquals(records.get(i + 1).getCursor(), resumed.get(0).getCursor());
+            }
+        }
+        assertThrows(BadRequestException.class, () -> export("CARD"));
+        assertThrows(BadRequestException.class, () -> export("TEAM:" + argumentId));
+        assertThrows(BadRequestException.class, () -> export("CARD:***"));
+    }
+
+    @DisplayName("Test exporting a card that can't be decrypted")
+    @Test
+    public void testExportUnreadableCard() throws Exception {
+        final UserModel principal = (UserModel) token.getPrincipal();
+        final CardEntity unreadable = CardServiceTest.generateMockCard(testEmail).toCardEntity(principal.getId());
+        unreadable.encryptFields(EncryptionUtils.forKey(EncryptionUtils.generateStrongAESKey(256).getEncoded()));
+        final String unreadableId = UUIDCompressor.compress(cardDao.createCard(unreadable));
+        final String readableId = cardService.createCard(CardServiceTest.generateMockCard(testEmail));
+
+        final List<ExportRecord> records = export(null);
+        final int errorIndex = IntStream.range(0, records.size())
+                .filter(i -> records.get(i).getType() == ExportRecordType.ERROR)
+                .findFirst()
+                .orElseThrow();
+        final ExportError error = (ExportError) records.get(errorIndex).getData();
+        assertEquals(ExportRecordType.CARD, error.getType());
+        assertEquals(unreadableId, error.getId());
+        assertEquals("CARD:" + unreadableId, records.get(errorIndex).getCursor());
+        assertTrue(records.stream().anyMatch(record -> record.getType() == ExportRecordType.CARD && ((ResponseCard) record.getData()).getId().equals(readableId)),
+                "Cards after one that can't be decrypted should still be exported");
+        assertEquals(records.size() - errorIndex - 1, export(records.get(errorIndex).getCursor()).size(), "Exports should be resumable after an error");
+        assertThrows(BadRequestException.class, () -> export("ERROR:" + unreadableId));
+
+        cardDao.deleteCardById(UUIDCompressor.decompress(unreadableId));
+        cardService.permanentlyDeleteCardById(readableId);
+    }
+
+}
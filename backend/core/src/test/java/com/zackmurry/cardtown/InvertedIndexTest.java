@@ -0,0 +1,116 @@
+package com.zackmurry.cardtown;
+
+import com.zackmurry.cardtown.util.InvertedIndex;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InvertedIndexTest {
+
+    private static List<UUID> ids(List<InvertedIndex.Hit> hits) {
+        return hits.stream().map(InvertedIndex.Hit::getId).collect(Collectors.toList());
+    }
+
+    @DisplayName("Test ranking")
+    @Test
+    public void testRanking() {
+        final InvertedIndex index = new InvertedIndex();
+        final UUID inTag = UUID.randomUUID();
+        final UUID inBody = UUID.randomUUID();
+        final UUID inBoth = UUID.randomUUID();
+        index.putCard(inTag, "Nuclear deterrence", "Smith 20", "Something else entirely", false);
+        index.putCard(inBody, "Economy", "Jones 19", "The economy hurts deterrence", false);
+        index.putCard(inBoth, "Deterrence holds", "Lee 21", "Deterrence has held since 1945", false);
+        index.putCard(UUID.randomUUID(), "Climate", "Doe 18", "Warming is real", false);
+
+        assertEquals(List.of(inBoth, inTag, inBody), ids(index.search("deterrence", 10)));
+        assertEquals(List.of(inBoth), ids(index.search("deterrence", 1)));
+        assertEquals(List.of(inBody), ids(index.search("DETERRENCE economy", 10)), "Every word should have to match");
+        assertTrue(index.search("deterrence missing", 10).isEmpty());
+        assertTrue(index.search("   ", 10).isEmpty());
+        assertTrue(index.search("deterrence", 0).isEmpty());
+    }
+
+    @DisplayName("Test prefixes and phrases")
+    @Test
+    public void testPrefixesAndPhrases() {
+        final InvertedIndex index = new InvertedIndex();
+        final UUID first = UUID.randomUUID();
+        final UUID second = UUID.randomUUID();
+        index.putCard(first, "Nuclear deterrence fails", "Smith 20", "", false);
+        index.putCard(second, "Deterrence is nuclear", "Nuclearism 19", "", false);
+
+        assertEquals(2, index.search("nuc*", 10).size());
+        assertEquals(2, index.search("deter* nuclear", 10).size());
+        assertTrue(index.search("nuc", 10).isEmpty(), "Words without * should match whole words only");
+        assertEquals(List.of(first), ids(index.search("\"nuclear deterrence\"", 10)));
+        assertEquals(List.of(second), ids(index.search("\"is nuclear\"", 10)));
+        assertEquals(List.of(first), ids(index.search("deterrence-fa*", 10)), "The last word of a phrase should be able to be a prefix");
+        assertEquals(List.of(first), ids(index.search("nuclear-deterrence", 10)), "Hyphenated words should match as a phrase");
+        assertTrue(index.search("\"fails smith\"", 10).isEmpty(), "Phrases shouldn't span fields");
+    }
+
+    @DisplayName("Test hiding, replacing, and removing documents")
+    @Test
+    public void testChanges() {
+        final InvertedIndex index = new InvertedIndex();
+        final UUID card = UUID.randomUUID();
+        final UUID argument = UUID.randomUUID();
+        final UUID analytic = UUID.randomUUID();
+        index.putCard(card, "Tariffs", "Smith 20", "Tariffs raise prices", false);
+        index.putArgument(argument, "Tariffs aff", false);
+        index.putAnalytic(analytic, argument, "Extend tariffs");
+
+        final List<InvertedIndex.Hit> hits = index.search("tariffs", 10);
+        assertEquals(3, hits.size());
+        final InvertedIndex.Hit analyticHit = hits.stream().filter(hit -> hit.getId().equals(analytic)).findFirst().orElseThrow();
+        assertEquals(InvertedIndex.DocumentType.ANALYTIC, analyticHit.getType());
+        assertEquals(argument, analyticHit.getParentId());
+
+        index.setHidden(card, true);
+        index.updateCard(card, "Quotas", "Smith 20", "Quotas raise prices");
+        assertTrue(index.search("quotas", 10).isEmpty(), "Updating a hidden card should keep it hidden");
+        index.setHidden(card, false);
+        assertEquals(List.of(card), ids(index.search("quotas", 10)));
+        assertEquals(2, index.search("tariffs", 10).size());
+
+        index.setHidden(argument, true);
+        assertTrue(index.search("tariffs", 10).isEmpty(), "Analytics in hidden arguments should be hidden too");
+        index.renameArgument(argument, "Quotas aff");
+        index.setHidden(argument, false);
+        assertEquals(2, index.search("quotas", 10).size());
+
+        index.removeArgument(argument);
+        assertEquals(List.of(card), ids(index.search("quotas", 10)));
+        assertTrue(index.search("tariffs", 10).isEmpty());
+        index.remove(card);
+        assertEquals(0, index.size());
+    }
+
+    @DisplayName("Test compaction")
+    @Test
+    public void testCompaction() {
+        final InvertedIndex index = new InvertedIndex();
+        final List<UUID> kept = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            final UUID id = UUID.randomUUID();
+            index.putCard(id, "Card " + i, "Cite", i % 2 == 0 ? "even" : "odd", false);
+            if (i % 10 == 0) {
+                kept.add(id);
+            } else {
+                index.remove(id);
+            }
+        }
+        assertEquals(kept.size(), index.size());
+        assertEquals(kept.size(), index.search("even", 1000).size());
+        assertTrue(index.search("odd", 1000).isEmpty());
+        assertEquals(List.of(kept.get(3)), ids(index.search("card 30", 10)));
+    }
+
+}
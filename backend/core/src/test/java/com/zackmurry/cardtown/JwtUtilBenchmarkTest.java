@@ -0,0 +1,91 @@
+package com.zackmurry.cardtown;
+
+import com.zackmurry.cardtown.model.auth.JwtClaims;
+import com.zackmurry.cardtown.service.UserService;
+import com.zackmurry.cardtown.util.JwtUtil;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A microbenchmark of the per-request cost of reading a jwt in <code>JwtRequestFilter</code>.
+ * Compares parsing the token once to the old approach of parsing it for every claim (extractSubject, extractEncryptionKey,
+ * and validateToken, which parses it twice more). Timings depend on the machine, so this only reports them, and it's
+ * left out of the default test run (run it with <code>mvn test -Pbenchmark</code>)
+ */
+@Tag("benchmark")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest
+public class JwtUtilBenchmarkTest {
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    @Autowired
+    private UserService userService;
+
+    private String testEmail;
+
+    private UserDetails userDetails;
+
+    @BeforeAll
+    public void createTestUser() {
+        testEmail = RandomStringUtils.randomAlphanumeric(12);
+        while (userService.accountExists(testEmail)) {
+            testEmail = RandomStringUtils.randomAlphanumeric(12);
+        }
+        assertDoesNotThrow(() -> userService.createUserAccount(testEmail, "__TEST__", "__USER__", RandomStringUtils.randomAlphanumeric(12)));
+        userDetails = userService.loadUserByUsername(testEmail);
+    }
+
+    @AfterAll
+    public void deleteTestUser() {
+        assertDoesNotThrow(() -> userService.deleteUserAccount(testEmail));
+    }
+
+    @DisplayName("Benchmark parse-once jwt validation")
+    @Test
+    public void benchmarkParseOnce() {
+        final Map<String, Object> claims = new HashMap<>();
+        claims.put("ek", "ZW5jcnlwdGlvbktleQ==");
+        claims.put("f_name", "__TEST__");
+        claims.put("l_name", "__USER__");
+        final String jwt = jwtUtil.createToken(claims, userDetails.getUsername());
+        final int iterations = 20000;
+
+        // Warm up both paths so that the JIT doesn't favor whichever runs second
+        runRepeatedParsing(jwt, iterations);
+        runParseOnce(jwt, iterations);
+
+        final long repeatedNanos = runRepeatedParsing(jwt, iterations);
+        final long parseOnceNanos = runParseOnce(jwt, iterations);
+        System.out.printf("Jwt reading per request -- parse per claim: %d ns, parse once: %d ns%n", repeatedNanos / iterations, parseOnceNanos / iterations);
+    }
+
+    private long runRepeatedParsing(String jwt, int iterations) {
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            final String subject = jwtUtil.extractSubject(jwt);
+            final String encryptionKey = jwtUtil.extractEncryptionKey(jwt);
+            assertTrue(jwtUtil.validateToken(jwt, userDetails) && subject != null && encryptionKey != null);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private long runParseOnce(String jwt, int iterations) {
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            final JwtClaims jwtClaims = jwtUtil.parseToken(jwt);
+            assertTrue(jwtUtil.validateClaims(jwtClaims, userDetails) && jwtClaims.getEncryptionKey() != null);
+        }
+        return System.nanoTime() - start;
+    }
+
+}
@@ -1,27 +1,44 @@
 package com.zackmurry.cardtown;
 
+import com.zackmurry.cardtown.filter.JwtRequestFilter;
+import com.zackmurry.cardtown.model.auth.JwtClaims;
 import com.zackmurry.cardtown.service.UserService;
 import com.zackmurry.cardtown.util.JwtUtil;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.junit.jupiter.api.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 @SpringBootTest
 public class JwtUtilTest {
 
-    @Autowired
+    @SpyBean
     private JwtUtil jwtUtil;
 
+    @Autowired
+    private JwtRequestFilter jwtRequestFilter;
+
     @Autowired
     private UserService userService;
 
     private UserDetails userDetails;
 
+    private String testPassword;
+
     @BeforeAll
     public void createTestUser() {
         final String testEmail = RandomStringUtils.randomAlphanumeric(12);
@@ -30,7 +47,7 @@ public class JwtUtilTest {
         if (userService.accountExists(testEmail)) {
             createTestUser();
         } else {
-            final String testPassword = RandomStringUtils.randomAlphanumeric(12);
+            testPassword = RandomStringUtils.randomAlphanumeric(12);
             assertDoesNotThrow(() -> userService.createUserAccount(testEmail, "__TEST__", "__USER__", testPassword));
             userDetails = userService.loadUserByUsername(testEmail);
         }
@@ -67,6 +84,48 @@ public class JwtUtilTest {
         }
     }
 
+    @DisplayName("Test parsing claims once")
+    @Test
+    public void testParseToken() {
+        final Map<String, Object> claims = new HashMap<>();
+        claims.put("ek", "ZW5jcnlwdGlvbktleQ==");
+        claims.put("f_name", "__TEST__");
+        claims.put("l_name", "__USER__");
+        final String jwt = jwtUtil.createToken(claims, userDetails.getUsername());
+        final JwtClaims jwtClaims = jwtUtil.parseToken(jwt);
+        assertEquals(userDetails.getUsername(), jwtClaims.getSubject());
+        assertEquals("ZW5jcnlwdGlvbktleQ==", jwtClaims.getEncryptionKey());
+        assertEquals("__TEST__", jwtClaims.getFirstName());
+        assertEquals("__USER__", jwtClaims.getLastName());
+        assertEquals(jwtUtil.extractExpiration(jwt).getTime(), jwtClaims.getExpiration());
+        assertTrue(jwtUtil.validateClaims(jwtClaims, userDetails));
+        assertFalse(jwtUtil.validateClaims(new JwtClaims(userDetails.getUsername(), null, null, null, System.currentTimeMillis() - 1), userDetails));
+        assertFalse(jwtUtil.validateClaims(new JwtClaims(userDetails.getUsername() + "a", null, null, null, jwtClaims.getExpiration()), userDetails));
+        assertThrows(Exception.class, () -> jwtUtil.parseToken(jwt.substring(0, jwt.length() - 2)));
+    }
+
+    @DisplayName("Test that the request filter parses a jwt once per request")
+    @Test
+    public void testFilterParsesOnce() throws Exception {
+        final String jwt = userService.createAuthenticationToken(userDetails.getUsername(), testPassword).getJwt();
+        // The first request builds the principal and the second one gets it from the PrincipalCache
+        for (int i = 0; i < 2; i++) {
+            SecurityContextHolder.clearContext();
+            clearInvocations(jwtUtil);
+            final MockHttpServletRequest request = new MockHttpServletRequest();
+            request.addHeader("Authorization", "Bearer " + jwt);
+            final MockHttpServletResponse response = new MockHttpServletResponse();
+            jwtRequestFilter.doFilter(request, response, new MockFilterChain());
+            assertEquals(200, response.getStatus());
+            assertNotNull(SecurityContextHolder.getContext().getAuthentication());
+            verify(jwtUtil, times(1)).parseToken(jwt);
+            verify(jwtUtil, never()).extractSubject(any());
+            verify(jwtUtil, never()).extractEncryptionKey(any());
+            verify(jwtUtil, never()).validateToken(any(), any());
+        }
+        SecurityContextHolder.clearContext();
+    }
+
     @DisplayName("Test environment variable for secret key")
     @Test
     public void testEnvironmentVariable() {
@@ -0,0 +1,133 @@
+package com.zackmurry.cardtown;
+
+import com.zackmurry.cardtown.exception.UserNotFoundException;
+import com.zackmurry.cardtown.model.auth.FirstLastName;
+import com.zackmurry.cardtown.model.auth.UserModel;
+import com.zackmurry.cardtown.model.team.TeamCreateRequest;
+import com.zackmurry.cardtown.service.TeamService;
+import com.zackmurry.cardtown.service.UserService;
+import com.zackmurry.cardtown.util.EncryptionUtils;
+import com.zackmurry.cardtown.util.PrincipalCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest
+public class PrincipalCacheTest {
+
+    @Autowired
+    private PrincipalCache principalCache;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private TeamService teamService;
+
+    @Autowired
+    private EncryptionUtils encryptionUtils;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private String testEmail;
+    private String testPassword;
+    private UserModel principal;
+    private String jwt;
+
+    @BeforeAll
+    public void createTestUser() throws UserNotFoundException {
+        testEmail = RandomStringUtils.randomAlphanumeric(12, 40);
+        while (userService.accountExists(testEmail)) {
+            testEmail = RandomStringUtils.randomAlphanumeric(12, 40);
+        }
+        testPassword = RandomStringUtils.randomAlphanumeric(12, 20);
+        assertDoesNotThrow(() -> userService.createUserAccount(testEmail, "__TEST__", "__USER__", testPassword));
+        jwt = userService.createAuthenticationToken(testEmail, testPassword).getJwt();
+    }
+
+    @BeforeEach
+    public void setAuthentication() {
+        principal = userService.getUserModelByEmail(
+                testEmail,
+                encryptionUtils.getSHA256Hash(testPassword.getBytes(StandardCharsets.UTF_8))
+        ).orElseThrow(RuntimeException::new);
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities()));
+        principalCache.invalidateAll();
+    }
+
+    @AfterAll
+    public void deleteTestUser() {
+        assertDoesNotThrow(() -> userService.deleteUserAccount(testEmail));
+        assertTrue(principalCache.get(jwt).isEmpty(), "Deleting an account should invalidate its principals");
+    }
+
+    @DisplayName("Test caching principals")
+    @Test
+    public void testCachePrincipal() {
+        final double hitsBefore = meterRegistry.get("cache.gets").tag("cache", "principal").tag("result", "hit").functionCounter().count();
+        final double missesBefore = meterRegistry.get("cache.gets").tag("cache", "principal").tag("result", "miss").functionCounter().count();
+        assertTrue(principalCache.get(jwt).isEmpty());
+        principalCache.put(jwt, principal, System.currentTimeMillis() + 60000, principalCache.getInvalidationCount());
+        final UserModel cached = principalCache.get(jwt).orElseThrow();
+        assertEquals(principal.getId(), cached.getId());
+        assertEquals(principal.getFirstName(), cached.getFirstName());
+        assertArrayEquals(principal.getSecretKey(), cached.getSecretKey());
+        // Each request gets its own copy, so changing one doesn't change what other requests see
+        assertNotSame(cached, principalCache.get(jwt).orElseThrow());
+        cached.setFirstName("changed");
+        principal.setFirstName("changed");
+        assertEquals("__TEST__", principalCache.get(jwt).orElseThrow().getFirstName());
+        assertTrue(principalCache.get(jwt + "a").isEmpty(), "Principals should only be returned for the jwt they were cached with");
+        assertEquals(hitsBefore + 3, meterRegistry.get("cache.gets").tag("cache", "principal").tag("result", "hit").functionCounter().count());
+        assertEquals(missesBefore + 2, meterRegistry.get("cache.gets").tag("cache", "principal").tag("result", "miss").functionCounter().count());
+    }
+
+    @DisplayName("Test principal expiration")
+    @Test
+    public void testExpiration() {
+        principalCache.put(jwt, principal, System.currentTimeMillis() - 1, principalCache.getInvalidationCount());
+        assertTrue(principalCache.get(jwt).isEmpty(), "Principals of expired jwts should not be cached");
+    }
+
+    @DisplayName("Test invalidation when a principal is stale")
+    @Test
+    public void testStalePut() {
+        final long invalidationCount = principalCache.getInvalidationCount();
+        principalCache.invalidateUser(principal.getId());
+        principalCache.put(jwt, principal, System.currentTimeMillis() + 60000, invalidationCount);
+        assertTrue(principalCache.get(jwt).isEmpty(), "Principals built before an invalidation should not be cached");
+    }
+
+    @DisplayName("Test invalidation on user and team changes")
+    @Test
+    public void testInvalidation() {
+        principalCache.put(jwt, principal, System.currentTimeMillis() + 60000, principalCache.getInvalidationCount());
+        userService.updateUserName(new FirstLastName("__TEST__", "__USER__"));
+        assertTrue(principalCache.get(jwt).isEmpty(), "Changing a user's name should invalidate their principals");
+
+        principalCache.put(jwt, principal, System.currentTimeMillis() + 60000, principalCache.getInvalidationCount());
+        teamService.createTeam(new TeamCreateRequest(RandomStringUtils.randomAlphanumeric(1, 20)));
+        assertTrue(principalCache.get(jwt).isEmpty(), "Creating a team should invalidate the creator's principals");
+
+        final UserModel teamPrincipal = userService.getUserModelByEmail(
+                testEmail,
+                encryptionUtils.getSHA256Hash(testPassword.getBytes(StandardCharsets.UTF_8))
+        ).orElseThrow(RuntimeException::new);
+        assertTrue(teamPrincipal.getTeamId().isPresent());
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(teamPrincipal, null, teamPrincipal.getAuthorities()));
+        principalCache.put(jwt, teamPrincipal, System.currentTimeMillis() + 60000, principalCache.getInvalidationCount());
+        teamService.deleteTeam();
+        assertTrue(principalCache.get(jwt).isEmpty(), "Deleting a team should invalidate its members' principals");
+    }
+
+}
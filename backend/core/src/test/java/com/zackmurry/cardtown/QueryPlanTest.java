@@ -0,0 +1,95 @@
+package com.zackmurry.cardtown;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Makes sure that the queries of a DAO can be answered with an index instead of reading a whole table.
+ * <p>
+ * The test database is far too small for the planner to prefer an index on its own, so sequential scans are disabled
+ * while explaining. Postgres still picks a sequential scan if no index can serve the query, which is what this looks for
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest
+public abstract class QueryPlanTest {
+
+    // Tables that grow with usage. Scanning any of these is too slow once there are a few thousand users
+    private static final Set<String> LARGE_TABLES = Set.of("cards", "arguments", "argument_cards", "argument_analytics", "actions", "team_members", "users", "card_tombstones", "card_tokens");
+
+    private static final Pattern SEQ_SCAN = Pattern.compile("Seq Scan on (\\w+)");
+
+    protected static final UUID ID = UUID.randomUUID();
+
+    protected static final UUID[] IDS = { UUID.randomUUID(), UUID.randomUUID() };
+
+    @Autowired
+    private DataSource dataSource;
+
+    /**
+     * Gets the queries to check. Subclasses live in the DAOs' packages so that they can use the package-private SQL constants
+     *
+     * @return Each query, with example parameters in the order that they're bound
+     */
+    protected abstract Map<String, Object[]> getQueries();
+
+    @DisplayName("Test that DAO queries don't scan large tables")
+    @Test
+    public void testQueriesUseIndexes() throws SQLException {
+        final List<String> failures = new ArrayList<>();
+        try (final Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (final Statement statement = connection.createStatement()) {
+                statement.execute("SET LOCAL enable_seqscan = off");
+            }
+            for (Map.Entry<String, Object[]> query : getQueries().entrySet()) {
+                final String plan = explain(connection, query.getKey(), query.getValue());
+                final Matcher matcher = SEQ_SCAN.matcher(plan);
+                while (matcher.find()) {
+                    if (LARGE_TABLES.contains(matcher.group(1))) {
+                        failures.add(query.getKey() + "\n" + plan);
+                    }
+                }
+            }
+            connection.rollback();
+        }
+        assertTrue(failures.isEmpty(), "Queries scan large tables:\n" + String.join("\n\n", failures));
+    }
+
+    private static String explain(Connection connection, String sql, Object[] parameters) throws SQLException {
+        try (final PreparedStatement preparedStatement = connection.prepareStatement("EXPLAIN " + sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                if (parameters[i] instanceof UUID[]) {
+                    preparedStatement.setArray(i + 1, connection.createArrayOf("uuid", (UUID[]) parameters[i]));
+                } else if (parameters[i] instanceof Long[]) {
+                    preparedStatement.setArray(i + 1, connection.createArrayOf("int8", (Long[]) parameters[i]));
+                } else if (parameters[i] instanceof Integer[]) {
+                    preparedStatement.setArray(i + 1, connection.createArrayOf("int4", (Integer[]) parameters[i]));
+                } else {
+                    preparedStatement.setObject(i + 1, parameters[i]);
+                }
+            }
+            final ResultSet resultSet = preparedStatement.executeQuery();
+            final StringBuilder plan = new StringBuilder();
+            while (resultSet.next()) {
+                plan.append(resultSet.getString(1)).append('\n');
+            }
+            return plan.toString();
+        }
+    }
+
+}
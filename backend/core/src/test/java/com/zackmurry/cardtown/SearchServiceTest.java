@@ -0,0 +1,183 @@
+package com.zackmurry.cardtown;
+
+import com.zackmurry.cardtown.exception.BadRequestException;
+import com.zackmurry.cardtown.exception.UserNotFoundException;
+import com.zackmurry.cardtown.model.analytic.AnalyticCreateRequest;
+import com.zackmurry.cardtown.model.analytic.AnalyticUpdateRequest;
+import com.zackmurry.cardtown.model.analytic.ResponseAnalytic;
+import com.zackmurry.cardtown.model.arg.ArgumentCreateRequest;
+import com.zackmurry.cardtown.model.auth.UserModel;
+import com.zackmurry.cardtown.model.card.CardCreateRequest;
+import com.zackmurry.cardtown.model.search.SearchResult;
+import com.zackmurry.cardtown.service.ArgumentService;
+import com.zackmurry.cardtown.service.CardService;
+import com.zackmurry.cardtown.service.SearchService;
+import com.zackmurry.cardtown.service.UserService;
+import com.zackmurry.cardtown.util.EncryptionUtils;
+import com.zackmurry.cardtown.util.InvertedIndex;
+import com.zackmurry.cardtown.util.LibraryIndexCache;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest
+public class SearchServiceTest {
+
+    @Autowired
+    private SearchService searchService;
+
+    @Autowired
+    private CardService cardService;
+
+    @Autowired
+    private ArgumentService argumentService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private EncryptionUtils encryptionUtils;
+
+    @Autowired
+    private LibraryIndexCache libraryIndexCache;
+
+    private String testEmail;
+
+    private UserModel userModel;
+
+    private UsernamePasswordAuthenticationToken token;
+
+    @BeforeAll
+    public void createTestUser() throws UserNotFoundException {
+        testEmail = RandomStringUtils.randomAlphanumeric(12);
+
+        // try again if this user already exists
+        if (userService.accountExists(testEmail)) {
+            createTestUser();
+        } else {
+            final String testPassword = RandomStringUtils.randomAlphanumeric(12);
+            assertDoesNotThrow(() -> userService.createUserAccount(testEmail, "__TEST__", "__USER__", testPassword));
+            userModel = userService.getUserModelByEmail(
+                    testEmail,
+                    encryptionUtils.getSHA256Hash(testPassword.getBytes(StandardCharsets.UTF_8))
+            ).orElseThrow(UserNotFoundException::new);
+            token = new UsernamePasswordAuthenticationToken(userModel, null, userModel.getAuthorities());
+            SecurityContextHolder.getContext().setAuthentication(token);
+        }
+    }
+
+    @AfterAll
+    public void deleteTestUser() {
+        assertDoesNotThrow(() -> userService.deleteUserAccount(testEmail));
+    }
+
+    @BeforeEach
+    public void setAuthentication() {
+        SecurityContextHolder.getContext().setAuthentication(token);
+    }
+
+    private Set<String> search(String query) {
+        return searchService.search(query, 50).stream().map(SearchResult::getId).collect(Collectors.toSet());
+    }
+
+    @DisplayName("Test searching cards, arguments, and analytics")
+    @Test
+    public void testSearch() {
+        final String word = RandomStringUtils.randomAlphabetic(20).toLowerCase();
+        final CardCreateRequest card = CardServiceTest.generateMockCard(testEmail);
+        card.setTag("About " + word);
+        final String cardId = cardService.createCard(card);
+        final String argumentId = argumentService.createArgument(new ArgumentCreateRequest("The " + word + " argument"));
+        final ResponseAnalytic analytic = argumentService.addAnalyticToArgument(argumentId, new AnalyticCreateRequest("Extend " + word));
+
+        // The first search builds the index from the database
+        libraryIndexCache.invalidate(LibraryIndexCache.scopeOf(userModel));
+        final List<SearchResult> results = searchService.search(word, 50);
+        assertEquals(Set.of(cardId, argumentId, analytic.getId()), results.stream().map(SearchResult::getId).collect(Collectors.toSet()));
+        final SearchResult analyticResult = results.stream().filter(result -> result.getId().equals(analytic.getId())).findFirst().orElseThrow();
+        assertEquals(InvertedIndex.DocumentType.ANALYTIC, analyticResult.getType());
+        assertEquals(argumentId, analyticResult.getArgumentId());
+        assertEquals(Set.of(cardId), search(word.substring(0, 10) + "* about"));
+        assertTrue(libraryIndexCache.get(LibraryIndexCache.scopeOf(userModel)).isPresent());
+        assertThrows(BadRequestException.class, () -> searchService.search(word, 0));
+
+        // Later changes update the cached index
+        final String otherWord = RandomStringUtils.randomAlphabetic(20).toLowerCase();
+        final CardCreateRequest edited = CardServiceTest.generateMockCard(testEmail);
+        edited.setBodyText("Now about " + otherWord);
+        cardService.updateCardById(cardId, edited);
+        argumentService.updateAnalytic(analytic.getId(), new AnalyticUpdateRequest("Extend " + otherWord));
+        assertEquals(Set.of(argumentId), search(word));
+        assertEquals(Set.of(cardId, analytic.getId()), search(otherWord));
+
+        cardService.markCardAsDeletedById(cardId);
+        assertEquals(Set.of(analytic.getId()), search(otherWord), "Deleted cards shouldn't be found");
+        cardService.restoreCardById(cardId);
+        assertEquals(Set.of(cardId, analytic.getId()), search(otherWord));
+
+        argumentService.deleteArgument(argumentId);
+        assertEquals(Set.of(cardId), search(otherWord), "Analytics in deleted arguments shouldn't be found");
+        assertTrue(search(word).isEmpty());
+
+        // A rebuilt index should agree with the updated one
+        libraryIndexCache.invalidate(LibraryIndexCache.scopeOf(userModel));
+        assertEquals(Set.of(cardId), search(otherWord));
+        argumentService.permanentlyDeleteArgumentById(argumentId);
+        cardService.markCardAsDeletedById(cardId);
+        assertTrue(search(otherWord).isEmpty());
+    }
+
+    @DisplayName("Test that concurrent builds of an index are shared")
+    @Test
+    public void testConcurrentBuilds() throws Exception {
+        final UUID scope = UUID.randomUUID();
+        final AtomicInteger builds = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Supplier<InvertedIndex> builder = () -> {
+            final LibraryIndexCache.Build build = libraryIndexCache.beginBuild(scope);
+            builds.incrementAndGet();
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            final InvertedIndex index = new InvertedIndex();
+            libraryIndexCache.put(build, index);
+            return index;
+        };
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<InvertedIndex> first = executor.submit(() -> libraryIndexCache.getOrBuild(scope, builder));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            final Future<InvertedIndex> second = executor.submit(() -> libraryIndexCache.getOrBuild(scope, builder));
+            release.countDown();
+            assertSame(first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS));
+            assertEquals(1, builds.get(), "A search during a build should wait for it instead of building again");
+        } finally {
+            executor.shutdownNow();
+            libraryIndexCache.invalidate(scope);
+        }
+    }
+
+}
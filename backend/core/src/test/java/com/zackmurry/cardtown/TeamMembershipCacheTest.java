@@ -0,0 +1,58 @@
+package com.zackmurry.cardtown;
+
+import com.zackmurry.cardtown.util.TeamMembershipCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TeamMembershipCacheTest {
+
+    @DisplayName("Test that team ids read before a change aren't cached")
+    @Test
+    public void testStaleLoads() {
+        final TeamMembershipCache cache = new TeamMembershipCache(new SimpleMeterRegistry(), 300, 100);
+        final UUID userId = UUID.randomUUID();
+        final UUID teamId = UUID.randomUUID();
+        assertNull(cache.get(userId));
+
+        long invalidationCount = cache.getInvalidationCount();
+        cache.putLoaded(userId, teamId, invalidationCount);
+        assertEquals(teamId, cache.get(userId));
+
+        // The team is deleted while another request is reading the user's team from the database
+        cache.invalidateTeam(teamId);
+        assertNull(cache.get(userId));
+        invalidationCount = cache.getInvalidationCount();
+        cache.invalidateTeam(teamId);
+        cache.putLoaded(userId, teamId, invalidationCount);
+        assertNull(cache.get(userId), "A team id read before the team was deleted shouldn't be cached");
+
+        cache.set(userId, TeamMembershipCache.NO_TEAM);
+        assertEquals(TeamMembershipCache.NO_TEAM, cache.get(userId));
+    }
+
+    @DisplayName("Test expiry and the size bound")
+    @Test
+    public void testBounds() {
+        final TeamMembershipCache expired = new TeamMembershipCache(new SimpleMeterRegistry(), 0, 100);
+        final UUID userId = UUID.randomUUID();
+        expired.putLoaded(userId, UUID.randomUUID(), expired.getInvalidationCount());
+        assertNull(expired.get(userId), "Entries should expire after the ttl");
+
+        final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        final TeamMembershipCache small = new TeamMembershipCache(meterRegistry, 300, 10);
+        for (int i = 0; i < 50; i++) {
+            small.putLoaded(UUID.randomUUID(), TeamMembershipCache.NO_TEAM, small.getInvalidationCount());
+            small.set(UUID.randomUUID(), UUID.randomUUID());
+        }
+        assertTrue(meterRegistry.get("cache.size").tag("cache", "team-membership").gauge().value() <= 10);
+        final UUID last = UUID.randomUUID();
+        small.putLoaded(last, TeamMembershipCache.NO_TEAM, small.getInvalidationCount());
+        assertEquals(TeamMembershipCache.NO_TEAM, small.get(last));
+    }
+
+}
@@ -3,7 +3,9 @@ package com.zackmurry.cardtown;
 import com.zackmurry.cardtown.exception.UserNotFoundException;
 import com.zackmurry.cardtown.model.auth.UserModel;
 import com.zackmurry.cardtown.model.team.TeamCreateRequest;
+import com.zackmurry.cardtown.model.team.TeamCreationResponse;
 import com.zackmurry.cardtown.model.team.TeamEntity;
+import com.zackmurry.cardtown.model.team.TeamJoinRequest;
 import com.zackmurry.cardtown.service.TeamService;
 import com.zackmurry.cardtown.service.UserService;
 import com.zackmurry.cardtown.util.EncryptionUtils;
@@ -15,6 +17,7 @@ import org.springframework.security.authentication.UsernamePasswordAuthenticatio
 import org.springframework.security.core.context.SecurityContextHolder;
 
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -97,4 +100,51 @@ public class TeamServiceTest {
         }
     }
 
+    @DisplayName("Test team membership checks")
+    @Test
+    public void testUsersInSameTeam() throws UserNotFoundException {
+        // Create a second user to join the test user's team
+        String memberEmail = RandomStringUtils.randomAlphanumeric(12, 40);
+        while (userService.accountExists(memberEmail)) {
+            memberEmail = RandomStringUtils.randomAlphanumeric(12, 40);
+        }
+        final String memberPassword = RandomStringUtils.randomAlphanumeric(12, 20);
+        final String memberEmailCopy = memberEmail;
+        assertDoesNotThrow(() -> userService.createUserAccount(memberEmailCopy, "__TEST__", "__USER__", memberPassword));
+        final UserModel memberModel = userService.getUserModelByEmail(
+                memberEmail,
+                encryptionUtils.getSHA256Hash(memberPassword.getBytes(StandardCharsets.UTF_8))
+        ).orElseThrow(UserNotFoundException::new);
+        final UUID ownerId = ((UserModel) token.getPrincipal()).getId();
+        final UUID memberId = memberModel.getId();
+
+        assertTrue(teamService.usersInSameTeam(ownerId, ownerId));
+        assertFalse(teamService.usersInSameTeam(ownerId, memberId));
+        assertFalse(teamService.usersInSameTeam(ownerId, List.of(ownerId, memberId)));
+
+        final TeamCreationResponse teamCreationResponse = teamService.createTeam(new TeamCreateRequest(RandomStringUtils.randomAlphanumeric(1, 128)));
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(memberModel, null, memberModel.getAuthorities()));
+        teamService.joinTeam(new TeamJoinRequest(teamCreationResponse.getId(), teamCreationResponse.getSecretKey()));
+        assertTrue(teamService.usersInSameTeam(ownerId, memberId), "Users should be in the same team after joining");
+        assertTrue(teamService.usersInSameTeam(memberId, ownerId));
+        assertTrue(teamService.usersInSameTeam(ownerId, List.of(ownerId, memberId)));
+        assertFalse(teamService.usersInSameTeam(ownerId, List.of(memberId, UUID.randomUUID())));
+        assertEquals(teamService.getTeamIdByUserId(ownerId), teamService.getTeamIdByUserId(memberId));
+
+        teamService.leaveTeam();
+        assertFalse(teamService.usersInSameTeam(ownerId, memberId), "Users should not be in the same team after leaving");
+        assertTrue(teamService.getTeamIdByUserId(memberId).isEmpty());
+
+        teamService.joinTeam(new TeamJoinRequest(teamCreationResponse.getId(), teamCreationResponse.getSecretKey()));
+        assertTrue(teamService.usersInSameTeam(ownerId, List.of(memberId)));
+        token = userService.regenerateTokenDetails(token, testPassword);
+        SecurityContextHolder.getContext().setAuthentication(token);
+        teamService.deleteTeam();
+        assertFalse(teamService.usersInSameTeam(ownerId, memberId), "Users should not be in the same team after it is deleted");
+        assertFalse(teamService.usersInSameTeam(memberId, List.of(ownerId)));
+        assertTrue(teamService.getTeamIdByUserId(ownerId).isEmpty());
+
+        userService.deleteUserAccount(memberEmail);
+    }
+
 }
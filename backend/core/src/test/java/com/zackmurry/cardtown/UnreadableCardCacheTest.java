@@ -0,0 +1,53 @@
+package com.zackmurry.cardtown;
+
+import com.zackmurry.cardtown.util.UnreadableCardCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UnreadableCardCacheTest {
+
+    @DisplayName("Test that cards are recorded per key")
+    @Test
+    public void testScopes() {
+        final UnreadableCardCache cache = new UnreadableCardCache(new SimpleMeterRegistry(), 300, 100, 100);
+        final UUID first = UUID.randomUUID();
+        final UUID second = UUID.randomUUID();
+        assertTrue(cache.get("a").isEmpty());
+
+        cache.addAll("a", List.of(first));
+        cache.addAll("a", List.of(second));
+        assertEquals(Set.of(first, second), cache.get("a"));
+        assertTrue(cache.get("b").isEmpty(), "Cards unreadable with one key might be readable with another");
+    }
+
+    @DisplayName("Test expiry and the size bounds")
+    @Test
+    public void testBounds() {
+        final UnreadableCardCache expired = new UnreadableCardCache(new SimpleMeterRegistry(), 0, 100, 100);
+        expired.addAll("a", List.of(UUID.randomUUID()));
+        assertTrue(expired.get("a").isEmpty(), "Cards should be retried after the ttl");
+
+        final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        final UnreadableCardCache small = new UnreadableCardCache(meterRegistry, 300, 10, 100);
+        for (int i = 0; i < 50; i++) {
+            small.addAll(String.valueOf(i), List.of(UUID.randomUUID()));
+        }
+        assertTrue(meterRegistry.get("cache.size").tag("cache", "unreadable-card").gauge().value() <= 10);
+        final UUID last = UUID.randomUUID();
+        small.addAll("last", List.of(last));
+        assertEquals(Set.of(last), small.get("last"));
+
+        final UnreadableCardCache capped = new UnreadableCardCache(new SimpleMeterRegistry(), 300, 100, 3);
+        capped.addAll("a", List.of(UUID.randomUUID(), UUID.randomUUID()));
+        capped.addAll("a", List.of(UUID.randomUUID(), UUID.randomUUID()));
+        assertEquals(3, capped.get("a").size(), "Each scope should keep a bounded number of cards");
+    }
+
+}
@@ -0,0 +1,25 @@
+package com.zackmurry.cardtown.dao.action;
+
+import com.zackmurry.cardtown.QueryPlanTest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ActionQueryPlanTest extends QueryPlanTest {
+
+    @Override
+    protected Map<String, Object[]> getQueries() {
+        final Map<String, Object[]> queries = new LinkedHashMap<>();
+        queries.put(ActionDataAccessService.ACTIONS_BY_TEAM_SQL, new Object[] { ID });
+        queries.put(ActionDataAccessService.ACTIONS_BY_USER_SQL, new Object[] { ID });
+        queries.put(ActionDataAccessService.RECENT_ACTIONS_BY_TEAM_SQL, new Object[] { 10, ID, 10 });
+        queries.put(ActionDataAccessService.RECENT_ACTIONS_BY_TEAM_AFTER_SQL, new Object[] { 0L, ID, 10, ID, 10 });
+        queries.put(ActionDataAccessService.RECENT_ACTIONS_BY_USER_SQL, new Object[] { ID, 10 });
+        queries.put(ActionDataAccessService.RECENT_ACTIONS_BY_USER_AFTER_SQL, new Object[] { ID, 0L, ID, 10 });
+        // Deleting a card or an argument looks up the actions that reference it through their foreign keys
+        queries.put("SELECT id FROM actions WHERE card_id = ?", new Object[] { ID });
+        queries.put("SELECT id FROM actions WHERE argument_id = ?", new Object[] { ID });
+        return queries;
+    }
+
+}
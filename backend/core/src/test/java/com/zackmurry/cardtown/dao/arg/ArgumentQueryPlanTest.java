@@ -0,0 +1,40 @@
+package com.zackmurry.cardtown.dao.arg;
+
+import com.zackmurry.cardtown.QueryPlanTest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ArgumentQueryPlanTest extends QueryPlanTest {
+
+    @Override
+    protected Map<String, Object[]> getQueries() {
+        final Map<String, Object[]> queries = new LinkedHashMap<>();
+        queries.put(ArgumentDataAccessService.CARDS_IN_ARGUMENT_SQL, new Object[] { ID });
+        queries.put(ArgumentDataAccessService.ITEMS_IN_ARGUMENT_SQL, new Object[] { ID, ID });
+        queries.put(ArgumentDataAccessService.ARGUMENTS_BY_USER_SQL, new Object[] { ID });
+        queries.put(ArgumentDataAccessService.ARGUMENTS_BY_USER_INCLUDING_DELETED_SQL, new Object[] { ID });
+        queries.put(ArgumentDataAccessService.NUMBER_OF_ARGUMENTS_BY_USER_SQL, new Object[] { ID });
+        queries.put(ArgumentDataAccessService.UPDATE_CARD_SORT_KEY_SQL, new Object[] { 1L, ID, ID, 1L });
+        queries.put(ArgumentDataAccessService.RENUMBER_ITEMS_IN_ARGUMENT_SQL, new Object[] { ID, ID, 1L, ID });
+        queries.put(ArgumentDataAccessService.NUMBER_OF_CARDS_IN_ARGUMENT_SQL, new Object[] { ID });
+        queries.put(ArgumentDataAccessService.NUMBER_OF_CARDS_IN_ARGUMENTS_SQL, new Object[] { IDS });
+        queries.put(ArgumentDataAccessService.NUMBER_OF_ARGUMENT_CARD_ENTITIES_BY_CARD_IDS_SQL, new Object[] { IDS });
+        queries.put(ArgumentDataAccessService.REORDER_CARDS_IN_ARGUMENT_SQL, new Object[] { IDS, new Long[] { 1L, 2L }, new Long[] { 3L, 4L }, ID });
+        queries.put(ArgumentDataAccessService.REORDER_ANALYTICS_IN_ARGUMENT_SQL, new Object[] { IDS, new Long[] { 1L, 2L }, ID });
+        queries.put(ArgumentDataAccessService.ARGUMENT_VERSION_BY_ID_SQL, new Object[] { ID });
+        queries.put(ArgumentDataAccessService.ARGUMENT_CARD_ENTITIES_BY_CARD_ID_SQL, new Object[] { ID });
+        queries.put(ArgumentDataAccessService.ARGUMENT_CARD_JOIN_ENTITIES_BY_CARD_ID_SQL, new Object[] { ID });
+        queries.put(ArgumentDataAccessService.NUMBER_OF_ARGUMENTS_BY_TEAM_SQL, new Object[] { ID });
+        queries.put(ArgumentDataAccessService.ARGUMENTS_BY_TEAM_SQL, new Object[] { ID });
+        queries.put(ArgumentDataAccessService.ARGUMENTS_BY_TEAM_INCLUDING_DELETED_SQL, new Object[] { ID });
+        queries.put(ArgumentDataAccessService.ARGUMENT_PREVIEWS_BY_USER_SQL, new Object[] { ID });
+        queries.put(ArgumentDataAccessService.ARGUMENT_PREVIEWS_BY_USER_INCLUDING_DELETED_SQL, new Object[] { ID });
+        queries.put(ArgumentDataAccessService.ARGUMENT_PREVIEWS_BY_TEAM_SQL, new Object[] { ID });
+        queries.put(ArgumentDataAccessService.ARGUMENT_PREVIEWS_BY_TEAM_INCLUDING_DELETED_SQL, new Object[] { ID });
+        queries.put(ArgumentDataAccessService.ARGUMENTS_WITH_ITEMS_BY_USER_AFTER_SQL, new Object[] { ID, ID, 100 });
+        queries.put(ArgumentDataAccessService.ARGUMENTS_WITH_ITEMS_BY_TEAM_AFTER_SQL, new Object[] { ID, ID, 100 });
+        return queries;
+    }
+
+}
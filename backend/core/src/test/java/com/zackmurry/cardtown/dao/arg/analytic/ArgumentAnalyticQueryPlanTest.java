@@ -0,0 +1,20 @@
+package com.zackmurry.cardtown.dao.arg.analytic;
+
+import com.zackmurry.cardtown.QueryPlanTest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ArgumentAnalyticQueryPlanTest extends QueryPlanTest {
+
+    @Override
+    protected Map<String, Object[]> getQueries() {
+        final Map<String, Object[]> queries = new LinkedHashMap<>();
+        queries.put(ArgumentAnalyticDataAccessService.ANALYTICS_IN_ARGUMENT_SQL, new Object[] { ID });
+        queries.put(ArgumentAnalyticDataAccessService.NUMBER_OF_ANALYTICS_IN_ARGUMENT_SQL, new Object[] { ID });
+        queries.put(ArgumentAnalyticDataAccessService.ANALYTICS_BY_USER_SQL, new Object[] { ID });
+        queries.put(ArgumentAnalyticDataAccessService.ANALYTICS_BY_TEAM_SQL, new Object[] { ID });
+        return queries;
+    }
+
+}
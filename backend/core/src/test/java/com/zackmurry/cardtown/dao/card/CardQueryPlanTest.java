@@ -0,0 +1,45 @@
+package com.zackmurry.cardtown.dao.card;
+
+import com.zackmurry.cardtown.QueryPlanTest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class CardQueryPlanTest extends QueryPlanTest {
+
+    @Override
+    protected Map<String, Object[]> getQueries() {
+        final Map<String, Object[]> queries = new LinkedHashMap<>();
+        queries.put(CardDataAccessService.CARDS_BY_IDS_SQL, new Object[] { IDS });
+        queries.put(CardDataAccessService.CARDS_BY_USER_SQL, new Object[] { ID });
+        queries.put(CardDataAccessService.CARDS_BY_USER_INCLUDING_DELETED_SQL, new Object[] { ID });
+        queries.put(CardDataAccessService.CARD_PREVIEWS_BY_USER_SQL, new Object[] { ID });
+        queries.put(CardDataAccessService.CARD_PREVIEWS_BY_IDS_SQL, new Object[] { IDS });
+        queries.put(CardDataAccessService.CARDS_BY_USER_STREAM_SQL, new Object[] { ID });
+        queries.put(CardDataAccessService.CARDS_BY_USER_STREAM_INCLUDING_DELETED_SQL, new Object[] { ID });
+        queries.put(CardDataAccessService.CARDS_BY_OWNERS_STREAM_SQL, new Object[] { IDS });
+        queries.put(CardDataAccessService.CARDS_BY_OWNERS_STREAM_INCLUDING_DELETED_SQL, new Object[] { IDS });
+        queries.put(CardDataAccessService.CARDS_BY_USER_AFTER_SQL, new Object[] { ID, ID, 100 });
+        queries.put(CardDataAccessService.CARDS_BY_TEAM_AFTER_SQL, new Object[] { ID, ID, 100 });
+        queries.put(CardDataAccessService.CARD_PREVIEWS_BY_USER_STREAM_SQL, new Object[] { ID });
+        queries.put(CardDataAccessService.CARD_PREVIEWS_BY_USER_STREAM_INCLUDING_DELETED_SQL, new Object[] { ID });
+        queries.put(CardDataAccessService.CARD_PREVIEWS_BY_TEAM_STREAM_SQL, new Object[] { ID });
+        queries.put(CardDataAccessService.CARD_PREVIEWS_BY_TEAM_STREAM_INCLUDING_DELETED_SQL, new Object[] { ID });
+        queries.put(CardDataAccessService.CARDS_MODIFIED_SINCE_BY_USER_SQL, new Object[] { ID, 0L });
+        queries.put(CardDataAccessService.CARDS_MODIFIED_SINCE_BY_TEAM_SQL, new Object[] { ID, 0L });
+        queries.put(CardDataAccessService.CARD_IDS_DELETED_SINCE_BY_USER_SQL, new Object[] { ID, 0L });
+        queries.put(CardDataAccessService.CARD_IDS_DELETED_SINCE_BY_TEAM_SQL, new Object[] { ID, 0L });
+        queries.put(CardDataAccessService.NUMBER_OF_CARDS_BY_USER_SQL, new Object[] { ID });
+        queries.put(CardDataAccessService.CARDS_BY_TEAM_SQL, new Object[] { ID });
+        queries.put(CardDataAccessService.CARDS_BY_TEAM_INCLUDING_DELETED_SQL, new Object[] { ID });
+        queries.put(CardDataAccessService.LEGACY_CARD_CIPHERS_BY_USER_SQL, new Object[] { ID, new byte[] { 1 }, ID, 100 });
+        queries.put(CardDataAccessService.LEGACY_CARD_CIPHERS_BY_TEAM_SQL, new Object[] { ID, new byte[] { 1 }, ID, 100 });
+        queries.put(CardDataAccessService.SET_CARD_TOKENS_SQL, new Object[] { ID, 0L, new Long[] { 1L, 2L }, new Long[] { 1L, 2L }, new Integer[] { 1, 2 } });
+        queries.put(CardDataAccessService.UNINDEXED_CARD_PREVIEWS_BY_USER_SQL, new Object[] { ID, ID, IDS, 100 });
+        queries.put(CardDataAccessService.UNINDEXED_CARD_PREVIEWS_BY_TEAM_SQL, new Object[] { ID, ID, IDS, 100 });
+        queries.put(CardDataAccessService.SEARCH_CARDS_BY_USER_SQL, new Object[] { new Long[] { 1L, 2L }, ID, 50 });
+        queries.put(CardDataAccessService.SEARCH_CARDS_BY_TEAM_SQL, new Object[] { new Long[] { 1L, 2L }, ID, 50 });
+        return queries;
+    }
+
+}
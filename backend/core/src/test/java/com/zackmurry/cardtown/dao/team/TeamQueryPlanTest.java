@@ -0,0 +1,19 @@
+package com.zackmurry.cardtown.dao.team;
+
+import com.zackmurry.cardtown.QueryPlanTest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class TeamQueryPlanTest extends QueryPlanTest {
+
+    @Override
+    protected Map<String, Object[]> getQueries() {
+        final Map<String, Object[]> queries = new LinkedHashMap<>();
+        queries.put(TeamDataAccessService.TEAM_ID_BY_USER_SQL, new Object[] { ID });
+        queries.put(TeamDataAccessService.TEAM_IDS_BY_USERS_SQL, new Object[] { IDS });
+        queries.put(TeamDataAccessService.NUMBER_OF_MEMBERS_SQL, new Object[] { ID });
+        return queries;
+    }
+
+}
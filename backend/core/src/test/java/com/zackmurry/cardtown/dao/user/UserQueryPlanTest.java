@@ -0,0 +1,19 @@
+package com.zackmurry.cardtown.dao.user;
+
+import com.zackmurry.cardtown.QueryPlanTest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class UserQueryPlanTest extends QueryPlanTest {
+
+    @Override
+    protected Map<String, Object[]> getQueries() {
+        final Map<String, Object[]> queries = new LinkedHashMap<>();
+        queries.put(UserDataAccessService.USER_ID_BY_EMAIL_SQL, new Object[] { "test@example.com" });
+        queries.put(UserDataAccessService.USERS_BY_IDS_SQL, new Object[] { IDS });
+        queries.put(UserDataAccessService.USERS_BY_TEAM_SQL, new Object[] { ID });
+        return queries;
+    }
+
+}
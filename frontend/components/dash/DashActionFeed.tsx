@@ -10,7 +10,6 @@ interface Props {
 
 const DashActionFeed: FC<Props> = ({ actions: initialActions }) => {
   const [actions, setActions] = useState<ResponseAction[]>(initialActions)
-  const [numPagesLoaded, setNumPagesLoaded] = useState(1)
   const [moreActionsAvailable, setMoreActionsAvailable] = useState(() => initialActions?.length >= 10)
   const [isLoading, setLoading] = useState(false)
   const { jwt } = useContext(userContext)
@@ -21,7 +20,8 @@ const DashActionFeed: FC<Props> = ({ actions: initialActions }) => {
 
   const handleLoadMore = async () => {
     setLoading(true)
-    const response = await fetch(`/api/v1/actions/recent?page=${numPagesLoaded}`, {
+    const cursor = actions[actions.length - 1]?.cursor
+    const response = await fetch(`/api/v1/actions/recent${cursor ? `?cursor=${cursor}` : ''}`, {
       headers: { Authorization: `Bearer ${jwt}` }
     })
     setLoading(false)
@@ -31,13 +31,12 @@ const DashActionFeed: FC<Props> = ({ actions: initialActions }) => {
         setMoreActionsAvailable(false)
       }
       setActions([...actions, ...newActions])
-      setNumPagesLoaded(numPagesLoaded + 1)
     }
   }
 
   return (
     <Box p='3%' w={width}>
-      {actions && actions.map(action => <DashActionItem action={action} key={action.time} />)}
+      {actions && actions.map(action => <DashActionItem action={action} key={action.cursor} />)}
       {moreActionsAvailable ? (
         <Flex justifyContent='center' mt='50px'>
           <Button
@@ -283,6 +283,17 @@ const DashActionItem: FC<Props> = ({ action }) => {
       </DashActionArgumentItem>
     )
   }
+  if (action.actionType === 'IMPORT_CARDS') {
+    return (
+      <DashActionUserItem action={action}>
+        <Text fontSize={14}>
+          <b>{`${subjectName} `}</b>
+          imported cards
+          {timeAgo}
+        </Text>
+      </DashActionUserItem>
+    )
+  }
   // actionType is implicitly 'JOIN_TEAM'
   return (
     <DashActionUserItem action={action}>
@@ -92,19 +92,27 @@ const ViewArgument: NextPage<Props> = ({ fetchingErrorText, argument: initialArg
       }
     })
 
-    setArgument({ ...argument, cards: newCards, analytics: newAnalytics })
+    // A successful reorder always increments the version, so the next drag doesn't have to wait for this one
+    setArgument({ ...argument, cards: newCards, analytics: newAnalytics, version: argument.version + 1 })
 
-    // todo throttle
     const response = await fetch(`/api/v1/arguments/id/${encodeURIComponent(argument.id)}/items`, {
-      method: 'PATCH',
+      method: 'PUT',
       headers: { Authorization: `Bearer ${jwt}`, 'Content-Type': 'application/json' },
       body: JSON.stringify({
-        oldIndex: result.source.index,
-        newIndex: result.destination.index
+        version: argument.version,
+        itemIds: newItems.map(i => i.id)
       })
     })
     // todo show minor success alert if worked
-    if (!response.ok) {
+    if (response.status === 409) {
+      setErrorMessage('This argument was changed somewhere else, so it has been reloaded. Please try again')
+      const argumentResponse = await fetch(`/api/v1/arguments/id/${encodeURIComponent(argument.id)}`, {
+        headers: { Authorization: `Bearer ${jwt}` }
+      })
+      if (argumentResponse.ok) {
+        setArgument(await argumentResponse.json())
+      }
+    } else if (!response.ok) {
       setErrorMessage(`Unknown error occurred while reordering items. Status code: ${response.status}`)
     }
   }
@@ -126,7 +134,7 @@ const ViewArgument: NextPage<Props> = ({ fetchingErrorText, argument: initialArg
         newCards[i].position--
       }
     }
-    setArgument({ ...argument, analytics: newAnalytics, cards: newCards })
+    setArgument({ ...argument, analytics: newAnalytics, cards: newCards, version: argument.version + 1 })
   }
 
   const handleUpdateAnalytic = (position: number, newValue: ResponseAnalytic) => {
@@ -141,11 +149,11 @@ const ViewArgument: NextPage<Props> = ({ fetchingErrorText, argument: initialArg
   }
 
   const handleCreateAnalytic = (newAnalytic: ResponseAnalytic) => {
-    setArgument({ ...argument, analytics: [...argument.analytics, newAnalytic] })
+    setArgument({ ...argument, analytics: [...argument.analytics, newAnalytic], version: argument.version + 1 })
   }
 
   const handleAddCard = (newCard: ResponseArgumentCard) => {
-    setArgument({ ...argument, cards: [...argument.cards, newCard] })
+    setArgument({ ...argument, cards: [...argument.cards, newCard], version: argument.version + 1 })
   }
 
   const handleRemoveCard = (position: number) => {
@@ -161,7 +169,7 @@ const ViewArgument: NextPage<Props> = ({ fetchingErrorText, argument: initialArg
         newCards[i].position--
       }
     }
-    setArgument({ ...argument, cards: newCards, analytics: newAnalytics })
+    setArgument({ ...argument, cards: newCards, analytics: newAnalytics, version: argument.version + 1 })
   }
 
   return (
@@ -28,6 +28,7 @@ export type ActionType =
   | 'ADD_CARD_TO_ARGUMENT'
   | 'REMOVE_CARD_FROM_ARGUMENT'
   | 'JOIN_TEAM'
+  | 'IMPORT_CARDS'
 
 export interface ResponseAction {
   actionType: ActionType
@@ -36,4 +37,5 @@ export interface ResponseAction {
   user?: ResponseUserDetails
   card?: ActionCardPreview
   argument?: ActionArgumentPreview
+  cursor: string
 }
@@ -28,4 +28,5 @@ export interface ResponseArgument {
   cards: ResponseArgumentCard[]
   analytics: ResponseAnalytic[]
   deleted: boolean
+  version: number
 }